@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for {@link ExoPlayerImplInternal}.
+ */
+public class ExoPlayerImplInternalTest extends TestCase {
+
+  public void testWakeupDelayWithoutRenderersIsMaxRenderingInterval() {
+    assertEquals(ExoPlayerImplInternal.MAX_RENDERING_INTERVAL_MS,
+        ExoPlayerImplInternal.getWakeupDelayMs(new ArrayList<TrackRenderer>(), 0, 0));
+  }
+
+  public void testWakeupDelayIsEarliestRendererDeadline() {
+    List<TrackRenderer> renderers = Arrays.<TrackRenderer>asList(
+        new FakeTrackRenderer(TrackRenderer.DEFAULT_WAKEUP_DELAY_US),
+        new FakeTrackRenderer(4500),
+        new FakeTrackRenderer(50000));
+    assertEquals(4, ExoPlayerImplInternal.getWakeupDelayMs(renderers, 0, 0));
+  }
+
+  public void testWakeupDelayIsCappedAtMaxRenderingInterval() {
+    List<TrackRenderer> renderers = Arrays.<TrackRenderer>asList(
+        new FakeTrackRenderer(ExoPlayerImplInternal.MAX_RENDERING_INTERVAL_MS * 2000L));
+    assertEquals(ExoPlayerImplInternal.MAX_RENDERING_INTERVAL_MS,
+        ExoPlayerImplInternal.getWakeupDelayMs(renderers, 0, 0));
+  }
+
+  public void testWakeupDelayForLateRendererIsZero() {
+    List<TrackRenderer> renderers = Arrays.<TrackRenderer>asList(
+        new FakeTrackRenderer(TrackRenderer.DEFAULT_WAKEUP_DELAY_US),
+        new FakeTrackRenderer(-20000));
+    assertEquals(0, ExoPlayerImplInternal.getWakeupDelayMs(renderers, 0, 0));
+  }
+
+  public void testRequestWakeupRunsWakeupListener() {
+    final int[] wakeupCount = new int[1];
+    FakeTrackRenderer renderer = new FakeTrackRenderer(TrackRenderer.DEFAULT_WAKEUP_DELAY_US);
+    // Requesting a wakeup without a listener does nothing.
+    renderer.requestWakeup();
+    renderer.setWakeupListener(new Runnable() {
+      @Override
+      public void run() {
+        wakeupCount[0]++;
+      }
+    });
+    renderer.requestWakeup();
+    assertEquals(1, wakeupCount[0]);
+  }
+
+  private static final class FakeTrackRenderer extends TrackRenderer {
+
+    private final long wakeupDelayUs;
+
+    public FakeTrackRenderer(long wakeupDelayUs) {
+      this.wakeupDelayUs = wakeupDelayUs;
+    }
+
+    @Override
+    protected long getWakeupDelayUs(long positionUs, long elapsedRealtimeUs) {
+      return wakeupDelayUs;
+    }
+
+    @Override
+    protected boolean doPrepare(long positionUs) {
+      return true;
+    }
+
+    @Override
+    protected int getTrackCount() {
+      return 0;
+    }
+
+    @Override
+    protected MediaFormat getFormat(int track) {
+      return null;
+    }
+
+    @Override
+    protected boolean isEnded() {
+      return false;
+    }
+
+    @Override
+    protected boolean isReady() {
+      return true;
+    }
+
+    @Override
+    protected void doSomeWork(long positionUs, long elapsedRealtimeUs) {
+      // Do nothing.
+    }
+
+    @Override
+    protected void maybeThrowError() {
+      // Do nothing.
+    }
+
+    @Override
+    protected long getDurationUs() {
+      return TrackRenderer.UNKNOWN_TIME_US;
+    }
+
+    @Override
+    protected long getBufferedPositionUs() {
+      return TrackRenderer.END_OF_TRACK_US;
+    }
+
+    @Override
+    protected void seekTo(long positionUs) {
+      // Do nothing.
+    }
+
+  }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link PlaybackLoopProfiler}.
+ */
+public class PlaybackLoopProfilerTest extends TestCase {
+
+  public void testProfileSummarizesInterval() {
+    PlaybackLoopProfiler profiler = new PlaybackLoopProfiler(2, 1000);
+    profiler.onIterationStarted(0);
+    profiler.onRendererWorkDone(0, 300);
+    profiler.onRendererWorkDone(1, 40);
+    profiler.onIterationStarted(PlaybackLoopProfile.MISSED_DEADLINE_THRESHOLD_US + 1);
+    profiler.onRendererWorkDone(0, 500);
+
+    PlaybackLoopProfile profile = profiler.createProfile(2000);
+    assertEquals(1000, profile.startTimeMs);
+    assertEquals(2000, profile.endTimeMs);
+    assertEquals(2, profile.iterationCount);
+    assertEquals(1, profile.missedDeadlineCount);
+    assertEquals(2, profile.lateness.getCount());
+    assertEquals(2, profile.rendererWorkDurations[0].getCount());
+    assertEquals(500, profile.rendererWorkDurations[0].getMax());
+    assertEquals(1, profile.rendererWorkDurations[1].getCount());
+  }
+
+  public void testCreatingProfileStartsNewInterval() {
+    PlaybackLoopProfiler profiler = new PlaybackLoopProfiler(1, 0);
+    profiler.onIterationStarted(PlaybackLoopProfile.MISSED_DEADLINE_THRESHOLD_US * 2);
+    profiler.onRendererWorkDone(0, 100);
+    PlaybackLoopProfile firstProfile = profiler.createProfile(500);
+
+    PlaybackLoopProfile secondProfile = profiler.createProfile(800);
+    assertEquals(800, profiler.getIntervalStartTimeMs());
+    assertEquals(500, secondProfile.startTimeMs);
+    assertEquals(0, secondProfile.iterationCount);
+    assertEquals(0, secondProfile.missedDeadlineCount);
+    assertEquals(0, secondProfile.rendererWorkDurations[0].getCount());
+    // The first profile must not be affected by the reset.
+    assertEquals(1, firstProfile.rendererWorkDurations[0].getCount());
+  }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.chunk;
+
+import com.omny.android.exoplayer.upstream.BandwidthMeter;
+import com.omny.android.exoplayer.util.MimeTypes;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+
+/**
+ * Unit tests for {@link BufferBasedFormatSelector} and
+ * {@link FormatEvaluator.BufferBasedEvaluator}.
+ */
+public class BufferBasedFormatSelectorTest extends TestCase {
+
+  private static final Format[] FORMATS = new Format[] {
+      newFormat("0", 4000000), newFormat("1", 2000000), newFormat("2", 1000000),
+      newFormat("3", 500000), newFormat("4", 250000)};
+  private static final int LOWEST_INDEX = FORMATS.length - 1;
+
+  private BufferBasedFormatSelector selector;
+
+  @Override
+  protected void setUp() {
+    selector = new BufferBasedFormatSelector(10000, 30000, 0.8f);
+  }
+
+  public void testLowBufferSelectsLowestFormat() {
+    assertEquals(LOWEST_INDEX, selector.selectFormatIndex(FORMATS, null, 0, 0,
+        BandwidthMeter.NO_ESTIMATE));
+    assertEquals(LOWEST_INDEX, selector.selectFormatIndex(FORMATS, null, 0, 9000000,
+        BandwidthMeter.NO_ESTIMATE));
+  }
+
+  public void testTargetBufferSelectsHighestFormat() {
+    assertEquals(0, selector.selectFormatIndex(FORMATS, null, 0, 30000000,
+        BandwidthMeter.NO_ESTIMATE));
+    assertEquals(0, selector.selectFormatIndex(FORMATS, null, 0, 60000000,
+        BandwidthMeter.NO_ESTIMATE));
+  }
+
+  public void testSelectionIsMonotonicInBuffer() {
+    int previousIndex = LOWEST_INDEX;
+    boolean selectedIntermediateFormat = false;
+    for (long bufferedUs = 0; bufferedUs <= 40000000; bufferedUs += 500000) {
+      int index = selector.selectFormatIndex(FORMATS, null, 0, bufferedUs,
+          BandwidthMeter.NO_ESTIMATE);
+      assertTrue(index <= previousIndex);
+      selectedIntermediateFormat |= index > 0 && index < LOWEST_INDEX;
+      previousIndex = index;
+    }
+    assertEquals(0, previousIndex);
+    assertTrue(selectedIntermediateFormat);
+  }
+
+  public void testExcludedFormatsAreNotSelected() {
+    boolean[] excluded = new boolean[] {true, false, false, false, true};
+    assertEquals(3, selector.selectFormatIndex(FORMATS, excluded, 1, 0,
+        BandwidthMeter.NO_ESTIMATE));
+    assertEquals(1, selector.selectFormatIndex(FORMATS, excluded, 1, 60000000,
+        BandwidthMeter.NO_ESTIMATE));
+  }
+
+  public void testSwitchUpIsLimitedBySustainableBitrate() {
+    // 1.5Mbps is sustainable for format 2 only, given the bandwidth fraction.
+    assertEquals(2, selector.selectFormatIndex(FORMATS, null, 3, 60000000, 1500000));
+    // Switching up isn't limited beyond the current format.
+    assertEquals(1, selector.selectFormatIndex(FORMATS, null, 1, 60000000, 1500000));
+    // Switching down is driven by the buffer alone.
+    assertEquals(LOWEST_INDEX, selector.selectFormatIndex(FORMATS, null, 0, 0, 100000000));
+  }
+
+  public void testSelectFormatIndexForBandwidth() {
+    assertEquals(LOWEST_INDEX, selector.selectFormatIndexForBandwidth(FORMATS, null,
+        BandwidthMeter.NO_ESTIMATE));
+    assertEquals(2, selector.selectFormatIndexForBandwidth(FORMATS, null, 1500000));
+    assertEquals(LOWEST_INDEX, selector.selectFormatIndexForBandwidth(FORMATS, null, 1));
+    assertEquals(3, BufferBasedFormatSelector.getFormatIndexForBitrate(FORMATS,
+        new boolean[] {false, false, true, false, false}, 999999));
+  }
+
+  public void testEvaluatorSelectsInitialFormatAndSwitchesWithBuffer() {
+    FakeBandwidthMeter bandwidthMeter = new FakeBandwidthMeter();
+    FormatEvaluator evaluator = new FormatEvaluator.BufferBasedEvaluator(bandwidthMeter, 800000,
+        selector);
+    FormatEvaluator.Evaluation evaluation = new FormatEvaluator.Evaluation();
+
+    evaluator.evaluate(Collections.<MediaChunk>emptyList(), 0, FORMATS, evaluation);
+    assertEquals(FORMATS[3], evaluation.format);
+    assertEquals(Chunk.TRIGGER_INITIAL, evaluation.trigger);
+
+    // Without a buffer, the evaluator switches down.
+    bandwidthMeter.bitrateEstimate = 100000000;
+    evaluator.evaluate(Collections.<MediaChunk>emptyList(), 0, FORMATS, evaluation);
+    assertEquals(FORMATS[LOWEST_INDEX], evaluation.format);
+    assertEquals(Chunk.TRIGGER_ADAPTIVE, evaluation.trigger);
+  }
+
+  private static Format newFormat(String id, int bitrate) {
+    return new Format(id, MimeTypes.VIDEO_MP4, 1280, 720, -1, -1, -1, bitrate);
+  }
+
+  private static final class FakeBandwidthMeter implements BandwidthMeter {
+
+    public long bitrateEstimate = NO_ESTIMATE;
+
+    @Override
+    public long getBitrateEstimate() {
+      return bitrateEstimate;
+    }
+
+    @Override
+    public void onTransferStart() {
+      // Do nothing.
+    }
+
+    @Override
+    public void onBytesTransferred(int bytesTransferred) {
+      // Do nothing.
+    }
+
+    @Override
+    public void onTransferEnd() {
+      // Do nothing.
+    }
+
+  }
+
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.chunk;
+
+import com.omny.android.exoplayer.C;
+import com.omny.android.exoplayer.upstream.DataSource;
+import com.omny.android.exoplayer.upstream.DataSpec;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unit tests for {@link ChunkPrefetcher}.
+ */
+public class ChunkPrefetcherTest extends TestCase {
+
+  private static final int TIMEOUT_MS = 5000;
+
+  private byte[] data;
+
+  @Override
+  protected void setUp() {
+    data = new byte[100];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+  }
+
+  public void testPrefetchedDataIsReadFromMemory() throws Exception {
+    ChunkPrefetcher prefetcher = new ChunkPrefetcher(
+        new DataSource[] {new TestDataSource(data, null), new TestDataSource(data, null)}, 1000);
+    prefetcher.setPrefetchTargets(Arrays.asList(newDataSpec(20, 10), newDataSpec(30, 10)));
+    TestDataSource upstream = new TestDataSource(data, null);
+    DataSource dataSource = prefetcher.createDataSource(upstream);
+
+    assertReadsRange(dataSource, 30, 10);
+    assertReadsRange(dataSource, 20, 10);
+    assertEquals(0, upstream.openCount);
+    assertEquals(2, prefetcher.getHitCount());
+    assertEquals(0, prefetcher.getBufferedBytes());
+  }
+
+  public void testDataNotPrefetchedIsReadFromUpstream() throws Exception {
+    ChunkPrefetcher prefetcher = new ChunkPrefetcher(
+        new DataSource[] {new TestDataSource(data, null)}, 1000);
+    prefetcher.setPrefetchTargets(Collections.singletonList(newDataSpec(20, 10)));
+    TestDataSource upstream = new TestDataSource(data, null);
+    DataSource dataSource = prefetcher.createDataSource(upstream);
+
+    assertReadsRange(dataSource, 40, 10);
+    assertEquals(1, upstream.openCount);
+    assertEquals(1, prefetcher.getMissCount());
+  }
+
+  public void testRemovedTargetIsDiscarded() throws Exception {
+    ChunkPrefetcher prefetcher = new ChunkPrefetcher(
+        new DataSource[] {new TestDataSource(data, null)}, 1000);
+    prefetcher.setPrefetchTargets(Collections.singletonList(newDataSpec(20, 10)));
+    prefetcher.clear();
+    TestDataSource upstream = new TestDataSource(data, null);
+    DataSource dataSource = prefetcher.createDataSource(upstream);
+
+    assertReadsRange(dataSource, 20, 10);
+    assertEquals(1, upstream.openCount);
+    assertEquals(0, prefetcher.getBufferedBytes());
+  }
+
+  public void testPrefetchExceedingLimitIsDiscarded() throws Exception {
+    ChunkPrefetcher prefetcher = new ChunkPrefetcher(
+        new DataSource[] {new TestDataSource(data, null)}, 8);
+    prefetcher.setPrefetchTargets(Collections.singletonList(newDataSpec(0, C.LENGTH_UNBOUNDED)));
+    TestDataSource upstream = new TestDataSource(data, null);
+    DataSource dataSource = prefetcher.createDataSource(upstream);
+
+    assertReadsRange(dataSource, 0, C.LENGTH_UNBOUNDED);
+    assertEquals(1, upstream.openCount);
+    assertEquals(0, prefetcher.getBufferedBytes());
+  }
+
+  public void testOpenWaitsForPrefetchInProgress() throws Exception {
+    CountDownLatch readLatch = new CountDownLatch(1);
+    final ChunkPrefetcher prefetcher = new ChunkPrefetcher(
+        new DataSource[] {new TestDataSource(data, readLatch)}, 1000);
+    prefetcher.setPrefetchTargets(Collections.singletonList(newDataSpec(50, 20)));
+    final TestDataSource upstream = new TestDataSource(data, null);
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+    Thread readThread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          assertReadsRange(prefetcher.createDataSource(upstream), 50, 20);
+        } catch (Throwable e) {
+          error.set(e);
+        }
+      }
+    };
+    readThread.start();
+    Thread.sleep(50);
+    readLatch.countDown();
+    readThread.join(TIMEOUT_MS);
+
+    assertFalse(readThread.isAlive());
+    assertNull(error.get());
+    assertEquals(0, upstream.openCount);
+    assertEquals(1, prefetcher.getHitCount());
+  }
+
+  private void assertReadsRange(DataSource dataSource, int position, int length)
+      throws IOException {
+    int expectedLength = length == C.LENGTH_UNBOUNDED ? data.length - position : length;
+    byte[] buffer = new byte[expectedLength + 1];
+    long openedLength = dataSource.open(newDataSpec(position, length));
+    assertTrue(openedLength == C.LENGTH_UNBOUNDED || openedLength == expectedLength);
+    int bytesRead = 0;
+    int result;
+    while ((result = dataSource.read(buffer, bytesRead, buffer.length - bytesRead))
+        != C.RESULT_END_OF_INPUT) {
+      bytesRead += result;
+    }
+    dataSource.close();
+    assertEquals(expectedLength, bytesRead);
+    assertTrue(Arrays.equals(Arrays.copyOfRange(data, position, position + expectedLength),
+        Arrays.copyOf(buffer, expectedLength)));
+  }
+
+  private static DataSpec newDataSpec(int position, int length) {
+    return new DataSpec(null, position, length, null);
+  }
+
+  /**
+   * A {@link DataSource} that reads from a byte array, optionally blocking its first read until a
+   * latch is released.
+   */
+  private static final class TestDataSource implements DataSource {
+
+    private final byte[] data;
+    private final CountDownLatch readLatch;
+
+    public volatile int openCount;
+
+    private int position;
+    private int end;
+
+    public TestDataSource(byte[] data, CountDownLatch readLatch) {
+      this.data = data;
+      this.readLatch = readLatch;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) {
+      openCount++;
+      position = (int) dataSpec.absoluteStreamPosition;
+      end = dataSpec.length == C.LENGTH_UNBOUNDED ? data.length
+          : (int) (position + dataSpec.length);
+      return dataSpec.length;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+      if (readLatch != null) {
+        try {
+          readLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+      }
+      if (position == end) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      int bytesToRead = Math.min(Math.min(readLength, end - position), 7);
+      System.arraycopy(data, position, buffer, offset, bytesToRead);
+      position += bytesToRead;
+      return bytesToRead;
+    }
+
+    @Override
+    public void close() {
+      // Do nothing.
+    }
+
+  }
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.chunk;
+
+import com.omny.android.exoplayer.hls.HlsChunkSource;
+import com.omny.android.exoplayer.hls.HlsVariantSelector;
+import com.omny.android.exoplayer.testutil.AbrSimulator;
+import com.omny.android.exoplayer.testutil.AbrSimulator.EvaluatorFactory;
+import com.omny.android.exoplayer.testutil.AbrSimulator.NetworkTrace;
+import com.omny.android.exoplayer.testutil.AbrSimulator.Result;
+import com.omny.android.exoplayer.upstream.BandwidthMeter;
+import com.omny.android.exoplayer.util.MimeTypes;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Replays network traces through {@link FormatEvaluator} implementations and HLS variant
+ * selection using {@link AbrSimulator}.
+ */
+public class FormatEvaluatorSimulationTest extends TestCase {
+
+  private static final Format[] LADDER = new Format[] {
+      newFormat("0", 6000000), newFormat("1", 3000000), newFormat("2", 1500000),
+      newFormat("3", 750000), newFormat("4", 300000)};
+
+  private static final int BENCHMARK_TRACE_COUNT = 250;
+  private static final long BENCHMARK_CONTENT_DURATION_MS = 4 * 3600000;
+
+  private static final EvaluatorFactory ADAPTIVE = new EvaluatorFactory() {
+    @Override
+    public FormatEvaluator createFormatEvaluator(BandwidthMeter bandwidthMeter) {
+      return new FormatEvaluator.AdaptiveEvaluator(bandwidthMeter);
+    }
+  };
+
+  private static final EvaluatorFactory BUFFER_BASED = new EvaluatorFactory() {
+    @Override
+    public FormatEvaluator createFormatEvaluator(BandwidthMeter bandwidthMeter) {
+      return new FormatEvaluator.BufferBasedEvaluator(bandwidthMeter);
+    }
+  };
+
+  private static final EvaluatorFactory HLS = createHlsFactory(0);
+
+  private static final EvaluatorFactory FIXED = new EvaluatorFactory() {
+    @Override
+    public FormatEvaluator createFormatEvaluator(BandwidthMeter bandwidthMeter) {
+      return new FormatEvaluator.FixedEvaluator();
+    }
+  };
+
+  public void testRebufferIsMeasured() {
+    AbrSimulator simulator = new AbrSimulator(new Format[] {newFormat("0", 1000000)});
+    NetworkTrace trace = new NetworkTrace(new long[] {1000}, new long[] {500000}, new long[] {0});
+    Result result = simulator.simulate(trace, 12000, FIXED);
+
+    // Each chunk takes 8s to load, and playback resumes once the last chunk has loaded.
+    assertEquals(8000, result.startupDelayMs);
+    assertEquals(1, result.rebufferCount);
+    assertEquals(12000, result.rebufferDurationMs);
+    assertEquals(1000000, result.averageBitrate);
+    assertEquals(0, result.switchCount);
+  }
+
+  public void testLatencyDelaysStartup() {
+    AbrSimulator simulator = new AbrSimulator(new Format[] {newFormat("0", 1000000)});
+    NetworkTrace trace = new NetworkTrace(new long[] {1000}, new long[] {2000000},
+        new long[] {100});
+    Result result = simulator.simulate(trace, 600000, FIXED);
+
+    assertEquals(2100, result.startupDelayMs);
+    assertEquals(0, result.rebufferCount);
+    assertEquals(0, result.rebufferDurationMs);
+  }
+
+  public void testParseTrace() {
+    NetworkTrace trace = NetworkTrace.parse("# duration bitrate latency\n"
+        + "4000 500000 0\n"
+        + "\n"
+        + "8000 0 0\n");
+    assertEquals(12000, trace.getDurationMs());
+    Result result = new AbrSimulator(new Format[] {newFormat("0", 1000000)})
+        .simulate(trace, 4000, FIXED);
+    // The chunk is half loaded when the outage starts, and completes after it ends.
+    assertEquals(16000, result.startupDelayMs);
+  }
+
+  public void testAdaptiveEvaluatorsDoNotRebufferWithSufficientThroughput() {
+    NetworkTrace trace = new NetworkTrace(new long[] {1000}, new long[] {10000000},
+        new long[] {50});
+    for (EvaluatorFactory factory : new EvaluatorFactory[] {ADAPTIVE, BUFFER_BASED, HLS}) {
+      Result result = new AbrSimulator(LADDER).simulate(trace, 600000, factory);
+      assertEquals(0, result.rebufferCount);
+      assertTrue(result.averageBitrate > LADDER[LADDER.length - 1].bitrate);
+    }
+  }
+
+  public void testSeededBandwidthMeterImprovesEarlyQualityOnFastNetwork() {
+    NetworkTrace trace = new NetworkTrace(new long[] {1000}, new long[] {10000000},
+        new long[] {50});
+    // Start HLS playbacks from the lowest variant, as if it were listed first in the playlist.
+    for (EvaluatorFactory factory : new EvaluatorFactory[] {ADAPTIVE, createHlsFactory(4)}) {
+      AbrSimulator simulator = new AbrSimulator(LADDER);
+      Result unseededResult = simulator.simulate(trace, 20000, factory);
+      Result seededResult = simulator.simulate(trace, 20000, factory, 10000000);
+      assertTrue(seededResult.averageBitrate > unseededResult.averageBitrate);
+      assertEquals(0, seededResult.rebufferCount);
+    }
+  }
+
+  public void testSeededBandwidthMeterReducesStartupDelayOnSlowNetwork() {
+    NetworkTrace trace = new NetworkTrace(new long[] {1000}, new long[] {500000},
+        new long[] {200});
+    // Start HLS playbacks from the highest variant, as if it were listed first in the playlist.
+    for (EvaluatorFactory factory : new EvaluatorFactory[] {ADAPTIVE, createHlsFactory(0)}) {
+      AbrSimulator simulator = new AbrSimulator(LADDER);
+      Result unseededResult = simulator.simulate(trace, 20000, factory);
+      Result seededResult = simulator.simulate(trace, 20000, factory, 500000);
+      assertTrue(seededResult.startupDelayMs < unseededResult.startupDelayMs);
+    }
+  }
+
+  // The benchmarks replay 1000 hours of mobile traces through each evaluator. The bounds leave
+  // some headroom over the results at the time of writing, so that only significant regressions
+  // are caught.
+
+  public void testAdaptiveEvaluatorBenchmark() {
+    assertBenchmark(ADAPTIVE, 0.006, 2200000);
+  }
+
+  public void testBufferBasedEvaluatorBenchmark() {
+    assertBenchmark(BUFFER_BASED, 0.0005, 1400000);
+  }
+
+  public void testHlsVariantSelectorBenchmark() {
+    assertBenchmark(HLS, 0.007, 2300000);
+  }
+
+  private static void assertBenchmark(EvaluatorFactory factory, double maxRebufferRatio,
+      long minAverageBitrate) {
+    AbrSimulator simulator = new AbrSimulator(LADDER);
+    Random random = new Random(0);
+    long rebufferDurationMs = 0;
+    long averageBitrateSum = 0;
+    for (int i = 0; i < BENCHMARK_TRACE_COUNT; i++) {
+      Result result = simulator.simulate(createMobileTrace(random), BENCHMARK_CONTENT_DURATION_MS,
+          factory);
+      rebufferDurationMs += result.rebufferDurationMs;
+      averageBitrateSum += result.averageBitrate;
+    }
+    double rebufferRatio =
+        (double) rebufferDurationMs / (BENCHMARK_TRACE_COUNT * BENCHMARK_CONTENT_DURATION_MS);
+    assertTrue("Rebuffer ratio " + rebufferRatio, rebufferRatio <= maxRebufferRatio);
+    long averageBitrate = averageBitrateSum / BENCHMARK_TRACE_COUNT;
+    assertTrue("Average bitrate " + averageBitrate, averageBitrate >= minAverageBitrate);
+  }
+
+  /**
+   * Creates a trace in which the throughput follows a random walk between 400kbps and 20Mbps,
+   * changing every few seconds, with occasional outages.
+   */
+  private static NetworkTrace createMobileTrace(Random random) {
+    int periodCount = 200;
+    long[] durationsMs = new long[periodCount];
+    long[] bitrates = new long[periodCount];
+    long[] latenciesMs = new long[periodCount];
+    double logBitrate = Math.log(3000000);
+    for (int i = 0; i < periodCount; i++) {
+      durationsMs[i] = 1000 + random.nextInt(9000);
+      logBitrate += random.nextGaussian() * 0.5;
+      logBitrate = Math.max(Math.log(400000), Math.min(Math.log(20000000), logBitrate));
+      bitrates[i] = random.nextInt(50) == 0 ? 0 : (long) Math.exp(logBitrate);
+      latenciesMs[i] = 20 + random.nextInt(200);
+    }
+    return new NetworkTrace(durationsMs, bitrates, latenciesMs);
+  }
+
+  private static EvaluatorFactory createHlsFactory(final int defaultVariantIndex) {
+    return new EvaluatorFactory() {
+      @Override
+      public FormatEvaluator createFormatEvaluator(BandwidthMeter bandwidthMeter) {
+        return new AbrSimulator.HlsVariantEvaluator(new HlsVariantSelector(
+            HlsChunkSource.DEFAULT_MIN_BUFFER_TO_SWITCH_UP_MS,
+            HlsChunkSource.DEFAULT_MAX_BUFFER_TO_SWITCH_DOWN_MS, null), bandwidthMeter,
+            defaultVariantIndex);
+      }
+    };
+  }
+
+  private static Format newFormat(String id, int bitrate) {
+    return new Format(id, MimeTypes.VIDEO_MP4, 1280, 720, -1, -1, -1, bitrate);
+  }
+
+}
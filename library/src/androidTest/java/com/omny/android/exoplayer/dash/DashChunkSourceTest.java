@@ -20,8 +20,10 @@ import static org.mockito.Mockito.when;
 
 import android.test.InstrumentationTestCase;
 import com.omny.android.exoplayer.TimeRange;
+import com.omny.android.exoplayer.chunk.Chunk;
 import com.omny.android.exoplayer.chunk.ChunkOperationHolder;
 import com.omny.android.exoplayer.chunk.Format;
+import com.omny.android.exoplayer.chunk.FormatEvaluator;
 import com.omny.android.exoplayer.chunk.InitializationChunk;
 import com.omny.android.exoplayer.chunk.MediaChunk;
 import com.omny.android.exoplayer.dash.mpd.AdaptationSet;
@@ -132,6 +134,43 @@ public class DashChunkSourceTest extends InstrumentationTestCase {
     assertNotNull(((InitializationChunk) out.chunk).dataSpec);
   }
 
+  public void testPeekNextMediaChunkDoesNotAffectFormatEvaluation() {
+    List<Representation> representations = new ArrayList<>();
+    representations.add(buildSegmentTimelineRepresentation(REGULAR_VIDEO, LIVE_DURATION_MS, 0));
+    representations.add(buildSegmentTimelineRepresentation(TALL_VIDEO, LIVE_DURATION_MS, 0));
+    MediaPresentationDescription mpd = buildMpd(LIVE_DURATION_MS, representations, true, false);
+    DashChunkSource chunkSource = buildDashChunkSource(mpd, new AlternatingFormatEvaluator());
+    DashChunkSource referenceChunkSource =
+        buildDashChunkSource(mpd, new AlternatingFormatEvaluator());
+
+    List<MediaChunk> queue = new ArrayList<>();
+    ChunkOperationHolder out = new ChunkOperationHolder();
+    ChunkOperationHolder referenceOut = new ChunkOperationHolder();
+    chunkSource.getChunkOperation(queue, 0, out);
+    referenceChunkSource.getChunkOperation(queue, 0, referenceOut);
+    MediaChunk firstChunk = (MediaChunk) out.chunk;
+    queue.add(firstChunk);
+
+    // Look ahead in the format of the chunk being loaded.
+    List<MediaChunk> lookaheadQueue = new ArrayList<>(queue);
+    for (int i = 1; i <= 3; i++) {
+      MediaChunk chunk = chunkSource.peekNextMediaChunk(lookaheadQueue);
+      assertEquals(firstChunk.format, chunk.format);
+      assertEquals(firstChunk.chunkIndex + i, chunk.chunkIndex);
+      lookaheadQueue.add(chunk);
+    }
+
+    // The next chunk must be the same as if there had been no lookahead.
+    out.chunk = null;
+    referenceOut.chunk = null;
+    chunkSource.getChunkOperation(queue, 0, out);
+    referenceChunkSource.getChunkOperation(queue, 0, referenceOut);
+    assertEquals(referenceOut.chunk.format, out.chunk.format);
+    assertEquals(referenceOut.chunk.trigger, out.chunk.trigger);
+    assertEquals(Chunk.TRIGGER_ADAPTIVE, out.chunk.trigger);
+    assertFalse(firstChunk.format.equals(out.chunk.format));
+  }
+
   public void testSegmentRequestSequenceOnMultiPeriodLiveWithTimeline() {
     MediaPresentationDescription mpd = buildMultiPeriodLiveMpdWithTimeline();
     DashChunkSource chunkSource = buildDashChunkSource(mpd);
@@ -195,6 +234,12 @@ public class DashChunkSourceTest extends InstrumentationTestCase {
 
   private static Representation buildSegmentTimelineRepresentation(long timelineDurationMs,
       long timelineStartTimeMs) {
+    return buildSegmentTimelineRepresentation(REGULAR_VIDEO, timelineDurationMs,
+        timelineStartTimeMs);
+  }
+
+  private static Representation buildSegmentTimelineRepresentation(Format format,
+      long timelineDurationMs, long timelineStartTimeMs) {
     List<SegmentTimelineElement> segmentTimeline = new ArrayList<>();
     List<RangedUri> mediaSegments = new ArrayList<>();
     long segmentStartTimeMs = timelineStartTimeMs;
@@ -216,7 +261,7 @@ public class DashChunkSourceTest extends InstrumentationTestCase {
     // Construct the list.
     MultiSegmentBase segmentBase = new SegmentList(null, 1000, 0, 0, 0, segmentTimeline,
         mediaSegments);
-    return Representation.newInstance(null, 0, REGULAR_VIDEO, segmentBase);
+    return Representation.newInstance(null, 0, format, segmentBase);
   }
 
   private static Representation buildSegmentTemplateRepresentation() {
@@ -315,12 +360,22 @@ public class DashChunkSourceTest extends InstrumentationTestCase {
 
   private static DashChunkSource buildDashChunkSource(MediaPresentationDescription mpd,
       boolean startAtLiveEdge, long liveEdgeLatencyMs) {
+    return buildDashChunkSource(mpd, null, startAtLiveEdge, liveEdgeLatencyMs);
+  }
+
+  private static DashChunkSource buildDashChunkSource(MediaPresentationDescription mpd,
+      FormatEvaluator adaptiveFormatEvaluator) {
+    return buildDashChunkSource(mpd, adaptiveFormatEvaluator, false, 0);
+  }
+
+  private static DashChunkSource buildDashChunkSource(MediaPresentationDescription mpd,
+      FormatEvaluator adaptiveFormatEvaluator, boolean startAtLiveEdge, long liveEdgeLatencyMs) {
     @SuppressWarnings("unchecked")
     ManifestFetcher<MediaPresentationDescription> manifestFetcher = mock(ManifestFetcher.class);
     when(manifestFetcher.getManifest()).thenReturn(mpd);
     DashChunkSource chunkSource = new DashChunkSource(manifestFetcher, mpd,
-        DefaultDashTrackSelector.newVideoInstance(null, false, false), mock(DataSource.class), null,
-        new FakeClock(mpd.availabilityStartTime + mpd.duration - ELAPSED_REALTIME_OFFSET_MS),
+        DefaultDashTrackSelector.newVideoInstance(null, false, false), mock(DataSource.class),
+        adaptiveFormatEvaluator, new FakeClock(mpd.availabilityStartTime + mpd.duration - ELAPSED_REALTIME_OFFSET_MS),
         liveEdgeLatencyMs * 1000, ELAPSED_REALTIME_OFFSET_MS * 1000, startAtLiveEdge, null, null,
         0);
     chunkSource.prepare();
@@ -487,4 +542,33 @@ public class DashChunkSourceTest extends InstrumentationTestCase {
     assertNull(out.chunk);
   }
 
+  /**
+   * A {@link FormatEvaluator} that switches to the next format on every evaluation.
+   */
+  private static final class AlternatingFormatEvaluator implements FormatEvaluator {
+
+    private int evaluationCount;
+
+    @Override
+    public void enable() {
+      // Do nothing.
+    }
+
+    @Override
+    public void disable() {
+      // Do nothing.
+    }
+
+    @Override
+    public void evaluate(List<? extends MediaChunk> queue, long playbackPositionUs,
+        Format[] formats, Evaluation evaluation) {
+      Format format = formats[evaluationCount++ % formats.length];
+      if (evaluation.format != null && !format.equals(evaluation.format)) {
+        evaluation.trigger = Chunk.TRIGGER_ADAPTIVE;
+      }
+      evaluation.format = format;
+    }
+
+  }
+
 }
@@ -18,12 +18,20 @@ package com.omny.android.exoplayer.extractor.mp4;
 import android.annotation.TargetApi;
 import com.omny.android.exoplayer.C;
 import com.omny.android.exoplayer.MediaFormat;
+import com.omny.android.exoplayer.drm.DrmInitData;
+import com.omny.android.exoplayer.extractor.DummyTrackOutput;
+import com.omny.android.exoplayer.extractor.Extractor;
+import com.omny.android.exoplayer.extractor.ExtractorOutput;
+import com.omny.android.exoplayer.extractor.PositionHolder;
 import com.omny.android.exoplayer.extractor.SeekMap;
+import com.omny.android.exoplayer.extractor.TrackOutput;
+import com.omny.android.exoplayer.testutil.FakeExtractorInput;
 import com.omny.android.exoplayer.testutil.FakeExtractorOutput;
 import com.omny.android.exoplayer.testutil.FakeTrackOutput;
 import com.omny.android.exoplayer.testutil.TestUtil;
 import com.omny.android.exoplayer.util.MimeTypes;
 import com.omny.android.exoplayer.util.Util;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
@@ -97,6 +105,15 @@ public final class Mp4ExtractorTest extends TestCase {
   /** Empty byte array. */
   private static final byte[] EMPTY = new byte[0];
 
+  /** Number of samples in each track of the files used to test read planning. */
+  private static final int INTERLEAVING_SAMPLE_COUNT = 200;
+  private static final int INTERLEAVING_VIDEO_SAMPLE_SIZE = 20000;
+  private static final int INTERLEAVING_AUDIO_SAMPLE_SIZE = 400;
+  /** Timestamp delta of audio samples, giving the same frame rate as the video track. */
+  private static final int INTERLEAVING_AUDIO_SAMPLE_DELTA = 1470;
+  private static final int INTERLEAVING_AUDIO_TIMESCALE = 44100;
+  private static final int MAXIMUM_READ_AHEAD_BYTES = 512 * 1024;
+
   private Mp4Extractor extractor;
   private FakeExtractorOutput extractorOutput;
 
@@ -185,6 +202,57 @@ public final class Mp4ExtractorTest extends TestCase {
     }
   }
 
+  public void testReadsPoorlyInterleavedFileWithBoundedReadAhead() throws Exception {
+    // All video samples precede all audio samples, with a gap between them.
+    int audioChunkOffset = INTERLEAVING_SAMPLE_COUNT * INTERLEAVING_VIDEO_SAMPLE_SIZE + 1000000;
+    byte[] data = getInterleavedMp4File(new int[] {0}, new int[] {INTERLEAVING_SAMPLE_COUNT},
+        new int[] {audioChunkOffset}, new int[] {INTERLEAVING_SAMPLE_COUNT});
+    Mp4Extractor extractor = new Mp4Extractor(MAXIMUM_READ_AHEAD_BYTES);
+    SampleRecordingOutput output = new SampleRecordingOutput();
+    extractor.init(output);
+
+    int reloadCount = readToEnd(extractor, data);
+
+    assertEquals(reloadCount, extractor.getReloadCount());
+    output.assertInterleavedSamples();
+    // Reading in file order would buffer the whole video track before the first audio sample.
+    int maximumSampleSize = INTERLEAVING_VIDEO_SAMPLE_SIZE;
+    assertTrue("Read " + output.maximumReadAheadBytes + " bytes ahead",
+        output.maximumReadAheadBytes <= MAXIMUM_READ_AHEAD_BYTES + maximumSampleSize);
+    // Reading in time order would reload for every sample. Each reload should instead be followed
+    // by reading close to the read-ahead limit.
+    int videoBytes = INTERLEAVING_SAMPLE_COUNT * INTERLEAVING_VIDEO_SAMPLE_SIZE;
+    assertTrue("Reloaded " + reloadCount + " times",
+        reloadCount <= 2 * (videoBytes / (MAXIMUM_READ_AHEAD_BYTES - maximumSampleSize) + 1));
+  }
+
+  public void testReadsWellInterleavedFileWithoutReloading() throws Exception {
+    // Chunks of one second of video and audio alternate, with small gaps between them.
+    int chunkCount = 10;
+    int samplesPerChunk = INTERLEAVING_SAMPLE_COUNT / chunkCount;
+    int[] videoChunkOffsets = new int[chunkCount];
+    int[] audioChunkOffsets = new int[chunkCount];
+    int[] chunkSampleCounts = new int[chunkCount];
+    int offset = 0;
+    for (int i = 0; i < chunkCount; i++) {
+      videoChunkOffsets[i] = offset;
+      offset += samplesPerChunk * INTERLEAVING_VIDEO_SAMPLE_SIZE + 100;
+      audioChunkOffsets[i] = offset;
+      offset += samplesPerChunk * INTERLEAVING_AUDIO_SAMPLE_SIZE + 100;
+      chunkSampleCounts[i] = samplesPerChunk;
+    }
+    byte[] data = getInterleavedMp4File(videoChunkOffsets, chunkSampleCounts, audioChunkOffsets,
+        chunkSampleCounts);
+    Mp4Extractor extractor = new Mp4Extractor(MAXIMUM_READ_AHEAD_BYTES);
+    SampleRecordingOutput output = new SampleRecordingOutput();
+    extractor.init(output);
+
+    assertEquals(0, readToEnd(extractor, data));
+
+    assertEquals(0, extractor.getReloadCount());
+    output.assertInterleavedSamples();
+  }
+
   private static void assertSeekMap(SeekMap seekMap, boolean haveStss) {
     assertNotNull(seekMap);
     int expectedSeekPosition = getSampleOffset(0);
@@ -440,6 +508,127 @@ public final class Mp4ExtractorTest extends TestCase {
         atom(Atom.TYPE_mdat, getMdat(mp4vFormat ? 1120 : 1110, !mp4vFormat)));
   }
 
+  /**
+   * Reads from the input until the end, following seeks requested by the extractor.
+   *
+   * @return The number of seeks requested by the extractor.
+   */
+  private static int readToEnd(Extractor extractor, byte[] data)
+      throws IOException, InterruptedException {
+    FakeExtractorInput input = new FakeExtractorInput.Builder().setData(data).build();
+    PositionHolder seekPositionHolder = new PositionHolder();
+    int seekCount = 0;
+    int readResult = Extractor.RESULT_CONTINUE;
+    while (readResult != Extractor.RESULT_END_OF_INPUT) {
+      readResult = extractor.read(input, seekPositionHolder);
+      if (readResult == Extractor.RESULT_SEEK) {
+        input.setPosition((int) seekPositionHolder.position);
+        seekCount++;
+      }
+    }
+    return seekCount;
+  }
+
+  /**
+   * Gets an MP4 file with mp4v video and AAC audio tracks, whose chunks are at the specified
+   * offsets in the mdat payload.
+   */
+  private static byte[] getInterleavedMp4File(int[] videoChunkOffsets,
+      int[] videoChunkSampleCounts, int[] audioChunkOffsets, int[] audioChunkSampleCounts) {
+    // The size of the atoms before the mdat payload does not depend on the chunk offsets.
+    int mdatOffset = getInterleavedMp4Atoms(0, videoChunkOffsets, videoChunkSampleCounts,
+        audioChunkOffsets, audioChunkSampleCounts, 0).length - Mp4Atom.HEADER_SIZE;
+    int mdatSize = 0;
+    for (int i = 0; i < videoChunkOffsets.length; i++) {
+      mdatSize = Math.max(mdatSize,
+          videoChunkOffsets[i] + videoChunkSampleCounts[i] * INTERLEAVING_VIDEO_SAMPLE_SIZE);
+    }
+    for (int i = 0; i < audioChunkOffsets.length; i++) {
+      mdatSize = Math.max(mdatSize,
+          audioChunkOffsets[i] + audioChunkSampleCounts[i] * INTERLEAVING_AUDIO_SAMPLE_SIZE);
+    }
+    return getInterleavedMp4Atoms(mdatOffset, videoChunkOffsets, videoChunkSampleCounts,
+        audioChunkOffsets, audioChunkSampleCounts, mdatSize);
+  }
+
+  private static byte[] getInterleavedMp4Atoms(int mdatOffset, int[] videoChunkOffsets,
+      int[] videoChunkSampleCounts, int[] audioChunkOffsets, int[] audioChunkSampleCounts,
+      int mdatSize) {
+    return Mp4Atom.serialize(
+        atom(Atom.TYPE_ftyp, FTYP_PAYLOAD),
+        atom(Atom.TYPE_moov,
+            atom(Atom.TYPE_mvhd, MVHD_PAYLOAD),
+            atom(Atom.TYPE_trak,
+                atom(Atom.TYPE_tkhd, TKHD_PAYLOAD),
+                atom(Atom.TYPE_mdia,
+                    atom(Atom.TYPE_mdhd, VIDEO_MDHD_PAYLOAD),
+                    atom(Atom.TYPE_hdlr, VIDEO_HDLR_PAYLOAD),
+                    atom(Atom.TYPE_minf,
+                        atom(Atom.TYPE_vmhd, EMPTY),
+                        atom(Atom.TYPE_stbl,
+                            atom(Atom.TYPE_stsd, VIDEO_STSD_MP4V_PAYLOAD),
+                            atom(Atom.TYPE_stts, getFixedDeltaStts(1)),
+                            atom(Atom.TYPE_stsc, getStsc(videoChunkSampleCounts)),
+                            atom(Atom.TYPE_stsz,
+                                getFixedSizeStsz(INTERLEAVING_VIDEO_SAMPLE_SIZE)),
+                            atom(Atom.TYPE_stco, getStco(mdatOffset, videoChunkOffsets)))))),
+            atom(Atom.TYPE_trak,
+                atom(Atom.TYPE_tkhd, TKHD_PAYLOAD),
+                atom(Atom.TYPE_mdia,
+                    atom(Atom.TYPE_mdhd, AUDIO_MDHD_PAYLOAD),
+                    atom(Atom.TYPE_hdlr, AUDIO_HDLR_PAYLOAD),
+                    atom(Atom.TYPE_minf,
+                        atom(Atom.TYPE_vmhd, EMPTY),
+                        atom(Atom.TYPE_stbl,
+                            atom(Atom.TYPE_stsd, AUDIO_STSD_PAYLOAD),
+                            atom(Atom.TYPE_stts,
+                                getFixedDeltaStts(INTERLEAVING_AUDIO_SAMPLE_DELTA)),
+                            atom(Atom.TYPE_stsc, getStsc(audioChunkSampleCounts)),
+                            atom(Atom.TYPE_stsz,
+                                getFixedSizeStsz(INTERLEAVING_AUDIO_SAMPLE_SIZE)),
+                            atom(Atom.TYPE_stco, getStco(mdatOffset, audioChunkOffsets))))))),
+        atom(Atom.TYPE_mdat, new byte[mdatSize]));
+  }
+
+  private static byte[] getFixedDeltaStts(int delta) {
+    ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 2 * 4);
+    buffer.putInt(0); // Version (skipped)
+    buffer.putInt(1);
+    buffer.putInt(INTERLEAVING_SAMPLE_COUNT);
+    buffer.putInt(delta);
+    return buffer.array();
+  }
+
+  private static byte[] getFixedSizeStsz(int sampleSize) {
+    ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 4);
+    buffer.putInt(0); // Version (skipped)
+    buffer.putInt(sampleSize);
+    buffer.putInt(INTERLEAVING_SAMPLE_COUNT);
+    return buffer.array();
+  }
+
+  private static byte[] getStsc(int[] chunkSampleCounts) {
+    ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 3 * 4 * chunkSampleCounts.length);
+    buffer.putInt(0); // Version (skipped)
+    buffer.putInt(chunkSampleCounts.length);
+    for (int i = 0; i < chunkSampleCounts.length; i++) {
+      buffer.putInt(i + 1);
+      buffer.putInt(chunkSampleCounts[i]);
+      buffer.putInt(0); // Sample description index (skipped)
+    }
+    return buffer.array();
+  }
+
+  private static byte[] getStco(int mdatOffset, int[] chunkOffsets) {
+    ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 4 * chunkOffsets.length);
+    buffer.putInt(0); // Version (skipped)
+    buffer.putInt(chunkOffsets.length);
+    for (int chunkOffset : chunkOffsets) {
+      buffer.putInt(mdatOffset + chunkOffset);
+    }
+    return buffer.array();
+  }
+
   private static Mp4Atom atom(int type, Mp4Atom... containedMp4Atoms) {
     return new Mp4Atom(type, containedMp4Atoms);
   }
@@ -510,4 +699,96 @@ public final class Mp4ExtractorTest extends TestCase {
 
   }
 
+  /**
+   * Records the order, timestamps and sizes of samples output for the files used to test read
+   * planning, and the number of bytes output ahead of the earliest sample not yet output.
+   */
+  private static final class SampleRecordingOutput implements ExtractorOutput {
+
+    private final List<Long>[] sampleTimesUs;
+    private final List<Integer>[] sampleSizes;
+    private final List<Long> outputTimesUs;
+    private final List<Integer> outputSizes;
+
+    public long maximumReadAheadBytes;
+
+    @SuppressWarnings("unchecked")
+    public SampleRecordingOutput() {
+      sampleTimesUs = new List[] {new ArrayList<Long>(), new ArrayList<Long>()};
+      sampleSizes = new List[] {new ArrayList<Integer>(), new ArrayList<Integer>()};
+      outputTimesUs = new ArrayList<>();
+      outputSizes = new ArrayList<>();
+    }
+
+    @Override
+    public TrackOutput track(final int trackId) {
+      return new DummyTrackOutput() {
+        @Override
+        public void sampleMetadata(long timeUs, int flags, int size, int offset,
+            byte[] encryptionKey) {
+          sampleTimesUs[trackId].add(timeUs);
+          sampleSizes[trackId].add(size);
+          outputTimesUs.add(timeUs);
+          outputSizes.add(size);
+          updateReadAhead();
+        }
+      };
+    }
+
+    @Override
+    public void endTracks() {
+      // Do nothing.
+    }
+
+    @Override
+    public void seekMap(SeekMap seekMap) {
+      // Do nothing.
+    }
+
+    @Override
+    public void drmInitData(DrmInitData drmInitData) {
+      // Do nothing.
+    }
+
+    /**
+     * Asserts that all samples of both tracks were output in order, with the expected timestamps
+     * and sizes.
+     */
+    public void assertInterleavedSamples() {
+      assertEquals(INTERLEAVING_SAMPLE_COUNT, sampleTimesUs[0].size());
+      assertEquals(INTERLEAVING_SAMPLE_COUNT, sampleTimesUs[1].size());
+      for (int i = 0; i < INTERLEAVING_SAMPLE_COUNT; i++) {
+        assertEquals(getExpectedSampleTimeUs(0, i), (long) sampleTimesUs[0].get(i));
+        assertEquals(INTERLEAVING_VIDEO_SAMPLE_SIZE, (int) sampleSizes[0].get(i));
+        assertEquals(getExpectedSampleTimeUs(1, i), (long) sampleTimesUs[1].get(i));
+        assertEquals(INTERLEAVING_AUDIO_SAMPLE_SIZE, (int) sampleSizes[1].get(i));
+      }
+    }
+
+    private void updateReadAhead() {
+      long laggingTimeUs = Long.MAX_VALUE;
+      for (int trackId = 0; trackId < sampleTimesUs.length; trackId++) {
+        int nextSampleIndex = sampleTimesUs[trackId].size();
+        if (nextSampleIndex < INTERLEAVING_SAMPLE_COUNT) {
+          laggingTimeUs = Math.min(laggingTimeUs, getExpectedSampleTimeUs(trackId,
+              nextSampleIndex));
+        }
+      }
+      long readAheadBytes = 0;
+      for (int i = 0; i < outputTimesUs.size(); i++) {
+        if (outputTimesUs.get(i) >= laggingTimeUs) {
+          readAheadBytes += outputSizes.get(i);
+        }
+      }
+      maximumReadAheadBytes = Math.max(maximumReadAheadBytes, readAheadBytes);
+    }
+
+    private static long getExpectedSampleTimeUs(int trackId, int sampleIndex) {
+      return trackId == 0 ? getVideoTimestampUs(sampleIndex)
+          : Util.scaleLargeTimestamp((long) sampleIndex * INTERLEAVING_AUDIO_SAMPLE_DELTA,
+              C.MICROS_PER_SECOND, INTERLEAVING_AUDIO_TIMESCALE);
+    }
+
+  }
+
 }
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.extractor.mp4;
+
+import com.omny.android.exoplayer.ParserException;
+
+import java.util.Random;
+
+/**
+ * Manual benchmark for iterating a {@link TrackSampleTable}. It isn't run as part of the unit
+ * tests, since the duration depends on the device and its load. Run {@link #main(String[])} to
+ * report it.
+ */
+public final class TrackSampleTableBenchmark {
+
+  private static final int SAMPLE_COUNT = 1000000;
+  private static final int ITERATIONS = 10;
+
+  private TrackSampleTableBenchmark() {}
+
+  public static void main(String[] args) throws ParserException {
+    TrackSampleTableTest.SyntheticStbl stbl =
+        new TrackSampleTableTest.SyntheticStbl(new Random(0), SAMPLE_COUNT, false);
+    TrackSampleTable sampleTable = AtomParsers.parseStbl(
+        TrackSampleTableTest.buildTrack(null, null), stbl.build());
+    long startTimeNs = System.nanoTime();
+    long checksum = 0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      TrackSampleTable.Cursor cursor = sampleTable.newCursor();
+      do {
+        checksum += cursor.offset + cursor.size + cursor.timeUs + cursor.flags;
+      } while (cursor.moveNext());
+    }
+    long durationMs = (System.nanoTime() - startTimeNs) / 1000000;
+    System.out.println(ITERATIONS + " x " + SAMPLE_COUNT + " samples took " + durationMs
+        + "ms (checksum " + checksum + ")");
+  }
+
+}
@@ -0,0 +1,470 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.extractor.mp4;
+
+import com.omny.android.exoplayer.C;
+import com.omny.android.exoplayer.MediaFormat;
+import com.omny.android.exoplayer.ParserException;
+import com.omny.android.exoplayer.util.MimeTypes;
+import com.omny.android.exoplayer.util.ParsableByteArray;
+import com.omny.android.exoplayer.util.Util;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests for {@link TrackSampleTable} and {@link AtomParsers#parseStbl(Track, Atom.ContainerAtom)}.
+ * <p>
+ * Sample tables are parsed from synthetic stbl atoms and compared against per-sample values
+ * expanded directly from the atoms' contents. See {@link TrackSampleTableBenchmark} for a
+ * benchmark.
+ */
+public final class TrackSampleTableTest extends TestCase {
+
+  private static final long TIMESCALE = 90000;
+  private static final long MOVIE_TIMESCALE = 1000;
+  private static final int SAMPLE_COUNT = 5000;
+
+  public void testIteratesSamples() throws ParserException {
+    for (int seed = 0; seed < 10; seed++) {
+      SyntheticStbl stbl = new SyntheticStbl(new Random(seed), SAMPLE_COUNT, false);
+      TrackSampleTable sampleTable = AtomParsers.parseStbl(buildTrack(null, null), stbl.build());
+      assertSamples(stbl.getExpectedSamples(null, null), sampleTable);
+    }
+  }
+
+  public void testIteratesSamplesWithFixedSampleSize() throws ParserException {
+    SyntheticStbl stbl = new SyntheticStbl(new Random(0), SAMPLE_COUNT, true);
+    TrackSampleTable sampleTable = AtomParsers.parseStbl(buildTrack(null, null), stbl.build());
+    assertSamples(stbl.getExpectedSamples(null, null), sampleTable);
+  }
+
+  public void testSeeksToSamples() throws ParserException {
+    Random random = new Random(0);
+    SyntheticStbl stbl = new SyntheticStbl(random, SAMPLE_COUNT, false);
+    TrackSampleTable sampleTable = AtomParsers.parseStbl(buildTrack(null, null), stbl.build());
+    ExpectedSamples expected = stbl.getExpectedSamples(null, null);
+    TrackSampleTable.Cursor cursor = sampleTable.newCursor();
+    for (int i = 0; i < 1000; i++) {
+      int index = random.nextInt(SAMPLE_COUNT);
+      cursor.seekTo(index);
+      assertSample(expected, index, cursor);
+      assertEquals(expected.timestampsUs[index], sampleTable.getTimestampUs(index));
+      assertEquals(expected.flags[index], sampleTable.getFlags(index));
+    }
+    cursor.seekTo(SAMPLE_COUNT);
+    assertEquals(SAMPLE_COUNT, cursor.index);
+    assertFalse(cursor.moveNext());
+  }
+
+  public void testFindsSynchronizationSamples() throws ParserException {
+    Random random = new Random(0);
+    SyntheticStbl stbl = new SyntheticStbl(random, SAMPLE_COUNT, false);
+    long[] editListDurations = new long[] {20000, 30000};
+    long[] editListMediaTimes = new long[] {9000, 5000000};
+    TrackSampleTable sampleTable = AtomParsers.parseStbl(
+        buildTrack(editListDurations, editListMediaTimes), stbl.build());
+    ExpectedSamples expected = stbl.getExpectedSamples(editListDurations, editListMediaTimes);
+    assertSamples(expected, sampleTable);
+    long endTimeUs = expected.timestampsUs[expected.timestampsUs.length - 1];
+    for (int i = 0; i < 1000; i++) {
+      long timeUs = (long) (random.nextDouble() * (endTimeUs + 2000000)) - 1000000;
+      assertEquals(expected.getIndexOfEarlierOrEqualSynchronizationSample(timeUs),
+          sampleTable.getIndexOfEarlierOrEqualSynchronizationSample(timeUs));
+      assertEquals(expected.getIndexOfLaterOrEqualSynchronizationSample(timeUs),
+          sampleTable.getIndexOfLaterOrEqualSynchronizationSample(timeUs));
+    }
+  }
+
+  public void testEditListWithMediaTimeOffset() throws ParserException {
+    assertEditedSamples(new long[] {60000}, new long[] {180000});
+  }
+
+  public void testEditListWithZeroDuration() throws ParserException {
+    assertEditedSamples(new long[] {0}, new long[] {3000});
+  }
+
+  public void testEditListWithEmptyEditAndTwoSegments() throws ParserException {
+    assertEditedSamples(new long[] {500, 10000, 20000}, new long[] {-1, 90000, 3000000});
+  }
+
+  public void testEditListWithoutSynchronizationSampleThrows() {
+    SyntheticStbl stbl = new SyntheticStbl(new Random(0), SAMPLE_COUNT, false);
+    ExpectedSamples expected = stbl.getExpectedSamples(null, null);
+    // Select a single sample that is not a synchronization sample.
+    int sampleIndex = 1;
+    while (expected.flags[sampleIndex] != 0) {
+      sampleIndex++;
+    }
+    long mediaTime = expected.timestamps[sampleIndex];
+    try {
+      AtomParsers.parseStbl(buildTrack(new long[] {1}, new long[] {mediaTime}), stbl.build());
+      fail();
+    } catch (ParserException e) {
+      // Expected.
+    }
+  }
+
+  public void testRechunksRawAudio() throws ParserException {
+    int sampleCount = 100000;
+    int sampleSize = 4;
+    int[] chunkSampleCounts = new int[] {30000, 0, 50000, 20000};
+    long[] chunkOffsets = new long[] {100, 200000, 300000, 700000};
+    Track track = new Track(1, Track.TYPE_soun, 44100, MOVIE_TIMESCALE, C.UNKNOWN_TIME_US,
+        MediaFormat.createAudioFormat(null, MimeTypes.AUDIO_RAW, MediaFormat.NO_VALUE,
+            MediaFormat.NO_VALUE, C.UNKNOWN_TIME_US, 2, 44100, null, null),
+        null, -1, null, null);
+    Atom.ContainerAtom stblAtom = new Atom.ContainerAtom(Atom.TYPE_stbl, 0);
+    stblAtom.add(buildFullAtom(Atom.TYPE_stsz, sampleSize, sampleCount));
+    stblAtom.add(buildFullAtom(Atom.TYPE_stsc, 4, 1, 30000, 1, 2, 0, 1, 3, 50000, 1, 4, 20000, 1));
+    stblAtom.add(buildFullAtom(Atom.TYPE_stco, 4, 100, 200000, 300000, 700000));
+    stblAtom.add(buildFullAtom(Atom.TYPE_stts, 1, sampleCount, 1));
+    TrackSampleTable sampleTable = AtomParsers.parseStbl(track, stblAtom);
+
+    FixedSampleSizeRechunker.Results rechunked =
+        FixedSampleSizeRechunker.rechunk(sampleSize, chunkOffsets, chunkSampleCounts, 1);
+    assertEquals(rechunked.offsets.length, sampleTable.sampleCount);
+    assertEquals(rechunked.maximumSize, sampleTable.maximumSize);
+    TrackSampleTable.Cursor cursor = sampleTable.newCursor();
+    for (int i = 0; i < rechunked.offsets.length; i++) {
+      assertEquals(i, cursor.index);
+      assertEquals(rechunked.offsets[i], cursor.offset);
+      assertEquals(rechunked.sizes[i], cursor.size);
+      assertEquals(Util.scaleLargeTimestamp(rechunked.timestamps[i], C.MICROS_PER_SECOND, 44100),
+          cursor.timeUs);
+      assertEquals(rechunked.flags[i], cursor.flags);
+      cursor.moveNext();
+    }
+    assertEquals(sampleTable.sampleCount, cursor.index);
+  }
+
+  private static void assertEditedSamples(long[] editListDurations, long[] editListMediaTimes)
+      throws ParserException {
+    for (int seed = 0; seed < 5; seed++) {
+      SyntheticStbl stbl = new SyntheticStbl(new Random(seed), SAMPLE_COUNT, false);
+      TrackSampleTable sampleTable = AtomParsers.parseStbl(
+          buildTrack(editListDurations, editListMediaTimes), stbl.build());
+      assertSamples(stbl.getExpectedSamples(editListDurations, editListMediaTimes), sampleTable);
+    }
+  }
+
+  private static void assertSamples(ExpectedSamples expected, TrackSampleTable sampleTable) {
+    assertEquals(expected.offsets.length, sampleTable.sampleCount);
+    assertEquals(expected.maximumSize, sampleTable.maximumSize);
+    TrackSampleTable.Cursor cursor = sampleTable.newCursor();
+    for (int i = 0; i < expected.offsets.length; i++) {
+      assertSample(expected, i, cursor);
+      assertEquals(i + 1 < expected.offsets.length, cursor.moveNext());
+    }
+    assertEquals(sampleTable.sampleCount, cursor.index);
+  }
+
+  private static void assertSample(ExpectedSamples expected, int index,
+      TrackSampleTable.Cursor cursor) {
+    assertEquals(index, cursor.index);
+    assertEquals(expected.offsets[index], cursor.offset);
+    assertEquals(expected.sizes[index], cursor.size);
+    assertEquals(expected.timestampsUs[index], cursor.timeUs);
+    assertEquals(expected.flags[index], cursor.flags);
+  }
+
+  /* package */ static Track buildTrack(long[] editListDurations, long[] editListMediaTimes) {
+    MediaFormat mediaFormat = MediaFormat.createVideoFormat(null, MimeTypes.VIDEO_H264,
+        MediaFormat.NO_VALUE, MediaFormat.NO_VALUE, C.UNKNOWN_TIME_US, 320, 240, null);
+    return new Track(1, Track.TYPE_vide, TIMESCALE, MOVIE_TIMESCALE, C.UNKNOWN_TIME_US,
+        mediaFormat, null, -1, editListDurations, editListMediaTimes);
+  }
+
+  private static Atom.LeafAtom buildFullAtom(int type, int... values) {
+    ByteBuffer buffer = ByteBuffer.allocate(Atom.FULL_HEADER_SIZE + 4 * values.length);
+    buffer.putInt(buffer.capacity());
+    buffer.putInt(type);
+    buffer.putInt(0); // Version and flags.
+    for (int value : values) {
+      buffer.putInt(value);
+    }
+    return new Atom.LeafAtom(type, new ParsableByteArray(buffer.array()));
+  }
+
+  /**
+   * Random sample table contents, and the atoms that describe them.
+   */
+  /* package */ static final class SyntheticStbl {
+
+    private final int sampleCount;
+    private final int[] sizes;
+    private final int fixedSampleSize;
+    private final int[] chunkSampleCounts;
+    private final long[] chunkOffsets;
+    private final int[] timestampRunSampleCounts;
+    private final int[] timestampRunDeltas;
+    private final int[] timestampOffsetRunSampleCounts;
+    private final int[] timestampOffsetRunValues;
+    private final int[] syncSampleIndices;
+
+    public SyntheticStbl(Random random, int sampleCount, boolean fixedSampleSize) {
+      this.sampleCount = sampleCount;
+      this.fixedSampleSize = fixedSampleSize ? 1 + random.nextInt(1000) : 0;
+      sizes = new int[sampleCount];
+      for (int i = 0; i < sampleCount; i++) {
+        sizes[i] = fixedSampleSize ? this.fixedSampleSize : 1 + random.nextInt(1000);
+      }
+
+      // Chunks hold a random number of samples, including none.
+      int[] chunkSampleCounts = new int[sampleCount];
+      long[] chunkOffsets = new long[sampleCount];
+      int chunkCount = 0;
+      long offset = 1000;
+      for (int remaining = sampleCount; remaining > 0; chunkCount++) {
+        int count = Math.min(remaining, random.nextInt(3) == 0 ? 0 : 1 + random.nextInt(8));
+        chunkSampleCounts[chunkCount] = count;
+        chunkOffsets[chunkCount] = offset;
+        for (int i = 0; i < count; i++) {
+          offset += sizes[sampleCount - remaining + i];
+        }
+        offset += random.nextInt(2) * random.nextInt(100000);
+        remaining -= count;
+      }
+      this.chunkSampleCounts = Arrays.copyOf(chunkSampleCounts, chunkCount);
+      this.chunkOffsets = Arrays.copyOf(chunkOffsets, chunkCount);
+
+      int[][] timestampRuns = buildRuns(random, sampleCount, new int[] {3000, 3003, 1500});
+      timestampRunSampleCounts = timestampRuns[0];
+      timestampRunDeltas = timestampRuns[1];
+      int[][] timestampOffsetRuns = buildRuns(random, sampleCount, new int[] {0, 3000, 6000});
+      timestampOffsetRunSampleCounts = timestampOffsetRuns[0];
+      timestampOffsetRunValues = timestampOffsetRuns[1];
+
+      int[] syncSampleIndices = new int[sampleCount];
+      int syncSampleCount = 0;
+      for (int i = 0; i < sampleCount; i++) {
+        if (i == 0 || random.nextInt(30) == 0) {
+          syncSampleIndices[syncSampleCount++] = i;
+        }
+      }
+      this.syncSampleIndices = Arrays.copyOf(syncSampleIndices, syncSampleCount);
+    }
+
+    public Atom.ContainerAtom build() {
+      Atom.ContainerAtom stblAtom = new Atom.ContainerAtom(Atom.TYPE_stbl, 0);
+
+      int[] stsz = new int[2 + (fixedSampleSize != 0 ? 0 : sampleCount)];
+      stsz[0] = fixedSampleSize;
+      stsz[1] = sampleCount;
+      if (fixedSampleSize == 0) {
+        System.arraycopy(sizes, 0, stsz, 2, sampleCount);
+      }
+      stblAtom.add(buildFullAtom(Atom.TYPE_stsz, stsz));
+
+      int[] stsc = new int[1 + 3 * chunkSampleCounts.length];
+      int stscEntryCount = 0;
+      for (int i = 0; i < chunkSampleCounts.length; i++) {
+        if (i == 0 || chunkSampleCounts[i] != chunkSampleCounts[i - 1]) {
+          stsc[1 + 3 * stscEntryCount] = i + 1;
+          stsc[2 + 3 * stscEntryCount] = chunkSampleCounts[i];
+          stsc[3 + 3 * stscEntryCount] = 1;
+          stscEntryCount++;
+        }
+      }
+      stsc[0] = stscEntryCount;
+      stblAtom.add(buildFullAtom(Atom.TYPE_stsc, Arrays.copyOf(stsc,
+          1 + 3 * stscEntryCount)));
+
+      int[] co64 = new int[1 + 2 * chunkOffsets.length];
+      co64[0] = chunkOffsets.length;
+      for (int i = 0; i < chunkOffsets.length; i++) {
+        co64[1 + 2 * i] = (int) (chunkOffsets[i] >>> 32);
+        co64[2 + 2 * i] = (int) chunkOffsets[i];
+      }
+      stblAtom.add(buildFullAtom(Atom.TYPE_co64, co64));
+
+      stblAtom.add(buildFullAtom(Atom.TYPE_stts,
+          interleave(timestampRunSampleCounts, timestampRunDeltas)));
+      stblAtom.add(buildFullAtom(Atom.TYPE_ctts,
+          interleave(timestampOffsetRunSampleCounts, timestampOffsetRunValues)));
+
+      int[] stss = new int[1 + syncSampleIndices.length];
+      stss[0] = syncSampleIndices.length;
+      for (int i = 0; i < syncSampleIndices.length; i++) {
+        stss[1 + i] = syncSampleIndices[i] + 1;
+      }
+      stblAtom.add(buildFullAtom(Atom.TYPE_stss, stss));
+      return stblAtom;
+    }
+
+    /**
+     * Returns the samples described by the stbl atom, after applying an edit list if specified.
+     */
+    public ExpectedSamples getExpectedSamples(long[] editListDurations,
+        long[] editListMediaTimes) {
+      long[] offsets = new long[sampleCount];
+      long[] timestamps = new long[sampleCount];
+      int[] flags = new int[sampleCount];
+      int sampleIndex = 0;
+      for (int i = 0; i < chunkSampleCounts.length; i++) {
+        long offset = chunkOffsets[i];
+        for (int j = 0; j < chunkSampleCounts[i]; j++) {
+          offsets[sampleIndex] = offset;
+          offset += sizes[sampleIndex++];
+        }
+      }
+      long timestamp = 0;
+      sampleIndex = 0;
+      for (int i = 0; i < timestampRunSampleCounts.length; i++) {
+        for (int j = 0; j < timestampRunSampleCounts[i]; j++) {
+          timestamps[sampleIndex++] = timestamp;
+          timestamp += timestampRunDeltas[i];
+        }
+      }
+      sampleIndex = 0;
+      for (int i = 0; i < timestampOffsetRunSampleCounts.length; i++) {
+        for (int j = 0; j < timestampOffsetRunSampleCounts[i]; j++) {
+          timestamps[sampleIndex++] += timestampOffsetRunValues[i];
+        }
+      }
+      for (int syncSampleIndex : syncSampleIndices) {
+        flags[syncSampleIndex] = C.SAMPLE_FLAG_SYNC;
+      }
+
+      if (editListDurations == null || editListDurations[0] == 0) {
+        long mediaTime = editListDurations == null ? 0 : editListMediaTimes[0];
+        long[] timestampsUs = new long[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+          timestampsUs[i] =
+              Util.scaleLargeTimestamp(timestamps[i] - mediaTime, C.MICROS_PER_SECOND, TIMESCALE);
+        }
+        return new ExpectedSamples(offsets, sizes, timestamps, timestampsUs, flags);
+      }
+
+      int editedSampleCount = 0;
+      long[] editedOffsets = new long[sampleCount * editListDurations.length];
+      int[] editedSizes = new int[editedOffsets.length];
+      long[] editedTimestamps = new long[editedOffsets.length];
+      long[] editedTimestampsUs = new long[editedOffsets.length];
+      int[] editedFlags = new int[editedOffsets.length];
+      long pts = 0;
+      for (int i = 0; i < editListDurations.length; i++) {
+        long mediaTime = editListMediaTimes[i];
+        if (mediaTime != -1) {
+          long endMediaTime = mediaTime + Util.scaleLargeTimestamp(editListDurations[i],
+              TIMESCALE, MOVIE_TIMESCALE);
+          int startIndex = Util.binarySearchCeil(timestamps, mediaTime, true, true);
+          int endIndex = Util.binarySearchCeil(timestamps, endMediaTime, true, false);
+          for (int j = startIndex; j < endIndex; j++) {
+            editedOffsets[editedSampleCount] = offsets[j];
+            editedSizes[editedSampleCount] = sizes[j];
+            editedTimestamps[editedSampleCount] = timestamps[j];
+            editedTimestampsUs[editedSampleCount] =
+                Util.scaleLargeTimestamp(pts, C.MICROS_PER_SECOND, MOVIE_TIMESCALE)
+                + Util.scaleLargeTimestamp(timestamps[j] - mediaTime, C.MICROS_PER_SECOND,
+                    TIMESCALE);
+            editedFlags[editedSampleCount] = flags[j];
+            editedSampleCount++;
+          }
+        }
+        pts += editListDurations[i];
+      }
+      return new ExpectedSamples(Arrays.copyOf(editedOffsets, editedSampleCount),
+          Arrays.copyOf(editedSizes, editedSampleCount),
+          Arrays.copyOf(editedTimestamps, editedSampleCount),
+          Arrays.copyOf(editedTimestampsUs, editedSampleCount),
+          Arrays.copyOf(editedFlags, editedSampleCount));
+    }
+
+    /**
+     * Returns {sample counts, values} for random runs covering {@code sampleCount} samples,
+     * including some empty runs.
+     */
+    private static int[][] buildRuns(Random random, int sampleCount, int[] values) {
+      int[] runSampleCounts = new int[sampleCount + 1];
+      int[] runValues = new int[sampleCount + 1];
+      int runCount = 0;
+      for (int remaining = sampleCount; remaining > 0; runCount++) {
+        int count = Math.min(remaining, random.nextInt(10) == 0 ? 0 : 1 + random.nextInt(50));
+        runSampleCounts[runCount] = count;
+        runValues[runCount] = values[random.nextInt(values.length)];
+        remaining -= count;
+      }
+      // Add a trailing empty run.
+      runValues[runCount++] = values[0];
+      return new int[][] {Arrays.copyOf(runSampleCounts, runCount),
+          Arrays.copyOf(runValues, runCount)};
+    }
+
+    private static int[] interleave(int[] first, int[] second) {
+      int[] result = new int[1 + 2 * first.length];
+      result[0] = first.length;
+      for (int i = 0; i < first.length; i++) {
+        result[1 + 2 * i] = first[i];
+        result[2 + 2 * i] = second[i];
+      }
+      return result;
+    }
+
+  }
+
+  /**
+   * Per-sample values, as stored by the sample table before it was made compact.
+   */
+  private static final class ExpectedSamples {
+
+    public final long[] offsets;
+    public final int[] sizes;
+    public final long[] timestamps;
+    public final long[] timestampsUs;
+    public final int[] flags;
+    public final int maximumSize;
+
+    public ExpectedSamples(long[] offsets, int[] sizes, long[] timestamps, long[] timestampsUs,
+        int[] flags) {
+      this.offsets = offsets;
+      this.sizes = sizes;
+      this.timestamps = timestamps;
+      this.timestampsUs = timestampsUs;
+      this.flags = flags;
+      int maximumSize = 0;
+      for (int size : sizes) {
+        maximumSize = Math.max(maximumSize, size);
+      }
+      this.maximumSize = maximumSize;
+    }
+
+    public int getIndexOfEarlierOrEqualSynchronizationSample(long timeUs) {
+      int startIndex = Util.binarySearchFloor(timestampsUs, timeUs, true, false);
+      for (int i = startIndex; i >= 0; i--) {
+        if ((flags[i] & C.SAMPLE_FLAG_SYNC) != 0) {
+          return i;
+        }
+      }
+      return TrackSampleTable.NO_SAMPLE;
+    }
+
+    public int getIndexOfLaterOrEqualSynchronizationSample(long timeUs) {
+      int startIndex = Util.binarySearchCeil(timestampsUs, timeUs, true, false);
+      for (int i = startIndex; i < timestampsUs.length; i++) {
+        if ((flags[i] & C.SAMPLE_FLAG_SYNC) != 0) {
+          return i;
+        }
+      }
+      return TrackSampleTable.NO_SAMPLE;
+    }
+
+  }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.extractor.ts;
+
+import com.omny.android.exoplayer.C;
+import com.omny.android.exoplayer.MediaFormat;
+import com.omny.android.exoplayer.drm.DrmInitData;
+import com.omny.android.exoplayer.extractor.DummyTrackOutput;
+import com.omny.android.exoplayer.extractor.Extractor;
+import com.omny.android.exoplayer.extractor.ExtractorOutput;
+import com.omny.android.exoplayer.extractor.PositionHolder;
+import com.omny.android.exoplayer.extractor.SeekMap;
+import com.omny.android.exoplayer.extractor.TrackOutput;
+import com.omny.android.exoplayer.testutil.FakeExtractorInput;
+import com.omny.android.exoplayer.testutil.TestUtil;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Unit tests for {@link PsExtractor}.
+ */
+public class PsExtractorTest extends TestCase {
+
+  private static final int FRAME_COUNT = 1000;
+  // MPEG-1 Layer III, 128 kbit/s, 48 kHz: 384 bytes and 24 ms per frame.
+  private static final int FRAME_SIZE = 384;
+  private static final long FRAME_DURATION_PTS = 2160;
+  private static final long FRAME_DURATION_US = 24000;
+  private static final long FIRST_SCR = 900000;
+  private static final long PES_DELAY_PTS = 9000;
+  private static final long PES_DELAY_US = 100000;
+  private static final long SEEK_TOLERANCE_US = 200000;
+  private static final int MAX_SEEK_RANGE_READS = 8;
+
+  public void testDurationFromClockReferences() throws Exception {
+    SampleRecordingOutput output = new SampleRecordingOutput();
+    PsExtractor extractor = new PsExtractor();
+    extractor.init(output);
+    readToEnd(extractor, new FakeExtractorInput.Builder().setData(buildStream()).build());
+    assertTrue(output.seekMap.isSeekable());
+    assertEquals((FRAME_COUNT - 1) * FRAME_DURATION_US, output.format.durationUs);
+    // Timestamps are relative to the first SCR.
+    assertSampleTimes(output, 0);
+  }
+
+  public void testUnseekableWhenCreatedWithTimestampAdjuster() throws Exception {
+    SampleRecordingOutput output = new SampleRecordingOutput();
+    PsExtractor extractor = new PsExtractor(new PtsTimestampAdjuster(0));
+    extractor.init(output);
+    TestUtil.consumeTestData(extractor, buildStream());
+    assertFalse(output.seekMap.isSeekable());
+    assertEquals(FRAME_COUNT, output.sampleTimesUs.size());
+  }
+
+  public void testSeekLandsWithinTolerance() throws Exception {
+    SampleRecordingOutput output = new SampleRecordingOutput();
+    PsExtractor extractor = new PsExtractor();
+    extractor.init(output);
+    FakeExtractorInput input = new FakeExtractorInput.Builder().setData(buildStream()).build();
+    readToEnd(extractor, input);
+
+    for (int targetIndex : new int[] {700, 123, 999, 5, 500}) {
+      long timeUs = targetIndex * FRAME_DURATION_US + FRAME_DURATION_US / 2;
+      input.setPosition((int) output.seekMap.getPosition(timeUs));
+      extractor.seek();
+      output.sampleTimesUs.clear();
+      int rangeReadCount = readToEnd(extractor, input);
+      assertTrue("Took " + rangeReadCount + " range reads", rangeReadCount <= MAX_SEEK_RANGE_READS);
+      // Audio only streams land on the last pack that starts before the seek time, allowing for
+      // the search tolerance.
+      int firstIndex = FRAME_COUNT - output.sampleTimesUs.size();
+      assertTrue(firstIndex <= targetIndex);
+      assertTrue(timeUs - firstIndex * FRAME_DURATION_US <= SEEK_TOLERANCE_US);
+      assertSampleTimes(output, firstIndex);
+    }
+  }
+
+  private static void assertSampleTimes(SampleRecordingOutput output, int firstIndex) {
+    assertEquals(FRAME_COUNT - firstIndex, output.sampleTimesUs.size());
+    for (int i = 0; i < output.sampleTimesUs.size(); i++) {
+      assertEquals((firstIndex + i) * FRAME_DURATION_US + PES_DELAY_US,
+          (long) output.sampleTimesUs.get(i));
+    }
+  }
+
+  /**
+   * Reads from the input until the end, following seeks requested by the extractor.
+   *
+   * @return The number of seeks requested by the extractor.
+   */
+  private static int readToEnd(Extractor extractor, FakeExtractorInput input)
+      throws IOException, InterruptedException {
+    PositionHolder seekPositionHolder = new PositionHolder();
+    int seekCount = 0;
+    int readResult = Extractor.RESULT_CONTINUE;
+    while (readResult != Extractor.RESULT_END_OF_INPUT) {
+      readResult = extractor.read(input, seekPositionHolder);
+      if (readResult == Extractor.RESULT_SEEK) {
+        input.setPosition((int) seekPositionHolder.position);
+        seekCount++;
+      }
+    }
+    return seekCount;
+  }
+
+  /**
+   * Builds an MPEG-2 program stream holding a single MPEG audio stream, with one pack per frame.
+   * The presentation timestamp of each frame follows the SCR of its pack by
+   * {@link #PES_DELAY_PTS}.
+   */
+  private static byte[] buildStream() {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    byte[] frame = new byte[FRAME_SIZE];
+    frame[0] = (byte) 0xFF;
+    frame[1] = (byte) 0xFB;
+    frame[2] = (byte) 0x94;
+    frame[3] = (byte) 0x64;
+    for (int i = 0; i < FRAME_COUNT; i++) {
+      long scr = FIRST_SCR + i * FRAME_DURATION_PTS;
+      writePackHeader(stream, scr);
+      writePesPacket(stream, frame, scr + PES_DELAY_PTS);
+    }
+    return stream.toByteArray();
+  }
+
+  private static void writePackHeader(ByteArrayOutputStream stream, long scr) {
+    // Note: see ISO/IEC 13818-1, section 2.5.3.3 for the format of the pack header.
+    byte[] packHeader = TestUtil.createByteArray(0x00, 0x00, 0x01, 0xBA,
+        0x44 | (int) ((scr >> 27) & 0x38) | (int) ((scr >> 28) & 0x03),
+        (int) ((scr >> 20) & 0xFF),
+        (int) ((scr >> 12) & 0xF8) | 0x04 | (int) ((scr >> 13) & 0x03),
+        (int) ((scr >> 5) & 0xFF),
+        (int) ((scr << 3) & 0xF8) | 0x04,
+        0x01 /* SCR extension and marker */, 0x01, 0x89, 0xC3 /* program_mux_rate and markers */,
+        0xF8 /* pack_stuffing_length */);
+    stream.write(packHeader, 0, packHeader.length);
+  }
+
+  private static void writePesPacket(ByteArrayOutputStream stream, byte[] payload, long pts) {
+    int packetLength = 3 + 5 + payload.length;
+    byte[] header = TestUtil.createByteArray(0x00, 0x00, 0x01, 0xC0, packetLength >> 8,
+        packetLength & 0xFF, 0x84 /* data_alignment_indicator */, 0x80 /* PTS_DTS_flags */, 0x05,
+        0x21 | (int) ((pts >> 29) & 0x0E), (int) ((pts >> 22) & 0xFF),
+        (int) ((pts >> 14) & 0xFE) | 0x01, (int) ((pts >> 7) & 0xFF),
+        (int) ((pts << 1) & 0xFE) | 0x01);
+    stream.write(header, 0, header.length);
+    stream.write(payload, 0, payload.length);
+  }
+
+  /**
+   * An {@link ExtractorOutput} that discards sample data and records sample timestamps.
+   */
+  private static final class SampleRecordingOutput extends DummyTrackOutput
+      implements ExtractorOutput {
+
+    public final ArrayList<Long> sampleTimesUs = new ArrayList<>();
+    public MediaFormat format;
+    public SeekMap seekMap;
+
+    @Override
+    public TrackOutput track(int trackId) {
+      return this;
+    }
+
+    @Override
+    public void endTracks() {
+      // Do nothing.
+    }
+
+    @Override
+    public void seekMap(SeekMap seekMap) {
+      this.seekMap = seekMap;
+    }
+
+    @Override
+    public void drmInitData(DrmInitData drmInitData) {
+      // Do nothing.
+    }
+
+    @Override
+    public void format(MediaFormat format) {
+      this.format = format;
+    }
+
+    @Override
+    public void sampleMetadata(long timeUs, int flags, int size, int offset,
+        byte[] encryptionKey) {
+      sampleTimesUs.add(timeUs);
+    }
+
+  }
+
+}
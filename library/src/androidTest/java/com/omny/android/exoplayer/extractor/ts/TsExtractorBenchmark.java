@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.extractor.ts;
+
+import com.omny.android.exoplayer.testutil.TestUtil;
+
+import java.util.Random;
+
+/**
+ * Manual benchmark for {@link TsExtractor}. It isn't run as part of the unit tests, since the
+ * duration depends on the device and its load. Run {@link #main(String[])} to report it.
+ */
+public final class TsExtractorBenchmark {
+
+  private static final int SAMPLE_COUNT = 1000;
+  private static final int ITERATIONS = 10;
+
+  private TsExtractorBenchmark() {}
+
+  public static void main(String[] args) throws Exception {
+    byte[][] samples = TsExtractorTest.createId3Samples(new Random(0), SAMPLE_COUNT, 8000);
+    byte[] data = TsExtractorTest.buildStream(samples, 0);
+    long startTimeNs = System.nanoTime();
+    long sampleCount = 0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      TsExtractorTest.SampleRecordingOutput output = new TsExtractorTest.SampleRecordingOutput();
+      TsExtractor extractor = new TsExtractor(new PtsTimestampAdjuster(0));
+      extractor.init(output);
+      TestUtil.consumeTestData(extractor, data);
+      sampleCount += output.sampleTimesUs.size();
+    }
+    long durationMs = (System.nanoTime() - startTimeNs) / 1000000;
+    System.out.println(ITERATIONS + " x " + data.length + " bytes took " + durationMs + "ms ("
+        + sampleCount + " samples)");
+  }
+
+}
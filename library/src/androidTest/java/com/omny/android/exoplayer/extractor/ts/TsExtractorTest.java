@@ -0,0 +1,425 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.extractor.ts;
+
+import com.omny.android.exoplayer.C;
+import com.omny.android.exoplayer.MediaFormat;
+import com.omny.android.exoplayer.drm.DrmInitData;
+import com.omny.android.exoplayer.extractor.DummyTrackOutput;
+import com.omny.android.exoplayer.extractor.Extractor;
+import com.omny.android.exoplayer.extractor.ExtractorOutput;
+import com.omny.android.exoplayer.extractor.PositionHolder;
+import com.omny.android.exoplayer.extractor.SeekMap;
+import com.omny.android.exoplayer.extractor.TrackOutput;
+import com.omny.android.exoplayer.testutil.FakeExtractorInput;
+import com.omny.android.exoplayer.testutil.FakeExtractorInput.SimulatedIOException;
+import com.omny.android.exoplayer.testutil.FakeExtractorOutput;
+import com.omny.android.exoplayer.testutil.FakeTrackOutput;
+import com.omny.android.exoplayer.testutil.TestUtil;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link TsExtractor}. See {@link TsExtractorBenchmark} for a benchmark.
+ */
+public class TsExtractorTest extends TestCase {
+
+  private static final int TS_PACKET_SIZE = 188;
+  private static final int PMT_PID = 0x100;
+  private static final int ID3_PID = 0x101;
+  private static final int ID3_TRACK_ID = 0x15;
+
+  private static final long NO_PCR = -1;
+  private static final long FIRST_PCR = 900000;
+  private static final long PES_DELAY_PTS = 9000;
+  private static final long PES_DELAY_US = 100000;
+  private static final int RANDOM_ACCESS_INTERVAL = 5;
+  private static final int MAX_SEEK_RANGE_READS = 8;
+
+  private Random random;
+
+  @Override
+  protected void setUp() {
+    random = new Random(0);
+  }
+
+  public void testExtractsAllSamples() throws Exception {
+    byte[][] samples = createId3Samples(20, 3000);
+    FakeExtractorOutput output = extract(buildStream(samples, 0), false);
+    assertFalse(output.seekMap.isSeekable());
+    assertSamples(output, samples);
+  }
+
+  public void testResynchronisesAfterGarbage() throws Exception {
+    byte[][] samples = createId3Samples(20, 3000);
+    FakeExtractorOutput output = extract(buildStream(samples, 61), false);
+    assertSamples(output, samples);
+  }
+
+  public void testTrailingPartialPacketIsIgnored() throws Exception {
+    byte[][] samples = createId3Samples(5, 1000);
+    byte[] data = buildStream(samples, 0);
+    byte[] truncatedPacket = new byte[TS_PACKET_SIZE / 2];
+    truncatedPacket[0] = 0x47;
+    FakeExtractorOutput output = extract(TestUtil.joinByteArrays(data, truncatedPacket), false);
+    assertSamples(output, samples);
+  }
+
+  public void testTrailingPartialPacketIsNotCarriedIntoNextInput() throws Exception {
+    byte[][] samples = createId3Samples(10, 1000);
+    byte[][] firstSamples = Arrays.copyOfRange(samples, 0, 5);
+    byte[][] secondSamples = Arrays.copyOfRange(samples, 5, 10);
+    // End the first segment with a partial packet that nonetheless holds a complete ID3 sample, so
+    // that the sample would be output if the partial packet were carried into the next segment.
+    byte[] id3Sample = new byte[30];
+    id3Sample[0] = 'I';
+    id3Sample[1] = 'D';
+    id3Sample[2] = '3';
+    id3Sample[3] = 0x04;
+    id3Sample[9] = 20;
+    byte[] truncatedPacket = TestUtil.joinByteArrays(
+        TestUtil.createByteArray(0x47, 0x40 | (ID3_PID >> 8), ID3_PID & 0xFF, 0x10),
+        createPesPacket(id3Sample, 0));
+    byte[] firstSegment = TestUtil.joinByteArrays(buildStream(firstSamples, 0, FIRST_PCR),
+        truncatedPacket);
+    byte[] secondSegment = buildStream(secondSamples, 0, FIRST_PCR + 5 * 90000L);
+    // Reuse the extractor for consecutive segments, as HLS does.
+    FakeExtractorOutput output = new FakeExtractorOutput();
+    TsExtractor extractor = new TsExtractor(new PtsTimestampAdjuster(0));
+    extractor.init(output);
+    readToEnd(extractor, new FakeExtractorInput.Builder().setData(firstSegment).build());
+    readToEnd(extractor, new FakeExtractorInput.Builder().setData(secondSegment).build());
+    assertSamples(output, samples);
+  }
+
+  public void testPartialReadsAndIOErrors() throws Exception {
+    byte[][] samples = createId3Samples(20, 3000);
+    FakeExtractorOutput output = extract(buildStream(samples, 17), true);
+    assertSamples(output, samples);
+  }
+
+  public void testDurationFromClockReferences() throws Exception {
+    byte[][] samples = createId3Samples(50, 3000);
+    FakeExtractorOutput output = extract(buildStream(samples, 0, FIRST_PCR), true);
+    assertTrue(output.seekMap.isSeekable());
+    FakeTrackOutput trackOutput = output.trackOutputs.get(ID3_TRACK_ID);
+    assertEquals(49 * C.MICROS_PER_SECOND, trackOutput.format.durationUs);
+    // Timestamps are relative to the first PCR.
+    trackOutput.assertSampleCount(samples.length);
+    for (int i = 0; i < samples.length; i++) {
+      trackOutput.assertSample(i, samples[i], i * C.MICROS_PER_SECOND + PES_DELAY_US,
+          C.SAMPLE_FLAG_SYNC, null);
+    }
+  }
+
+  public void testUnseekableWhenCreatedWithTimestampAdjuster() throws Exception {
+    byte[][] samples = createId3Samples(20, 3000);
+    FakeExtractorOutput output = new FakeExtractorOutput();
+    TsExtractor extractor = new TsExtractor(new PtsTimestampAdjuster(0));
+    extractor.init(output);
+    TestUtil.consumeTestData(extractor, buildStream(samples, 0, FIRST_PCR));
+    assertFalse(output.seekMap.isSeekable());
+    assertSamples(output, samples);
+  }
+
+  public void testSeekLandsOnRandomAccessPoint() throws Exception {
+    assertSeeksToRandomAccessPoints(createId3Samples(300, 12000), FIRST_PCR);
+  }
+
+  public void testSeekAcrossPcrWraparound() throws Exception {
+    assertSeeksToRandomAccessPoints(createId3Samples(300, 12000),
+        PtsTimestampAdjuster.MAX_PTS_PLUS_ONE - 150 * 90000L);
+  }
+
+  private FakeExtractorOutput extract(byte[] data, boolean simulateInputFaults)
+      throws IOException, InterruptedException {
+    FakeExtractorOutput output = new FakeExtractorOutput();
+    TsExtractor extractor = new TsExtractor();
+    extractor.init(output);
+    FakeExtractorInput input = new FakeExtractorInput.Builder().setData(data)
+        .setSimulatePartialReads(simulateInputFaults).setSimulateIOErrors(simulateInputFaults)
+        .build();
+    readToEnd(extractor, input);
+    return output;
+  }
+
+  /**
+   * Seeks to times throughout a stream with a random access point every
+   * {@link #RANDOM_ACCESS_INTERVAL} samples, checking that extraction resumes from the last random
+   * access point before each time, with timestamps that are continuous with those before the seek.
+   */
+  private static void assertSeeksToRandomAccessPoints(byte[][] samples, long firstPcr)
+      throws IOException, InterruptedException {
+    SampleRecordingOutput output = new SampleRecordingOutput();
+    TsExtractor extractor = new TsExtractor();
+    extractor.init(output);
+    FakeExtractorInput input =
+        new FakeExtractorInput.Builder().setData(buildStream(samples, 0, firstPcr)).build();
+    readToEnd(extractor, input);
+    assertEquals(samples.length, output.sampleTimesUs.size());
+    assertEquals((samples.length - 1) * C.MICROS_PER_SECOND, output.format.durationUs);
+
+    for (int targetIndex : new int[] {212, 37, 299, 3, 150, 151}) {
+      long timeUs = targetIndex * C.MICROS_PER_SECOND + 600000;
+      input.setPosition((int) output.seekMap.getPosition(timeUs));
+      extractor.seek();
+      output.sampleTimesUs.clear();
+      int rangeReadCount = readToEnd(extractor, input);
+      assertTrue("Took " + rangeReadCount + " range reads", rangeReadCount <= MAX_SEEK_RANGE_READS);
+      int expectedIndex = targetIndex - (targetIndex % RANDOM_ACCESS_INTERVAL);
+      assertEquals(samples.length - expectedIndex, output.sampleTimesUs.size());
+      for (int i = 0; i < output.sampleTimesUs.size(); i++) {
+        assertEquals((expectedIndex + i) * C.MICROS_PER_SECOND + PES_DELAY_US,
+            (long) output.sampleTimesUs.get(i));
+      }
+    }
+  }
+
+  /**
+   * Reads from the input until the end, following seeks requested by the extractor and retrying
+   * reads that fail with simulated errors, as a loader would.
+   *
+   * @return The number of seeks requested by the extractor.
+   */
+  private static int readToEnd(Extractor extractor, FakeExtractorInput input)
+      throws IOException, InterruptedException {
+    PositionHolder seekPositionHolder = new PositionHolder();
+    int seekCount = 0;
+    int readResult = Extractor.RESULT_CONTINUE;
+    while (readResult != Extractor.RESULT_END_OF_INPUT) {
+      try {
+        readResult = extractor.read(input, seekPositionHolder);
+      } catch (SimulatedIOException e) {
+        continue;
+      }
+      if (readResult == Extractor.RESULT_SEEK) {
+        input.setPosition((int) seekPositionHolder.position);
+        seekCount++;
+      }
+    }
+    return seekCount;
+  }
+
+  private static void assertSamples(FakeExtractorOutput output, byte[][] samples) {
+    FakeTrackOutput trackOutput = output.trackOutputs.get(ID3_TRACK_ID);
+    trackOutput.assertSampleCount(samples.length);
+    for (int i = 0; i < samples.length; i++) {
+      trackOutput.assertSample(i, samples[i], i * C.MICROS_PER_SECOND, C.SAMPLE_FLAG_SYNC, null);
+    }
+  }
+
+  /**
+   * Creates ID3 tags with random content, each spanning more than one TS packet. Content bytes are
+   * kept below the TS sync byte, so that sync bytes only occur at packet boundaries and where they
+   * are inserted deliberately.
+   */
+  private byte[][] createId3Samples(int count, int maxBodyLength) {
+    return createId3Samples(random, count, maxBodyLength);
+  }
+
+  /**
+   * Creates ID3 tags with random content using {@code random}, as
+   * {@link #createId3Samples(int, int)}.
+   */
+  /* package */ static byte[][] createId3Samples(Random random, int count, int maxBodyLength) {
+    byte[][] samples = new byte[count][];
+    for (int i = 0; i < count; i++) {
+      int bodyLength = TS_PACKET_SIZE + random.nextInt(maxBodyLength - TS_PACKET_SIZE);
+      byte[] sample = new byte[10 + bodyLength];
+      sample[0] = 'I';
+      sample[1] = 'D';
+      sample[2] = '3';
+      sample[3] = 0x04;
+      // Synchsafe tag size.
+      sample[6] = (byte) ((bodyLength >> 21) & 0x7F);
+      sample[7] = (byte) ((bodyLength >> 14) & 0x7F);
+      sample[8] = (byte) ((bodyLength >> 7) & 0x7F);
+      sample[9] = (byte) (bodyLength & 0x7F);
+      for (int j = 10; j < sample.length; j++) {
+        sample[j] = (byte) random.nextInt(0x47);
+      }
+      samples[i] = sample;
+    }
+    return samples;
+  }
+
+  /**
+   * Builds a transport stream holding a single ID3 elementary stream, with one PES packet per
+   * sample and a presentation timestamp of one second per sample.
+   *
+   * @param samples The samples.
+   * @param garbageLength The number of garbage bytes to insert before each PES packet. The middle
+   *     garbage byte is a sync byte that isn't followed by another one a packet later.
+   * @return The transport stream.
+   */
+  /* package */ static byte[] buildStream(byte[][] samples, int garbageLength) {
+    return buildStream(samples, garbageLength, NO_PCR);
+  }
+
+  /**
+   * Builds a transport stream holding a single ID3 elementary stream, with one PES packet per
+   * sample and one second per sample. If {@code firstPcr} is set, the first TS packet of each PES
+   * packet carries a PCR, and the presentation timestamp follows it by {@link #PES_DELAY_PTS}.
+   * Every {@link #RANDOM_ACCESS_INTERVAL}th PES packet is marked as a random access point.
+   *
+   * @param samples The samples.
+   * @param garbageLength The number of garbage bytes to insert before each PES packet.
+   * @param firstPcr The PCR of the first PES packet, or {@link #NO_PCR}.
+   * @return The transport stream.
+   */
+  private static byte[] buildStream(byte[][] samples, int garbageLength, long firstPcr) {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    // program_association_section with a single program whose PMT has pid PMT_PID.
+    writePackets(stream, 0, TestUtil.createByteArray(0x00, 0x00, 0xB0, 0x0D, 0x00, 0x01, 0xC1,
+        0x00, 0x00, 0x00, 0x01, 0xE0 | (PMT_PID >> 8), PMT_PID & 0xFF, 0x00, 0x00, 0x00, 0x00),
+        NO_PCR, false);
+    // TS_program_map_section with a single ID3 stream whose pid is ID3_PID.
+    writePackets(stream, PMT_PID, TestUtil.createByteArray(0x00, 0x02, 0xB0, 0x12, 0x00, 0x01,
+        0xC1, 0x00, 0x00, 0xE0 | (ID3_PID >> 8), ID3_PID & 0xFF, 0xF0, 0x00, 0x15,
+        0xE0 | (ID3_PID >> 8), ID3_PID & 0xFF, 0xF0, 0x00, 0x00, 0x00, 0x00, 0x00), NO_PCR, false);
+    for (int i = 0; i < samples.length; i++) {
+      if (garbageLength > 0) {
+        byte[] garbage = new byte[garbageLength];
+        garbage[garbageLength / 2] = 0x47;
+        stream.write(garbage, 0, garbageLength);
+      }
+      long pcr = firstPcr == NO_PCR ? NO_PCR : firstPcr + i * 90000L;
+      long pts = pcr == NO_PCR ? i * 90000L : pcr + PES_DELAY_PTS;
+      writePackets(stream, ID3_PID, createPesPacket(samples[i], pts), pcr,
+          i % RANDOM_ACCESS_INTERVAL == 0);
+    }
+    return stream.toByteArray();
+  }
+
+  /**
+   * Creates a PES packet with a video stream_id, so that random access points can be identified.
+   */
+  private static byte[] createPesPacket(byte[] payload, long pts) {
+    pts &= PtsTimestampAdjuster.MAX_PTS_PLUS_ONE - 1;
+    int packetLength = 3 + 5 + payload.length;
+    byte[] header = TestUtil.createByteArray(0x00, 0x00, 0x01, 0xE0, packetLength >> 8,
+        packetLength & 0xFF, 0x84 /* data_alignment_indicator */, 0x80 /* PTS_DTS_flags */, 0x05,
+        0x21 | (int) ((pts >> 29) & 0x0E), (int) ((pts >> 22) & 0xFF),
+        (int) ((pts >> 14) & 0xFE) | 0x01, (int) ((pts >> 7) & 0xFF),
+        (int) ((pts << 1) & 0xFE) | 0x01);
+    return TestUtil.joinByteArrays(header, payload);
+  }
+
+  /**
+   * Writes a payload as a sequence of TS packets, stuffing the adaptation field of the last one.
+   *
+   * @param stream The stream to write to.
+   * @param pid The pid of the packets.
+   * @param payload The payload.
+   * @param pcr The PCR to set in the first packet, or {@link #NO_PCR}.
+   * @param randomAccess Whether to set the random_access_indicator in the first packet.
+   */
+  private static void writePackets(ByteArrayOutputStream stream, int pid, byte[] payload,
+      long pcr, boolean randomAccess) {
+    int continuityCounter = 0;
+    for (int position = 0; position < payload.length; ) {
+      int adaptationFieldFlags = 0;
+      int adaptationFieldDataLength = 0;
+      if (position == 0 && pcr != NO_PCR) {
+        adaptationFieldFlags |= 0x10;
+        adaptationFieldDataLength = 6;
+      }
+      if (position == 0 && randomAccess) {
+        adaptationFieldFlags |= 0x40;
+      }
+      int minAdaptationFieldSize = adaptationFieldFlags != 0 ? 2 + adaptationFieldDataLength : 0;
+      int payloadLength =
+          Math.min(TS_PACKET_SIZE - 4 - minAdaptationFieldSize, payload.length - position);
+      int adaptationFieldSize = TS_PACKET_SIZE - 4 - payloadLength;
+      stream.write(0x47);
+      stream.write((position == 0 ? 0x40 : 0x00) | (pid >> 8));
+      stream.write(pid & 0xFF);
+      stream.write((adaptationFieldSize > 0 ? 0x30 : 0x10) | (continuityCounter++ & 0x0F));
+      if (adaptationFieldSize > 0) {
+        int adaptationFieldLength = adaptationFieldSize - 1;
+        stream.write(adaptationFieldLength);
+        if (adaptationFieldLength > 0) {
+          stream.write(adaptationFieldFlags);
+          if ((adaptationFieldFlags & 0x10) != 0) {
+            long pcrBase = pcr & (PtsTimestampAdjuster.MAX_PTS_PLUS_ONE - 1);
+            stream.write((int) (pcrBase >> 25));
+            stream.write((int) (pcrBase >> 17));
+            stream.write((int) (pcrBase >> 9));
+            stream.write((int) (pcrBase >> 1));
+            stream.write((int) ((pcrBase & 0x01) << 7) | 0x7E);
+            stream.write(0x00);
+          }
+          for (int i = 1 + adaptationFieldDataLength; i < adaptationFieldLength; i++) {
+            stream.write(0xFF);
+          }
+        }
+      }
+      stream.write(payload, position, payloadLength);
+      position += payloadLength;
+    }
+  }
+
+  /**
+   * An {@link ExtractorOutput} that discards sample data and records sample timestamps, so that
+   * benchmarks measure the extractor rather than the output.
+   */
+  /* package */ static final class SampleRecordingOutput extends DummyTrackOutput
+      implements ExtractorOutput {
+
+    public final ArrayList<Long> sampleTimesUs = new ArrayList<>();
+    public MediaFormat format;
+    public SeekMap seekMap;
+
+    @Override
+    public TrackOutput track(int trackId) {
+      return this;
+    }
+
+    @Override
+    public void endTracks() {
+      // Do nothing.
+    }
+
+    @Override
+    public void seekMap(SeekMap seekMap) {
+      this.seekMap = seekMap;
+    }
+
+    @Override
+    public void drmInitData(DrmInitData drmInitData) {
+      // Do nothing.
+    }
+
+    @Override
+    public void format(MediaFormat format) {
+      this.format = format;
+    }
+
+    @Override
+    public void sampleMetadata(long timeUs, int flags, int size, int offset,
+        byte[] encryptionKey) {
+      sampleTimesUs.add(timeUs);
+    }
+
+  }
+
+}
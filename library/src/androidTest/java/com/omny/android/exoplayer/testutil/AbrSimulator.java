@@ -0,0 +1,561 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.testutil;
+
+import com.omny.android.exoplayer.C;
+import com.omny.android.exoplayer.DefaultLoadControl;
+import com.omny.android.exoplayer.ExoPlayer;
+import com.omny.android.exoplayer.chunk.Chunk;
+import com.omny.android.exoplayer.chunk.Format;
+import com.omny.android.exoplayer.chunk.FormatEvaluator;
+import com.omny.android.exoplayer.chunk.FormatEvaluator.Evaluation;
+import com.omny.android.exoplayer.chunk.MediaChunk;
+import com.omny.android.exoplayer.hls.HlsVariantSelector;
+import com.omny.android.exoplayer.upstream.BandwidthMeter;
+import com.omny.android.exoplayer.upstream.DataSource;
+import com.omny.android.exoplayer.upstream.DataSpec;
+import com.omny.android.exoplayer.upstream.DefaultBandwidthMeter;
+import com.omny.android.exoplayer.util.Assertions;
+import com.omny.android.exoplayer.util.Clock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Replays network traces through {@link FormatEvaluator}s to measure the quality of experience
+ * that they deliver, without loading any media.
+ * <p>
+ * Time is simulated, so a trace is replayed far faster than real time. Chunks are downloaded one at
+ * a time through the throughput and latency described by the trace, and the transfers are reported
+ * to a {@link DefaultBandwidthMeter} that uses the simulated time. Playback starts once
+ * {@code minBufferMs} of media is buffered, rebuffers when the buffer runs dry, and resumes once
+ * {@code minRebufferMs} is buffered again. As with {@link DefaultLoadControl}, chunks are loaded
+ * until {@code highWatermarkMs} of media is buffered, and loading resumes once the buffer has
+ * drained to {@code lowWatermarkMs}.
+ * <p>
+ * HLS variant switching is simulated by wrapping an {@link HlsVariantSelector} in an
+ * {@link HlsVariantEvaluator}.
+ */
+public final class AbrSimulator {
+
+  /**
+   * Creates the {@link FormatEvaluator} to be simulated.
+   */
+  public interface EvaluatorFactory {
+
+    /**
+     * Creates a {@link FormatEvaluator}.
+     *
+     * @param bandwidthMeter The meter to which the simulated transfers are reported.
+     * @return The evaluator.
+     */
+    FormatEvaluator createFormatEvaluator(BandwidthMeter bandwidthMeter);
+
+  }
+
+  /**
+   * The outcome of a simulated playback.
+   */
+  public static final class Result {
+
+    /**
+     * The time from the start of the simulation until playback started.
+     */
+    public final long startupDelayMs;
+    /**
+     * The number of times that playback stalled after it had started.
+     */
+    public final int rebufferCount;
+    /**
+     * The total time for which playback was stalled after it had started.
+     */
+    public final long rebufferDurationMs;
+    /**
+     * The average bitrate of the played media, weighted by duration, in bits per second.
+     */
+    public final long averageBitrate;
+    /**
+     * The number of times that the format of the played media changed.
+     */
+    public final int switchCount;
+    /**
+     * The number of loaded chunks that the evaluator discarded before they were played.
+     */
+    public final int discardedChunkCount;
+
+    public Result(long startupDelayMs, int rebufferCount, long rebufferDurationMs,
+        long averageBitrate, int switchCount, int discardedChunkCount) {
+      this.startupDelayMs = startupDelayMs;
+      this.rebufferCount = rebufferCount;
+      this.rebufferDurationMs = rebufferDurationMs;
+      this.averageBitrate = averageBitrate;
+      this.switchCount = switchCount;
+      this.discardedChunkCount = discardedChunkCount;
+    }
+
+  }
+
+  /**
+   * A piecewise constant network trace, which repeats when its end is reached.
+   */
+  public static final class NetworkTrace {
+
+    private final long[] startTimesUs;
+    private final long[] bitrates;
+    private final long[] latenciesUs;
+    private final long durationUs;
+
+    /**
+     * @param durationsMs The durations of the periods that make up the trace.
+     * @param bitrates The throughput during each period in bits per second.
+     * @param latenciesMs The delay before the first byte of a request made during each period.
+     */
+    public NetworkTrace(long[] durationsMs, long[] bitrates, long[] latenciesMs) {
+      Assertions.checkArgument(durationsMs.length > 0 && durationsMs.length == bitrates.length
+          && durationsMs.length == latenciesMs.length);
+      startTimesUs = new long[durationsMs.length];
+      latenciesUs = new long[durationsMs.length];
+      long timeUs = 0;
+      boolean hasThroughput = false;
+      for (int i = 0; i < durationsMs.length; i++) {
+        Assertions.checkArgument(durationsMs[i] > 0 && bitrates[i] >= 0 && latenciesMs[i] >= 0);
+        startTimesUs[i] = timeUs;
+        latenciesUs[i] = latenciesMs[i] * 1000;
+        timeUs += durationsMs[i] * 1000;
+        hasThroughput |= bitrates[i] > 0;
+      }
+      Assertions.checkArgument(hasThroughput);
+      this.bitrates = Arrays.copyOf(bitrates, bitrates.length);
+      durationUs = timeUs;
+    }
+
+    /**
+     * Parses a trace consisting of one period per line, where each line holds the duration in
+     * milliseconds, the throughput in bits per second and the latency in milliseconds, separated by
+     * whitespace. Empty lines and lines starting with '#' are ignored.
+     *
+     * @param data The trace.
+     * @return The parsed trace.
+     */
+    public static NetworkTrace parse(String data) {
+      String[] lines = data.split("\n");
+      long[] durationsMs = new long[lines.length];
+      long[] bitrates = new long[lines.length];
+      long[] latenciesMs = new long[lines.length];
+      int count = 0;
+      for (String line : lines) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        String[] values = line.split("\\s+");
+        Assertions.checkArgument(values.length == 3);
+        durationsMs[count] = Long.parseLong(values[0]);
+        bitrates[count] = Long.parseLong(values[1]);
+        latenciesMs[count] = Long.parseLong(values[2]);
+        count++;
+      }
+      return new NetworkTrace(Arrays.copyOf(durationsMs, count), Arrays.copyOf(bitrates, count),
+          Arrays.copyOf(latenciesMs, count));
+    }
+
+    /**
+     * Returns the duration of the trace before it repeats.
+     */
+    public long getDurationMs() {
+      return durationUs / 1000;
+    }
+
+    private int getPeriodIndex(long timeUs) {
+      int index = Arrays.binarySearch(startTimesUs, timeUs % durationUs);
+      return index >= 0 ? index : -index - 2;
+    }
+
+    private long getPeriodEndTimeUs(int periodIndex, long timeUs) {
+      long periodEndUs = periodIndex == startTimesUs.length - 1 ? durationUs
+          : startTimesUs[periodIndex + 1];
+      return timeUs - (timeUs % durationUs) + periodEndUs;
+    }
+
+  }
+
+  /**
+   * A {@link FormatEvaluator} that selects variants in the same way as
+   * {@link com.omny.android.exoplayer.hls.HlsChunkSource}.
+   */
+  public static final class HlsVariantEvaluator implements FormatEvaluator {
+
+    private final HlsVariantSelector variantSelector;
+    private final BandwidthMeter bandwidthMeter;
+    private final int initialVariantIndex;
+
+    private boolean[] blacklisted;
+
+    /**
+     * @param variantSelector The selector to simulate.
+     * @param bandwidthMeter Provides an estimate of the currently available bandwidth.
+     * @param initialVariantIndex The index of the default variant.
+     */
+    public HlsVariantEvaluator(HlsVariantSelector variantSelector, BandwidthMeter bandwidthMeter,
+        int initialVariantIndex) {
+      this.variantSelector = variantSelector;
+      this.bandwidthMeter = bandwidthMeter;
+      this.initialVariantIndex = initialVariantIndex;
+    }
+
+    @Override
+    public void enable() {
+      // Do nothing.
+    }
+
+    @Override
+    public void disable() {
+      // Do nothing.
+    }
+
+    @Override
+    public void evaluate(List<? extends MediaChunk> queue, long playbackPositionUs,
+        Format[] formats, Evaluation evaluation) {
+      if (blacklisted == null || blacklisted.length != formats.length) {
+        blacklisted = new boolean[formats.length];
+      }
+      Format current = evaluation.format;
+      int selectedIndex = current == null
+          ? variantSelector.selectInitialVariantIndex(formats, blacklisted, initialVariantIndex,
+              bandwidthMeter.getBitrateEstimate())
+          : indexOf(formats, current);
+      // As in HlsChunkSource, the buffered duration is measured to the start of the last chunk.
+      long bufferedUs = queue.isEmpty() ? C.UNKNOWN_TIME_US
+          : Math.max(0, queue.get(queue.size() - 1).startTimeUs - playbackPositionUs);
+      int index = variantSelector.selectVariantIndex(formats, blacklisted, selectedIndex,
+          bufferedUs, bandwidthMeter.getBitrateEstimate());
+      if (current != null && formats[index] != current) {
+        evaluation.trigger = Chunk.TRIGGER_ADAPTIVE;
+      }
+      evaluation.format = formats[index];
+    }
+
+  }
+
+  public static final int DEFAULT_CHUNK_DURATION_MS = 4000;
+
+  /**
+   * The maximum number of bytes reported to the bandwidth meter at once, other than for the first
+   * report of a transfer, which is no larger than {@link #FIRST_REPORT_BYTES} so that the latency
+   * is measured accurately.
+   */
+  private static final int MAX_REPORT_BYTES = 256 * 1024;
+  private static final int FIRST_REPORT_BYTES = 4096;
+
+  private final Format[] formats;
+  private final long chunkDurationUs;
+  private final long minBufferUs;
+  private final long minRebufferUs;
+  private final long lowWatermarkUs;
+  private final long highWatermarkUs;
+
+  /**
+   * @param formats The formats available, ordered by decreasing bitrate.
+   */
+  public AbrSimulator(Format[] formats) {
+    this(formats, DEFAULT_CHUNK_DURATION_MS, ExoPlayer.Factory.DEFAULT_MIN_BUFFER_MS,
+        ExoPlayer.Factory.DEFAULT_MIN_REBUFFER_MS, DefaultLoadControl.DEFAULT_LOW_WATERMARK_MS,
+        DefaultLoadControl.DEFAULT_HIGH_WATERMARK_MS);
+  }
+
+  /**
+   * @param formats The formats available, ordered by decreasing bitrate.
+   * @param chunkDurationMs The duration of each chunk.
+   * @param minBufferMs The duration of media that must be buffered for playback to start.
+   * @param minRebufferMs The duration of media that must be buffered for playback to resume after
+   *     a rebuffer.
+   * @param lowWatermarkMs The duration of buffered media below which loading resumes.
+   * @param highWatermarkMs The duration of buffered media above which loading stops.
+   */
+  public AbrSimulator(Format[] formats, int chunkDurationMs, int minBufferMs, int minRebufferMs,
+      int lowWatermarkMs, int highWatermarkMs) {
+    Assertions.checkArgument(chunkDurationMs > 0 && lowWatermarkMs <= highWatermarkMs
+        && highWatermarkMs >= Math.max(minBufferMs, minRebufferMs));
+    this.formats = formats;
+    this.chunkDurationUs = chunkDurationMs * 1000L;
+    this.minBufferUs = minBufferMs * 1000L;
+    this.minRebufferUs = minRebufferMs * 1000L;
+    this.lowWatermarkUs = lowWatermarkMs * 1000L;
+    this.highWatermarkUs = highWatermarkMs * 1000L;
+  }
+
+  /**
+   * Simulates playback of a piece of content.
+   *
+   * @param trace The network trace to replay, from its start.
+   * @param contentDurationMs The duration of the content.
+   * @param evaluatorFactory Creates the evaluator to simulate.
+   * @return The result of the simulation.
+   */
+  public Result simulate(NetworkTrace trace, long contentDurationMs,
+      EvaluatorFactory evaluatorFactory) {
+    return simulate(trace, contentDurationMs, evaluatorFactory, BandwidthMeter.NO_ESTIMATE);
+  }
+
+  /**
+   * Simulates playback of a piece of content, with the bandwidth meter seeded as if from a
+   * {@link com.omny.android.exoplayer.upstream.BandwidthHistory}.
+   *
+   * @param trace The network trace to replay, from its start.
+   * @param contentDurationMs The duration of the content.
+   * @param evaluatorFactory Creates the evaluator to simulate.
+   * @param seedBitrate The bitrate with which to seed the bandwidth meter, or
+   *     {@link BandwidthMeter#NO_ESTIMATE}.
+   * @return The result of the simulation.
+   */
+  public Result simulate(NetworkTrace trace, long contentDurationMs,
+      EvaluatorFactory evaluatorFactory, long seedBitrate) {
+    return new Simulation(trace, contentDurationMs * 1000).run(evaluatorFactory, seedBitrate);
+  }
+
+  private static int indexOf(Format[] formats, Format format) {
+    for (int i = 0; i < formats.length; i++) {
+      if (formats[i] == format) {
+        return i;
+      }
+    }
+    throw new IllegalStateException();
+  }
+
+  /**
+   * The state of a single simulated playback, which also provides the simulated time.
+   */
+  private final class Simulation implements Clock {
+
+    private final NetworkTrace trace;
+    private final long contentDurationUs;
+    private final int chunkCount;
+    private final int[] chunkFormatIndices;
+    private final ArrayList<SimulatedChunk> queue;
+    private final DataSource dataSource;
+    private final DataSpec dataSpec;
+
+    private long timeUs;
+    private long positionUs;
+    private long bufferedEndUs;
+    private int nextChunkIndex;
+    private boolean started;
+    private boolean playing;
+    private boolean fillingBuffer;
+    private long startupDelayUs;
+    private long stallStartUs;
+    private int rebufferCount;
+    private long rebufferDurationUs;
+    private int discardedChunkCount;
+
+    public Simulation(NetworkTrace trace, long contentDurationUs) {
+      this.trace = trace;
+      this.contentDurationUs = contentDurationUs;
+      chunkCount = (int) ((contentDurationUs + chunkDurationUs - 1) / chunkDurationUs);
+      chunkFormatIndices = new int[chunkCount];
+      queue = new ArrayList<>();
+      dataSource = new FakeDataSource.Builder().build();
+      dataSpec = new DataSpec(null);
+    }
+
+    @Override
+    public long elapsedRealtime() {
+      return timeUs / 1000;
+    }
+
+    public Result run(EvaluatorFactory evaluatorFactory, long seedBitrate) {
+      DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(null, null, this);
+      bandwidthMeter.seedBitrateEstimate(seedBitrate);
+      FormatEvaluator evaluator = evaluatorFactory.createFormatEvaluator(bandwidthMeter);
+      Evaluation evaluation = new Evaluation();
+      evaluator.enable();
+      fillingBuffer = true;
+      while (nextChunkIndex < chunkCount) {
+        long bufferedUs = bufferedEndUs - positionUs;
+        if (fillingBuffer && playing && bufferedUs >= highWatermarkUs) {
+          fillingBuffer = false;
+        }
+        if (!fillingBuffer) {
+          // Wait until the buffer has drained to the low watermark.
+          advanceTime(Math.max(0, bufferedUs - lowWatermarkUs));
+          fillingBuffer = true;
+        }
+        discardPlayedChunks();
+        long chunkStartUs = nextChunkIndex * chunkDurationUs;
+        long chunkEndUs = Math.min(contentDurationUs, chunkStartUs + chunkDurationUs);
+
+        evaluation.queueSize = queue.size();
+        evaluator.evaluate(queue, positionUs, formats, evaluation);
+        if (evaluation.queueSize < queue.size()) {
+          discardChunks(evaluation.queueSize);
+          continue;
+        }
+
+        Format format = evaluation.format;
+        long bytes = (chunkEndUs - chunkStartUs) * format.bitrate / 8000000;
+        transfer(bandwidthMeter, Math.max(1, bytes));
+        queue.add(new SimulatedChunk(dataSource, dataSpec, evaluation.trigger, format,
+            chunkStartUs, chunkEndUs, nextChunkIndex));
+        chunkFormatIndices[nextChunkIndex] = indexOf(formats, format);
+        nextChunkIndex++;
+        bufferedEndUs = chunkEndUs;
+        maybeStartPlayback();
+      }
+      evaluator.disable();
+      return createResult();
+    }
+
+    /**
+     * Transfers data through the trace, reporting it to the bandwidth meter.
+     */
+    private void transfer(DefaultBandwidthMeter bandwidthMeter, long bytes) {
+      bandwidthMeter.onTransferStart();
+      advanceTime(trace.latenciesUs[trace.getPeriodIndex(timeUs)]);
+      long bytesRemaining = bytes;
+      int maxReportBytes = FIRST_REPORT_BYTES;
+      while (bytesRemaining > 0) {
+        int periodIndex = trace.getPeriodIndex(timeUs);
+        long availableUs = trace.getPeriodEndTimeUs(periodIndex, timeUs) - timeUs;
+        long bitrate = trace.bitrates[periodIndex];
+        long reportBytes = Math.min(bytesRemaining, maxReportBytes);
+        long availableBytes = bitrate * availableUs / 8000000;
+        if (availableBytes < reportBytes) {
+          // Transfer what's possible before the end of the period.
+          advanceTime(availableUs);
+          reportBytes = availableBytes;
+        } else {
+          advanceTime((reportBytes * 8000000 + bitrate - 1) / bitrate);
+        }
+        if (reportBytes > 0) {
+          bandwidthMeter.onBytesTransferred((int) reportBytes);
+          bytesRemaining -= reportBytes;
+          maxReportBytes = MAX_REPORT_BYTES;
+        }
+      }
+      bandwidthMeter.onTransferEnd();
+    }
+
+    /**
+     * Advances the simulated time, playing any buffered media.
+     */
+    private void advanceTime(long durationUs) {
+      if (playing) {
+        long playableUs = bufferedEndUs - positionUs;
+        if (durationUs < playableUs || bufferedEndUs == contentDurationUs) {
+          positionUs += Math.min(durationUs, playableUs);
+        } else {
+          positionUs = bufferedEndUs;
+          playing = false;
+          rebufferCount++;
+          stallStartUs = timeUs + playableUs;
+        }
+      }
+      timeUs += durationUs;
+    }
+
+    private void maybeStartPlayback() {
+      if (playing) {
+        return;
+      }
+      long requiredUs = started ? minRebufferUs : minBufferUs;
+      if (bufferedEndUs - positionUs >= requiredUs || nextChunkIndex == chunkCount) {
+        playing = true;
+        if (started) {
+          rebufferDurationUs += timeUs - stallStartUs;
+        } else {
+          started = true;
+          startupDelayUs = timeUs;
+        }
+      }
+    }
+
+    /**
+     * Removes chunks that have been played from the queue, retaining the last loaded chunk as
+     * {@link com.omny.android.exoplayer.chunk.ChunkSampleSource} does.
+     */
+    private void discardPlayedChunks() {
+      int playedCount = 0;
+      while (playedCount < queue.size() - 1 && queue.get(playedCount).endTimeUs <= positionUs) {
+        playedCount++;
+      }
+      if (playedCount > 0) {
+        queue.subList(0, playedCount).clear();
+      }
+    }
+
+    private void discardChunks(int queueSize) {
+      Assertions.checkState(queueSize > 0);
+      discardedChunkCount += queue.size() - queueSize;
+      queue.subList(queueSize, queue.size()).clear();
+      MediaChunk lastChunk = queue.get(queueSize - 1);
+      nextChunkIndex = lastChunk.chunkIndex + 1;
+      bufferedEndUs = lastChunk.endTimeUs;
+    }
+
+    private Result createResult() {
+      long bitrateDurationSum = 0;
+      int switchCount = 0;
+      for (int i = 0; i < chunkCount; i++) {
+        long chunkStartUs = i * chunkDurationUs;
+        long chunkEndUs = Math.min(contentDurationUs, chunkStartUs + chunkDurationUs);
+        bitrateDurationSum += (long) formats[chunkFormatIndices[i]].bitrate
+            * ((chunkEndUs - chunkStartUs) / 1000);
+        if (i > 0 && chunkFormatIndices[i] != chunkFormatIndices[i - 1]) {
+          switchCount++;
+        }
+      }
+      long averageBitrate = contentDurationUs == 0 ? 0
+          : bitrateDurationSum / (contentDurationUs / 1000);
+      return new Result(startupDelayUs / 1000, rebufferCount, rebufferDurationUs / 1000,
+          averageBitrate, switchCount, discardedChunkCount);
+    }
+
+  }
+
+  /**
+   * A {@link MediaChunk} that's never loaded.
+   */
+  private static final class SimulatedChunk extends MediaChunk {
+
+    public SimulatedChunk(DataSource dataSource, DataSpec dataSpec, int trigger, Format format,
+        long startTimeUs, long endTimeUs, int chunkIndex) {
+      super(dataSource, dataSpec, trigger, format, startTimeUs, endTimeUs, chunkIndex);
+    }
+
+    @Override
+    public long bytesLoaded() {
+      return 0;
+    }
+
+    @Override
+    public void cancelLoad() {
+      // Do nothing.
+    }
+
+    @Override
+    public boolean isLoadCanceled() {
+      return false;
+    }
+
+    @Override
+    public void load() {
+      // Do nothing.
+    }
+
+  }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream;
+
+import java.util.Random;
+
+/**
+ * Manual benchmark for {@link BandwidthEstimator} implementations. It isn't run as part of the unit
+ * tests, since the durations depend on the device and its load. Run {@link #main(String[])} to
+ * report them.
+ */
+public final class BandwidthEstimatorBenchmark {
+
+  private static final int SAMPLE_COUNT = 100000;
+
+  private BandwidthEstimatorBenchmark() {}
+
+  public static void main(String[] args) {
+    report("SlidingPercentileBandwidthEstimator", new SlidingPercentileBandwidthEstimator());
+    report("DualEwmaBandwidthEstimator", new DualEwmaBandwidthEstimator());
+    report("LatencyAwareBandwidthEstimator", new LatencyAwareBandwidthEstimator());
+  }
+
+  private static void report(String name, BandwidthEstimator estimator) {
+    Random random = new Random(0);
+    long[] bytes = new long[1024];
+    long[] elapsedMs = new long[bytes.length];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = 1000 + random.nextInt(1000000);
+      elapsedMs[i] = 1 + random.nextInt(2000);
+    }
+    long startTimeNs = System.nanoTime();
+    long checksum = 0;
+    for (int i = 0; i < SAMPLE_COUNT; i++) {
+      int index = i % bytes.length;
+      estimator.addSample(bytes[index], elapsedMs[index], elapsedMs[index] / 4);
+      checksum += estimator.getBitrateEstimate();
+    }
+    long durationMs = (System.nanoTime() - startTimeNs) / 1000000;
+    // Print the checksum so that the loop can't be optimized away.
+    System.out.println(name + ": " + SAMPLE_COUNT + " samples took " + durationMs + "ms (checksum "
+        + checksum + ")");
+  }
+
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream;
+
+import com.omny.android.exoplayer.util.Clock;
+import com.omny.android.exoplayer.util.SlidingPercentile;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Trace based accuracy tests for {@link BandwidthEstimator} implementations. See
+ * {@link BandwidthEstimatorBenchmark} for a benchmark.
+ */
+public class BandwidthEstimatorTest extends TestCase {
+
+  // SlidingPercentileBandwidthEstimator.
+
+  public void testSlidingPercentileMatchesSlidingPercentile() {
+    SlidingPercentileBandwidthEstimator estimator = new SlidingPercentileBandwidthEstimator();
+    SlidingPercentile slidingPercentile =
+        new SlidingPercentile(SlidingPercentileBandwidthEstimator.DEFAULT_MAX_WEIGHT);
+    Random random = new Random(0);
+    for (int i = 0; i < 1000; i++) {
+      long bytes = 10000 + random.nextInt(1000000);
+      long elapsedMs = 10 + random.nextInt(2000);
+      estimator.addSample(bytes, elapsedMs, 0);
+      slidingPercentile.addSample((int) Math.sqrt(bytes), (bytes * 8000) / elapsedMs);
+      assertEquals((long) slidingPercentile.getPercentile(0.5f), estimator.getBitrateEstimate());
+    }
+  }
+
+  public void testSlidingPercentileIgnoresOutliers() {
+    SlidingPercentileBandwidthEstimator estimator = new SlidingPercentileBandwidthEstimator();
+    for (int i = 0; i < 20; i++) {
+      // A transfer at 4 Mbps, and every third transfer a burst at 40 Mbps.
+      estimator.addSample(500000, 1000, 0);
+      if (i % 3 == 0) {
+        estimator.addSample(500000, 100, 0);
+      }
+    }
+    assertEquals(4000000, estimator.getBitrateEstimate());
+  }
+
+  public void testSlidingPercentileDiscardsOldestSampleAtCapacity() {
+    SlidingPercentileBandwidthEstimator estimator =
+        new SlidingPercentileBandwidthEstimator(Integer.MAX_VALUE, 3, 0.5f);
+    estimator.addSample(1000, 1000, 0);
+    estimator.addSample(1000, 1000, 0);
+    estimator.addSample(1000, 1000, 0);
+    assertEquals(8000, estimator.getBitrateEstimate());
+    estimator.addSample(10000, 1000, 0);
+    estimator.addSample(10000, 1000, 0);
+    assertEquals(80000, estimator.getBitrateEstimate());
+  }
+
+  public void testSlidingPercentileReset() {
+    SlidingPercentileBandwidthEstimator estimator = new SlidingPercentileBandwidthEstimator();
+    estimator.addSample(1000, 1000, 0);
+    estimator.reset();
+    assertEquals(BandwidthMeter.NO_ESTIMATE, estimator.getBitrateEstimate());
+  }
+
+  // DualEwmaBandwidthEstimator.
+
+  public void testDualEwmaRequiresMinimumBytes() {
+    DualEwmaBandwidthEstimator estimator = new DualEwmaBandwidthEstimator();
+    estimator.addSample(DualEwmaBandwidthEstimator.DEFAULT_MIN_TOTAL_BYTES - 1, 100, 0);
+    assertEquals(BandwidthMeter.NO_ESTIMATE, estimator.getBitrateEstimate());
+    estimator.addSample(1, 1, 0);
+    assertTrue(estimator.getBitrateEstimate() != BandwidthMeter.NO_ESTIMATE);
+  }
+
+  public void testDualEwmaConvergesOnSteadyTrace() {
+    DualEwmaBandwidthEstimator estimator = new DualEwmaBandwidthEstimator();
+    addSteadyTrace(estimator, 3000000, 0, 20);
+    assertWithin(3000000, estimator.getBitrateEstimate(), 0.01);
+  }
+
+  public void testDualEwmaFollowsDropQuickly() {
+    DualEwmaBandwidthEstimator estimator = new DualEwmaBandwidthEstimator();
+    addSteadyTrace(estimator, 8000000, 0, 20);
+    // After 4 seconds at 2 Mbps (two fast half-lives), the estimate is within a quarter of the
+    // difference.
+    addSteadyTrace(estimator, 2000000, 0, 4);
+    assertTrue(estimator.getBitrateEstimate() <= 2000000 + 6000000 / 4 + 1);
+  }
+
+  public void testDualEwmaRisesSlowly() {
+    DualEwmaBandwidthEstimator estimator = new DualEwmaBandwidthEstimator();
+    addSteadyTrace(estimator, 2000000, 0, 20);
+    // A one second burst at 8 Mbps moves the slow average by less than 15% of the difference.
+    addSteadyTrace(estimator, 8000000, 0, 1);
+    assertTrue(estimator.getBitrateEstimate() < 2000000 + 6000000 * 0.15);
+  }
+
+  // LatencyAwareBandwidthEstimator.
+
+  public void testLatencyAwareSeparatesLatencyFromThroughput() {
+    LatencyAwareBandwidthEstimator estimator = new LatencyAwareBandwidthEstimator();
+    Random random = new Random(0);
+    for (int i = 0; i < 50; i++) {
+      // Transfers of varying size at 10 Mbps, each with 200ms until the first byte.
+      long bytes = 20000 + random.nextInt(500000);
+      long transferMs = bytes * 8000 / 10000000;
+      estimator.addSample(bytes, 200 + transferMs, 200);
+    }
+    assertWithin(10000000, estimator.getThroughputEstimate(), 0.01);
+    assertEquals(200, estimator.getLatencyEstimateMs());
+    // A 512 kB transfer takes 0.2s + 0.419s.
+    long referenceBits = LatencyAwareBandwidthEstimator.DEFAULT_REFERENCE_TRANSFER_BYTES * 8L;
+    long expectedBitrate = (long) (referenceBits / (0.2 + referenceBits / 10000000d));
+    assertWithin(expectedBitrate, estimator.getBitrateEstimate(), 0.01);
+  }
+
+  public void testLatencyAwareIsMoreAccurateThanMedianForSmallTransfers() {
+    LatencyAwareBandwidthEstimator latencyAwareEstimator = new LatencyAwareBandwidthEstimator(
+        500000, LatencyAwareBandwidthEstimator.DEFAULT_THROUGHPUT_HALF_LIFE_MS,
+        LatencyAwareBandwidthEstimator.DEFAULT_LATENCY_HALF_LIFE_TRANSFERS);
+    SlidingPercentileBandwidthEstimator medianEstimator = new SlidingPercentileBandwidthEstimator();
+    // Small playlist-like transfers dominated by latency, at 10 Mbps with 150ms until first byte.
+    for (int i = 0; i < 20; i++) {
+      latencyAwareEstimator.addSample(10000, 158, 150);
+      medianEstimator.addSample(10000, 158, 150);
+    }
+    // The effective bitrate of a 500 kB chunk transfer is 500 * 8 / (0.15 + 0.4) = 7.27 Mbps.
+    long expectedBitrate = 7272727;
+    assertWithin(expectedBitrate, latencyAwareEstimator.getBitrateEstimate(), 0.05);
+    assertTrue(medianEstimator.getBitrateEstimate() < expectedBitrate / 10);
+  }
+
+  // DefaultBandwidthMeter.
+
+  public void testMeterPassesFirstByteDelayToEstimator() {
+    FakeClock clock = new FakeClock();
+    RecordingEstimator estimator = new RecordingEstimator();
+    DefaultBandwidthMeter meter = new DefaultBandwidthMeter(null, null, clock, estimator);
+    meter.onTransferStart();
+    clock.timeMs += 120;
+    meter.onBytesTransferred(1000);
+    clock.timeMs += 80;
+    meter.onBytesTransferred(1000);
+    meter.onTransferEnd();
+    assertEquals(2000, estimator.bytes);
+    assertEquals(200, estimator.elapsedMs);
+    assertEquals(120, estimator.firstByteDelayMs);
+    assertEquals(12345, meter.getBitrateEstimate());
+  }
+
+  public void testMeterReportsNoDelayForContinuingTransfer() {
+    FakeClock clock = new FakeClock();
+    RecordingEstimator estimator = new RecordingEstimator();
+    DefaultBandwidthMeter meter = new DefaultBandwidthMeter(null, null, clock, estimator);
+    meter.onTransferStart();
+    meter.onTransferStart();
+    clock.timeMs += 100;
+    meter.onBytesTransferred(1000);
+    meter.onTransferEnd();
+    clock.timeMs += 100;
+    meter.onBytesTransferred(1000);
+    meter.onTransferEnd();
+    assertEquals(0, estimator.firstByteDelayMs);
+  }
+
+  public void testMeterSeedIsOutweighedBySamples() {
+    FakeClock clock = new FakeClock();
+    DefaultBandwidthMeter meter = new DefaultBandwidthMeter(null, null, clock);
+    meter.seedBitrateEstimate(8000000);
+    assertEquals(8000000, meter.getBitrateEstimate());
+    // A second seed is ignored.
+    meter.seedBitrateEstimate(1000000);
+    assertEquals(8000000, meter.getBitrateEstimate());
+    // The seed has a small weight, so a single transfer outweighs it.
+    meter.onTransferStart();
+    clock.timeMs += 1000;
+    meter.onBytesTransferred(250000);
+    meter.onTransferEnd();
+    assertEquals(2000000, meter.getBitrateEstimate());
+  }
+
+  public void testSeedIsOutweighedBySamples() {
+    assertSeedIsOutweighedBySamples(new SlidingPercentileBandwidthEstimator());
+    assertSeedIsOutweighedBySamples(new DualEwmaBandwidthEstimator());
+    assertSeedIsOutweighedBySamples(new LatencyAwareBandwidthEstimator());
+  }
+
+  private static void assertSeedIsOutweighedBySamples(BandwidthEstimator estimator) {
+    estimator.addSeed(8000000);
+    assertEquals(8000000, estimator.getBitrateEstimate());
+    addSteadyTrace(estimator, 2000000, 0, 1);
+    assertWithin(2000000, estimator.getBitrateEstimate(), 0.1);
+  }
+
+  /**
+   * Adds samples of one second transfers at a constant bitrate.
+   */
+  private static void addSteadyTrace(BandwidthEstimator estimator, long bitrate,
+      long firstByteDelayMs, int count) {
+    for (int i = 0; i < count; i++) {
+      estimator.addSample(bitrate / 8, 1000 + firstByteDelayMs, firstByteDelayMs);
+    }
+  }
+
+  private static void assertWithin(long expected, long actual, double tolerance) {
+    assertTrue("Expected " + expected + " but was " + actual,
+        Math.abs(actual - expected) <= expected * tolerance);
+  }
+
+  private static final class FakeClock implements Clock {
+
+    public long timeMs;
+
+    @Override
+    public long elapsedRealtime() {
+      return timeMs;
+    }
+
+  }
+
+  private static final class RecordingEstimator implements BandwidthEstimator {
+
+    public long bytes;
+    public long elapsedMs;
+    public long firstByteDelayMs;
+
+    @Override
+    public void addSample(long bytes, long elapsedMs, long firstByteDelayMs) {
+      this.bytes = bytes;
+      this.elapsedMs = elapsedMs;
+      this.firstByteDelayMs = firstByteDelayMs;
+    }
+
+    @Override
+    public void addSeed(long bitrate) {
+      // Do nothing.
+    }
+
+    @Override
+    public long getBitrateEstimate() {
+      return 12345;
+    }
+
+    @Override
+    public void reset() {
+      // Do nothing.
+    }
+
+  }
+
+}
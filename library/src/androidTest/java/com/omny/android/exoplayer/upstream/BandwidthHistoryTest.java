@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream;
+
+import com.omny.android.exoplayer.util.Clock;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+/**
+ * Unit tests for {@link BandwidthHistory}.
+ */
+public class BandwidthHistoryTest extends TestCase {
+
+  private static final long HALF_LIFE_MS = 1000;
+  private static final String WIFI = "wifi";
+  private static final String MOBILE = "mobile";
+
+  private File file;
+  private FakeWallClock clock;
+
+  @Override
+  protected void setUp() throws Exception {
+    file = File.createTempFile("BandwidthHistoryTest", null);
+    assertTrue(file.delete());
+    clock = new FakeWallClock();
+    clock.timeMs = 1000000;
+  }
+
+  @Override
+  protected void tearDown() {
+    file.delete();
+  }
+
+  public void testUnknownNetworkHasNoEstimate() {
+    BandwidthHistory history = createHistory(4);
+    assertEquals(BandwidthMeter.NO_ESTIMATE, history.getBitrateEstimate(WIFI));
+  }
+
+  public void testEstimatesArePersisted() throws InterruptedException {
+    BandwidthHistory history = createHistory(4);
+    history.addEstimate(WIFI, 8000000);
+    history.addEstimate(MOBILE, 1000000);
+    history.flush();
+
+    BandwidthHistory reloadedHistory = createHistory(4);
+    assertEquals(8000000, reloadedHistory.getBitrateEstimate(WIFI));
+    assertEquals(1000000, reloadedHistory.getBitrateEstimate(MOBILE));
+  }
+
+  public void testEstimatesAreAveragedByDecayedWeight() {
+    BandwidthHistory history = createHistory(4);
+    history.addEstimate(WIFI, 8000000);
+    history.addEstimate(WIFI, 4000000);
+    assertEquals(6000000, history.getBitrateEstimate(WIFI));
+    // After a half life, the existing estimates carry the same weight as a single new one.
+    clock.timeMs += HALF_LIFE_MS;
+    history.addEstimate(WIFI, 3000000);
+    assertEquals(4500000, history.getBitrateEstimate(WIFI));
+  }
+
+  public void testOldEstimatesAreForgotten() {
+    BandwidthHistory history = createHistory(4);
+    history.addEstimate(WIFI, 8000000);
+    clock.timeMs += 2 * HALF_LIFE_MS;
+    assertEquals(8000000, history.getBitrateEstimate(WIFI));
+    clock.timeMs += 1;
+    assertEquals(BandwidthMeter.NO_ESTIMATE, history.getBitrateEstimate(WIFI));
+  }
+
+  public void testLeastRecentlyUpdatedNetworkIsEvicted() throws InterruptedException {
+    BandwidthHistory history = createHistory(2);
+    history.addEstimate(WIFI, 8000000);
+    history.addEstimate(MOBILE, 1000000);
+    history.addEstimate(WIFI, 8000000);
+    history.addEstimate("other", 2000000);
+    history.flush();
+
+    assertEquals(BandwidthMeter.NO_ESTIMATE, history.getBitrateEstimate(MOBILE));
+    assertEquals(8000000, history.getBitrateEstimate(WIFI));
+    assertEquals(BandwidthMeter.NO_ESTIMATE, createHistory(2).getBitrateEstimate(MOBILE));
+  }
+
+  public void testCorruptFileIsDiscarded() throws Exception {
+    BandwidthHistory history = createHistory(4);
+    history.addEstimate(WIFI, 8000000);
+    history.flush();
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    randomAccessFile.seek(randomAccessFile.length() / 2);
+    int value = randomAccessFile.read();
+    randomAccessFile.seek(randomAccessFile.length() / 2);
+    randomAccessFile.write(value ^ 0xFF);
+    randomAccessFile.close();
+
+    BandwidthHistory reloadedHistory = createHistory(4);
+    assertEquals(BandwidthMeter.NO_ESTIMATE, reloadedHistory.getBitrateEstimate(WIFI));
+    reloadedHistory.addEstimate(WIFI, 1000000);
+    reloadedHistory.flush();
+    assertEquals(1000000, createHistory(4).getBitrateEstimate(WIFI));
+  }
+
+  public void testEstimatesAddedInQuickSuccessionAreAllPersisted() throws InterruptedException {
+    BandwidthHistory history = createHistory(4);
+    for (int i = 1; i <= 100; i++) {
+      history.addEstimate("network" + (i % 4), i * 1000);
+    }
+    history.flush();
+
+    BandwidthHistory reloadedHistory = createHistory(4);
+    for (int i = 0; i < 4; i++) {
+      String networkId = "network" + i;
+      assertEquals(history.getBitrateEstimate(networkId),
+          reloadedHistory.getBitrateEstimate(networkId));
+    }
+  }
+
+  private BandwidthHistory createHistory(int maxNetworkCount) {
+    return new BandwidthHistory(file, HALF_LIFE_MS, maxNetworkCount, clock);
+  }
+
+  private static final class FakeWallClock implements Clock {
+
+    public long timeMs;
+
+    @Override
+    public long elapsedRealtime() {
+      return timeMs;
+    }
+
+  }
+
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for {@link ConcurrentAllocator}.
+ */
+public class ConcurrentAllocatorTest extends TestCase {
+
+  private static final String TAG = "ConcurrentAllocatorTest";
+
+  private static final int ALLOCATION_SIZE = 16;
+  private static final int MAGAZINE_SIZE = 4;
+
+  private static final int WRITER_COUNT = 4;
+  private static final int ALLOCATIONS_PER_WRITER = 50000;
+
+  private static final int BENCHMARK_RUN_COUNT = 5;
+  private static final int BENCHMARK_HELD_ALLOCATION_COUNT = 8;
+
+  public void testAllocateAndRelease() {
+    ConcurrentAllocator allocator = new ConcurrentAllocator(ALLOCATION_SIZE, MAGAZINE_SIZE);
+    Allocation[] allocations = new Allocation[10];
+    for (int i = 0; i < allocations.length; i++) {
+      allocations[i] = allocator.allocate();
+      assertEquals(ALLOCATION_SIZE, allocations[i].data.length);
+    }
+    assertEquals(10 * ALLOCATION_SIZE, allocator.getTotalBytesAllocated());
+    allocator.release(allocations[0]);
+    assertEquals(9 * ALLOCATION_SIZE, allocator.getTotalBytesAllocated());
+    allocator.release(new Allocation[] {allocations[1], allocations[2], allocations[3]});
+    assertEquals(6 * ALLOCATION_SIZE, allocator.getTotalBytesAllocated());
+  }
+
+  public void testReleasedAllocationsAreReused() {
+    ConcurrentAllocator allocator = new ConcurrentAllocator(ALLOCATION_SIZE, MAGAZINE_SIZE);
+    Allocation allocation = allocator.allocate();
+    allocator.release(allocation);
+    assertSame(allocation, allocator.allocate());
+  }
+
+  public void testAllocationsReleasedByOtherThreadAreReused() throws InterruptedException {
+    final ConcurrentAllocator allocator = new ConcurrentAllocator(ALLOCATION_SIZE, MAGAZINE_SIZE);
+    final Allocation[] allocations = new Allocation[MAGAZINE_SIZE * 2];
+    for (int i = 0; i < allocations.length; i++) {
+      allocations[i] = allocator.allocate();
+    }
+    // Releasing more than a magazine's worth on another thread hands a full magazine to the depot.
+    Thread releasingThread = new Thread() {
+      @Override
+      public void run() {
+        allocator.release(allocations);
+      }
+    };
+    releasingThread.start();
+    releasingThread.join();
+    assertEquals(0, allocator.getTotalBytesAllocated());
+    Allocation allocation = allocator.allocate();
+    boolean reused = false;
+    for (Allocation released : allocations) {
+      reused |= released == allocation;
+    }
+    assertTrue(reused);
+  }
+
+  public void testTrim() {
+    ConcurrentAllocator allocator = new ConcurrentAllocator(ALLOCATION_SIZE, MAGAZINE_SIZE);
+    Allocation[] allocations = new Allocation[MAGAZINE_SIZE * 3];
+    for (int i = 0; i < allocations.length; i++) {
+      allocations[i] = allocator.allocate();
+    }
+    allocator.release(allocations);
+    allocator.trim(0);
+    for (int i = 0; i < allocations.length; i++) {
+      Allocation allocation = allocator.allocate();
+      for (Allocation released : allocations) {
+        assertNotSame(released, allocation);
+      }
+    }
+  }
+
+  public void testBlockWhileTotalBytesAllocatedExceeds() throws InterruptedException {
+    final ConcurrentAllocator allocator = new ConcurrentAllocator(ALLOCATION_SIZE, MAGAZINE_SIZE);
+    final Allocation[] allocations = new Allocation[10];
+    for (int i = 0; i < allocations.length; i++) {
+      allocations[i] = allocator.allocate();
+    }
+    Thread releasingThread = new Thread() {
+      @Override
+      public void run() {
+        for (Allocation allocation : allocations) {
+          allocator.release(allocation);
+        }
+      }
+    };
+    releasingThread.start();
+    allocator.blockWhileTotalBytesAllocatedExceeds(2 * ALLOCATION_SIZE);
+    assertTrue(allocator.getTotalBytesAllocated() <= 2 * ALLOCATION_SIZE);
+    releasingThread.join();
+  }
+
+  public void testConcurrentWritersAndReleaser() throws InterruptedException {
+    ConcurrentAllocator allocator = new ConcurrentAllocator(ALLOCATION_SIZE);
+    runWritersAndReleaser(allocator);
+    assertEquals(0, allocator.getTotalBytesAllocated());
+  }
+
+  /**
+   * Compares the allocate and release path of {@link ConcurrentAllocator} against that of
+   * {@link DefaultAllocator}, when several threads allocate and release concurrently. The timings
+   * are logged rather than asserted, since they depend on the device and its load.
+   */
+  public void testContendedAllocateAndReleaseBenchmark() throws InterruptedException {
+    long concurrentDurationMs = Long.MAX_VALUE;
+    long defaultDurationMs = Long.MAX_VALUE;
+    // Take the best of several runs, so that the comparison is not skewed by warm-up.
+    for (int i = 0; i < BENCHMARK_RUN_COUNT; i++) {
+      concurrentDurationMs = Math.min(concurrentDurationMs,
+          runContendedAllocateAndRelease(new ConcurrentAllocator(ALLOCATION_SIZE)));
+      defaultDurationMs = Math.min(defaultDurationMs,
+          runContendedAllocateAndRelease(new DefaultAllocator(ALLOCATION_SIZE)));
+    }
+    Log.i(TAG, "ConcurrentAllocator took " + concurrentDurationMs + "ms, DefaultAllocator took "
+        + defaultDurationMs + "ms");
+  }
+
+  /**
+   * Runs {@link #WRITER_COUNT} threads that each repeatedly obtain
+   * {@link #BENCHMARK_HELD_ALLOCATION_COUNT} allocations and release them, so that all threads
+   * contend on the allocator without any other synchronization.
+   *
+   * @return The elapsed time in milliseconds.
+   */
+  private static long runContendedAllocateAndRelease(final Allocator allocator)
+      throws InterruptedException {
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    Thread[] threads = new Thread[WRITER_COUNT];
+    for (int i = 0; i < WRITER_COUNT; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          Allocation[] allocations = new Allocation[BENCHMARK_HELD_ALLOCATION_COUNT];
+          try {
+            startLatch.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+          for (int j = 0; j < ALLOCATIONS_PER_WRITER; j++) {
+            for (int k = 0; k < allocations.length; k++) {
+              allocations[k] = allocator.allocate();
+            }
+            for (Allocation allocation : allocations) {
+              allocator.release(allocation);
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+    long startTimeNs = System.nanoTime();
+    startLatch.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, allocator.getTotalBytesAllocated());
+    return (System.nanoTime() - startTimeNs) / 1000000;
+  }
+
+  /**
+   * Runs {@link #WRITER_COUNT} threads that each obtain {@link #ALLOCATIONS_PER_WRITER}
+   * allocations, and a single thread that releases all of them, as loader threads and the playback
+   * thread do when reading into and from a {@code RollingSampleBuffer}.
+   */
+  private static void runWritersAndReleaser(final Allocator allocator)
+      throws InterruptedException {
+    final BlockingQueue<Allocation> allocatedQueue = new ArrayBlockingQueue<>(1024);
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final AtomicInteger releasedCount = new AtomicInteger();
+    Thread[] writers = new Thread[WRITER_COUNT];
+    for (int i = 0; i < WRITER_COUNT; i++) {
+      writers[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            startLatch.await();
+            for (int j = 0; j < ALLOCATIONS_PER_WRITER; j++) {
+              Allocation allocation = allocator.allocate();
+              allocation.data[allocation.translateOffset(0)] = (byte) j;
+              allocatedQueue.put(allocation);
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      };
+      writers[i].start();
+    }
+    Thread releaser = new Thread() {
+      @Override
+      public void run() {
+        try {
+          for (int i = 0; i < WRITER_COUNT * ALLOCATIONS_PER_WRITER; i++) {
+            allocator.release(allocatedQueue.take());
+            releasedCount.incrementAndGet();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    releaser.start();
+    startLatch.countDown();
+    for (Thread writer : writers) {
+      writer.join();
+    }
+    releaser.join();
+    assertEquals(WRITER_COUNT * ALLOCATIONS_PER_WRITER, releasedCount.get());
+  }
+
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream;
+
+import android.net.Uri;
+import com.omny.android.exoplayer.C;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for {@link DefaultHttpDataSource}.
+ */
+public class DefaultHttpDataSourceTest extends TestCase {
+
+  private static final String USER_AGENT = "DefaultHttpDataSourceTest";
+  private static final int SMALL_BODY_LENGTH = 1000;
+  private static final int LARGE_BODY_LENGTH = 200 * 1024;
+
+  private LocalHttpServer server;
+
+  @Override
+  protected void setUp() throws Exception {
+    server = new LocalHttpServer();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.close();
+  }
+
+  public void testConnectionsAreReusedWhenEnabled() throws Exception {
+    HttpConnectionStats stats = new HttpConnectionStats();
+    DefaultHttpDataSource dataSource = newDataSource(true, stats);
+    for (int i = 0; i < 5; i++) {
+      assertEquals(SMALL_BODY_LENGTH, readFully(dataSource, SMALL_BODY_LENGTH, -1));
+    }
+    assertEquals(1, server.getConnectionCount());
+    assertEquals(5, stats.getRequestCount());
+    assertEquals(5, stats.getReleasedConnectionCount());
+    assertEquals(0, stats.getDiscardedConnectionCount());
+    assertEquals(5, stats.getTimesToFirstByteUs().getCount());
+  }
+
+  public void testSmallUnreadRemainderIsDrained() throws Exception {
+    HttpConnectionStats stats = new HttpConnectionStats();
+    DefaultHttpDataSource dataSource = newDataSource(true, stats);
+    readFully(dataSource, SMALL_BODY_LENGTH, 10);
+    readFully(dataSource, SMALL_BODY_LENGTH, -1);
+    assertEquals(1, server.getConnectionCount());
+    assertEquals(2, stats.getReleasedConnectionCount());
+  }
+
+  public void testLargeUnreadRemainderIsDiscarded() throws Exception {
+    HttpConnectionStats stats = new HttpConnectionStats();
+    DefaultHttpDataSource dataSource = newDataSource(true, stats);
+    readFully(dataSource, LARGE_BODY_LENGTH, 10);
+    readFully(dataSource, SMALL_BODY_LENGTH, -1);
+    assertEquals(2, server.getConnectionCount());
+    assertEquals(1, stats.getDiscardedConnectionCount());
+    assertEquals(1, stats.getReleasedConnectionCount());
+  }
+
+  public void testRangeRequestIsHonored() throws Exception {
+    DefaultHttpDataSource dataSource = newDataSource(LARGE_BODY_LENGTH / 2);
+    assertReadsFrom(dataSource, LARGE_BODY_LENGTH, LARGE_BODY_LENGTH - 100);
+    assertEquals(1, server.getRequestCount());
+  }
+
+  public void testIgnoredRangeWithinLimitIsSkipped() throws Exception {
+    server.setIgnoredRangeCount(1);
+    DefaultHttpDataSource dataSource = newDataSource(LARGE_BODY_LENGTH / 2);
+    assertReadsFrom(dataSource, LARGE_BODY_LENGTH, 1000);
+    assertEquals(1, server.getRequestCount());
+  }
+
+  public void testIgnoredRangeBeyondLimitIsRetriedIfAdvertised() throws Exception {
+    server.setIgnoredRangeCount(1);
+    server.setAdvertiseRanges(true);
+    DefaultHttpDataSource dataSource = newDataSource(1000);
+    assertReadsFrom(dataSource, LARGE_BODY_LENGTH, LARGE_BODY_LENGTH - 100);
+    assertEquals(2, server.getRequestCount());
+  }
+
+  public void testIgnoredRangeBeyondLimitFailsFast() throws Exception {
+    server.setIgnoredRangeCount(Integer.MAX_VALUE);
+    DefaultHttpDataSource dataSource = newDataSource(1000);
+    try {
+      dataSource.open(new DataSpec(getUri(LARGE_BODY_LENGTH), LARGE_BODY_LENGTH - 100,
+          C.LENGTH_UNBOUNDED, null));
+      fail();
+    } catch (HttpDataSource.RangeNotSupportedException e) {
+      assertEquals(LARGE_BODY_LENGTH - 100, e.bytesToSkip);
+    }
+    assertEquals(1, server.getRequestCount());
+  }
+
+  public void testIgnoredRangeIsSkippedWithoutLimit() throws Exception {
+    server.setIgnoredRangeCount(1);
+    DefaultHttpDataSource dataSource = newDataSource(C.LENGTH_UNBOUNDED);
+    assertReadsFrom(dataSource, LARGE_BODY_LENGTH, LARGE_BODY_LENGTH - 100);
+    assertEquals(1, server.getRequestCount());
+  }
+
+  private static DefaultHttpDataSource newDataSource(boolean reuseConnections,
+      HttpConnectionStats stats) {
+    return new DefaultHttpDataSource(USER_AGENT, null, null,
+        DefaultHttpDataSource.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+        DefaultHttpDataSource.DEFAULT_READ_TIMEOUT_MILLIS, false, reuseConnections, stats);
+  }
+
+  private static DefaultHttpDataSource newDataSource(long maxBytesToSkip) {
+    return new DefaultHttpDataSource(USER_AGENT, null, null,
+        DefaultHttpDataSource.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+        DefaultHttpDataSource.DEFAULT_READ_TIMEOUT_MILLIS, false, false, null, maxBytesToSkip);
+  }
+
+  private Uri getUri(int bodyLength) {
+    return Uri.parse("http://127.0.0.1:" + server.getPort() + "/" + bodyLength);
+  }
+
+  /**
+   * Asserts that reading a body of the given length from the given position returns the expected
+   * data.
+   */
+  private void assertReadsFrom(DataSource dataSource, int bodyLength, int position)
+      throws IOException {
+    DataSpec dataSpec = new DataSpec(getUri(bodyLength), position, C.LENGTH_UNBOUNDED, null);
+    assertEquals(bodyLength - position, dataSource.open(dataSpec));
+    byte[] buffer = new byte[4096];
+    int bytesRead = 0;
+    try {
+      int result;
+      while ((result = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+        for (int i = 0; i < result; i++) {
+          assertEquals(getBodyByte(position + bytesRead + i), buffer[i]);
+        }
+        bytesRead += result;
+      }
+    } finally {
+      dataSource.close();
+    }
+    assertEquals(bodyLength - position, bytesRead);
+  }
+
+  private static byte getBodyByte(int position) {
+    return (byte) (position % 251);
+  }
+
+  /**
+   * Requests a body of the given length, reading at most {@code maxBytesToRead} bytes of it (or
+   * all of it if {@code maxBytesToRead} is negative) before closing the source.
+   */
+  private int readFully(DataSource dataSource, int bodyLength, int maxBytesToRead)
+      throws IOException {
+    assertEquals(bodyLength, dataSource.open(new DataSpec(getUri(bodyLength))));
+    byte[] buffer = new byte[4096];
+    int bytesRead = 0;
+    try {
+      while (maxBytesToRead < 0 || bytesRead < maxBytesToRead) {
+        int readLength = maxBytesToRead < 0 ? buffer.length
+            : Math.min(buffer.length, maxBytesToRead - bytesRead);
+        int result = dataSource.read(buffer, 0, readLength);
+        if (result == C.RESULT_END_OF_INPUT) {
+          break;
+        }
+        bytesRead += result;
+      }
+    } finally {
+      dataSource.close();
+    }
+    return bytesRead;
+  }
+
+  /**
+   * A minimal HTTP/1.1 server that supports persistent connections and range requests. The path of
+   * each request is the length of the body to return.
+   */
+  private static final class LocalHttpServer extends Thread {
+
+    private final ServerSocket serverSocket;
+    private final AtomicInteger connectionCount;
+    private final AtomicInteger requestCount;
+    private final AtomicInteger ignoredRangeCount;
+
+    private volatile boolean advertiseRanges;
+
+    public LocalHttpServer() throws IOException {
+      serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+      connectionCount = new AtomicInteger();
+      requestCount = new AtomicInteger();
+      ignoredRangeCount = new AtomicInteger();
+      setDaemon(true);
+      start();
+    }
+
+    public int getPort() {
+      return serverSocket.getLocalPort();
+    }
+
+    public int getConnectionCount() {
+      return connectionCount.get();
+    }
+
+    public int getRequestCount() {
+      return requestCount.get();
+    }
+
+    /**
+     * Sets the number of subsequent range requests for which the range should be ignored.
+     */
+    public void setIgnoredRangeCount(int count) {
+      ignoredRangeCount.set(count);
+    }
+
+    /**
+     * Sets whether responses should advertise support for range requests.
+     */
+    public void setAdvertiseRanges(boolean advertiseRanges) {
+      this.advertiseRanges = advertiseRanges;
+    }
+
+    public void close() throws IOException {
+      serverSocket.close();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          final Socket socket = serverSocket.accept();
+          connectionCount.incrementAndGet();
+          Thread connectionThread = new Thread() {
+            @Override
+            public void run() {
+              serve(socket);
+            }
+          };
+          connectionThread.setDaemon(true);
+          connectionThread.start();
+        }
+      } catch (IOException e) {
+        // The server was closed.
+      }
+    }
+
+    private void serve(Socket socket) {
+      try {
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+        OutputStream outputStream = socket.getOutputStream();
+        String requestLine;
+        while ((requestLine = reader.readLine()) != null) {
+          requestCount.incrementAndGet();
+          String rangeHeader = null;
+          String line;
+          while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            if (line.toLowerCase().startsWith("range:")) {
+              rangeHeader = line.substring(line.indexOf('=') + 1).trim();
+            }
+          }
+          String path = requestLine.split(" ")[1];
+          int bodyLength = Integer.parseInt(path.substring(1));
+          int start = 0;
+          int end = bodyLength - 1;
+          if (rangeHeader != null && ignoredRangeCount.getAndDecrement() <= 0) {
+            String[] range = rangeHeader.split("-", -1);
+            start = Integer.parseInt(range[0]);
+            if (!range[1].isEmpty()) {
+              end = Integer.parseInt(range[1]);
+            }
+          }
+          boolean partial = start != 0 || end != bodyLength - 1;
+          StringBuilder headers = new StringBuilder();
+          headers.append(partial ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n");
+          headers.append("Content-Type: application/octet-stream\r\n");
+          headers.append("Content-Length: ").append(end - start + 1).append("\r\n");
+          if (partial) {
+            headers.append("Content-Range: bytes ").append(start).append('-').append(end)
+                .append('/').append(bodyLength).append("\r\n");
+          }
+          if (advertiseRanges) {
+            headers.append("Accept-Ranges: bytes\r\n");
+          }
+          headers.append("\r\n");
+          outputStream.write(headers.toString().getBytes("US-ASCII"));
+          byte[] body = new byte[end - start + 1];
+          for (int i = 0; i < body.length; i++) {
+            body[i] = getBodyByte(start + i);
+          }
+          outputStream.write(body);
+          outputStream.flush();
+        }
+      } catch (IOException e) {
+        // The client disconnected.
+      } finally {
+        try {
+          socket.close();
+        } catch (IOException e) {
+          // Ignore.
+        }
+      }
+    }
+
+  }
+
+}
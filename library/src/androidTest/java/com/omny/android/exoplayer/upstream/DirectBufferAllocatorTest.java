@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Unit tests for {@link DirectBufferAllocator}.
+ */
+public class DirectBufferAllocatorTest extends TestCase {
+
+  private static final int ALLOCATION_SIZE = 8;
+  private static final int ALLOCATIONS_PER_SLAB = 4;
+
+  public void testAllocationsShareContentWithBuffer() {
+    DirectBufferAllocator allocator =
+        new DirectBufferAllocator(ALLOCATION_SIZE, ALLOCATIONS_PER_SLAB);
+    Allocation allocation = allocator.allocate();
+    assertNotNull(allocation.buffer);
+    assertEquals(ALLOCATION_SIZE, allocation.buffer.capacity());
+    for (int i = 0; i < ALLOCATION_SIZE; i++) {
+      allocation.data[allocation.translateOffset(i)] = (byte) i;
+    }
+    ByteBuffer target = ByteBuffer.allocateDirect(ALLOCATION_SIZE);
+    target.put(allocation.buffer);
+    for (int i = 0; i < ALLOCATION_SIZE; i++) {
+      assertEquals(i, target.get(i));
+    }
+  }
+
+  public void testAllocationsDoNotOverlap() {
+    DirectBufferAllocator allocator =
+        new DirectBufferAllocator(ALLOCATION_SIZE, ALLOCATIONS_PER_SLAB);
+    Allocation[] allocations = new Allocation[ALLOCATIONS_PER_SLAB * 2];
+    for (int i = 0; i < allocations.length; i++) {
+      allocations[i] = allocator.allocate();
+      for (int j = 0; j < ALLOCATION_SIZE; j++) {
+        allocations[i].data[allocations[i].translateOffset(j)] = (byte) i;
+      }
+    }
+    for (int i = 0; i < allocations.length; i++) {
+      for (int j = 0; j < ALLOCATION_SIZE; j++) {
+        assertEquals(i, allocations[i].buffer.get(j));
+      }
+    }
+    assertEquals(allocations.length * ALLOCATION_SIZE, allocator.getTotalBytesAllocated());
+  }
+
+  public void testReleaseAndTrim() {
+    DirectBufferAllocator allocator =
+        new DirectBufferAllocator(ALLOCATION_SIZE, ALLOCATIONS_PER_SLAB);
+    Allocation first = allocator.allocate();
+    Allocation second = allocator.allocate();
+    allocator.release(new Allocation[] {first, second});
+    assertEquals(0, allocator.getTotalBytesAllocated());
+    assertSame(second, allocator.allocate());
+    allocator.trim(0);
+    Allocation allocation = allocator.allocate();
+    assertNotSame(first, allocation);
+    assertNotSame(second, allocation);
+  }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for {@link LoaderThreadPool}.
+ */
+public class LoaderThreadPoolTest extends TestCase {
+
+  private static final long TIMEOUT_MS = 5000;
+
+  public void testSerialExecutorRunsTasksInOrderOneAtATime() throws InterruptedException {
+    LoaderThreadPool threadPool = new LoaderThreadPool("test", 4);
+    Executor executor = threadPool.newSerialExecutor("test:serial");
+    final List<Integer> order = new ArrayList<>();
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicBoolean overlapped = new AtomicBoolean();
+    final CountDownLatch done = new CountDownLatch(100);
+    for (int i = 0; i < 100; i++) {
+      final int index = i;
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          if (running.incrementAndGet() > 1) {
+            overlapped.set(true);
+          }
+          synchronized (order) {
+            order.add(index);
+          }
+          running.decrementAndGet();
+          done.countDown();
+        }
+      });
+    }
+    assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    assertFalse(overlapped.get());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, (int) order.get(i));
+    }
+  }
+
+  public void testSerialExecutorsRunConcurrently() throws InterruptedException {
+    LoaderThreadPool threadPool = new LoaderThreadPool("test", 2);
+    final CountDownLatch bothRunning = new CountDownLatch(2);
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        bothRunning.countDown();
+        try {
+          bothRunning.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    threadPool.newSerialExecutor("test:serial").execute(task);
+    threadPool.newSerialExecutor("test:serial").execute(task);
+    assertTrue(bothRunning.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+  }
+
+  public void testBusyPoolFallsBackToExecutorThread() throws InterruptedException {
+    LoaderThreadPool threadPool = new LoaderThreadPool("test", 1);
+    final CountDownLatch blockingTaskRunning = new CountDownLatch(1);
+    final CountDownLatch blockingTaskAllowed = new CountDownLatch(1);
+    threadPool.newSerialExecutor("test:blocking").execute(new Runnable() {
+      @Override
+      public void run() {
+        blockingTaskRunning.countDown();
+        try {
+          blockingTaskAllowed.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    assertTrue(blockingTaskRunning.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    // The pool's only thread is busy, so tasks from another executor must not wait for it.
+    Executor executor = threadPool.newSerialExecutor("test:fallback");
+    final CountDownLatch done = new CountDownLatch(2);
+    final AtomicBoolean ranOnFallbackThread = new AtomicBoolean(true);
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        if (!Thread.currentThread().getName().startsWith("test:fallback")) {
+          ranOnFallbackThread.set(false);
+        }
+        done.countDown();
+      }
+    };
+    executor.execute(task);
+    executor.execute(task);
+    assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    assertTrue(ranOnFallbackThread.get());
+    blockingTaskAllowed.countDown();
+  }
+
+  public void testTaskFailureDoesNotBlockLaterTasks() throws InterruptedException {
+    LoaderThreadPool threadPool = new LoaderThreadPool("test", 1);
+    Executor executor = threadPool.newSerialExecutor("test:serial");
+    final CountDownLatch done = new CountDownLatch(1);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        throw new RuntimeException();
+      }
+    });
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        done.countDown();
+      }
+    });
+    assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+  }
+
+}
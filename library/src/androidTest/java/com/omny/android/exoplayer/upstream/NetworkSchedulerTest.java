@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream;
+
+import com.omny.android.exoplayer.util.Clock;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unit tests for {@link NetworkScheduler}.
+ */
+public class NetworkSchedulerTest extends TestCase {
+
+  private static final int TIMEOUT_MS = 5000;
+  private static final int STREAMING = NetworkScheduler.STREAMING_PRIORITY;
+  private static final int DOWNLOAD = NetworkScheduler.DOWNLOAD_PRIORITY;
+
+  private FakeClock clock;
+  private FakeBandwidthMeter bandwidthMeter;
+  private NetworkScheduler scheduler;
+
+  @Override
+  protected void setUp() {
+    clock = new FakeClock();
+    bandwidthMeter = new FakeBandwidthMeter();
+    scheduler = new NetworkScheduler(clock);
+    scheduler.setBandwidthMeter(bandwidthMeter);
+  }
+
+  public void testLowerPriorityIsNotThrottledByDefault() {
+    scheduler.add(STREAMING);
+    scheduler.add(DOWNLOAD);
+    assertTrue(scheduler.proceedNonBlocking(DOWNLOAD));
+    assertEquals(Long.MAX_VALUE, scheduler.getPermittedBytes(DOWNLOAD));
+  }
+
+  public void testHighestPriorityIsNeverThrottled() {
+    scheduler.add(STREAMING);
+    scheduler.add(DOWNLOAD);
+    scheduler.startThrottling();
+    assertEquals(Long.MAX_VALUE, scheduler.getPermittedBytes(STREAMING));
+    scheduler.onBytesTransferred(STREAMING, 1000000);
+    assertEquals(Long.MAX_VALUE, scheduler.getPermittedBytes(STREAMING));
+  }
+
+  public void testLowerPriorityUsesIdleBandwidth() {
+    scheduler.add(DOWNLOAD);
+    scheduler.startThrottling();
+    assertEquals(Long.MAX_VALUE, scheduler.getPermittedBytes(DOWNLOAD));
+  }
+
+  public void testThrottledPriorityReceivesSpareCapacity() {
+    scheduler.add(STREAMING);
+    scheduler.add(DOWNLOAD);
+    scheduler.startThrottling();
+    // The streaming priority hasn't transferred anything, so all of 900 kB/s is spare.
+    assertEquals(900000, scheduler.getShareBytesPerSecond(DOWNLOAD));
+    scheduler.onBytesTransferred(STREAMING, 600000);
+    clock.timeMs += 1000;
+    assertEquals(600000, scheduler.getThroughputBytesPerSecond(STREAMING));
+    assertEquals(300000, scheduler.getShareBytesPerSecond(DOWNLOAD));
+  }
+
+  public void testSpareCapacityIsSharedByWeight() {
+    scheduler.add(STREAMING);
+    scheduler.add(DOWNLOAD);
+    scheduler.add(DOWNLOAD + 1);
+    scheduler.startThrottling();
+    scheduler.onBytesTransferred(STREAMING, 300000);
+    clock.timeMs += 1000;
+    assertEquals(300000, scheduler.getShareBytesPerSecond(DOWNLOAD));
+    assertEquals(300000, scheduler.getShareBytesPerSecond(DOWNLOAD + 1));
+    scheduler.setWeight(DOWNLOAD, 2);
+    assertEquals(400000, scheduler.getShareBytesPerSecond(DOWNLOAD));
+    assertEquals(200000, scheduler.getShareBytesPerSecond(DOWNLOAD + 1));
+  }
+
+  public void testThrottledPriorityReceivesMinimumShare() {
+    scheduler.add(STREAMING);
+    scheduler.add(DOWNLOAD);
+    scheduler.startThrottling();
+    // The streaming priority uses more than the estimate.
+    scheduler.onBytesTransferred(STREAMING, 1000000);
+    clock.timeMs += 1000;
+    assertEquals(NetworkScheduler.MIN_SHARE_BYTES_PER_SECOND,
+        scheduler.getShareBytesPerSecond(DOWNLOAD));
+    // There's no estimate.
+    bandwidthMeter.bitrateEstimate = BandwidthMeter.NO_ESTIMATE;
+    assertEquals(NetworkScheduler.MIN_SHARE_BYTES_PER_SECOND,
+        scheduler.getShareBytesPerSecond(DOWNLOAD));
+    assertTrue(scheduler.proceedNonBlocking(DOWNLOAD));
+    // There's no bandwidth meter.
+    scheduler.setBandwidthMeter(null);
+    assertEquals(NetworkScheduler.MIN_SHARE_BYTES_PER_SECOND,
+        scheduler.getShareBytesPerSecond(DOWNLOAD));
+  }
+
+  public void testThrottledPriorityIsLimitedToShare() {
+    scheduler.add(STREAMING);
+    scheduler.add(DOWNLOAD);
+    scheduler.onBytesTransferred(STREAMING, 800000);
+    clock.timeMs += 1000;
+    scheduler.startThrottling();
+    // The initial burst is 100ms at the spare 100 kB/s.
+    assertEquals(10000, scheduler.getPermittedBytes(DOWNLOAD));
+    scheduler.onBytesTransferred(DOWNLOAD, 10000);
+    assertEquals(0, scheduler.getPermittedBytes(DOWNLOAD));
+    assertFalse(scheduler.proceedNonBlocking(DOWNLOAD));
+    clock.timeMs += 50;
+    assertEquals(5000, scheduler.getPermittedBytes(DOWNLOAD));
+    // The streaming priority has since been idle, so its capacity becomes spare.
+    clock.timeMs += 1000;
+    assertEquals(90000, scheduler.getPermittedBytes(DOWNLOAD));
+  }
+
+  public void testThrottlingStopsWhenBalanced() {
+    scheduler.add(STREAMING);
+    scheduler.startThrottling();
+    scheduler.startThrottling();
+    scheduler.stopThrottling();
+    exhaustShare(DOWNLOAD);
+    assertFalse(scheduler.proceedNonBlocking(DOWNLOAD));
+    scheduler.stopThrottling();
+    assertTrue(scheduler.proceedNonBlocking(DOWNLOAD));
+  }
+
+  @SuppressWarnings("deprecation")
+  public void testNetworkLockDelegatesToScheduler() {
+    NetworkLock lock = new NetworkLock(scheduler);
+    lock.add(STREAMING);
+    scheduler.add(DOWNLOAD);
+    // A task registered with the lock doesn't stop lower priorities unless throttling.
+    assertTrue(lock.proceedNonBlocking(DOWNLOAD));
+    scheduler.startThrottling();
+    assertTrue(lock.proceedNonBlocking(STREAMING));
+    exhaustShare(DOWNLOAD);
+    try {
+      lock.proceedOrThrow(DOWNLOAD);
+      fail();
+    } catch (NetworkLock.PriorityTooLowException e) {
+      // Expected.
+    }
+    lock.remove(STREAMING);
+    assertTrue(scheduler.proceedNonBlocking(DOWNLOAD));
+  }
+
+  public void testBlockedTaskProceedsWhenThrottlingStops() throws Exception {
+    scheduler.add(STREAMING);
+    scheduler.startThrottling();
+    exhaustShare(DOWNLOAD);
+    final AtomicReference<Integer> permittedBytes = new AtomicReference<>();
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          permittedBytes.set(scheduler.proceed(DOWNLOAD));
+        } catch (InterruptedException e) {
+          // Do nothing.
+        }
+      }
+    };
+    thread.start();
+    Thread.sleep(50);
+    assertTrue(thread.isAlive());
+    scheduler.stopThrottling();
+    thread.join(TIMEOUT_MS);
+    assertFalse(thread.isAlive());
+    assertEquals(NetworkScheduler.UNLIMITED, (int) permittedBytes.get());
+  }
+
+  public void testBlockedTaskProceedsWhenHigherPriorityIsRemoved() throws Exception {
+    scheduler.add(STREAMING);
+    scheduler.add(DOWNLOAD);
+    scheduler.startThrottling();
+    exhaustShare(DOWNLOAD);
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          scheduler.proceed(DOWNLOAD);
+        } catch (InterruptedException e) {
+          // Do nothing.
+        }
+      }
+    };
+    thread.start();
+    Thread.sleep(50);
+    assertTrue(thread.isAlive());
+    scheduler.remove(STREAMING);
+    thread.join(TIMEOUT_MS);
+    assertFalse(thread.isAlive());
+  }
+
+  private void exhaustShare(int priority) {
+    long permittedBytes = scheduler.getPermittedBytes(priority);
+    scheduler.onBytesTransferred(priority, (int) permittedBytes);
+    assertEquals(0, scheduler.getPermittedBytes(priority));
+  }
+
+  private static final class FakeClock implements Clock {
+
+    public long timeMs;
+
+    @Override
+    public long elapsedRealtime() {
+      return timeMs;
+    }
+
+  }
+
+  private static final class FakeBandwidthMeter implements BandwidthMeter {
+
+    public volatile long bitrateEstimate = 900000 * 8;
+
+    @Override
+    public long getBitrateEstimate() {
+      return bitrateEstimate;
+    }
+
+    @Override
+    public void onTransferStart() {
+      // Do nothing.
+    }
+
+    @Override
+    public void onBytesTransferred(int bytes) {
+      // Do nothing.
+    }
+
+    @Override
+    public void onTransferEnd() {
+      // Do nothing.
+    }
+
+  }
+
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream;
+
+import com.omny.android.exoplayer.C;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for {@link SegmentedDataSource}.
+ */
+public class SegmentedDataSourceTest extends TestCase {
+
+  private static final int TIMEOUT_MS = 5000;
+  private static final int DATA_LENGTH = 10000;
+  private static final int PART_SIZE = 1000;
+  private static final int UPSTREAM_COUNT = 3;
+
+  private byte[] data;
+  private AtomicInteger openCount;
+  private AtomicInteger concurrentOpenCount;
+  private AtomicInteger maxConcurrentOpenCount;
+
+  @Override
+  protected void setUp() {
+    data = new byte[DATA_LENGTH];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i % 251);
+    }
+    openCount = new AtomicInteger();
+    concurrentOpenCount = new AtomicInteger();
+    maxConcurrentOpenCount = new AtomicInteger();
+  }
+
+  public void testReadsDataInOrder() throws Exception {
+    SegmentedDataSource dataSource = new SegmentedDataSource(newUpstreams(false, null), PART_SIZE);
+    assertReadsRange(dataSource, 0, DATA_LENGTH);
+    assertEquals(DATA_LENGTH / PART_SIZE, openCount.get());
+  }
+
+  public void testLoadsPartsInParallel() throws Exception {
+    CountDownLatch openLatch = new CountDownLatch(UPSTREAM_COUNT);
+    SegmentedDataSource dataSource = new SegmentedDataSource(newUpstreams(false, openLatch),
+        PART_SIZE);
+    assertReadsRange(dataSource, 0, DATA_LENGTH);
+    assertEquals(UPSTREAM_COUNT, maxConcurrentOpenCount.get());
+  }
+
+  public void testUnboundedLengthIsResolvedFromFirstPart() throws Exception {
+    SegmentedDataSource dataSource = new SegmentedDataSource(newUpstreams(false, null), PART_SIZE);
+    assertReadsRange(dataSource, 500, C.LENGTH_UNBOUNDED);
+    assertEquals(DATA_LENGTH / PART_SIZE, openCount.get());
+  }
+
+  public void testUnknownLengthIsReadDirectly() throws Exception {
+    SegmentedDataSource dataSource = new SegmentedDataSource(newUpstreams(true, null), PART_SIZE);
+    assertReadsRange(dataSource, 500, C.LENGTH_UNBOUNDED);
+    assertEquals(1, openCount.get());
+  }
+
+  public void testDataIsWrittenToSinkInOrder() throws Exception {
+    ByteArrayDataSink dataSink = new ByteArrayDataSink();
+    SegmentedDataSource dataSource = new SegmentedDataSource(newUpstreams(false, null), PART_SIZE,
+        dataSink, null);
+    assertReadsRange(dataSource, 1500, 5000);
+    assertTrue(Arrays.equals(Arrays.copyOfRange(data, 1500, 6500), dataSink.getData()));
+  }
+
+  public void testAggregateTransferIsReported() throws Exception {
+    final AtomicInteger transferStartCount = new AtomicInteger();
+    final AtomicInteger transferEndCount = new AtomicInteger();
+    final AtomicInteger bytesTransferred = new AtomicInteger();
+    TransferListener listener = new TransferListener() {
+      @Override
+      public void onTransferStart() {
+        transferStartCount.incrementAndGet();
+      }
+      @Override
+      public void onBytesTransferred(int bytes) {
+        bytesTransferred.addAndGet(bytes);
+      }
+      @Override
+      public void onTransferEnd() {
+        transferEndCount.incrementAndGet();
+      }
+    };
+    SegmentedDataSource dataSource = new SegmentedDataSource(newUpstreams(false, null), PART_SIZE,
+        null, listener);
+    assertReadsRange(dataSource, 0, DATA_LENGTH);
+    assertEquals(1, transferStartCount.get());
+    assertEquals(1, transferEndCount.get());
+    assertEquals(DATA_LENGTH, bytesTransferred.get());
+  }
+
+  public void testReopenAfterPartialRead() throws Exception {
+    SegmentedDataSource dataSource = new SegmentedDataSource(newUpstreams(false, null), PART_SIZE);
+    dataSource.open(new DataSpec(null, 0, C.LENGTH_UNBOUNDED, null));
+    byte[] buffer = new byte[100];
+    assertTrue(dataSource.read(buffer, 0, buffer.length) > 0);
+    dataSource.close();
+    assertReadsRange(dataSource, 4321, C.LENGTH_UNBOUNDED);
+  }
+
+  public void testPartErrorIsThrownAfterPrecedingData() throws Exception {
+    DataSource[] upstreams = new DataSource[UPSTREAM_COUNT];
+    for (int i = 0; i < upstreams.length; i++) {
+      upstreams[i] = new TestDataSource(false, null, 3 * PART_SIZE);
+    }
+    SegmentedDataSource dataSource = new SegmentedDataSource(upstreams, PART_SIZE);
+    dataSource.open(new DataSpec(null, 0, DATA_LENGTH, null));
+    byte[] buffer = new byte[DATA_LENGTH];
+    int bytesRead = 0;
+    try {
+      while (true) {
+        bytesRead += dataSource.read(buffer, bytesRead, buffer.length - bytesRead);
+      }
+    } catch (IOException e) {
+      // Expected.
+    } finally {
+      dataSource.close();
+    }
+    assertEquals(3 * PART_SIZE, bytesRead);
+  }
+
+  private DataSource[] newUpstreams(boolean unknownLength, CountDownLatch openLatch) {
+    DataSource[] upstreams = new DataSource[UPSTREAM_COUNT];
+    for (int i = 0; i < upstreams.length; i++) {
+      upstreams[i] = new TestDataSource(unknownLength, openLatch, C.LENGTH_UNBOUNDED);
+    }
+    return upstreams;
+  }
+
+  private void assertReadsRange(DataSource dataSource, int position, int length)
+      throws IOException {
+    int expectedLength = length == C.LENGTH_UNBOUNDED ? DATA_LENGTH - position : length;
+    byte[] buffer = new byte[expectedLength + 1];
+    long openedLength = dataSource.open(new DataSpec(null, position, length, null));
+    assertTrue(openedLength == C.LENGTH_UNBOUNDED || openedLength == expectedLength);
+    int bytesRead = 0;
+    int result;
+    while ((result = dataSource.read(buffer, bytesRead, Math.min(333, buffer.length - bytesRead)))
+        != C.RESULT_END_OF_INPUT) {
+      bytesRead += result;
+    }
+    dataSource.close();
+    assertEquals(expectedLength, bytesRead);
+    assertTrue(Arrays.equals(Arrays.copyOfRange(data, position, position + expectedLength),
+        Arrays.copyOf(buffer, expectedLength)));
+  }
+
+  /**
+   * A {@link DataSource} that reads from the test data in small increments.
+   */
+  private final class TestDataSource implements DataSource {
+
+    private final boolean unknownLength;
+    private final CountDownLatch openLatch;
+    private final int failurePosition;
+
+    private int position;
+    private int end;
+
+    /**
+     * @param unknownLength Whether to report the length of unbounded requests as unknown.
+     * @param openLatch An optional latch that is counted down when the source is opened, and
+     *     awaited before each read.
+     * @param failurePosition A position at which opening fails, or {@link C#LENGTH_UNBOUNDED}.
+     */
+    public TestDataSource(boolean unknownLength, CountDownLatch openLatch, int failurePosition) {
+      this.unknownLength = unknownLength;
+      this.openLatch = openLatch;
+      this.failurePosition = failurePosition;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+      position = (int) dataSpec.absoluteStreamPosition;
+      if (position == failurePosition) {
+        throw new IOException();
+      }
+      openCount.incrementAndGet();
+      int concurrentOpens = concurrentOpenCount.incrementAndGet();
+      synchronized (maxConcurrentOpenCount) {
+        maxConcurrentOpenCount.set(Math.max(maxConcurrentOpenCount.get(), concurrentOpens));
+      }
+      if (openLatch != null) {
+        openLatch.countDown();
+      }
+      end = dataSpec.length == C.LENGTH_UNBOUNDED ? DATA_LENGTH
+          : (int) (position + dataSpec.length);
+      return dataSpec.length != C.LENGTH_UNBOUNDED ? dataSpec.length
+          : unknownLength ? C.LENGTH_UNBOUNDED : DATA_LENGTH - position;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+      if (openLatch != null) {
+        try {
+          openLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+      }
+      if (position == end) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      int bytesToRead = Math.min(Math.min(readLength, end - position), 97);
+      System.arraycopy(data, position, buffer, offset, bytesToRead);
+      position += bytesToRead;
+      return bytesToRead;
+    }
+
+    @Override
+    public void close() {
+      if (end != 0) {
+        concurrentOpenCount.decrementAndGet();
+        end = 0;
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link SizeClassAllocator}.
+ */
+public class SizeClassAllocatorTest extends TestCase {
+
+  private static final int SMALL_SIZE = 16;
+  private static final int LARGE_SIZE = 256;
+
+  public void testGetAllocatorSelectsSmallestSufficientClass() {
+    SizeClassAllocator allocator = new SizeClassAllocator(LARGE_SIZE, SMALL_SIZE);
+    assertEquals(SMALL_SIZE, allocator.getAllocator(1).getIndividualAllocationLength());
+    assertEquals(SMALL_SIZE, allocator.getAllocator(SMALL_SIZE).getIndividualAllocationLength());
+    assertEquals(LARGE_SIZE,
+        allocator.getAllocator(SMALL_SIZE + 1).getIndividualAllocationLength());
+    assertEquals(LARGE_SIZE,
+        allocator.getAllocator(Integer.MAX_VALUE).getIndividualAllocationLength());
+    assertEquals(LARGE_SIZE, allocator.getIndividualAllocationLength());
+  }
+
+  public void testTotalBytesAllocatedReflectsAllocationLengths() {
+    SizeClassAllocator allocator = new SizeClassAllocator(SMALL_SIZE, LARGE_SIZE);
+    Allocator small = allocator.getAllocator(SMALL_SIZE);
+    Allocator large = allocator.getAllocator(LARGE_SIZE);
+    Allocation smallAllocation = small.allocate();
+    Allocation largeAllocation = large.allocate();
+    assertEquals(SMALL_SIZE, smallAllocation.data.length);
+    assertEquals(LARGE_SIZE, largeAllocation.data.length);
+    assertEquals(SMALL_SIZE + LARGE_SIZE, allocator.getTotalBytesAllocated());
+    assertEquals(SMALL_SIZE + LARGE_SIZE, small.getTotalBytesAllocated());
+    large.release(largeAllocation);
+    assertEquals(SMALL_SIZE, allocator.getTotalBytesAllocated());
+    // Allocations can also be returned through the parent allocator.
+    allocator.release(smallAllocation);
+    assertEquals(0, allocator.getTotalBytesAllocated());
+  }
+
+  public void testAllocationsAreReusedWithinClass() {
+    SizeClassAllocator allocator = new SizeClassAllocator(SMALL_SIZE, LARGE_SIZE);
+    Allocator small = allocator.getAllocator(SMALL_SIZE);
+    Allocation allocation = small.allocate();
+    small.release(allocation);
+    assertNotSame(allocation, allocator.getAllocator(LARGE_SIZE).allocate());
+    assertSame(allocation, small.allocate());
+  }
+
+  public void testTrimDiscardsLargestClassesFirst() {
+    SizeClassAllocator allocator = new SizeClassAllocator(SMALL_SIZE, LARGE_SIZE);
+    Allocator small = allocator.getAllocator(SMALL_SIZE);
+    Allocator large = allocator.getAllocator(LARGE_SIZE);
+    Allocation smallAllocation = small.allocate();
+    Allocation largeAllocation = large.allocate();
+    allocator.release(new Allocation[] {smallAllocation, largeAllocation});
+    // Trimming to the small size should only discard the large allocation.
+    allocator.trim(SMALL_SIZE);
+    assertSame(smallAllocation, small.allocate());
+    assertNotSame(largeAllocation, large.allocate());
+  }
+
+}
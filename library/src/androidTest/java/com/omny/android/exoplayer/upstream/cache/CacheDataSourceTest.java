@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream.cache;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.net.Uri;
+import com.omny.android.exoplayer.upstream.ByteArrayDataSource;
+import com.omny.android.exoplayer.upstream.DataSource;
+import com.omny.android.exoplayer.upstream.DataSpec;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Unit tests for {@link CacheDataSource}.
+ */
+public class CacheDataSourceTest extends TestCase {
+
+  private static final String KEY = "key";
+
+  public void testMemoryCacheIsConsultedBeforeCache() throws Exception {
+    byte[] data = new byte[10];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+    CacheSpan span = CacheSpan.createCacheEntry(new File("cache"), KEY, 0, data.length, 0);
+    Cache cache = mock(Cache.class);
+    when(cache.startReadWrite(KEY, 0)).thenReturn(span);
+    MemoryCache memoryCache = new MemoryCache(100, 50);
+    CacheDataSource dataSource = new CacheDataSource(cache, memoryCache, mock(DataSource.class),
+        new ByteArrayDataSource(data), null, true, false, null);
+
+    // The first read is served by the cache, and populates the memory cache.
+    assertTrue(Arrays.equals(data, readFully(dataSource, 0, data.length)));
+    // Later reads of the span, from any position, don't access the cache.
+    assertTrue(Arrays.equals(Arrays.copyOfRange(data, 4, 10), readFully(dataSource, 4, 6)));
+    assertTrue(Arrays.equals(data, readFully(dataSource, 0, data.length)));
+    verify(cache, times(1)).startReadWrite(KEY, 0);
+    assertEquals(2, memoryCache.getHitCount());
+  }
+
+  private static byte[] readFully(DataSource dataSource, long position, int length)
+      throws IOException {
+    byte[] data = new byte[length];
+    dataSource.open(new DataSpec(Uri.parse("test"), position, length, KEY));
+    int bytesRead = 0;
+    while (bytesRead < length) {
+      int result = dataSource.read(data, bytesRead, length - bytesRead);
+      assertTrue(result > 0);
+      bytesRead += result;
+    }
+    dataSource.close();
+    return data;
+  }
+
+}
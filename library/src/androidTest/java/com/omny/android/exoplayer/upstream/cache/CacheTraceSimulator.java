@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream.cache;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+
+/**
+ * Replays a trace of segment requests against a {@link CacheEvictor}, to measure the byte hit ratio
+ * that it achieves. The cache is simulated in memory, so no files are read or written.
+ */
+public final class CacheTraceSimulator {
+
+  /**
+   * A request for a whole segment of content.
+   */
+  public static final class Request {
+
+    public final String key;
+    public final long position;
+    public final long length;
+
+    public Request(String key, long position, long length) {
+      this.key = key;
+      this.position = position;
+      this.length = length;
+    }
+
+  }
+
+  private static final File SIMULATED_CACHE_DIR = new File("simulated");
+
+  private CacheTraceSimulator() {}
+
+  /**
+   * Replays a trace against an evictor.
+   *
+   * @param evictor The evictor, which must not have been used before.
+   * @param trace The requests to replay.
+   * @return The fraction of requested bytes that were served from the cache.
+   */
+  public static double getByteHitRatio(CacheEvictor evictor, List<Request> trace) {
+    SimulatedCache cache = new SimulatedCache(evictor);
+    evictor.onCacheInitialized();
+    long requestedBytes = 0;
+    long hitBytes = 0;
+    for (int i = 0; i < trace.size(); i++) {
+      Request request = trace.get(i);
+      requestedBytes += request.length;
+      if (cache.read(request, i)) {
+        hitBytes += request.length;
+      }
+    }
+    return requestedBytes == 0 ? 0 : (double) hitBytes / requestedBytes;
+  }
+
+  /**
+   * A {@link Cache} that holds whole segments in memory, and invokes its evictor synchronously.
+   * Only the methods that an evictor needs are supported.
+   */
+  private static final class SimulatedCache implements Cache {
+
+    private final CacheEvictor evictor;
+    private final HashMap<String, CacheSpan> spans;
+
+    private long cacheSpace;
+
+    public SimulatedCache(CacheEvictor evictor) {
+      this.evictor = evictor;
+      spans = new HashMap<>();
+    }
+
+    /**
+     * Reads a segment, writing it to the cache if it's not already cached.
+     *
+     * @param request The request.
+     * @param timestamp The time of the request, used as the last access timestamp.
+     * @return Whether the request was a cache hit.
+     */
+    public boolean read(Request request, long timestamp) {
+      String spanId = getSpanId(request.key, request.position);
+      CacheSpan oldSpan = spans.get(spanId);
+      CacheSpan newSpan = CacheSpan.createCacheEntry(SIMULATED_CACHE_DIR, request.key,
+          request.position, request.length, timestamp);
+      if (oldSpan != null) {
+        spans.put(spanId, newSpan);
+        evictor.onSpanTouched(this, oldSpan, newSpan);
+        return true;
+      }
+      evictor.onStartFile(this, request.key, request.position, request.length);
+      spans.put(spanId, newSpan);
+      cacheSpace += newSpan.length;
+      evictor.onSpanAdded(this, newSpan);
+      return false;
+    }
+
+    @Override
+    public void removeSpan(CacheSpan span) {
+      String spanId = getSpanId(span.key, span.position);
+      if (spans.get(spanId) == span) {
+        spans.remove(spanId);
+        cacheSpace -= span.length;
+        evictor.onSpanRemoved(this, span);
+      }
+    }
+
+    @Override
+    public long getCacheSpace() {
+      return cacheSpace;
+    }
+
+    @Override
+    public NavigableSet<CacheSpan> addListener(String key, Listener listener) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void removeListener(String key, Listener listener) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public NavigableSet<CacheSpan> getCachedSpans(String key) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Set<String> getKeys() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CacheSpan startReadWrite(String key, long position) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CacheSpan startReadWriteNonBlocking(String key, long position) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public File startFile(String key, long position, long length) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void commitFile(File file) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void releaseHoleSpan(CacheSpan holeSpan) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isCached(String key, long position, long length) {
+      throw new UnsupportedOperationException();
+    }
+
+    private static String getSpanId(String key, long position) {
+      return key + "." + position;
+    }
+
+  }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream.cache;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+
+/**
+ * Unit tests for {@link MemoryCache}.
+ */
+public class MemoryCacheTest extends TestCase {
+
+  private static final File CACHE_DIR = new File("cache");
+
+  public void testHitAndMissCounts() {
+    MemoryCache memoryCache = new MemoryCache(100, 50);
+    CacheSpan span = createSpan("key", 0, 10);
+    assertNull(memoryCache.get("key", 0));
+    memoryCache.put(span, new byte[10]);
+    assertNotNull(memoryCache.get("key", 0));
+    assertNotNull(memoryCache.get("key", 9));
+    assertEquals(2, memoryCache.getHitCount());
+    assertEquals(1, memoryCache.getMissCount());
+  }
+
+  public void testEntryIsFoundFromAnyPositionInSpan() {
+    MemoryCache memoryCache = new MemoryCache(100, 50);
+    byte[] data = new byte[10];
+    memoryCache.put(createSpan("key", 20, 10), data);
+    assertNull(memoryCache.get("key", 19));
+    assertNull(memoryCache.get("key", 30));
+    assertNull(memoryCache.get("otherKey", 25));
+    MemoryCache.Entry entry = memoryCache.get("key", 25);
+    assertEquals(20, entry.position);
+    assertSame(data, entry.data);
+  }
+
+  public void testLargeSpansAreNotHeld() {
+    MemoryCache memoryCache = new MemoryCache(100, 50);
+    assertFalse(memoryCache.isCacheable(51));
+    memoryCache.put(createSpan("key", 0, 51), new byte[51]);
+    assertNull(memoryCache.get("key", 0));
+    assertEquals(0, memoryCache.getSizeBytes());
+  }
+
+  public void testLeastRecentlyUsedEntriesAreEvicted() {
+    MemoryCache memoryCache = new MemoryCache(100, 50);
+    memoryCache.put(createSpan("key", 0, 40), new byte[40]);
+    memoryCache.put(createSpan("key", 40, 40), new byte[40]);
+    // Access the first span, so that the second becomes the least recently used entry.
+    assertNotNull(memoryCache.get("key", 0));
+    memoryCache.put(createSpan("key", 80, 40), new byte[40]);
+    assertEquals(80, memoryCache.getSizeBytes());
+    assertNotNull(memoryCache.get("key", 0));
+    assertNull(memoryCache.get("key", 40));
+    assertNotNull(memoryCache.get("key", 80));
+  }
+
+  public void testEntryAtSamePositionIsReplaced() {
+    MemoryCache memoryCache = new MemoryCache(100, 50);
+    memoryCache.put(createSpan("key", 0, 10), new byte[10]);
+    memoryCache.put(createSpan("key", 0, 20), new byte[20]);
+    assertEquals(20, memoryCache.getSizeBytes());
+    assertEquals(20, memoryCache.get("key", 15).data.length);
+  }
+
+  private static CacheSpan createSpan(String key, long position, long length) {
+    return CacheSpan.createCacheEntry(CACHE_DIR, key, position, length, System.nanoTime());
+  }
+
+}
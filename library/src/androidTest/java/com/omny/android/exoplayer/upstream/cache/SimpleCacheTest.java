@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream.cache;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unit tests for {@link SimpleCache}.
+ */
+public class SimpleCacheTest extends TestCase {
+
+  private static final String KEY_1 = "key1";
+  private static final String KEY_2 = "key2";
+
+  private static final int STRESS_THREAD_COUNT = 8;
+  private static final int STRESS_KEY_COUNT = 5;
+  private static final int STRESS_SEGMENT_COUNT = 20;
+  private static final int STRESS_SEGMENT_LENGTH = 64;
+  private static final int STRESS_ITERATIONS = 500;
+
+  private File cacheDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    cacheDir = File.createTempFile("SimpleCacheTest", null);
+    assertTrue(cacheDir.delete());
+    assertTrue(cacheDir.mkdirs());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    File[] files = cacheDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    cacheDir.delete();
+  }
+
+  public void testCommittedSpansArePersisted() throws Exception {
+    SimpleCache cache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    addCachedData(cache, KEY_1, 0, 15);
+    addCachedData(cache, KEY_1, 15, 5);
+    addCachedData(cache, KEY_2, 0, 7);
+
+    SimpleCache reloadedCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    assertEquals(27, reloadedCache.getCacheSpace());
+    assertTrue(reloadedCache.isCached(KEY_1, 0, 20));
+    assertTrue(reloadedCache.isCached(KEY_2, 0, 7));
+    assertEquals(2, reloadedCache.getCachedSpans(KEY_1).size());
+  }
+
+  public void testRemovedAndTouchedSpansArePersisted() throws Exception {
+    SimpleCache cache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    addCachedData(cache, KEY_1, 0, 15);
+    addCachedData(cache, KEY_2, 0, 7);
+    cache.removeSpan(cache.getCachedSpans(KEY_2).first());
+    Thread.sleep(2);
+    CacheSpan touchedSpan = cache.startReadWrite(KEY_1, 0);
+
+    SimpleCache reloadedCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    assertNull(reloadedCache.getCachedSpans(KEY_2));
+    NavigableSet<CacheSpan> spans = reloadedCache.getCachedSpans(KEY_1);
+    assertEquals(1, spans.size());
+    assertEquals(touchedSpan.lastAccessTimestamp, spans.first().lastAccessTimestamp);
+    assertEquals(touchedSpan.file, spans.first().file);
+  }
+
+  public void testIndexIsUsedInsteadOfDirectoryScan() throws Exception {
+    SimpleCache cache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    addCachedData(cache, KEY_1, 0, 15);
+    // Create a valid cache file behind the cache's back. It's only found by a directory scan.
+    writeFile(CacheSpan.getCacheFileName(cacheDir, KEY_2, 0, System.currentTimeMillis()), 5);
+
+    SimpleCache reloadedCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    assertEquals(15, reloadedCache.getCacheSpace());
+    assertNull(reloadedCache.getCachedSpans(KEY_2));
+  }
+
+  public void testIndexedSpansWithMissingFilesAreRemovedWhenAccessed() throws Exception {
+    SimpleCache cache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    addCachedData(cache, KEY_1, 0, 15);
+    addCachedData(cache, KEY_1, 15, 5);
+    assertTrue(cache.getCachedSpans(KEY_1).first().file.delete());
+
+    SimpleCache reloadedCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    // The index isn't checked against the directory when it's loaded.
+    assertEquals(20, reloadedCache.getCacheSpace());
+    CacheSpan span = reloadedCache.startReadWrite(KEY_1, 0);
+    assertFalse(span.isCached);
+    reloadedCache.releaseHoleSpan(span);
+    assertEquals(5, reloadedCache.getCacheSpace());
+    assertEquals(1, reloadedCache.getCachedSpans(KEY_1).size());
+    assertCacheConsistentWithDisk(reloadedCache);
+  }
+
+  public void testCorruptIndexFallsBackToDirectoryScan() throws Exception {
+    SimpleCache cache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    addCachedData(cache, KEY_1, 0, 15);
+    writeFile(CacheSpan.getCacheFileName(cacheDir, KEY_2, 0, System.currentTimeMillis()), 5);
+    // Corrupt a byte in the middle of the snapshot.
+    File snapshotFile = new File(cacheDir, CachedSpanIndex.SNAPSHOT_FILE_NAME);
+    RandomAccessFile snapshot = new RandomAccessFile(snapshotFile, "rw");
+    snapshot.seek(snapshot.length() / 2);
+    int value = snapshot.read();
+    snapshot.seek(snapshot.length() / 2);
+    snapshot.write(value ^ 0xFF);
+    snapshot.close();
+
+    SimpleCache reloadedCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    assertEquals(20, reloadedCache.getCacheSpace());
+    assertTrue(reloadedCache.isCached(KEY_1, 0, 15));
+    assertTrue(reloadedCache.isCached(KEY_2, 0, 5));
+    // The index files must survive the scan.
+    assertTrue(snapshotFile.exists());
+  }
+
+  public void testTruncatedJournalFallsBackToDirectoryScan() throws Exception {
+    SimpleCache cache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    addCachedData(cache, KEY_1, 0, 15);
+    addCachedData(cache, KEY_2, 0, 7);
+    File journalFile = new File(cacheDir, CachedSpanIndex.JOURNAL_FILE_NAME);
+    RandomAccessFile journal = new RandomAccessFile(journalFile, "rw");
+    journal.setLength(journal.length() - 1);
+    journal.close();
+
+    SimpleCache reloadedCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    assertTrue(reloadedCache.isCached(KEY_1, 0, 15));
+    // The span whose record was torn is recovered by scanning the directory.
+    assertTrue(reloadedCache.isCached(KEY_2, 0, 7));
+    assertCacheConsistentWithDisk(reloadedCache);
+  }
+
+  public void testConcurrentReadWriteDoesNotLoseSpans() throws Exception {
+    SimpleCache cache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    runStressThreads(cache);
+    // Fill in anything that the random accesses missed.
+    for (int i = 0; i < STRESS_KEY_COUNT; i++) {
+      for (int j = 0; j < STRESS_SEGMENT_COUNT; j++) {
+        readOrWriteSegment(cache, "key" + i, j);
+      }
+    }
+
+    long expectedSpace = (long) STRESS_KEY_COUNT * STRESS_SEGMENT_COUNT * STRESS_SEGMENT_LENGTH;
+    assertEquals(expectedSpace, cache.getCacheSpace());
+    for (int i = 0; i < STRESS_KEY_COUNT; i++) {
+      assertTrue(cache.isCached("key" + i, 0, STRESS_SEGMENT_COUNT * STRESS_SEGMENT_LENGTH));
+      assertEquals(STRESS_SEGMENT_COUNT, cache.getCachedSpans("key" + i).size());
+    }
+    assertCacheConsistentWithDisk(cache);
+  }
+
+  public void testConcurrentReadWriteWithEvictionDoesNotLoseSpans() throws Exception {
+    long maxBytes = 10 * STRESS_SEGMENT_LENGTH;
+    SimpleCache cache = new SimpleCache(cacheDir, new LeastRecentlyUsedCacheEvictor(maxBytes));
+    runStressThreads(cache);
+    assertTrue(cache.getCacheSpace() <= maxBytes);
+    assertCacheConsistentWithDisk(cache);
+  }
+
+  /**
+   * Runs {@link #STRESS_THREAD_COUNT} threads that each read and write random segments of a small
+   * set of keys, so that threads contend both for the same key and for different keys.
+   */
+  private static void runStressThreads(final SimpleCache cache) throws InterruptedException {
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+    Thread[] threads = new Thread[STRESS_THREAD_COUNT];
+    for (int i = 0; i < threads.length; i++) {
+      final Random random = new Random(i);
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < STRESS_ITERATIONS; j++) {
+              readOrWriteSegment(cache, "key" + random.nextInt(STRESS_KEY_COUNT),
+                  random.nextInt(STRESS_SEGMENT_COUNT));
+            }
+          } catch (Throwable e) {
+            error.compareAndSet(null, e);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (error.get() != null) {
+      throw new AssertionError(error.get());
+    }
+  }
+
+  private static void readOrWriteSegment(SimpleCache cache, String key, int segmentIndex)
+      throws InterruptedException, IOException {
+    long position = (long) segmentIndex * STRESS_SEGMENT_LENGTH;
+    CacheSpan span = cache.startReadWrite(key, position);
+    if (span.isCached) {
+      assertTrue(span.position <= position);
+      assertTrue(position < span.position + span.length);
+    } else {
+      assertTrue(span.isOpenEnded() || span.length >= STRESS_SEGMENT_LENGTH);
+      File file = cache.startFile(key, position, STRESS_SEGMENT_LENGTH);
+      writeFile(file, STRESS_SEGMENT_LENGTH);
+      cache.commitFile(file);
+      cache.releaseHoleSpan(span);
+    }
+  }
+
+  /**
+   * Asserts that the spans in the cache correspond exactly to the cache files on disk, both
+   * before and after the cache is reloaded from its index.
+   */
+  private void assertCacheConsistentWithDisk(SimpleCache cache) {
+    HashSet<File> spanFiles = new HashSet<>();
+    long totalLength = 0;
+    for (String key : cache.getKeys()) {
+      for (CacheSpan span : cache.getCachedSpans(key)) {
+        assertTrue(span.file.exists());
+        assertEquals(span.length, span.file.length());
+        spanFiles.add(span.file);
+        totalLength += span.length;
+      }
+    }
+    assertEquals(totalLength, cache.getCacheSpace());
+    HashSet<File> diskFiles = new HashSet<>();
+    for (File file : cacheDir.listFiles()) {
+      if (!CachedSpanIndex.isIndexFile(file)) {
+        diskFiles.add(file);
+      }
+    }
+    assertEquals(diskFiles, spanFiles);
+
+    SimpleCache reloadedCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    HashSet<File> reloadedSpanFiles = new HashSet<>();
+    for (String key : reloadedCache.getKeys()) {
+      for (CacheSpan span : reloadedCache.getCachedSpans(key)) {
+        reloadedSpanFiles.add(span.file);
+      }
+    }
+    assertEquals(spanFiles, reloadedSpanFiles);
+    assertEquals(totalLength, reloadedCache.getCacheSpace());
+  }
+
+  private static void addCachedData(SimpleCache cache, String key, long position, int length)
+      throws InterruptedException, IOException {
+    CacheSpan holeSpan = cache.startReadWrite(key, position);
+    assertFalse(holeSpan.isCached);
+    File file = cache.startFile(key, position, length);
+    writeFile(file, length);
+    cache.commitFile(file);
+    cache.releaseHoleSpan(holeSpan);
+  }
+
+  private static void writeFile(File file, int length) throws IOException {
+    FileOutputStream outputStream = new FileOutputStream(file);
+    outputStream.write(new byte[length]);
+    outputStream.close();
+  }
+
+}
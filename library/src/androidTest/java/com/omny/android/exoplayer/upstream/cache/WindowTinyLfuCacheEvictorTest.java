@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream.cache;
+
+import com.omny.android.exoplayer.upstream.cache.CacheTraceSimulator.Request;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link WindowTinyLfuCacheEvictor}.
+ */
+public class WindowTinyLfuCacheEvictorTest extends TestCase {
+
+  private static final int SEGMENT_LENGTH = 1000;
+  private static final int INIT_SEGMENT_LENGTH = 100;
+  private static final int POPULAR_TITLE_COUNT = 20;
+  private static final int POPULAR_SEGMENTS_PER_TITLE = 10;
+  private static final int LONG_TITLE_SEGMENTS = 400;
+  private static final long MAX_BYTES = 100 * SEGMENT_LENGTH;
+
+  public void testFrequentlyUsedSegmentSurvivesLinearScan() {
+    WindowTinyLfuCacheEvictor evictor = new WindowTinyLfuCacheEvictor(MAX_BYTES);
+    List<Request> trace = new ArrayList<>();
+    Request hotRequest = new Request("hot", 0, SEGMENT_LENGTH);
+    for (int i = 0; i < 5; i++) {
+      trace.add(hotRequest);
+    }
+    for (int i = 0; i < LONG_TITLE_SEGMENTS; i++) {
+      trace.add(new Request("long", (long) i * SEGMENT_LENGTH, SEGMENT_LENGTH));
+    }
+    trace.add(hotRequest);
+    double hitRatio = CacheTraceSimulator.getByteHitRatio(evictor, trace);
+    // The first request for the hot segment and every request in the scan are misses.
+    long requestedBytes = (6L + LONG_TITLE_SEGMENTS) * SEGMENT_LENGTH;
+    assertEquals(5.0 * SEGMENT_LENGTH / requestedBytes, hitRatio, 1e-9);
+  }
+
+  public void testHigherByteHitRatioThanLeastRecentlyUsed() {
+    List<Request> trace = createMixedTrace(new Random(0));
+    double tinyLfuHitRatio = CacheTraceSimulator.getByteHitRatio(
+        new WindowTinyLfuCacheEvictor(MAX_BYTES), trace);
+    double lruHitRatio = CacheTraceSimulator.getByteHitRatio(
+        new LeastRecentlyUsedCacheEvictor(MAX_BYTES), trace);
+    assertTrue("W-TinyLFU " + tinyLfuHitRatio + ", LRU " + lruHitRatio,
+        tinyLfuHitRatio > lruHitRatio + 0.05);
+  }
+
+  /**
+   * Creates a trace in which short sessions play the start of popular titles, chosen with a skewed
+   * distribution, interleaved with occasional linear watches of long titles that are never reused.
+   */
+  private static List<Request> createMixedTrace(Random random) {
+    List<Request> trace = new ArrayList<>();
+    int longTitleCount = 0;
+    for (int session = 0; session < 2000; session++) {
+      if (session % 100 == 99) {
+        String key = "long" + longTitleCount++;
+        trace.add(new Request(key, 0, INIT_SEGMENT_LENGTH));
+        for (int i = 0; i < LONG_TITLE_SEGMENTS; i++) {
+          trace.add(new Request(key, INIT_SEGMENT_LENGTH + (long) i * SEGMENT_LENGTH,
+              SEGMENT_LENGTH));
+        }
+        continue;
+      }
+      // Squaring a uniform value skews the choice towards lower title indices.
+      double uniform = random.nextDouble();
+      String key = "popular" + (int) (uniform * uniform * POPULAR_TITLE_COUNT);
+      int segmentCount = 1 + random.nextInt(POPULAR_SEGMENTS_PER_TITLE);
+      trace.add(new Request(key, 0, INIT_SEGMENT_LENGTH));
+      for (int i = 0; i < segmentCount; i++) {
+        trace.add(new Request(key, INIT_SEGMENT_LENGTH + (long) i * SEGMENT_LENGTH,
+            SEGMENT_LENGTH));
+      }
+    }
+    return trace;
+  }
+
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream.cache;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import android.net.Uri;
+import android.os.ConditionVariable;
+import android.os.SystemClock;
+import com.omny.android.exoplayer.upstream.DataSink;
+import com.omny.android.exoplayer.upstream.DataSpec;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+
+/**
+ * Unit tests for {@link WriteBehindCacheDataSink}.
+ */
+public class WriteBehindCacheDataSinkTest extends TestCase {
+
+  private static final int TIMEOUT_MS = 5000;
+
+  private static final DataSpec DATA_SPEC = new DataSpec(Uri.parse("test"), 0, 100, "key");
+
+  public void testDataIsWrittenInOrderBeforeCloseReturns() throws IOException {
+    FakeDataSink fakeSink = new FakeDataSink();
+    WriteBehindCacheDataSink sink = new WriteBehindCacheDataSink(null, fakeSink, 100,
+        WriteBehindCacheDataSink.DEFAULT_MAX_COMMIT_DELAY_MS);
+    byte[] data = new byte[100];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+    sink.open(DATA_SPEC);
+    for (int i = 0; i < data.length; i += 10) {
+      sink.write(data, i, 10);
+    }
+    sink.close();
+    assertTrue(fakeSink.closed);
+    assertTrue(Arrays.equals(data, fakeSink.output.toByteArray()));
+  }
+
+  public void testWriteSkipsCacheInsteadOfBlocking() throws IOException {
+    FakeDataSink fakeSink = new FakeDataSink();
+    fakeSink.writeAllowed.close();
+    WriteBehindCacheDataSink sink = new WriteBehindCacheDataSink(null, fakeSink, 20,
+        WriteBehindCacheDataSink.DEFAULT_MAX_COMMIT_DELAY_MS);
+    sink.open(DATA_SPEC);
+    // The writer is blocked, so only the first 20 bytes fit in the queue.
+    sink.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10}, 0, 10);
+    sink.write(new byte[10], 0, 10);
+    sink.write(new byte[10], 0, 10);
+    // Once skipping has started, later data must not be written even if there's space for it.
+    fakeSink.writeAllowed.open();
+    sink.write(new byte[10], 0, 10);
+    sink.close();
+    assertEquals(20, fakeSink.output.size());
+    assertTrue(fakeSink.closed);
+  }
+
+  public void testWriteErrorSkipsRemainingData() throws IOException {
+    FakeDataSink fakeSink = new FakeDataSink();
+    fakeSink.failWrites = true;
+    WriteBehindCacheDataSink sink = new WriteBehindCacheDataSink(null, fakeSink, 100,
+        WriteBehindCacheDataSink.DEFAULT_MAX_COMMIT_DELAY_MS);
+    sink.open(DATA_SPEC);
+    sink.write(new byte[10], 0, 10);
+    sink.write(new byte[10], 0, 10);
+    // The error is not propagated, since the data itself was read successfully.
+    sink.close();
+    assertEquals(1, fakeSink.writeCount);
+    assertTrue(fakeSink.closed);
+  }
+
+  public void testRuntimeExceptionSkipsRemainingData() throws IOException {
+    FakeDataSink fakeSink = new FakeDataSink();
+    fakeSink.failWritesWithRuntimeException = true;
+    WriteBehindCacheDataSink sink = new WriteBehindCacheDataSink(null, fakeSink, 100,
+        WriteBehindCacheDataSink.DEFAULT_MAX_COMMIT_DELAY_MS);
+    sink.open(DATA_SPEC);
+    sink.write(new byte[10], 0, 10);
+    sink.write(new byte[10], 0, 10);
+    sink.close();
+    assertEquals(1, fakeSink.writeCount);
+    assertTrue(fakeSink.closed);
+  }
+
+  public void testInterruptDuringCloseWaitsForCommit() throws IOException {
+    final FakeDataSink fakeSink = new FakeDataSink();
+    fakeSink.writeAllowed.close();
+    WriteBehindCacheDataSink sink = new WriteBehindCacheDataSink(null, fakeSink, 100,
+        WriteBehindCacheDataSink.DEFAULT_MAX_COMMIT_DELAY_MS);
+    sink.open(DATA_SPEC);
+    sink.write(new byte[10], 0, 10);
+    sink.write(new byte[10], 0, 10);
+    fakeSink.writeStarted.block();
+    // Unblock the writer only after close() has been interrupted.
+    new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          // Do nothing.
+        }
+        fakeSink.writeAllowed.open();
+      }
+    }.start();
+    Thread.currentThread().interrupt();
+    try {
+      sink.close();
+      fail();
+    } catch (InterruptedIOException e) {
+      // Expected.
+    }
+    assertTrue(Thread.interrupted());
+    // The write in progress and the commit finished before close() returned, and the queued write
+    // was dropped.
+    assertTrue(fakeSink.closed);
+    assertEquals(1, fakeSink.writeCount);
+  }
+
+  public void testTransferredHoleSpanIsReleasedAfterCommit() throws IOException {
+    Cache cache = mock(Cache.class);
+    CacheSpan holeSpan = CacheSpan.createOpenHole("key", 0);
+    FakeDataSink fakeSink = new FakeDataSink();
+    fakeSink.writeAllowed.close();
+    WriteBehindCacheDataSink sink = new WriteBehindCacheDataSink(cache, fakeSink, 100,
+        WriteBehindCacheDataSink.DEFAULT_MAX_COMMIT_DELAY_MS);
+    sink.open(DATA_SPEC);
+    sink.transferHoleSpan(holeSpan);
+    sink.write(new byte[10], 0, 10);
+    // The writer is blocked, so close() must return before the data has been committed.
+    sink.close();
+    assertFalse(fakeSink.closed);
+    verify(cache, never()).releaseHoleSpan(holeSpan);
+    fakeSink.writeAllowed.open();
+    verify(cache, timeout(TIMEOUT_MS)).releaseHoleSpan(holeSpan);
+    assertTrue(fakeSink.closed);
+    assertEquals(10, fakeSink.output.size());
+  }
+
+  public void testQueuedDataIsDroppedAfterMaxCommitDelay() throws IOException {
+    Cache cache = mock(Cache.class);
+    CacheSpan holeSpan = CacheSpan.createOpenHole("key", 0);
+    FakeDataSink fakeSink = new FakeDataSink();
+    fakeSink.writeAllowed.close();
+    WriteBehindCacheDataSink sink = new WriteBehindCacheDataSink(cache, fakeSink, 100, 0);
+    sink.open(DATA_SPEC);
+    sink.transferHoleSpan(holeSpan);
+    sink.write(new byte[10], 0, 10);
+    sink.write(new byte[10], 0, 10);
+    fakeSink.writeStarted.block();
+    sink.close();
+    SystemClock.sleep(10);
+    fakeSink.writeAllowed.open();
+    verify(cache, timeout(TIMEOUT_MS)).releaseHoleSpan(holeSpan);
+    // The write in progress and the commit finished, but the queued write was dropped.
+    assertTrue(fakeSink.closed);
+    assertEquals(1, fakeSink.writeCount);
+  }
+
+  public void testSinkCanBeReopened() throws IOException {
+    FakeDataSink fakeSink = new FakeDataSink();
+    WriteBehindCacheDataSink sink = new WriteBehindCacheDataSink(null, fakeSink, 10,
+        WriteBehindCacheDataSink.DEFAULT_MAX_COMMIT_DELAY_MS);
+    sink.open(DATA_SPEC);
+    sink.write(new byte[20], 0, 20);
+    sink.close();
+    assertEquals(0, fakeSink.output.size());
+    sink.open(DATA_SPEC);
+    sink.write(new byte[10], 0, 10);
+    sink.close();
+    assertEquals(10, fakeSink.output.size());
+  }
+
+  private static final class FakeDataSink implements DataSink {
+
+    public final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    public final ConditionVariable writeAllowed = new ConditionVariable(true);
+    public final ConditionVariable writeStarted = new ConditionVariable();
+
+    public volatile boolean failWrites;
+    public volatile boolean failWritesWithRuntimeException;
+    public volatile boolean closed;
+    public volatile int writeCount;
+
+    @Override
+    public DataSink open(DataSpec dataSpec) {
+      closed = false;
+      return this;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+      writeStarted.open();
+      writeAllowed.block();
+      writeCount++;
+      if (failWrites) {
+        throw new IOException();
+      }
+      if (failWritesWithRuntimeException) {
+        throw new IllegalStateException();
+      }
+      output.write(buffer, offset, length);
+    }
+
+  }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.util;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link ExponentialHistogram}.
+ */
+public class ExponentialHistogramTest extends TestCase {
+
+  public void testValuesAreBucketedByPowerOfTwo() {
+    ExponentialHistogram histogram = new ExponentialHistogram();
+    histogram.add(0);
+    histogram.add(1);
+    histogram.add(2);
+    histogram.add(3);
+    histogram.add(4);
+    histogram.add(-5);
+
+    assertEquals(2, histogram.getBucketCount(0));
+    assertEquals(1, histogram.getBucketCount(1));
+    assertEquals(2, histogram.getBucketCount(2));
+    assertEquals(1, histogram.getBucketCount(3));
+    assertEquals(6, histogram.getCount());
+    assertEquals(10, histogram.getSum());
+    assertEquals(4, histogram.getMax());
+    assertEquals(4, ExponentialHistogram.getBucketLowerBound(3));
+  }
+
+  public void testLargeValuesAreHeldByLastBucket() {
+    ExponentialHistogram histogram = new ExponentialHistogram();
+    histogram.add(Long.MAX_VALUE);
+    assertEquals(1, histogram.getBucketCount(ExponentialHistogram.BUCKET_COUNT - 1));
+    assertEquals(Long.MAX_VALUE, histogram.getPercentileUpperBound(50));
+  }
+
+  public void testPercentileUpperBound() {
+    ExponentialHistogram histogram = new ExponentialHistogram();
+    for (int i = 0; i < 90; i++) {
+      histogram.add(100);
+    }
+    for (int i = 0; i < 10; i++) {
+      histogram.add(5000);
+    }
+    assertEquals(128, histogram.getPercentileUpperBound(50));
+    assertEquals(128, histogram.getPercentileUpperBound(90));
+    assertEquals(5000, histogram.getPercentileUpperBound(99));
+    assertEquals(0, new ExponentialHistogram().getPercentileUpperBound(99));
+  }
+
+  public void testCopyAndReset() {
+    ExponentialHistogram histogram = new ExponentialHistogram();
+    histogram.add(7);
+    ExponentialHistogram copy = histogram.copy();
+    histogram.reset();
+
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMax());
+    assertEquals(1, copy.getCount());
+    assertEquals(7, copy.getMax());
+  }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.util;
+
+import java.util.Random;
+
+/**
+ * Manual benchmark for {@link NalUnitUtil}. It isn't run as part of the unit tests, since the
+ * durations depend on the device and its load. Run {@link #main(String[])} to report them.
+ */
+public final class NalUnitUtilBenchmark {
+
+  private static final int DATA_LENGTH = 1024 * 1024;
+  private static final int ITERATIONS = 20;
+
+  private NalUnitUtilBenchmark() {}
+
+  public static void main(String[] args) {
+    reportUnescape();
+    reportFindNalUnit();
+  }
+
+  private static void reportUnescape() {
+    byte[] escapedData = NalUnitUtilTest.buildEscapedData(new Random(0), DATA_LENGTH);
+    byte[] data = new byte[escapedData.length];
+    long startTimeNs = System.nanoTime();
+    long checksum = 0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      System.arraycopy(escapedData, 0, data, 0, data.length);
+      checksum += NalUnitUtil.unescapeStream(data, data.length);
+    }
+    long durationMs = (System.nanoTime() - startTimeNs) / 1000000;
+    System.out.println("unescapeStream: " + ITERATIONS + " x " + DATA_LENGTH + " bytes took "
+        + durationMs + "ms (checksum " + checksum + ")");
+  }
+
+  private static void reportFindNalUnit() {
+    Random random = new Random(0);
+    byte[] data = NalUnitUtilTest.buildEscapedData(random, DATA_LENGTH);
+    NalUnitUtilTest.insertNalUnits(random, data);
+    long startTimeNs = System.nanoTime();
+    long checksum = 0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      checksum += NalUnitUtilTest.findNalUnitsInChunks(data);
+    }
+    long durationMs = (System.nanoTime() - startTimeNs) / 1000000;
+    System.out.println("findNalUnit: " + ITERATIONS + " x " + DATA_LENGTH + " bytes took "
+        + durationMs + "ms (checksum " + checksum + ")");
+  }
+
+}
@@ -20,16 +20,19 @@ import com.omny.android.exoplayer.util.Util;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Random;
 import junit.framework.TestCase;
 
 /**
- * Tests for {@link NalUnitUtil}.
+ * Tests for {@link NalUnitUtil}. See {@link NalUnitUtilBenchmark} for a benchmark.
  */
 public class NalUnitUtilTest extends TestCase {
 
   private static final int TEST_PARTIAL_NAL_POSITION = 4;
   private static final int TEST_NAL_POSITION = 10;
 
+  private static final int LARGE_DATA_LENGTH = 1024 * 1024;
+
   public void testFindNalUnit() {
     byte[] data = buildTestData();
 
@@ -123,6 +126,52 @@ public class NalUnitUtilTest extends TestCase {
   public void testUnescapeModifiesBuffersWithStartCodes() {
     assertUnescapeMatchesExpected("00000301", "000001");
     assertUnescapeMatchesExpected("0000030200000300", "000002000000");
+    assertUnescapeMatchesExpected("000003000003", "00000000");
+    assertUnescapeMatchesExpected("0000030000", "00000000");
+    assertUnescapeMatchesExpected("FF000003", "FF0000");
+    assertUnescapeMatchesExpected("00000303", "000003");
+    assertUnescapeMatchesExpected("FF00FF000003FF", "FF00FF0000FF");
+  }
+
+  public void testUnescapeConcurrently() throws Exception {
+    final byte[] escapedData = buildEscapedData(new Random(0), 64 * 1024);
+    final byte[] expectedData = unescapeSlowly(escapedData);
+    final boolean[] results = new boolean[4];
+    Thread[] threads = new Thread[results.length];
+    for (int i = 0; i < threads.length; i++) {
+      final int index = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          boolean matches = true;
+          for (int j = 0; j < 20 && matches; j++) {
+            byte[] data = escapedData.clone();
+            int length = NalUnitUtil.unescapeStream(data, data.length);
+            matches = Arrays.equals(expectedData, Arrays.copyOf(data, length));
+          }
+          results[index] = matches;
+        }
+      };
+      threads[i].start();
+    }
+    for (int i = 0; i < threads.length; i++) {
+      threads[i].join();
+      assertTrue(results[i]);
+    }
+  }
+
+  public void testUnescapeLargeStream() {
+    byte[] data = buildEscapedData(new Random(0), LARGE_DATA_LENGTH);
+    byte[] expectedData = unescapeSlowly(data);
+    assertEquals(expectedData.length, NalUnitUtil.unescapeStream(data, data.length));
+    assertTrue(Arrays.equals(expectedData, Arrays.copyOf(data, expectedData.length)));
+  }
+
+  public void testFindNalUnitInChunks() {
+    Random random = new Random(0);
+    byte[] data = buildEscapedData(random, LARGE_DATA_LENGTH);
+    int nalUnitCount = insertNalUnits(random, data);
+    assertEquals(nalUnitCount, findNalUnitsInChunks(data));
   }
 
   public void testDiscardToSps() {
@@ -157,6 +206,83 @@ public class NalUnitUtilTest extends TestCase {
     return data;
   }
 
+  /**
+   * Returns random data with emulation prevention applied, as found in the payloads of H.264 and
+   * H.265 NAL units.
+   */
+  /* package */ static byte[] buildEscapedData(Random random, int length) {
+    byte[] data = new byte[length];
+    int zeroCount = 0;
+    for (int i = 0; i < length; i++) {
+      // Make zeros more likely than in uniformly random data, so that escapes are frequent.
+      int value = random.nextInt(8) == 0 ? 0 : random.nextInt(256);
+      if (zeroCount >= 2 && value <= 3) {
+        value = 3;
+      }
+      data[i] = (byte) value;
+      zeroCount = value == 0 ? zeroCount + 1 : 0;
+    }
+    return data;
+  }
+
+  /**
+   * Inserts NAL unit start codes into {@code data} at random intervals.
+   *
+   * @return The number of start codes inserted.
+   */
+  /* package */ static int insertNalUnits(Random random, byte[] data) {
+    int nalUnitCount = 0;
+    for (int position = 0; position < data.length - 4; position += 1000 + random.nextInt(20000)) {
+      data[position] = 0;
+      data[position + 1] = 0;
+      data[position + 2] = 1;
+      data[position + 3] = 0x65;
+      nalUnitCount++;
+    }
+    return nalUnitCount;
+  }
+
+  /**
+   * Returns the number of NAL units found in {@code data} when searching in chunks the size of TS
+   * packet payloads, as the elementary stream readers do.
+   */
+  /* package */ static int findNalUnitsInChunks(byte[] data) {
+    boolean[] prefixFlags = new boolean[3];
+    int foundCount = 0;
+    for (int offset = 0; offset < data.length; offset += 184) {
+      int limit = Math.min(data.length, offset + 184);
+      int searchOffset = offset;
+      while (searchOffset < limit) {
+        int nalUnitOffset = NalUnitUtil.findNalUnit(data, searchOffset, limit, prefixFlags);
+        if (nalUnitOffset < limit) {
+          foundCount++;
+          searchOffset = nalUnitOffset + 3;
+        } else {
+          searchOffset = limit;
+        }
+      }
+    }
+    return foundCount;
+  }
+
+  /**
+   * Returns a copy of {@code data} with occurrences of [0, 0, 3] replaced by [0, 0].
+   */
+  private static byte[] unescapeSlowly(byte[] data) {
+    byte[] unescapedData = new byte[data.length];
+    int length = 0;
+    for (int i = 0; i < data.length; i++) {
+      if (i + 2 < data.length && data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 3) {
+        unescapedData[length++] = 0;
+        unescapedData[length++] = 0;
+        i += 2;
+      } else {
+        unescapedData[length++] = data[i];
+      }
+    }
+    return Arrays.copyOf(unescapedData, length);
+  }
+
   private static void assertPrefixFlagsCleared(boolean[] flags) {
     assertEquals(false, flags[0] || flags[1] || flags[2]);
   }
@@ -17,7 +17,7 @@ package com.omny.android.exoplayer;
 
 import android.os.Handler;
 import com.omny.android.exoplayer.upstream.Allocator;
-import com.omny.android.exoplayer.upstream.NetworkLock;
+import com.omny.android.exoplayer.upstream.NetworkScheduler;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -34,9 +34,10 @@ import java.util.List;
  * power modes. The control reverts back to the loading state when either the duration of buffered
  * media or the buffer utilization fall below respective thresholds.
  * <p>
- * This implementation of {@link LoadControl} integrates with {@link NetworkLock}, by registering
- * itself as a task with priority {@link NetworkLock#STREAMING_PRIORITY} during loading periods,
- * and unregistering itself during draining periods.
+ * This implementation of {@link LoadControl} integrates with {@link NetworkScheduler}, by
+ * registering itself as a task with priority {@link NetworkScheduler#STREAMING_PRIORITY} during
+ * loading periods, and unregistering itself during draining periods. Whilst loading with a buffer
+ * below its low watermark, it also has the scheduler throttle lower priority tasks.
  */
 public final class DefaultLoadControl implements LoadControl {
 
@@ -79,6 +80,7 @@ public final class DefaultLoadControl implements LoadControl {
   private int bufferState;
   private boolean fillingBuffers;
   private boolean streamingPrioritySet;
+  private boolean throttlingStarted;
 
   /**
    * Constructs a new instance, using the {@code DEFAULT_*} constants defined in this class.
@@ -223,15 +225,25 @@ public final class DefaultLoadControl implements LoadControl {
         && (highestState == BELOW_LOW_WATERMARK
         || (highestState == BETWEEN_WATERMARKS && fillingBuffers));
     if (fillingBuffers && !streamingPrioritySet) {
-      NetworkLock.instance.add(NetworkLock.STREAMING_PRIORITY);
+      NetworkScheduler.instance.add(NetworkScheduler.STREAMING_PRIORITY);
       streamingPrioritySet = true;
       notifyLoadingChanged(true);
     } else if (!fillingBuffers && streamingPrioritySet && !loading) {
-      NetworkLock.instance.remove(NetworkLock.STREAMING_PRIORITY);
+      NetworkScheduler.instance.remove(NetworkScheduler.STREAMING_PRIORITY);
       streamingPrioritySet = false;
       notifyLoadingChanged(false);
     }
 
+    // Only take bandwidth from lower priority tasks when playback is at risk of stalling.
+    boolean bufferAtRisk = fillingBuffers && highestState == BELOW_LOW_WATERMARK;
+    if (bufferAtRisk && !throttlingStarted) {
+      NetworkScheduler.instance.startThrottling();
+      throttlingStarted = true;
+    } else if (!bufferAtRisk && throttlingStarted) {
+      NetworkScheduler.instance.stopThrottling();
+      throttlingStarted = false;
+    }
+
     maxLoadStartPositionUs = -1;
     if (fillingBuffers) {
       for (int i = 0; i < loaders.size(); i++) {
@@ -177,6 +177,18 @@ public interface ExoPlayer {
     void onPlayerError(ExoPlaybackException error);
   }
 
+  /**
+   * Interface definition for a callback to be notified of profiles of the playback loop.
+   */
+  public interface PlaybackLoopProfileListener {
+    /**
+     * Invoked at the end of each reporting interval.
+     *
+     * @param profile A profile of the playback loop during the interval.
+     */
+    void onPlaybackLoopProfile(PlaybackLoopProfile profile);
+  }
+
   /**
    * A component of an {@link ExoPlayer} that can receive messages on the playback thread.
    * <p>
@@ -258,6 +270,22 @@ public interface ExoPlayer {
    */
   public void removeListener(Listener listener);
 
+  /**
+   * Enables or disables profiling of the playback loop. When enabled, the player records the
+   * duration of each {@link TrackRenderer#doSomeWork(long, long)} call and how late each iteration
+   * of the loop starts, and periodically reports them to the listener on the thread that was used
+   * to construct the player.
+   * <p>
+   * Profiling adds a small overhead to each iteration, so it should only be enabled when the
+   * profiles are required.
+   *
+   * @param listener The listener to receive profiles, or null to disable profiling.
+   * @param reportIntervalMs The interval between reports, in milliseconds. Must be positive if
+   *     {@code listener} is non-null.
+   */
+  public void setPlaybackLoopProfileListener(PlaybackLoopProfileListener listener,
+      int reportIntervalMs);
+
   /**
    * Returns the current state of the player.
    *
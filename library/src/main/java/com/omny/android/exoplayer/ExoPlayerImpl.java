@@ -20,6 +20,7 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
+import com.omny.android.exoplayer.util.Assertions;
 import java.util.Arrays;
 import java.util.concurrent.CopyOnWriteArraySet;
 
@@ -39,6 +40,7 @@ import java.util.concurrent.CopyOnWriteArraySet;
   private boolean playWhenReady;
   private int playbackState;
   private int pendingPlayWhenReadyAcks;
+  private PlaybackLoopProfileListener profileListener;
 
   /**
    * Constructs an instance. Must be invoked from a thread that has an associated {@link Looper}.
@@ -84,6 +86,14 @@ import java.util.concurrent.CopyOnWriteArraySet;
     listeners.remove(listener);
   }
 
+  @Override
+  public void setPlaybackLoopProfileListener(PlaybackLoopProfileListener listener,
+      int reportIntervalMs) {
+    Assertions.checkArgument(listener == null || reportIntervalMs > 0);
+    profileListener = listener;
+    internalPlayer.setProfileReportInterval(listener != null ? reportIntervalMs : 0);
+  }
+
   @Override
   public int getPlaybackState() {
     return playbackState;
@@ -223,6 +233,12 @@ import java.util.concurrent.CopyOnWriteArraySet;
         }
         break;
       }
+      case ExoPlayerImplInternal.MSG_PLAYBACK_LOOP_PROFILE: {
+        if (profileListener != null) {
+          profileListener.onPlaybackLoopProfile((PlaybackLoopProfile) msg.obj);
+        }
+        break;
+      }
     }
   }
 
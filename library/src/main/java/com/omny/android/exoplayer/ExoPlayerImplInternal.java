@@ -46,6 +46,7 @@ import java.util.concurrent.atomic.AtomicInteger;
   public static final int MSG_STATE_CHANGED = 2;
   public static final int MSG_SET_PLAY_WHEN_READY_ACK = 3;
   public static final int MSG_ERROR = 4;
+  public static final int MSG_PLAYBACK_LOOP_PROFILE = 5;
 
   // Internal messages
   private static final int MSG_PREPARE = 1;
@@ -57,12 +58,16 @@ import java.util.concurrent.atomic.AtomicInteger;
   private static final int MSG_DO_SOME_WORK = 7;
   private static final int MSG_SET_RENDERER_SELECTED_TRACK = 8;
   private static final int MSG_CUSTOM = 9;
+  private static final int MSG_WAKEUP = 10;
+  private static final int MSG_SET_PROFILE_REPORT_INTERVAL = 11;
 
   private static final int PREPARE_INTERVAL_MS = 10;
   private static final int RENDERING_INTERVAL_MS = 10;
+  /* package */ static final int MAX_RENDERING_INTERVAL_MS = 200;
   private static final int IDLE_INTERVAL_MS = 1000;
 
   private final Handler handler;
+  private final Runnable wakeupListener;
   private final HandlerThread internalPlaybackThread;
   private final Handler eventHandler;
   private final StandaloneMediaClock standaloneMediaClock;
@@ -85,6 +90,9 @@ import java.util.concurrent.atomic.AtomicInteger;
   private int customMessagesProcessed = 0;
   private long lastSeekPositionMs;
   private long elapsedRealtimeUs;
+  private long scheduledWorkTimeMs;
+  private int profileReportIntervalMs;
+  private PlaybackLoopProfiler profiler;
 
   private volatile long durationUs;
   private volatile long positionUs;
@@ -111,6 +119,12 @@ import java.util.concurrent.atomic.AtomicInteger;
         Process.THREAD_PRIORITY_AUDIO);
     internalPlaybackThread.start();
     handler = new Handler(internalPlaybackThread.getLooper(), this);
+    wakeupListener = new Runnable() {
+      @Override
+      public void run() {
+        handler.sendEmptyMessage(MSG_WAKEUP);
+      }
+    };
   }
 
   public Looper getPlaybackLooper() {
@@ -150,6 +164,10 @@ import java.util.concurrent.atomic.AtomicInteger;
     handler.sendEmptyMessage(MSG_STOP);
   }
 
+  public void setProfileReportInterval(int reportIntervalMs) {
+    handler.obtainMessage(MSG_SET_PROFILE_REPORT_INTERVAL, reportIntervalMs, 0).sendToTarget();
+  }
+
   public void setRendererSelectedTrack(int rendererIndex, int trackIndex) {
     handler.obtainMessage(MSG_SET_RENDERER_SELECTED_TRACK, rendererIndex, trackIndex)
         .sendToTarget();
@@ -212,6 +230,13 @@ import java.util.concurrent.atomic.AtomicInteger;
           doSomeWork();
           return true;
         }
+        case MSG_WAKEUP: {
+          // Bring forward the next iteration of the rendering loop, if one is scheduled.
+          if (handler.hasMessages(MSG_DO_SOME_WORK)) {
+            doSomeWork();
+          }
+          return true;
+        }
         case MSG_SEEK_TO: {
           seekToInternal(Util.getLong(msg.arg1, msg.arg2));
           return true;
@@ -228,6 +253,10 @@ import java.util.concurrent.atomic.AtomicInteger;
           sendMessageInternal(msg.arg1, msg.obj);
           return true;
         }
+        case MSG_SET_PROFILE_REPORT_INTERVAL: {
+          setProfileReportIntervalInternal(msg.arg1);
+          return true;
+        }
         case MSG_SET_RENDERER_SELECTED_TRACK: {
           setRendererSelectedTrackInternal(msg.arg1, msg.arg2);
           return true;
@@ -258,6 +287,9 @@ import java.util.concurrent.atomic.AtomicInteger;
   private void prepareInternal(TrackRenderer[] renderers) throws ExoPlaybackException {
     resetInternal();
     this.renderers = renderers;
+    for (TrackRenderer renderer : renderers) {
+      renderer.setWakeupListener(wakeupListener);
+    }
     Arrays.fill(trackFormats, null);
     setState(ExoPlayer.STATE_PREPARING);
     incrementalPrepareInternal();
@@ -424,13 +456,23 @@ import java.util.concurrent.atomic.AtomicInteger;
         : Long.MAX_VALUE;
     boolean allRenderersEnded = true;
     boolean allRenderersReadyOrEnded = true;
+    PlaybackLoopProfiler profiler = getProfiler();
+    if (profiler != null) {
+      long latenessMs = scheduledWorkTimeMs == 0 ? 0 : operationStartTimeMs - scheduledWorkTimeMs;
+      profiler.onIterationStarted(latenessMs * 1000);
+    }
+    scheduledWorkTimeMs = 0;
     updatePositionUs();
     for (int i = 0; i < enabledRenderers.size(); i++) {
       TrackRenderer renderer = enabledRenderers.get(i);
-      // TODO: Each renderer should return the maximum delay before which it wishes to be
-      // invoked again. The minimum of these values should then be used as the delay before the next
-      // invocation of this method.
-      renderer.doSomeWork(positionUs, elapsedRealtimeUs);
+      if (profiler != null) {
+        long startTimeNs = System.nanoTime();
+        renderer.doSomeWork(positionUs, elapsedRealtimeUs);
+        profiler.onRendererWorkDone(getRendererIndex(renderer),
+            (System.nanoTime() - startTimeNs) / 1000);
+      } else {
+        renderer.doSomeWork(positionUs, elapsedRealtimeUs);
+      }
       allRenderersEnded = allRenderersEnded && renderer.isEnded();
 
       // Determine whether the renderer is ready (or ended). If it's not, throw an error that's
@@ -476,8 +518,18 @@ import java.util.concurrent.atomic.AtomicInteger;
       stopRenderers();
     }
 
+    if (profiler != null
+        && operationStartTimeMs - profiler.getIntervalStartTimeMs() >= profileReportIntervalMs) {
+      eventHandler.obtainMessage(MSG_PLAYBACK_LOOP_PROFILE,
+          profiler.createProfile(operationStartTimeMs)).sendToTarget();
+    }
+
     handler.removeMessages(MSG_DO_SOME_WORK);
-    if ((playWhenReady && state == ExoPlayer.STATE_READY) || state == ExoPlayer.STATE_BUFFERING) {
+    if (playWhenReady && state == ExoPlayer.STATE_READY) {
+      // Sleep until the earliest deadline requested by the renderers.
+      scheduleNextOperation(MSG_DO_SOME_WORK, operationStartTimeMs,
+          getWakeupDelayMs(enabledRenderers, positionUs, elapsedRealtimeUs));
+    } else if (state == ExoPlayer.STATE_BUFFERING) {
       scheduleNextOperation(MSG_DO_SOME_WORK, operationStartTimeMs, RENDERING_INTERVAL_MS);
     } else if (!enabledRenderers.isEmpty()) {
       scheduleNextOperation(MSG_DO_SOME_WORK, operationStartTimeMs, IDLE_INTERVAL_MS);
@@ -486,9 +538,33 @@ import java.util.concurrent.atomic.AtomicInteger;
     TraceUtil.endSection();
   }
 
+  /**
+   * Returns the delay before the next iteration of the rendering loop during playback, which is the
+   * earliest deadline requested by any of the renderers, capped at
+   * {@link #MAX_RENDERING_INTERVAL_MS}.
+   *
+   * @param renderers The enabled renderers.
+   * @param positionUs The position passed to the renderers in the current iteration.
+   * @param elapsedRealtimeUs The elapsed real time passed to the renderers in the current
+   *     iteration.
+   * @return The delay in milliseconds.
+   */
+  /* package */ static long getWakeupDelayMs(List<TrackRenderer> renderers, long positionUs,
+      long elapsedRealtimeUs) {
+    long wakeupDelayUs = MAX_RENDERING_INTERVAL_MS * 1000L;
+    for (int i = 0; i < renderers.size(); i++) {
+      wakeupDelayUs = Math.min(wakeupDelayUs,
+          renderers.get(i).getWakeupDelayUs(positionUs, elapsedRealtimeUs));
+    }
+    return Math.max(0, wakeupDelayUs / 1000);
+  }
+
   private void scheduleNextOperation(int operationType, long thisOperationStartTimeMs,
       long intervalMs) {
     long nextOperationStartTimeMs = thisOperationStartTimeMs + intervalMs;
+    if (operationType == MSG_DO_SOME_WORK) {
+      scheduledWorkTimeMs = nextOperationStartTimeMs;
+    }
     long nextOperationDelayMs = nextOperationStartTimeMs - SystemClock.elapsedRealtime();
     if (nextOperationDelayMs <= 0) {
       handler.sendEmptyMessage(operationType);
@@ -497,6 +573,34 @@ import java.util.concurrent.atomic.AtomicInteger;
     }
   }
 
+  private void setProfileReportIntervalInternal(int reportIntervalMs) {
+    profileReportIntervalMs = reportIntervalMs;
+    profiler = null;
+  }
+
+  /**
+   * Returns the profiler for the current renderers, creating it if necessary, or null if profiling
+   * is disabled.
+   */
+  private PlaybackLoopProfiler getProfiler() {
+    if (profileReportIntervalMs == 0 || renderers == null) {
+      return null;
+    }
+    if (profiler == null || profiler.getRendererCount() != renderers.length) {
+      profiler = new PlaybackLoopProfiler(renderers.length, SystemClock.elapsedRealtime());
+    }
+    return profiler;
+  }
+
+  private int getRendererIndex(TrackRenderer renderer) {
+    for (int i = 0; i < renderers.length; i++) {
+      if (renderers[i] == renderer) {
+        return i;
+      }
+    }
+    throw new IllegalStateException();
+  }
+
   private void seekToInternal(long positionMs) throws ExoPlaybackException {
     try {
       if (positionMs == (positionUs / 1000)) {
@@ -530,6 +634,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 
   private void releaseInternal() {
     resetInternal();
+    setProfileReportIntervalInternal(0);
     setState(ExoPlayer.STATE_IDLE);
     synchronized (this) {
       released = true;
@@ -539,6 +644,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 
   private void resetInternal() {
     handler.removeMessages(MSG_DO_SOME_WORK);
+    scheduledWorkTimeMs = 0;
     handler.removeMessages(MSG_INCREMENTAL_PREPARE);
     rebuffering = false;
     standaloneMediaClock.stop();
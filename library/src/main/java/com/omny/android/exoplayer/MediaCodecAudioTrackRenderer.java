@@ -97,6 +97,7 @@ public class MediaCodecAudioTrackRenderer extends MediaCodecTrackRenderer implem
 
   private boolean audioTrackHasData;
   private long lastFeedElapsedRealtimeMs;
+  private boolean audioTrackFull;
 
   /**
    * @param source The upstream source from which the renderer obtains samples.
@@ -264,6 +265,18 @@ public class MediaCodecAudioTrackRenderer extends MediaCodecTrackRenderer implem
     return this;
   }
 
+  @Override
+  protected long getWakeupDelayUs(long positionUs, long elapsedRealtimeUs) {
+    long bufferSizeUs = audioTrack.getBufferSizeUs();
+    if (!audioTrackFull || getState() != STATE_STARTED || bufferSizeUs == C.UNKNOWN_TIME_US) {
+      return super.getWakeupDelayUs(positionUs, elapsedRealtimeUs);
+    }
+    // The audio track can't accept more data at the moment. Sleep until half of its buffer has
+    // been played out.
+    return Math.max(DEFAULT_WAKEUP_DELAY_US,
+        audioTrack.getPendingDataDurationUs() - bufferSizeUs / 2);
+  }
+
   @Override
   protected void onInputFormatChanged(MediaFormatHolder holder) throws ExoPlaybackException {
     super.onInputFormatChanged(holder);
@@ -337,6 +350,7 @@ public class MediaCodecAudioTrackRenderer extends MediaCodecTrackRenderer implem
   @Override
   protected void onDisabled() throws ExoPlaybackException {
     audioSessionId = AudioTrack.SESSION_ID_NOT_SET;
+    audioTrackFull = false;
     try {
       audioTrack.release();
     } finally {
@@ -348,6 +362,7 @@ public class MediaCodecAudioTrackRenderer extends MediaCodecTrackRenderer implem
   protected void onDiscontinuity(long positionUs) throws ExoPlaybackException {
     super.onDiscontinuity(positionUs);
     audioTrack.reset();
+    audioTrackFull = false;
     currentPositionUs = positionUs;
     allowPositionDiscontinuity = true;
   }
@@ -418,9 +433,11 @@ public class MediaCodecAudioTrackRenderer extends MediaCodecTrackRenderer implem
     if ((handleBufferResult & AudioTrack.RESULT_BUFFER_CONSUMED) != 0) {
       codec.releaseOutputBuffer(bufferIndex, false);
       codecCounters.renderedOutputBufferCount++;
+      audioTrackFull = false;
       return true;
     }
 
+    audioTrackFull = true;
     return false;
   }
 
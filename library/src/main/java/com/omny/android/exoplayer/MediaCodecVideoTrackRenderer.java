@@ -125,6 +125,7 @@ public class MediaCodecVideoTrackRenderer extends MediaCodecTrackRenderer {
   private int lastReportedHeight;
   private int lastReportedUnappliedRotationDegrees;
   private float lastReportedPixelWidthHeightRatio;
+  private long pendingFrameReleaseDelayUs;
 
   /**
    * @param context A context.
@@ -208,6 +209,7 @@ public class MediaCodecVideoTrackRenderer extends MediaCodecTrackRenderer {
     this.eventListener = eventListener;
     this.maxDroppedFrameCountToNotify = maxDroppedFrameCountToNotify;
     joiningDeadlineUs = -1;
+    pendingFrameReleaseDelayUs = C.UNKNOWN_TIME_US;
     currentWidth = -1;
     currentHeight = -1;
     currentPixelWidthHeightRatio = -1;
@@ -241,6 +243,7 @@ public class MediaCodecVideoTrackRenderer extends MediaCodecTrackRenderer {
     renderedFirstFrame = false;
     consecutiveDroppedFrameCount = 0;
     joiningDeadlineUs = -1;
+    pendingFrameReleaseDelayUs = C.UNKNOWN_TIME_US;
   }
 
   @Override
@@ -263,6 +266,15 @@ public class MediaCodecVideoTrackRenderer extends MediaCodecTrackRenderer {
     }
   }
 
+  @Override
+  protected long getWakeupDelayUs(long positionUs, long elapsedRealtimeUs) {
+    if (pendingFrameReleaseDelayUs == C.UNKNOWN_TIME_US || getState() != STATE_STARTED) {
+      return super.getWakeupDelayUs(positionUs, elapsedRealtimeUs);
+    }
+    // The decoder is ahead of playback. Wake up when the pending frame enters the release window.
+    return pendingFrameReleaseDelayUs;
+  }
+
   @Override
   protected void onStarted() {
     super.onStarted();
@@ -286,6 +298,7 @@ public class MediaCodecVideoTrackRenderer extends MediaCodecTrackRenderer {
     lastReportedWidth = -1;
     lastReportedHeight = -1;
     lastReportedPixelWidthHeightRatio = -1;
+    pendingFrameReleaseDelayUs = C.UNKNOWN_TIME_US;
     frameReleaseTimeHelper.disable();
     super.onDisabled();
   }
@@ -386,6 +399,7 @@ public class MediaCodecVideoTrackRenderer extends MediaCodecTrackRenderer {
   @Override
   protected boolean processOutputBuffer(long positionUs, long elapsedRealtimeUs, MediaCodec codec,
       ByteBuffer buffer, MediaCodec.BufferInfo bufferInfo, int bufferIndex, boolean shouldSkip) {
+    pendingFrameReleaseDelayUs = C.UNKNOWN_TIME_US;
     if (shouldSkip) {
       skipOutputBuffer(codec, bufferIndex);
       consecutiveDroppedFrameCount = 0;
@@ -432,6 +446,7 @@ public class MediaCodecVideoTrackRenderer extends MediaCodecTrackRenderer {
         consecutiveDroppedFrameCount = 0;
         return true;
       }
+      pendingFrameReleaseDelayUs = earlyUs - 50000;
     } else {
       // We need to time the release ourselves.
       if (earlyUs < 30000) {
@@ -449,6 +464,7 @@ public class MediaCodecVideoTrackRenderer extends MediaCodecTrackRenderer {
         consecutiveDroppedFrameCount = 0;
         return true;
       }
+      pendingFrameReleaseDelayUs = earlyUs - 30000;
     }
 
     // We're either not playing, or it's not time to render the frame yet.
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer;
+
+import com.omny.android.exoplayer.util.ExponentialHistogram;
+
+/**
+ * A summary of the work done by the playback loop during a reporting interval, as reported to an
+ * {@link ExoPlayer.PlaybackLoopProfileListener}.
+ * <p>
+ * Durations are in microseconds. Renderer statistics are indexed by the position of the renderer
+ * in the array passed to {@link ExoPlayer#prepare(TrackRenderer...)}, and are empty for renderers
+ * that were not enabled during the interval. The histograms should not be modified.
+ */
+public final class PlaybackLoopProfile {
+
+  /**
+   * A loop iteration that starts more than this long after its scheduled start time is counted as
+   * having missed its deadline.
+   */
+  public static final long MISSED_DEADLINE_THRESHOLD_US = 5000;
+
+  /**
+   * {@link android.os.SystemClock#elapsedRealtime()} at the start of the interval.
+   */
+  public final long startTimeMs;
+  /**
+   * {@link android.os.SystemClock#elapsedRealtime()} at the end of the interval.
+   */
+  public final long endTimeMs;
+  /**
+   * The number of loop iterations.
+   */
+  public final int iterationCount;
+  /**
+   * The number of iterations that started more than {@link #MISSED_DEADLINE_THRESHOLD_US} after
+   * their scheduled start time.
+   */
+  public final int missedDeadlineCount;
+  /**
+   * The time between the scheduled and actual start of each iteration.
+   */
+  public final ExponentialHistogram lateness;
+  /**
+   * For each renderer, the duration of each call to {@link TrackRenderer#doSomeWork(long, long)}.
+   */
+  public final ExponentialHistogram[] rendererWorkDurations;
+
+  /* package */ PlaybackLoopProfile(long startTimeMs, long endTimeMs, int iterationCount,
+      int missedDeadlineCount, ExponentialHistogram lateness,
+      ExponentialHistogram[] rendererWorkDurations) {
+    this.startTimeMs = startTimeMs;
+    this.endTimeMs = endTimeMs;
+    this.iterationCount = iterationCount;
+    this.missedDeadlineCount = missedDeadlineCount;
+    this.lateness = lateness;
+    this.rendererWorkDurations = rendererWorkDurations;
+  }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer;
+
+import com.omny.android.exoplayer.util.ExponentialHistogram;
+
+/**
+ * Accumulates statistics about the playback loop, from which {@link PlaybackLoopProfile}s are
+ * created. Recording does not allocate. Must only be used on the playback thread.
+ */
+/* package */ final class PlaybackLoopProfiler {
+
+  private final ExponentialHistogram lateness;
+  private final ExponentialHistogram[] rendererWorkDurations;
+
+  private long intervalStartTimeMs;
+  private int iterationCount;
+  private int missedDeadlineCount;
+
+  /**
+   * @param rendererCount The number of renderers.
+   * @param startTimeMs {@link android.os.SystemClock#elapsedRealtime()} at the start of the first
+   *     interval.
+   */
+  public PlaybackLoopProfiler(int rendererCount, long startTimeMs) {
+    lateness = new ExponentialHistogram();
+    rendererWorkDurations = new ExponentialHistogram[rendererCount];
+    for (int i = 0; i < rendererCount; i++) {
+      rendererWorkDurations[i] = new ExponentialHistogram();
+    }
+    intervalStartTimeMs = startTimeMs;
+  }
+
+  /**
+   * Returns the number of renderers for which statistics are recorded.
+   */
+  public int getRendererCount() {
+    return rendererWorkDurations.length;
+  }
+
+  /**
+   * Returns {@link android.os.SystemClock#elapsedRealtime()} at the start of the current interval.
+   */
+  public long getIntervalStartTimeMs() {
+    return intervalStartTimeMs;
+  }
+
+  /**
+   * Records the start of a loop iteration.
+   *
+   * @param latenessUs The time between the scheduled and actual start of the iteration.
+   */
+  public void onIterationStarted(long latenessUs) {
+    iterationCount++;
+    lateness.add(latenessUs);
+    if (latenessUs > PlaybackLoopProfile.MISSED_DEADLINE_THRESHOLD_US) {
+      missedDeadlineCount++;
+    }
+  }
+
+  /**
+   * Records a call to {@link TrackRenderer#doSomeWork(long, long)}.
+   *
+   * @param rendererIndex The index of the renderer.
+   * @param durationUs The duration of the call.
+   */
+  public void onRendererWorkDone(int rendererIndex, long durationUs) {
+    rendererWorkDurations[rendererIndex].add(durationUs);
+  }
+
+  /**
+   * Creates a profile of the current interval, and starts a new interval.
+   *
+   * @param endTimeMs {@link android.os.SystemClock#elapsedRealtime()} at the end of the interval.
+   * @return The profile of the interval that ended.
+   */
+  public PlaybackLoopProfile createProfile(long endTimeMs) {
+    ExponentialHistogram[] rendererWorkDurationsCopy =
+        new ExponentialHistogram[rendererWorkDurations.length];
+    for (int i = 0; i < rendererWorkDurations.length; i++) {
+      rendererWorkDurationsCopy[i] = rendererWorkDurations[i].copy();
+      rendererWorkDurations[i].reset();
+    }
+    PlaybackLoopProfile profile = new PlaybackLoopProfile(intervalStartTimeMs, endTimeMs,
+        iterationCount, missedDeadlineCount, lateness.copy(), rendererWorkDurationsCopy);
+    lateness.reset();
+    iterationCount = 0;
+    missedDeadlineCount = 0;
+    intervalStartTimeMs = endTimeMs;
+    return profile;
+  }
+
+}
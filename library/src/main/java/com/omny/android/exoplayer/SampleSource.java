@@ -61,6 +61,28 @@ public interface SampleSource {
    */
   public SampleSourceReader register();
 
+  /**
+   * Optionally implemented by {@link SampleSourceReader}s that are able to notify the consumer
+   * when new samples become available, so that a consumer waiting for samples can be woken rather
+   * than having to poll for them.
+   * <p>
+   * Currently only {@link com.omny.android.exoplayer.chunk.ChunkSampleSource} implements this
+   * interface. Renderers consuming other sources, such as
+   * {@link com.omny.android.exoplayer.hls.HlsSampleSource} and
+   * {@link com.omny.android.exoplayer.extractor.ExtractorSampleSource}, continue to poll them at
+   * the interval returned by {@link TrackRenderer#getWakeupDelayUs(long, long)}.
+   */
+  public interface SampleAvailabilityNotifier {
+
+    /**
+     * Sets a listener to be run when new samples may have become available.
+     *
+     * @param listener The listener, which may be run on any thread, or null.
+     */
+    public void setSampleAvailabilityListener(Runnable listener);
+
+  }
+
   /**
    * An interface providing read access to a {@link SampleSource}.
    */
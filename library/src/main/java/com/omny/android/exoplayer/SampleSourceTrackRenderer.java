@@ -41,8 +41,18 @@ public abstract class SampleSourceTrackRenderer extends TrackRenderer {
    */
   public SampleSourceTrackRenderer(SampleSource... sources) {
     this.sources = new SampleSource.SampleSourceReader[sources.length];
+    Runnable sampleAvailabilityListener = new Runnable() {
+      @Override
+      public void run() {
+        requestWakeup();
+      }
+    };
     for (int i = 0; i < sources.length; i++) {
       this.sources[i] = sources[i].register();
+      if (this.sources[i] instanceof SampleSource.SampleAvailabilityNotifier) {
+        ((SampleSource.SampleAvailabilityNotifier) this.sources[i])
+            .setSampleAvailabilityListener(sampleAvailabilityListener);
+      }
     }
   }
 
@@ -43,6 +43,11 @@ public abstract class TrackRenderer implements ExoPlayer.ExoPlayerComponent {
    * Represents the time of the end of the track.
    */
   public static final long END_OF_TRACK_US = -3;
+  /**
+   * The delay before the next invocation of {@link #doSomeWork(long, long)} requested by renderers
+   * that do not override {@link #getWakeupDelayUs(long, long)}.
+   */
+  public static final long DEFAULT_WAKEUP_DELAY_US = 10000;
 
   /**
    * The renderer has been released and should not be used.
@@ -74,6 +79,7 @@ public abstract class TrackRenderer implements ExoPlayer.ExoPlayerComponent {
   protected static final int STATE_STARTED = 3;
 
   private int state;
+  private volatile Runnable wakeupListener;
 
   /**
    * If the renderer advances its own playback position then this method returns a corresponding
@@ -318,6 +324,48 @@ public abstract class TrackRenderer implements ExoPlayer.ExoPlayerComponent {
   protected abstract void doSomeWork(long positionUs, long elapsedRealtimeUs)
       throws ExoPlaybackException;
 
+  /**
+   * Returns the maximum delay before the renderer wishes {@link #doSomeWork(long, long)} to be
+   * invoked again, for example the time until the next video frame should be released, or the
+   * time until an audio output buffer needs to be refilled. The player sleeps until the earliest
+   * deadline across its renderers, so renderers should return a short delay whenever they are able
+   * to make progress.
+   * <p>
+   * This method is called immediately after {@link #doSomeWork(long, long)}. It may be called when
+   * the renderer is in the following states:
+   * {@link #STATE_ENABLED}, {@link #STATE_STARTED}
+   *
+   * @param positionUs The current media time in microseconds, as passed to the preceding call to
+   *     {@link #doSomeWork(long, long)}.
+   * @param elapsedRealtimeUs {@link android.os.SystemClock#elapsedRealtime()} in microseconds, as
+   *     passed to the preceding call to {@link #doSomeWork(long, long)}.
+   * @return The maximum delay in microseconds.
+   */
+  protected long getWakeupDelayUs(long positionUs, long elapsedRealtimeUs) {
+    return DEFAULT_WAKEUP_DELAY_US;
+  }
+
+  /**
+   * Requests that {@link #doSomeWork(long, long)} be invoked as soon as possible, rather than
+   * after the delay returned by {@link #getWakeupDelayUs(long, long)}. For example, a renderer may
+   * call this method when new samples become available to it. May be called from any thread.
+   */
+  protected final void requestWakeup() {
+    Runnable wakeupListener = this.wakeupListener;
+    if (wakeupListener != null) {
+      wakeupListener.run();
+    }
+  }
+
+  /**
+   * Sets the listener that is run when the renderer calls {@link #requestWakeup()}.
+   *
+   * @param wakeupListener The listener, or null.
+   */
+  /* package */ final void setWakeupListener(Runnable wakeupListener) {
+    this.wakeupListener = wakeupListener;
+  }
+
   /**
    * Throws an error that's preventing the renderer from making progress or buffering more data at
    * this point in time.
@@ -693,6 +693,18 @@ public final class AudioTrack {
         || overrideHasPendingData());
   }
 
+  /**
+   * Returns the duration of the data that has been written to the audio track but not yet played
+   * out, in microseconds.
+   */
+  public long getPendingDataDurationUs() {
+    if (!isInitialized()) {
+      return 0;
+    }
+    long pendingFrames = getSubmittedFrames() - audioTrackUtil.getPlaybackHeadPosition();
+    return pendingFrames > 0 ? framesToDurationUs(pendingFrames) : 0;
+  }
+
   /**
    * Sets the playback parameters. Only available for SDK_INT >= 23
    *
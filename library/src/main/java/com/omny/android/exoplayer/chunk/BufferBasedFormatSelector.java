@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.chunk;
+
+import com.omny.android.exoplayer.upstream.BandwidthMeter;
+import com.omny.android.exoplayer.util.Assertions;
+
+/**
+ * Selects between formats of differing bitrates based on the duration of buffered media, using the
+ * BOLA algorithm (Spiteri, Urgaonkar and Sitaraman, "BOLA: Near-Optimal Bitrate Adaptation for
+ * Online Videos").
+ * <p>
+ * Each format is assigned a utility, which is the logarithm of its bitrate relative to the lowest
+ * bitrate. The selected format is the one that maximizes {@code (V * (utility + gamma) - buffer) /
+ * bitrate}, where the parameters {@code V} and {@code gamma} are derived from the configured
+ * minimum and target buffer durations. With less than the minimum buffer the lowest bitrate is
+ * selected, and from the target buffer onwards the highest bitrate is selected. In between, the
+ * selection rises with the buffer, so the bandwidth estimate does not need to be accurate for the
+ * buffer to be used fully.
+ * <p>
+ * Buffer levels alone can cause the selection to oscillate when the selected bitrate is higher than
+ * the available bandwidth. As in the BOLA-O variant of the algorithm, the selector therefore does
+ * not switch up to a format that exceeds the sustainable bitrate estimated by the
+ * {@link BandwidthMeter}, unless the currently selected format already does.
+ * <p>
+ * The selector is stateless, and is shared by {@link FormatEvaluator.BufferBasedEvaluator} and
+ * {@link com.omny.android.exoplayer.hls.HlsChunkSource}.
+ */
+public final class BufferBasedFormatSelector {
+
+  public static final int DEFAULT_MIN_BUFFER_MS = 10000;
+  public static final int DEFAULT_TARGET_BUFFER_MS = 30000;
+  public static final float DEFAULT_BANDWIDTH_FRACTION = 0.8f;
+
+  private final double minBufferSecs;
+  private final double targetBufferSecs;
+  private final float bandwidthFraction;
+
+  public BufferBasedFormatSelector() {
+    this(DEFAULT_MIN_BUFFER_MS, DEFAULT_TARGET_BUFFER_MS, DEFAULT_BANDWIDTH_FRACTION);
+  }
+
+  /**
+   * @param minBufferMs The duration of buffered media below which the lowest bitrate is selected.
+   * @param targetBufferMs The duration of buffered media above which the highest bitrate is
+   *     selected. Must be greater than {@code minBufferMs}.
+   * @param bandwidthFraction The fraction of the estimated bandwidth that is considered
+   *     sustainable.
+   */
+  public BufferBasedFormatSelector(int minBufferMs, int targetBufferMs, float bandwidthFraction) {
+    Assertions.checkArgument(minBufferMs > 0 && targetBufferMs > minBufferMs);
+    this.minBufferSecs = minBufferMs / 1000d;
+    this.targetBufferSecs = targetBufferMs / 1000d;
+    this.bandwidthFraction = bandwidthFraction;
+  }
+
+  /**
+   * Selects a format.
+   *
+   * @param formats The formats from which to select, ordered by decreasing bitrate.
+   * @param excluded Flags indicating formats that must not be selected, in the same order as
+   *     {@code formats}, or null if all formats may be selected. At least one format must not be
+   *     excluded.
+   * @param currentIndex The index of the currently selected format, or -1 if there is none.
+   * @param bufferedDurationUs The duration of buffered media.
+   * @param bitrateEstimate The estimated bandwidth in bits/sec, or
+   *     {@link BandwidthMeter#NO_ESTIMATE}.
+   * @return The index of the selected format.
+   */
+  public int selectFormatIndex(Format[] formats, boolean[] excluded, int currentIndex,
+      long bufferedDurationUs, long bitrateEstimate) {
+    int lowestIndex = getLowestIndex(formats, excluded);
+    double lowestBitrate = Math.max(1, formats[lowestIndex].bitrate);
+    int highestIndex = 0;
+    while (isExcluded(excluded, highestIndex)) {
+      highestIndex++;
+    }
+    double highestUtility = Math.log(Math.max(1, formats[highestIndex].bitrate) / lowestBitrate);
+    if (highestUtility <= 0) {
+      return lowestIndex;
+    }
+
+    // Derive the parameters so that the lowest format is selected up to the minimum buffer, and
+    // the highest from the target buffer onwards. Utilities are offset by 1 so that the lowest
+    // format has a positive utility.
+    double gamma = highestUtility / (targetBufferSecs / minBufferSecs - 1);
+    double v = minBufferSecs / gamma;
+    double bufferSecs = bufferedDurationUs / 1000000d;
+    int selectedIndex = lowestIndex;
+    double selectedScore = Double.NEGATIVE_INFINITY;
+    for (int i = lowestIndex; i >= 0; i--) {
+      if (isExcluded(excluded, i)) {
+        continue;
+      }
+      double bitrate = Math.max(1, formats[i].bitrate);
+      double utility = Math.log(bitrate / lowestBitrate) + 1;
+      double score = (v * (utility + gamma) - bufferSecs) / bitrate;
+      if (score > selectedScore) {
+        selectedScore = score;
+        selectedIndex = i;
+      }
+    }
+
+    // Don't switch up beyond the sustainable bitrate, unless already beyond it.
+    if (bitrateEstimate != BandwidthMeter.NO_ESTIMATE
+        && (currentIndex == -1 || selectedIndex < currentIndex)) {
+      int sustainableIndex = selectFormatIndexForBandwidth(formats, excluded, bitrateEstimate);
+      int limitIndex = currentIndex == -1 || isExcluded(excluded, currentIndex) ? sustainableIndex
+          : Math.min(sustainableIndex, currentIndex);
+      selectedIndex = Math.max(selectedIndex, limitIndex);
+    }
+    return selectedIndex;
+  }
+
+  /**
+   * Selects the highest bitrate format that is sustainable given a bandwidth estimate, ignoring
+   * the buffer.
+   *
+   * @param formats The formats from which to select, ordered by decreasing bitrate.
+   * @param excluded Flags indicating formats that must not be selected, in the same order as
+   *     {@code formats}, or null if all formats may be selected. At least one format must not be
+   *     excluded.
+   * @param bitrateEstimate The estimated bandwidth in bits/sec, or
+   *     {@link BandwidthMeter#NO_ESTIMATE} to select the lowest bitrate format.
+   * @return The index of the selected format.
+   */
+  public int selectFormatIndexForBandwidth(Format[] formats, boolean[] excluded,
+      long bitrateEstimate) {
+    long effectiveBitrate = bitrateEstimate == BandwidthMeter.NO_ESTIMATE ? 0
+        : (long) (bitrateEstimate * bandwidthFraction);
+    return getFormatIndexForBitrate(formats, excluded, effectiveBitrate);
+  }
+
+  /**
+   * Returns the index of the highest bitrate format whose bitrate does not exceed a maximum, or of
+   * the lowest bitrate format if there is no such format.
+   *
+   * @param formats The formats, ordered by decreasing bitrate.
+   * @param excluded Flags indicating formats that must not be selected, in the same order as
+   *     {@code formats}, or null if all formats may be selected. At least one format must not be
+   *     excluded.
+   * @param maxBitrate The maximum bitrate in bits/sec.
+   * @return The index of the format.
+   */
+  public static int getFormatIndexForBitrate(Format[] formats, boolean[] excluded,
+      long maxBitrate) {
+    for (int i = 0; i < formats.length; i++) {
+      if (!isExcluded(excluded, i) && formats[i].bitrate <= maxBitrate) {
+        return i;
+      }
+    }
+    return getLowestIndex(formats, excluded);
+  }
+
+  private static int getLowestIndex(Format[] formats, boolean[] excluded) {
+    int lowestIndex = formats.length - 1;
+    while (isExcluded(excluded, lowestIndex)) {
+      lowestIndex--;
+    }
+    // At least one format should always be enabled.
+    Assertions.checkState(lowestIndex != -1);
+    return lowestIndex;
+  }
+
+  private static boolean isExcluded(boolean[] excluded, int index) {
+    return index >= 0 && excluded != null && excluded[index];
+  }
+
+}
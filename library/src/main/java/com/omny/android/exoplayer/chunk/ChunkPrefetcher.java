@@ -0,0 +1,424 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.chunk;
+
+import com.omny.android.exoplayer.C;
+import com.omny.android.exoplayer.upstream.DataSource;
+import com.omny.android.exoplayer.upstream.DataSpec;
+import com.omny.android.exoplayer.util.Assertions;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches the data of upcoming chunks in parallel with the chunk that a {@link ChunkSampleSource}
+ * is currently loading, so that each chunk request does not have to wait for the previous one to
+ * complete before its round trip starts.
+ * <p>
+ * Chunks obtained from a {@link ChunkSource} typically share an extractor and a
+ * {@link DataSource}, and so cannot themselves be loaded in parallel. Instead, the prefetcher
+ * reads the raw data of upcoming chunks into memory using its own {@link DataSource}s. The chunk
+ * source's {@link DataSource} must be wrapped using {@link #createDataSource(DataSource)}, so that
+ * when the {@link ChunkSampleSource} later loads a chunk whose data has been prefetched, it is
+ * read from memory. Chunks are still parsed one at a time and in order, so samples are written to
+ * the sample queue in the same order as they are without prefetching.
+ * <p>
+ * A prefetch is discarded if it is no longer requested, for example because the chunk source
+ * selected a different format for the corresponding chunk, or if it would cause the amount of
+ * prefetched data to exceed the configured limit.
+ */
+public final class ChunkPrefetcher {
+
+  private static final long FETCHER_KEEP_ALIVE_MS = 1000;
+  private static final int INITIAL_BUFFER_SIZE = 32 * 1024;
+
+  private final DataSource[] dataSources;
+  private final boolean[] dataSourcesInUse;
+  private final int maxBufferedBytes;
+  private final ThreadPoolExecutor fetcherExecutor;
+  private final LinkedHashMap<String, Prefetch> prefetches;
+  private final ArrayList<DataSpec> pendingDataSpecs;
+
+  private int bufferedBytes;
+  private int hitCount;
+  private int missCount;
+
+  /**
+   * @param dataSources The {@link DataSource}s used to prefetch data, one for each chunk that can
+   *     be prefetched at the same time. These should be distinct from each other and from the
+   *     chunk source's {@link DataSource}, and should report transfers to the same
+   *     {@link com.omny.android.exoplayer.upstream.BandwidthMeter} as the chunk source's
+   *     {@link DataSource}, since prefetched data is not reported again when it is read.
+   * @param maxBufferedBytes The maximum amount of prefetched data held in memory, in bytes.
+   */
+  public ChunkPrefetcher(DataSource[] dataSources, int maxBufferedBytes) {
+    Assertions.checkArgument(dataSources.length > 0);
+    Assertions.checkArgument(maxBufferedBytes > 0);
+    this.dataSources = Arrays.copyOf(dataSources, dataSources.length);
+    this.maxBufferedBytes = maxBufferedBytes;
+    dataSourcesInUse = new boolean[dataSources.length];
+    prefetches = new LinkedHashMap<>();
+    pendingDataSpecs = new ArrayList<>();
+    fetcherExecutor = new ThreadPoolExecutor(dataSources.length, dataSources.length,
+        FETCHER_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          private final AtomicInteger threadNumber = new AtomicInteger();
+          @Override
+          public Thread newThread(Runnable r) {
+            return new Thread(r, "ChunkPrefetcher:" + threadNumber.incrementAndGet());
+          }
+        });
+    fetcherExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Returns the maximum number of chunks that can be prefetched at the same time.
+   *
+   * @return The maximum number of parallel prefetches.
+   */
+  public int getMaxParallelFetches() {
+    return dataSources.length;
+  }
+
+  /**
+   * Wraps a {@link DataSource}, so that data that has been prefetched is read from memory rather
+   * than from {@code upstream}. If data is requested whilst it is still being prefetched, then
+   * the returned {@link DataSource} waits for the prefetch to complete rather than requesting the
+   * same data a second time.
+   *
+   * @param upstream The {@link DataSource} to wrap.
+   * @return The wrapping {@link DataSource}.
+   */
+  public DataSource createDataSource(DataSource upstream) {
+    return new PrefetchedDataSource(upstream);
+  }
+
+  /**
+   * Sets the chunks whose data should be prefetched, in order of preference. Prefetches that are
+   * not in the list are canceled and their data discarded.
+   *
+   * @param dataSpecs The {@link DataSpec}s defining the chunks to prefetch.
+   */
+  public synchronized void setPrefetchTargets(List<DataSpec> dataSpecs) {
+    HashSet<String> targetKeys = new HashSet<>();
+    for (int i = 0; i < dataSpecs.size(); i++) {
+      targetKeys.add(getKey(dataSpecs.get(i)));
+    }
+    Iterator<Prefetch> iterator = prefetches.values().iterator();
+    while (iterator.hasNext()) {
+      Prefetch prefetch = iterator.next();
+      if (!targetKeys.contains(prefetch.key)) {
+        iterator.remove();
+        discard(prefetch);
+      }
+    }
+    pendingDataSpecs.clear();
+    for (int i = 0; i < dataSpecs.size(); i++) {
+      DataSpec dataSpec = dataSpecs.get(i);
+      if (!prefetches.containsKey(getKey(dataSpec))) {
+        pendingDataSpecs.add(dataSpec);
+      }
+    }
+    maybeStartPrefetches();
+  }
+
+  /**
+   * Cancels all prefetches and discards all prefetched data.
+   */
+  public void clear() {
+    setPrefetchTargets(new ArrayList<DataSpec>());
+  }
+
+  /**
+   * Returns the number of chunks whose data was read from memory.
+   */
+  public synchronized int getHitCount() {
+    return hitCount;
+  }
+
+  /**
+   * Returns the number of chunks whose data was not prefetched, and so was read from upstream.
+   */
+  public synchronized int getMissCount() {
+    return missCount;
+  }
+
+  /**
+   * Returns the amount of prefetched data currently held in memory, in bytes.
+   */
+  public synchronized int getBufferedBytes() {
+    return bufferedBytes;
+  }
+
+  private void maybeStartPrefetches() {
+    while (!pendingDataSpecs.isEmpty() && bufferedBytes < maxBufferedBytes) {
+      int dataSourceIndex = getFreeDataSourceIndex();
+      if (dataSourceIndex == -1) {
+        return;
+      }
+      DataSpec dataSpec = pendingDataSpecs.remove(0);
+      Prefetch prefetch = new Prefetch(getKey(dataSpec), dataSpec, dataSourceIndex);
+      dataSourcesInUse[dataSourceIndex] = true;
+      prefetches.put(prefetch.key, prefetch);
+      fetcherExecutor.execute(prefetch);
+    }
+  }
+
+  private int getFreeDataSourceIndex() {
+    for (int i = 0; i < dataSourcesInUse.length; i++) {
+      if (!dataSourcesInUse[i]) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Takes the prefetched data for a {@link DataSpec}, waiting for the prefetch to complete if
+   * necessary.
+   *
+   * @param dataSpec The {@link DataSpec} being opened.
+   * @return The prefetched data, or null if the data was not successfully prefetched.
+   * @throws InterruptedException If the thread was interrupted whilst waiting.
+   */
+  private synchronized byte[] take(DataSpec dataSpec) throws InterruptedException {
+    String key = getKey(dataSpec);
+    Prefetch prefetch = prefetches.get(key);
+    while (prefetch != null && prefetch.state == Prefetch.STATE_LOADING) {
+      wait();
+      prefetch = prefetches.get(key);
+    }
+    if (prefetch == null || prefetch.state != Prefetch.STATE_COMPLETED) {
+      missCount++;
+      return null;
+    }
+    prefetches.remove(key);
+    bufferedBytes -= prefetch.data.length;
+    maybeStartPrefetches();
+    hitCount++;
+    return prefetch.data.length == prefetch.size ? prefetch.data
+        : Arrays.copyOf(prefetch.data, prefetch.size);
+  }
+
+  private void discard(Prefetch prefetch) {
+    if (prefetch.state == Prefetch.STATE_LOADING) {
+      // The prefetch releases its buffer and data source when it stops.
+      prefetch.state = Prefetch.STATE_CANCELED;
+    } else if (prefetch.state == Prefetch.STATE_COMPLETED) {
+      bufferedBytes -= prefetch.data.length;
+    }
+  }
+
+  /**
+   * Called on a fetcher thread to account for growth of a prefetch's buffer.
+   *
+   * @return Whether the prefetch should continue.
+   */
+  private synchronized boolean onBufferGrown(Prefetch prefetch, int sizeDelta) {
+    if (prefetch.state != Prefetch.STATE_LOADING) {
+      return false;
+    }
+    if (bufferedBytes + sizeDelta > maxBufferedBytes) {
+      prefetches.remove(prefetch.key);
+      prefetch.state = Prefetch.STATE_CANCELED;
+      notifyAll();
+      return false;
+    }
+    bufferedBytes += sizeDelta;
+    return true;
+  }
+
+  /**
+   * Called on a fetcher thread when a prefetch stops.
+   */
+  private synchronized void onPrefetchStopped(Prefetch prefetch, boolean completed) {
+    dataSourcesInUse[prefetch.dataSourceIndex] = false;
+    int bufferSize = prefetch.data == null ? 0 : prefetch.data.length;
+    if (prefetch.state == Prefetch.STATE_LOADING && completed) {
+      prefetch.state = Prefetch.STATE_COMPLETED;
+    } else {
+      // The prefetch was canceled or failed. Anyone waiting for it will read from upstream.
+      bufferedBytes -= bufferSize;
+      prefetch.data = null;
+      if (prefetch.state == Prefetch.STATE_LOADING) {
+        prefetches.remove(prefetch.key);
+        prefetch.state = Prefetch.STATE_FAILED;
+      }
+    }
+    notifyAll();
+    maybeStartPrefetches();
+  }
+
+  private static String getKey(DataSpec dataSpec) {
+    return dataSpec.uri + "#" + dataSpec.absoluteStreamPosition + "-" + dataSpec.length;
+  }
+
+  private final class Prefetch implements Runnable {
+
+    public static final int STATE_LOADING = 0;
+    public static final int STATE_COMPLETED = 1;
+    public static final int STATE_CANCELED = 2;
+    public static final int STATE_FAILED = 3;
+
+    public final String key;
+    public final DataSpec dataSpec;
+    public final int dataSourceIndex;
+
+    // Guarded by the enclosing ChunkPrefetcher.
+    public int state;
+    public byte[] data;
+    public int size;
+
+    public Prefetch(String key, DataSpec dataSpec, int dataSourceIndex) {
+      this.key = key;
+      this.dataSpec = dataSpec;
+      this.dataSourceIndex = dataSourceIndex;
+    }
+
+    @Override
+    public void run() {
+      DataSource dataSource = dataSources[dataSourceIndex];
+      boolean completed = false;
+      try {
+        long length = dataSource.open(dataSpec);
+        if (length > maxBufferedBytes) {
+          return;
+        }
+        byte[] buffer = new byte[length == C.LENGTH_UNBOUNDED
+            ? Math.min(INITIAL_BUFFER_SIZE, maxBufferedBytes) : (int) length];
+        if (!onBufferGrown(this, buffer.length)) {
+          return;
+        }
+        setData(buffer);
+        int bytesRead = 0;
+        while (true) {
+          if (bytesRead == buffer.length) {
+            if (length != C.LENGTH_UNBOUNDED) {
+              break;
+            }
+            int newLength = Math.min(buffer.length * 2, maxBufferedBytes);
+            if (newLength == buffer.length || !onBufferGrown(this, newLength - buffer.length)) {
+              return;
+            }
+            buffer = Arrays.copyOf(buffer, newLength);
+            setData(buffer);
+          }
+          int result = dataSource.read(buffer, bytesRead, buffer.length - bytesRead);
+          if (result == C.RESULT_END_OF_INPUT) {
+            break;
+          }
+          bytesRead += result;
+          if (!isLoading()) {
+            return;
+          }
+        }
+        synchronized (ChunkPrefetcher.this) {
+          size = bytesRead;
+        }
+        completed = length == C.LENGTH_UNBOUNDED || bytesRead == length;
+      } catch (IOException e) {
+        // Do nothing. The chunk will be loaded from upstream.
+      } finally {
+        try {
+          dataSource.close();
+        } catch (IOException e) {
+          // Ignore.
+        }
+        onPrefetchStopped(this, completed);
+      }
+    }
+
+    private boolean isLoading() {
+      synchronized (ChunkPrefetcher.this) {
+        return state == STATE_LOADING;
+      }
+    }
+
+    private void setData(byte[] data) {
+      synchronized (ChunkPrefetcher.this) {
+        this.data = data;
+      }
+    }
+
+  }
+
+  private final class PrefetchedDataSource implements DataSource {
+
+    private final DataSource upstream;
+
+    private DataSource currentDataSource;
+    private byte[] data;
+    private int readPosition;
+
+    public PrefetchedDataSource(DataSource upstream) {
+      this.upstream = Assertions.checkNotNull(upstream);
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+      try {
+        data = take(dataSpec);
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+      if (data == null) {
+        currentDataSource = upstream;
+        return upstream.open(dataSpec);
+      }
+      readPosition = 0;
+      return data.length;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+      if (currentDataSource != null) {
+        return currentDataSource.read(buffer, offset, readLength);
+      }
+      if (readPosition == data.length) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      int bytesToRead = Math.min(readLength, data.length - readPosition);
+      System.arraycopy(data, readPosition, buffer, offset, bytesToRead);
+      readPosition += bytesToRead;
+      return bytesToRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+      data = null;
+      if (currentDataSource != null) {
+        try {
+          currentDataSource.close();
+        } finally {
+          currentDataSource = null;
+        }
+      }
+    }
+
+  }
+
+}
@@ -25,11 +25,14 @@ import com.omny.android.exoplayer.SampleHolder;
 import com.omny.android.exoplayer.SampleSource;
 import com.omny.android.exoplayer.TrackRenderer;
 import com.omny.android.exoplayer.extractor.DefaultTrackOutput;
+import com.omny.android.exoplayer.upstream.DataSpec;
 import com.omny.android.exoplayer.upstream.Loader;
 import com.omny.android.exoplayer.upstream.Loader.Loadable;
+import com.omny.android.exoplayer.upstream.LoaderThreadPool;
 import com.omny.android.exoplayer.util.Assertions;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -38,7 +41,8 @@ import java.util.List;
  * A {@link SampleSource} that loads media in {@link Chunk}s, which are themselves obtained from a
  * {@link ChunkSource}.
  */
-public class ChunkSampleSource implements SampleSource, SampleSource.SampleSourceReader, Loader.Callback {
+public class ChunkSampleSource implements SampleSource, SampleSource.SampleSourceReader,
+    SampleSource.SampleAvailabilityNotifier, Loader.Callback {
 
   /**
    * Interface definition for a callback to be notified of {@link ChunkSampleSource} events.
@@ -69,6 +73,8 @@ public class ChunkSampleSource implements SampleSource, SampleSource.SampleSourc
   private final Handler eventHandler;
   private final EventListener eventListener;
   private final int minLoadableRetryCount;
+  private final ChunkPrefetcher prefetcher;
+  private final LoaderThreadPool loaderThreadPool;
 
   private int state;
   private long downstreamPositionUs;
@@ -87,6 +93,7 @@ public class ChunkSampleSource implements SampleSource, SampleSource.SampleSourc
 
   private MediaFormat downstreamMediaFormat;
   private Format downstreamFormat;
+  private Runnable sampleAvailabilityListener;
 
   /**
    * @param chunkSource A {@link ChunkSource} from which chunks to load are obtained.
@@ -128,6 +135,55 @@ public class ChunkSampleSource implements SampleSource, SampleSource.SampleSourc
   public ChunkSampleSource(ChunkSource chunkSource, LoadControl loadControl,
       int bufferSizeContribution, Handler eventHandler, EventListener eventListener,
       int eventSourceId, int minLoadableRetryCount) {
+    this(chunkSource, loadControl, bufferSizeContribution, eventHandler, eventListener,
+        eventSourceId, minLoadableRetryCount, null);
+  }
+
+  /**
+   * @param chunkSource A {@link ChunkSource} from which chunks to load are obtained.
+   * @param loadControl Controls when the source is permitted to load data.
+   * @param bufferSizeContribution The contribution of this source to the media buffer, in bytes.
+   * @param eventHandler A handler to use when delivering events to {@code eventListener}. May be
+   *     null if delivery of events is not required.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   * @param eventSourceId An identifier that gets passed to {@code eventListener} methods.
+   * @param minLoadableRetryCount The minimum number of times that the source should retry a load
+   *     before propagating an error.
+   * @param prefetcher A {@link ChunkPrefetcher} used to fetch the data of the chunks that follow
+   *     the chunk being loaded in parallel with it, or null if chunks should be loaded one at a
+   *     time. If non-null, the {@link ChunkSource} must read chunk data through a
+   *     {@link com.omny.android.exoplayer.upstream.DataSource} obtained from
+   *     {@link ChunkPrefetcher#createDataSource}. The prefetcher must not be shared with other
+   *     sources.
+   */
+  public ChunkSampleSource(ChunkSource chunkSource, LoadControl loadControl,
+      int bufferSizeContribution, Handler eventHandler, EventListener eventListener,
+      int eventSourceId, int minLoadableRetryCount, ChunkPrefetcher prefetcher) {
+    this(chunkSource, loadControl, bufferSizeContribution, eventHandler, eventListener,
+        eventSourceId, minLoadableRetryCount, prefetcher, null);
+  }
+
+  /**
+   * @param chunkSource A {@link ChunkSource} from which chunks to load are obtained.
+   * @param loadControl Controls when the source is permitted to load data.
+   * @param bufferSizeContribution The contribution of this source to the media buffer, in bytes.
+   * @param eventHandler A handler to use when delivering events to {@code eventListener}. May be
+   *     null if delivery of events is not required.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   * @param eventSourceId An identifier that gets passed to {@code eventListener} methods.
+   * @param minLoadableRetryCount The minimum number of times that the source should retry a load
+   *     before propagating an error.
+   * @param prefetcher A {@link ChunkPrefetcher} used to fetch the data of the chunks that follow
+   *     the chunk being loaded in parallel with it, or null if chunks should be loaded one at a
+   *     time. See {@link #ChunkSampleSource(ChunkSource, LoadControl, int, Handler, EventListener,
+   *     int, int, ChunkPrefetcher)}.
+   * @param loaderThreadPool A {@link LoaderThreadPool} on which to load chunks, or null if the
+   *     source should load on its own thread.
+   */
+  public ChunkSampleSource(ChunkSource chunkSource, LoadControl loadControl,
+      int bufferSizeContribution, Handler eventHandler, EventListener eventListener,
+      int eventSourceId, int minLoadableRetryCount, ChunkPrefetcher prefetcher,
+      LoaderThreadPool loaderThreadPool) {
     this.chunkSource = chunkSource;
     this.loadControl = loadControl;
     this.bufferSizeContribution = bufferSizeContribution;
@@ -135,6 +191,8 @@ public class ChunkSampleSource implements SampleSource, SampleSource.SampleSourc
     this.eventListener = eventListener;
     this.eventSourceId = eventSourceId;
     this.minLoadableRetryCount = minLoadableRetryCount;
+    this.prefetcher = prefetcher;
+    this.loaderThreadPool = loaderThreadPool;
     currentLoadableHolder = new ChunkOperationHolder();
     mediaChunks = new LinkedList<>();
     readOnlyMediaChunks = Collections.unmodifiableList(mediaChunks);
@@ -150,6 +208,11 @@ public class ChunkSampleSource implements SampleSource, SampleSource.SampleSourc
     return this;
   }
 
+  @Override
+  public void setSampleAvailabilityListener(Runnable listener) {
+    sampleAvailabilityListener = listener;
+  }
+
   @Override
   public boolean prepare(long positionUs) {
     Assertions.checkState(state == STATE_INITIALIZED || state == STATE_PREPARED);
@@ -159,7 +222,7 @@ public class ChunkSampleSource implements SampleSource, SampleSource.SampleSourc
       return false;
     }
     if (chunkSource.getTrackCount() > 0) {
-      loader = new Loader("Loader:" + chunkSource.getFormat(0).mimeType);
+      loader = new Loader("Loader:" + chunkSource.getFormat(0).mimeType, loaderThreadPool);
     }
     state = STATE_PREPARED;
     return true;
@@ -201,6 +264,9 @@ public class ChunkSampleSource implements SampleSource, SampleSource.SampleSourc
       chunkSource.disable(mediaChunks);
     } finally {
       loadControl.unregister(this);
+      if (prefetcher != null) {
+        prefetcher.clear();
+      }
       if (loader.isLoading()) {
         loader.cancelLoading();
       } else {
@@ -363,6 +429,9 @@ public class ChunkSampleSource implements SampleSource, SampleSource.SampleSourc
     }
     clearCurrentLoadable();
     updateLoadControl();
+    if (isMediaChunk(currentLoadable) && sampleAvailabilityListener != null) {
+      sampleAvailabilityListener.run();
+    }
   }
 
   @Override
@@ -404,6 +473,9 @@ public class ChunkSampleSource implements SampleSource, SampleSource.SampleSourc
   private void restartFrom(long positionUs) {
     pendingResetPositionUs = positionUs;
     loadingFinished = false;
+    if (prefetcher != null) {
+      prefetcher.clear();
+    }
     if (loader.isLoading()) {
       loader.cancelLoading();
     } else {
@@ -552,6 +624,30 @@ public class ChunkSampleSource implements SampleSource, SampleSource.SampleSourc
           currentLoadable.trigger, currentLoadable.format, -1, -1);
     }
     loader.startLoading(currentLoadable, this);
+    if (prefetcher != null && isMediaChunk(currentLoadable)) {
+      updatePrefetchTargets();
+    }
+  }
+
+  /**
+   * Asks the chunk source for the media chunks that follow the last chunk in {@link #mediaChunks},
+   * as though each had already been loaded in the currently selected format, and passes their
+   * {@link DataSpec}s to the {@link #prefetcher}. The chunk source is only peeked, so lookahead
+   * does not affect the format evaluation for the chunks that are actually loaded.
+   */
+  private void updatePrefetchTargets() {
+    int maxLookahead = prefetcher.getMaxParallelFetches();
+    ArrayList<MediaChunk> queue = new ArrayList<MediaChunk>(mediaChunks);
+    ArrayList<DataSpec> dataSpecs = new ArrayList<>(maxLookahead);
+    while (dataSpecs.size() < maxLookahead) {
+      MediaChunk chunk = chunkSource.peekNextMediaChunk(queue);
+      if (chunk == null) {
+        break;
+      }
+      queue.add(chunk);
+      dataSpecs.add(chunk.dataSpec);
+    }
+    prefetcher.setPrefetchTargets(dataSpecs);
   }
 
   /**
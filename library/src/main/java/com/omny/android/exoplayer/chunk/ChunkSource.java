@@ -105,6 +105,22 @@ public interface ChunkSource {
   void getChunkOperation(List<? extends MediaChunk> queue, long playbackPositionUs,
       ChunkOperationHolder out);
 
+  /**
+   * Returns the {@link MediaChunk} that would follow the last chunk in the queue if the currently
+   * selected format were retained. Unlike {@link #getChunkOperation}, this method does not evaluate
+   * the format or otherwise modify the state of the source, so it can be used to look ahead of the
+   * chunk currently being loaded.
+   * <p>
+   * This method should only be called when the source is enabled.
+   *
+   * @param queue A representation of the currently buffered {@link MediaChunk}s, optionally
+   *     followed by chunks previously returned by this method.
+   * @return The next media chunk, or null if the queue is empty, if the next operation is not the
+   *     loading of a media chunk (for example because an initialization chunk is required or the
+   *     end of the stream has been reached), or if the next chunk is not yet known.
+   */
+  MediaChunk peekNextMediaChunk(List<? extends MediaChunk> queue);
+
   /**
    * Invoked when the {@link ChunkSampleSource} has finished loading a chunk obtained from this
    * source.
@@ -281,4 +281,84 @@ public interface FormatEvaluator {
 
   }
 
+  /**
+   * An adaptive evaluator that selects formats based on the duration of buffered media, using a
+   * {@link BufferBasedFormatSelector}.
+   * <p>
+   * Rather than attempting to match the bandwidth estimate, the evaluator raises the selected
+   * quality as the buffer grows and lowers it as the buffer drains. This avoids oscillation when
+   * the bandwidth estimate is noisy, and makes full use of the bandwidth once the buffer is deep.
+   * The bandwidth estimate is used only to select the initial format, and to avoid switching up to
+   * a format that can't be sustained.
+   */
+  public static final class BufferBasedEvaluator implements FormatEvaluator {
+
+    public static final int DEFAULT_MAX_INITIAL_BITRATE = 800000;
+
+    private final BandwidthMeter bandwidthMeter;
+    private final int maxInitialBitrate;
+    private final BufferBasedFormatSelector formatSelector;
+
+    /**
+     * @param bandwidthMeter Provides an estimate of the currently available bandwidth.
+     */
+    public BufferBasedEvaluator(BandwidthMeter bandwidthMeter) {
+      this(bandwidthMeter, DEFAULT_MAX_INITIAL_BITRATE, new BufferBasedFormatSelector());
+    }
+
+    /**
+     * @param bandwidthMeter Provides an estimate of the currently available bandwidth.
+     * @param maxInitialBitrate The maximum bitrate in bits per second that should be assumed
+     *     when bandwidthMeter cannot provide an estimate due to playback having only just started.
+     * @param formatSelector The {@link BufferBasedFormatSelector} used to select formats.
+     */
+    public BufferBasedEvaluator(BandwidthMeter bandwidthMeter, int maxInitialBitrate,
+        BufferBasedFormatSelector formatSelector) {
+      this.bandwidthMeter = bandwidthMeter;
+      this.maxInitialBitrate = maxInitialBitrate;
+      this.formatSelector = formatSelector;
+    }
+
+    @Override
+    public void enable() {
+      // Do nothing.
+    }
+
+    @Override
+    public void disable() {
+      // Do nothing.
+    }
+
+    @Override
+    public void evaluate(List<? extends MediaChunk> queue, long playbackPositionUs,
+        Format[] formats, Evaluation evaluation) {
+      long bufferedDurationUs = queue.isEmpty() ? 0
+          : queue.get(queue.size() - 1).endTimeUs - playbackPositionUs;
+      long bitrateEstimate = bandwidthMeter.getBitrateEstimate();
+      Format current = evaluation.format;
+      int currentIndex = -1;
+      for (int i = 0; current != null && i < formats.length; i++) {
+        if (formats[i].equals(current)) {
+          currentIndex = i;
+          break;
+        }
+      }
+      int selectedIndex;
+      if (currentIndex == -1) {
+        selectedIndex = bitrateEstimate == BandwidthMeter.NO_ESTIMATE
+            ? BufferBasedFormatSelector.getFormatIndexForBitrate(formats, null, maxInitialBitrate)
+            : formatSelector.selectFormatIndexForBandwidth(formats, null, bitrateEstimate);
+      } else {
+        selectedIndex = formatSelector.selectFormatIndex(formats, null, currentIndex,
+            bufferedDurationUs, bitrateEstimate);
+      }
+      Format selected = formats[selectedIndex];
+      if (current != null && !selected.equals(current)) {
+        evaluation.trigger = Chunk.TRIGGER_ADAPTIVE;
+      }
+      evaluation.format = selected;
+    }
+
+  }
+
 }
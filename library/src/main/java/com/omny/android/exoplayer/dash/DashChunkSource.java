@@ -502,6 +502,43 @@ public class DashChunkSource implements ChunkSource, Output {
     out.chunk = nextMediaChunk;
   }
 
+  @Override
+  public MediaChunk peekNextMediaChunk(List<? extends MediaChunk> queue) {
+    Format selectedFormat = evaluation.format;
+    if (fatalError != null || selectedFormat == null || queue.isEmpty()) {
+      return null;
+    }
+
+    MediaChunk previous = queue.get(queue.size() - 1);
+    availableRange.getCurrentBoundsUs(availableRangeValues);
+    if ((live && previous.endTimeUs < availableRangeValues[0])
+        || (currentManifest.dynamic && previous.endTimeUs >= availableRangeValues[1])) {
+      return null;
+    }
+
+    // Lookahead doesn't cross period boundaries, since the first segment of the next period may
+    // not be known until its index has been loaded.
+    PeriodHolder periodHolder = periodHolders.get(previous.parentId);
+    if (periodHolder == null) {
+      return null;
+    }
+    RepresentationHolder representationHolder =
+        periodHolder.representationHolders.get(selectedFormat.id);
+    if (representationHolder == null) {
+      return null;
+    }
+    Representation representation = representationHolder.representation;
+    int segmentNum = previous.getNextChunkIndex();
+    if ((representationHolder.mediaFormat == null && representation.getInitializationUri() != null)
+        || (representationHolder.segmentIndex == null && representation.getIndexUri() != null)
+        || representationHolder.isBeyondLastSegment(segmentNum)) {
+      // An initialization chunk is required, or the end of the period has been reached.
+      return null;
+    }
+    return (MediaChunk) newMediaChunk(periodHolder, representationHolder, dataSource,
+        representationHolder.mediaFormat, enabledTrack, segmentNum, evaluation.trigger);
+  }
+
   @Override
   public void onChunkLoadCompleted(Chunk chunk) {
     if (chunk instanceof InitializationChunk) {
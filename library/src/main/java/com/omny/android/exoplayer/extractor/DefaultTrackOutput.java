@@ -20,6 +20,8 @@ import com.omny.android.exoplayer.MediaFormat;
 import com.omny.android.exoplayer.SampleHolder;
 import com.omny.android.exoplayer.upstream.Allocator;
 import com.omny.android.exoplayer.upstream.DataSource;
+import com.omny.android.exoplayer.upstream.SizeClassAllocator;
+import com.omny.android.exoplayer.util.MimeTypes;
 import com.omny.android.exoplayer.util.ParsableByteArray;
 
 import java.io.EOFException;
@@ -31,6 +33,13 @@ import java.io.IOException;
  */
 public class DefaultTrackOutput implements TrackOutput {
 
+  /**
+   * The allocation size hint used for tracks whose samples are typically small (e.g. audio, text and
+   * metadata), when the {@link Allocator} is a {@link SizeClassAllocator}.
+   */
+  private static final int SMALL_SAMPLE_ALLOCATION_SIZE_HINT = 4 * 1024;
+
+  private final Allocator allocator;
   private final RollingSampleBuffer rollingBuffer;
   private final SampleHolder sampleInfoHolder;
 
@@ -44,9 +53,14 @@ public class DefaultTrackOutput implements TrackOutput {
   private volatile MediaFormat format;
 
   /**
+   * <p>
+   * If {@code allocator} is a {@link SizeClassAllocator} then the size class used for the track is
+   * chosen when its first {@link MediaFormat} is received.
+   *
    * @param allocator An {@link Allocator} from which allocations for sample data can be obtained.
    */
   public DefaultTrackOutput(Allocator allocator) {
+    this.allocator = allocator;
     rollingBuffer = new RollingSampleBuffer(allocator);
     sampleInfoHolder = new SampleHolder(SampleHolder.BUFFER_REPLACEMENT_MODE_DISABLED);
     needKeyframe = true;
@@ -247,6 +261,10 @@ public class DefaultTrackOutput implements TrackOutput {
 
   @Override
   public void format(MediaFormat format) {
+    if (allocator instanceof SizeClassAllocator && rollingBuffer.getWritePosition() == 0) {
+      rollingBuffer.setAllocator(
+          ((SizeClassAllocator) allocator).getAllocator(getAllocationSizeHint(format)));
+    }
     this.format = format;
   }
 
@@ -268,4 +286,9 @@ public class DefaultTrackOutput implements TrackOutput {
         size, encryptionKey);
   }
 
+  private static int getAllocationSizeHint(MediaFormat format) {
+    return MimeTypes.isVideo(format.mimeType) ? Integer.MAX_VALUE
+        : SMALL_SAMPLE_ALLOCATION_SIZE_HINT;
+  }
+
 }
@@ -35,14 +35,15 @@ import java.util.concurrent.LinkedBlockingDeque;
 
   private static final int INITIAL_SCRATCH_SIZE = 32;
 
-  private final Allocator allocator;
-  private final int allocationLength;
-
   private final InfoQueue infoQueue;
   private final LinkedBlockingDeque<Allocation> dataQueue;
   private final SampleExtrasHolder extrasHolder;
   private final ParsableByteArray scratch;
 
+  // Modified by the loading thread only when no data has been appended.
+  private Allocator allocator;
+  private int allocationLength;
+
   // Accessed only by the consuming thread.
   private long totalBytesDropped;
 
@@ -269,19 +270,30 @@ import java.util.concurrent.LinkedBlockingDeque;
 
   /**
    * Reads data from the front of the rolling buffer.
+   * <p>
+   * If {@code target} is direct and the allocations are backed by buffers, data is transferred with
+   * bulk buffer to buffer copies rather than through the allocations' backing arrays.
    *
    * @param absolutePosition The absolute position from which data should be read.
    * @param target The buffer into which data should be written.
    * @param length The number of bytes to read.
    */
   private void readData(long absolutePosition, ByteBuffer target, int length) {
+    boolean targetIsDirect = target.isDirect();
     int remaining = length;
     while (remaining > 0) {
       dropDownstreamTo(absolutePosition);
       int positionInAllocation = (int) (absolutePosition - totalBytesDropped);
       int toCopy = Math.min(remaining, allocationLength - positionInAllocation);
       Allocation allocation = dataQueue.peek();
-      target.put(allocation.data, allocation.translateOffset(positionInAllocation), toCopy);
+      if (targetIsDirect && allocation.buffer != null) {
+        ByteBuffer source = allocation.buffer;
+        source.limit(positionInAllocation + toCopy);
+        source.position(positionInAllocation);
+        target.put(source);
+      } else {
+        target.put(allocation.data, allocation.translateOffset(positionInAllocation), toCopy);
+      }
       absolutePosition += toCopy;
       remaining -= toCopy;
     }
@@ -335,6 +347,19 @@ import java.util.concurrent.LinkedBlockingDeque;
 
   // Called by the loading thread.
 
+  /**
+   * Replaces the {@link Allocator} from which allocations for sample data are obtained. Must only
+   * be called when no data has been appended since the buffer was created or last cleared.
+   *
+   * @param allocator The {@link Allocator} to use.
+   */
+  public void setAllocator(Allocator allocator) {
+    Assertions.checkState(dataQueue.isEmpty());
+    this.allocator = allocator;
+    allocationLength = allocator.getIndividualAllocationLength();
+    lastAllocationOffset = allocationLength;
+  }
+
   /**
    * Returns the current write position in the rolling buffer.
    *
@@ -30,6 +30,7 @@ import com.omny.android.exoplayer.util.ParsableByteArray;
 import com.omny.android.exoplayer.util.Util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -105,7 +106,8 @@ import java.util.List;
 
     int sampleCount = sampleSizeBox.getSampleCount();
     if (sampleCount == 0) {
-      return new TrackSampleTable(new long[0], new int[0], 0, new long[0], new int[0]);
+      return new TrackSampleTable(track.timescale, 0, new int[0], 0, new long[0], new int[0],
+          new int[0], new long[0], new int[0], null, null, null);
     }
 
     // Entries are byte offsets of chunks.
@@ -130,123 +132,129 @@ import java.util.List;
     // Prepare to read chunk information.
     ChunkIterator chunkIterator = new ChunkIterator(stsc, chunkOffsets, chunkOffsetsAreLongs);
 
-    // Prepare to read sample timestamps.
     stts.setPosition(Atom.FULL_HEADER_SIZE);
-    int remainingTimestampDeltaChanges = stts.readUnsignedIntToInt() - 1;
-    int remainingSamplesAtTimestampDelta = stts.readUnsignedIntToInt();
-    int timestampDeltaInTimeUnits = stts.readUnsignedIntToInt();
-
-    // Prepare to read sample timestamp offsets, if ctts is present.
-    int remainingSamplesAtTimestampOffset = 0;
-    int remainingTimestampOffsetChanges = 0;
-    int timestampOffset = 0;
+    int timestampDeltaEntryCount = stts.readUnsignedIntToInt();
+    int timestampOffsetEntryCount = 0;
     if (ctts != null) {
       ctts.setPosition(Atom.FULL_HEADER_SIZE);
-      remainingTimestampOffsetChanges = ctts.readUnsignedIntToInt();
+      timestampOffsetEntryCount = ctts.readUnsignedIntToInt();
     }
-
-    int nextSynchronizationSampleIndex = -1;
-    int remainingSynchronizationSamples = 0;
+    int synchronizationSampleCount = 0;
     if (stss != null) {
       stss.setPosition(Atom.FULL_HEADER_SIZE);
-      remainingSynchronizationSamples = stss.readUnsignedIntToInt();
-      if (remainingSynchronizationSamples > 0) {
-        nextSynchronizationSampleIndex = stss.readUnsignedIntToInt() - 1;
-      } else {
-        // Ignore empty stss boxes, which causes all samples to be treated as sync samples.
-        stss = null;
-      }
+      synchronizationSampleCount = stss.readUnsignedIntToInt();
     }
 
     // True if we can rechunk fixed-sample-size data. Note that we only rechunk raw audio.
     boolean isRechunkable = sampleSizeBox.isFixedSampleSize()
         && MimeTypes.AUDIO_RAW.equals(track.mediaFormat.mimeType)
-        && remainingTimestampDeltaChanges == 0
-        && remainingTimestampOffsetChanges == 0
-        && remainingSynchronizationSamples == 0;
-
-    long[] offsets;
-    int[] sizes;
-    int maximumSize = 0;
-    long[] timestamps;
-    int[] flags;
+        && timestampDeltaEntryCount == 1
+        && timestampOffsetEntryCount == 0
+        && synchronizationSampleCount == 0;
 
+    TrackSampleTable sampleTable;
     if (!isRechunkable) {
-      offsets = new long[sampleCount];
-      sizes = new int[sampleCount];
-      timestamps = new long[sampleCount];
-      flags = new int[sampleCount];
-      long timestampTimeUnits = 0;
-      long offset = 0;
-      int remainingSamplesInChunk = 0;
-
-      for (int i = 0; i < sampleCount; i++) {
-        // Advance to the next chunk if necessary.
-        while (remainingSamplesInChunk == 0) {
-          Assertions.checkState(chunkIterator.moveNext());
-          offset = chunkIterator.offset;
-          remainingSamplesInChunk = chunkIterator.numSamples;
+      // Read chunks, skipping any that are empty.
+      long[] chunkOffsetsBytes = new long[chunkIterator.length];
+      int[] chunkFirstSampleIndices = new int[chunkIterator.length];
+      int chunkCount = 0;
+      int chunkedSampleCount = 0;
+      while (chunkedSampleCount < sampleCount) {
+        Assertions.checkState(chunkIterator.moveNext());
+        if (chunkIterator.numSamples > 0) {
+          chunkOffsetsBytes[chunkCount] = chunkIterator.offset;
+          chunkFirstSampleIndices[chunkCount] = chunkedSampleCount;
+          chunkedSampleCount += chunkIterator.numSamples;
+          chunkCount++;
         }
-
-        // Add on the timestamp offset if ctts is present.
-        if (ctts != null) {
-          while (remainingSamplesAtTimestampOffset == 0 && remainingTimestampOffsetChanges > 0) {
-            remainingSamplesAtTimestampOffset = ctts.readUnsignedIntToInt();
-            // The BMFF spec (ISO 14496-12) states that sample offsets should be unsigned integers
-            // in version 0 ctts boxes, however some streams violate the spec and use signed
-            // integers instead. It's safe to always parse sample offsets as signed integers here,
-            // because unsigned integers will still be parsed correctly (unless their top bit is
-            // set, which is never true in practice because sample offsets are always small).
-            timestampOffset = ctts.readInt();
-            remainingTimestampOffsetChanges--;
-          }
-          remainingSamplesAtTimestampOffset--;
+      }
+      // Check the final chunk does not extend past the last sample.
+      Assertions.checkArgument(chunkedSampleCount == sampleCount);
+
+      // Read sample sizes, unless they are all the same.
+      int[] sizes = null;
+      int fixedSampleSize = 0;
+      if (sampleSizeBox.isFixedSampleSize()) {
+        fixedSampleSize = sampleSizeBox.readNextSampleSize();
+      } else {
+        sizes = new int[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+          sizes[i] = sampleSizeBox.readNextSampleSize();
         }
+      }
 
-        offsets[i] = offset;
-        sizes[i] = sampleSizeBox.readNextSampleSize();
-        if (sizes[i] > maximumSize) {
-          maximumSize = sizes[i];
+      // Read runs of samples with the same timestamp delta.
+      int[] timestampRunFirstSampleIndices = new int[timestampDeltaEntryCount];
+      long[] timestampRunFirstTimestamps = new long[timestampDeltaEntryCount];
+      int[] timestampRunDeltas = new int[timestampDeltaEntryCount];
+      int timestampRunCount = 0;
+      int timestampedSampleCount = 0;
+      long timestampTimeUnits = 0;
+      for (int i = 0; i < timestampDeltaEntryCount; i++) {
+        int runSampleCount = stts.readUnsignedIntToInt();
+        int timestampDeltaInTimeUnits = stts.readUnsignedIntToInt();
+        if (runSampleCount > 0) {
+          timestampRunFirstSampleIndices[timestampRunCount] = timestampedSampleCount;
+          timestampRunFirstTimestamps[timestampRunCount] = timestampTimeUnits;
+          timestampRunDeltas[timestampRunCount] = timestampDeltaInTimeUnits;
+          timestampRunCount++;
+          timestampedSampleCount += runSampleCount;
+          timestampTimeUnits += (long) runSampleCount * timestampDeltaInTimeUnits;
         }
-        timestamps[i] = timestampTimeUnits + timestampOffset;
-
-        // All samples are synchronization samples if the stss is not present.
-        flags[i] = stss == null ? C.SAMPLE_FLAG_SYNC : 0;
-        if (i == nextSynchronizationSampleIndex) {
-          flags[i] = C.SAMPLE_FLAG_SYNC;
-          remainingSynchronizationSamples--;
-          if (remainingSynchronizationSamples > 0) {
-            nextSynchronizationSampleIndex = stss.readUnsignedIntToInt() - 1;
+      }
+      Assertions.checkArgument(timestampedSampleCount == sampleCount);
+
+      // Read runs of samples with the same timestamp offset, if ctts is present.
+      int[] timestampOffsetRunFirstSampleIndices = null;
+      int[] timestampOffsetRunValues = null;
+      if (timestampOffsetEntryCount > 0) {
+        timestampOffsetRunFirstSampleIndices = new int[timestampOffsetEntryCount];
+        timestampOffsetRunValues = new int[timestampOffsetEntryCount];
+        int timestampOffsetRunCount = 0;
+        int offsetSampleCount = 0;
+        for (int i = 0; i < timestampOffsetEntryCount; i++) {
+          int runSampleCount = ctts.readUnsignedIntToInt();
+          // The BMFF spec (ISO 14496-12) states that sample offsets should be unsigned integers
+          // in version 0 ctts boxes, however some streams violate the spec and use signed
+          // integers instead. It's safe to always parse sample offsets as signed integers here,
+          // because unsigned integers will still be parsed correctly (unless their top bit is
+          // set, which is never true in practice because sample offsets are always small).
+          int timestampOffset = ctts.readInt();
+          if (runSampleCount > 0) {
+            timestampOffsetRunFirstSampleIndices[timestampOffsetRunCount] = offsetSampleCount;
+            timestampOffsetRunValues[timestampOffsetRunCount] = timestampOffset;
+            timestampOffsetRunCount++;
+            offsetSampleCount += runSampleCount;
           }
         }
-
-        // Add on the duration of this sample.
-        timestampTimeUnits += timestampDeltaInTimeUnits;
-        remainingSamplesAtTimestampDelta--;
-        if (remainingSamplesAtTimestampDelta == 0 && remainingTimestampDeltaChanges > 0) {
-          remainingSamplesAtTimestampDelta = stts.readUnsignedIntToInt();
-          timestampDeltaInTimeUnits = stts.readUnsignedIntToInt();
-          remainingTimestampDeltaChanges--;
-        }
-
-        offset += sizes[i];
-        remainingSamplesInChunk--;
+        Assertions.checkArgument(offsetSampleCount == sampleCount);
+        timestampOffsetRunFirstSampleIndices =
+            Arrays.copyOf(timestampOffsetRunFirstSampleIndices, timestampOffsetRunCount);
+        timestampOffsetRunValues = Arrays.copyOf(timestampOffsetRunValues, timestampOffsetRunCount);
       }
 
-      Assertions.checkArgument(remainingSamplesAtTimestampOffset == 0);
-      // Remove trailing ctts entries with 0-valued sample counts.
-      while (remainingTimestampOffsetChanges > 0) {
-        Assertions.checkArgument(ctts.readUnsignedIntToInt() == 0);
-        ctts.readInt(); // Ignore offset.
-        remainingTimestampOffsetChanges--;
+      // Read synchronization sample indices. All samples are synchronization samples if the stss
+      // is not present. Empty stss boxes are ignored, which has the same effect.
+      int[] syncSampleIndices = null;
+      if (synchronizationSampleCount > 0) {
+        syncSampleIndices = new int[synchronizationSampleCount];
+        for (int i = 0; i < synchronizationSampleCount; i++) {
+          syncSampleIndices[i] = stss.readUnsignedIntToInt() - 1;
+          Assertions.checkArgument(syncSampleIndices[i] < sampleCount
+              && syncSampleIndices[i] > (i == 0 ? -1 : syncSampleIndices[i - 1]));
+        }
       }
 
-      // Check all the expected samples have been seen.
-      Assertions.checkArgument(remainingSynchronizationSamples == 0);
-      Assertions.checkArgument(remainingSamplesAtTimestampDelta == 0);
-      Assertions.checkArgument(remainingSamplesInChunk == 0);
-      Assertions.checkArgument(remainingTimestampDeltaChanges == 0);
+      sampleTable = new TrackSampleTable(track.timescale, sampleCount, sizes, fixedSampleSize,
+          Arrays.copyOf(chunkOffsetsBytes, chunkCount),
+          Arrays.copyOf(chunkFirstSampleIndices, chunkCount),
+          Arrays.copyOf(timestampRunFirstSampleIndices, timestampRunCount),
+          Arrays.copyOf(timestampRunFirstTimestamps, timestampRunCount),
+          Arrays.copyOf(timestampRunDeltas, timestampRunCount),
+          timestampOffsetRunFirstSampleIndices, timestampOffsetRunValues, syncSampleIndices);
     } else {
+      stts.skipBytes(4); // Skip the sample count of the only entry.
+      int timestampDeltaInTimeUnits = stts.readUnsignedIntToInt();
       long[] chunkOffsetsBytes = new long[chunkIterator.length];
       int[] chunkSampleCounts = new int[chunkIterator.length];
       while (chunkIterator.moveNext()) {
@@ -256,16 +264,12 @@ import java.util.List;
       int fixedSampleSize = sampleSizeBox.readNextSampleSize();
       FixedSampleSizeRechunker.Results rechunkedResults = FixedSampleSizeRechunker.rechunk(
           fixedSampleSize, chunkOffsetsBytes, chunkSampleCounts, timestampDeltaInTimeUnits);
-      offsets = rechunkedResults.offsets;
-      sizes = rechunkedResults.sizes;
-      maximumSize = rechunkedResults.maximumSize;
-      timestamps = rechunkedResults.timestamps;
-      flags = rechunkedResults.flags;
+      sampleTable = buildSampleTable(track.timescale, rechunkedResults.offsets,
+          rechunkedResults.sizes, rechunkedResults.timestamps);
     }
 
     if (track.editListDurations == null) {
-      Util.scaleLargeTimestampsInPlace(timestamps, C.MICROS_PER_SECOND, track.timescale);
-      return new TrackSampleTable(offsets, sizes, maximumSize, timestamps, flags);
+      return sampleTable;
     }
 
     // See the BMFF spec (ISO 14496-12) subsection 8.6.6. Edit lists that truncate audio and
@@ -277,77 +281,87 @@ import java.util.List;
       // The current version of the spec leaves handling of an edit with zero segment_duration in
       // unfragmented files open to interpretation. We handle this as a special case and include all
       // samples in the edit.
-      for (int i = 0; i < timestamps.length; i++) {
-        timestamps[i] = Util.scaleLargeTimestamp(timestamps[i] - track.editListMediaTimes[0],
-            C.MICROS_PER_SECOND, track.timescale);
-      }
-      return new TrackSampleTable(offsets, sizes, maximumSize, timestamps, flags);
+      return sampleTable.edit(new int[] {0}, new int[] {sampleCount},
+          new long[] {track.editListMediaTimes[0]}, new long[] {0});
     }
 
-    // Count the number of samples after applying edits.
-    int editedSampleCount = 0;
-    int nextSampleIndex = 0;
-    boolean copyMetadata = false;
-    for (int i = 0; i < track.editListDurations.length; i++) {
-      long mediaTime = track.editListMediaTimes[i];
-      if (mediaTime != -1) {
-        long duration = Util.scaleLargeTimestamp(track.editListDurations[i], track.timescale,
-            track.movieTimescale);
-        int startIndex = Util.binarySearchCeil(timestamps, mediaTime, true, true);
-        int endIndex = Util.binarySearchCeil(timestamps, mediaTime + duration, true, false);
-        editedSampleCount += endIndex - startIndex;
-        copyMetadata |= nextSampleIndex != startIndex;
-        nextSampleIndex = endIndex;
-      }
-    }
-    copyMetadata |= editedSampleCount != sampleCount;
-
-    // Calculate edited sample timestamps and update the corresponding metadata arrays.
-    long[] editedOffsets = copyMetadata ? new long[editedSampleCount] : offsets;
-    int[] editedSizes = copyMetadata ? new int[editedSampleCount] : sizes;
-    int editedMaximumSize = copyMetadata ? 0 : maximumSize;
-    int[] editedFlags = copyMetadata ? new int[editedSampleCount] : flags;
-    long[] editedTimestamps = new long[editedSampleCount];
+    // Find the samples in each edit. Edits that select no samples are dropped.
+    int editCount = track.editListDurations.length;
+    int[] editFirstSampleIndices = new int[editCount];
+    int[] editSampleCounts = new int[editCount];
+    long[] editMediaTimes = new long[editCount];
+    long[] editStartTimesUs = new long[editCount];
+    int nonEmptyEditCount = 0;
     long pts = 0;
-    int sampleIndex = 0;
-    for (int i = 0; i < track.editListDurations.length; i++) {
+    for (int i = 0; i < editCount; i++) {
       long mediaTime = track.editListMediaTimes[i];
       long duration = track.editListDurations[i];
       if (mediaTime != -1) {
         long endMediaTime = mediaTime + Util.scaleLargeTimestamp(duration, track.timescale,
             track.movieTimescale);
-        int startIndex = Util.binarySearchCeil(timestamps, mediaTime, true, true);
-        int endIndex = Util.binarySearchCeil(timestamps, endMediaTime, true, false);
-        if (copyMetadata) {
-          int count = endIndex - startIndex;
-          System.arraycopy(offsets, startIndex, editedOffsets, sampleIndex, count);
-          System.arraycopy(sizes, startIndex, editedSizes, sampleIndex, count);
-          System.arraycopy(flags, startIndex, editedFlags, sampleIndex, count);
-        }
-        for (int j = startIndex; j < endIndex; j++) {
-          long ptsUs = Util.scaleLargeTimestamp(pts, C.MICROS_PER_SECOND, track.movieTimescale);
-          long timeInSegmentUs = Util.scaleLargeTimestamp(timestamps[j] - mediaTime,
-              C.MICROS_PER_SECOND, track.timescale);
-          editedTimestamps[sampleIndex] = ptsUs + timeInSegmentUs;
-          if (copyMetadata && editedSizes[sampleIndex] > editedMaximumSize) {
-            editedMaximumSize = sizes[j];
-          }
-          sampleIndex++;
+        int startIndex = sampleTable.binarySearchUneditedTimestampCeil(mediaTime, true, true);
+        int endIndex = sampleTable.binarySearchUneditedTimestampCeil(endMediaTime, true, false);
+        if (endIndex > startIndex) {
+          editFirstSampleIndices[nonEmptyEditCount] = startIndex;
+          editSampleCounts[nonEmptyEditCount] = endIndex - startIndex;
+          editMediaTimes[nonEmptyEditCount] = mediaTime;
+          editStartTimesUs[nonEmptyEditCount] =
+              Util.scaleLargeTimestamp(pts, C.MICROS_PER_SECOND, track.movieTimescale);
+          nonEmptyEditCount++;
         }
       }
       pts += duration;
     }
 
-    boolean hasSyncSample = false;
-    for (int i = 0; i < editedFlags.length && !hasSyncSample; i++) {
-      hasSyncSample |= (editedFlags[i] & C.SAMPLE_FLAG_SYNC) != 0;
-    }
-    if (!hasSyncSample) {
+    TrackSampleTable editedSampleTable = sampleTable.edit(
+        Arrays.copyOf(editFirstSampleIndices, nonEmptyEditCount),
+        Arrays.copyOf(editSampleCounts, nonEmptyEditCount),
+        Arrays.copyOf(editMediaTimes, nonEmptyEditCount),
+        Arrays.copyOf(editStartTimesUs, nonEmptyEditCount));
+    if (editedSampleTable.getIndexOfLaterOrEqualSynchronizationSample(0)
+        == TrackSampleTable.NO_SAMPLE) {
       throw new ParserException("The edited sample sequence does not contain a sync sample.");
     }
+    return editedSampleTable;
+  }
 
-    return new TrackSampleTable(editedOffsets, editedSizes, editedMaximumSize, editedTimestamps,
-        editedFlags);
+  /**
+   * Builds a sample table from per-sample offsets, sizes and timestamps, in which all samples are
+   * synchronization samples.
+   */
+  private static TrackSampleTable buildSampleTable(long timescale, long[] offsets, int[] sizes,
+      long[] timestamps) {
+    int sampleCount = offsets.length;
+    long[] chunkOffsets = new long[sampleCount];
+    int[] chunkFirstSampleIndices = new int[sampleCount];
+    int[] timestampRunFirstSampleIndices = new int[sampleCount];
+    long[] timestampRunFirstTimestamps = new long[sampleCount];
+    int[] timestampRunDeltas = new int[sampleCount];
+    int chunkCount = 0;
+    int timestampRunCount = 0;
+    for (int i = 0; i < sampleCount; i++) {
+      if (i == 0 || offsets[i] != offsets[i - 1] + sizes[i - 1]) {
+        chunkOffsets[chunkCount] = offsets[i];
+        chunkFirstSampleIndices[chunkCount] = i;
+        chunkCount++;
+      }
+      long delta = i + 1 < sampleCount ? timestamps[i + 1] - timestamps[i] : 0;
+      if (timestampRunCount == 0 || delta != timestampRunDeltas[timestampRunCount - 1]) {
+        // The final sample always matches the current run, as the delta after it is unused.
+        if (i + 1 < sampleCount || timestampRunCount == 0) {
+          timestampRunFirstSampleIndices[timestampRunCount] = i;
+          timestampRunFirstTimestamps[timestampRunCount] = timestamps[i];
+          timestampRunDeltas[timestampRunCount] = (int) delta;
+          timestampRunCount++;
+        }
+      }
+    }
+    return new TrackSampleTable(timescale, sampleCount, sizes, 0,
+        Arrays.copyOf(chunkOffsets, chunkCount),
+        Arrays.copyOf(chunkFirstSampleIndices, chunkCount),
+        Arrays.copyOf(timestampRunFirstSampleIndices, timestampRunCount),
+        Arrays.copyOf(timestampRunFirstTimestamps, timestampRunCount),
+        Arrays.copyOf(timestampRunDeltas, timestampRunCount), null, null, null);
   }
 
   /**
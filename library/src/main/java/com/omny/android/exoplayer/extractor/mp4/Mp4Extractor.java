@@ -54,6 +54,14 @@ public final class Mp4Extractor implements Extractor, SeekMap {
    */
   private static final long RELOAD_MINIMUM_SEEK_DISTANCE = 256 * 1024;
 
+  /**
+   * The default maximum number of bytes to read ahead of the track whose next sample is earliest in
+   * time, when reading samples in file order.
+   */
+  public static final long DEFAULT_MAXIMUM_READ_AHEAD_BYTES = 10 * 1024 * 1024;
+
+  private final long maximumReadAheadBytes;
+
   // Temporary arrays.
   private final ParsableByteArray nalStartCode;
   private final ParsableByteArray nalLength;
@@ -67,6 +75,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
   private int atomHeaderBytesRead;
   private ParsableByteArray atomData;
 
+  private int sampleTrackIndex;
   private int sampleSize;
   private int sampleBytesWritten;
   private int sampleCurrentNalBytesRemaining;
@@ -75,12 +84,25 @@ public final class Mp4Extractor implements Extractor, SeekMap {
   private ExtractorOutput extractorOutput;
   private Mp4Track[] tracks;
   private boolean isQuickTime;
+  private int reloadCount;
 
   public Mp4Extractor() {
+    this(DEFAULT_MAXIMUM_READ_AHEAD_BYTES);
+  }
+
+  /**
+   * @param maximumReadAheadBytes The maximum number of bytes to read ahead of the track whose next
+   *     sample is earliest in time before reloading the source to read that track's samples. This
+   *     should be less than the buffer size of the loader, so that poorly interleaved files do not
+   *     fill the buffer with samples from one track.
+   */
+  public Mp4Extractor(long maximumReadAheadBytes) {
+    this.maximumReadAheadBytes = maximumReadAheadBytes;
     atomHeader = new ParsableByteArray(Atom.LONG_HEADER_SIZE);
     containerAtoms = new Stack<>();
     nalStartCode = new ParsableByteArray(NalUnitUtil.NAL_START_CODE);
     nalLength = new ParsableByteArray(4);
+    sampleTrackIndex = TrackSampleTable.NO_SAMPLE;
     enterReadingAtomHeaderState();
   }
 
@@ -98,6 +120,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
   public void seek() {
     containerAtoms.clear();
     atomHeaderBytesRead = 0;
+    sampleTrackIndex = TrackSampleTable.NO_SAMPLE;
     sampleBytesWritten = 0;
     sampleCurrentNalBytesRemaining = 0;
     parserState = STATE_AFTER_SEEK;
@@ -127,15 +150,29 @@ public final class Mp4Extractor implements Extractor, SeekMap {
           break;
         case STATE_READING_ATOM_PAYLOAD:
           if (readAtomPayload(input, seekPosition)) {
+            reloadCount++;
             return RESULT_SEEK;
           }
           break;
         default:
-          return readSample(input, seekPosition);
+          int result = readSample(input, seekPosition);
+          if (result == RESULT_SEEK) {
+            reloadCount++;
+          }
+          return result;
       }
     }
   }
 
+  /**
+   * Returns the number of times the extractor has requested that the source be reloaded from a
+   * different position, either to skip a large atom or to read a sample that is not close to the
+   * current read position.
+   */
+  public int getReloadCount() {
+    return reloadCount;
+  }
+
   // SeekMap implementation.
 
   @Override
@@ -153,9 +190,13 @@ public final class Mp4Extractor implements Extractor, SeekMap {
         // Handle the case where the requested time is before the first synchronization sample.
         sampleIndex = sampleTable.getIndexOfLaterOrEqualSynchronizationSample(timeUs);
       }
-      tracks[trackIndex].sampleIndex = sampleIndex;
+      Mp4Track track = tracks[trackIndex];
+      track.cursor.seekTo(sampleIndex);
+      track.readAheadCursor.seekTo(sampleIndex);
+      track.bytesRead = 0;
+      track.bytesBeforeLaggingSample = 0;
 
-      long offset = sampleTable.offsets[sampleIndex];
+      long offset = track.cursor.offset;
       if (offset < earliestSamplePosition) {
         earliestSamplePosition = offset;
       }
@@ -325,7 +366,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
       mp4Track.trackOutput.format(mediaFormat);
       tracks.add(mp4Track);
 
-      long firstSampleOffset = trackSampleTable.offsets[0];
+      long firstSampleOffset = mp4Track.cursor.offset;
       if (firstSampleOffset < earliestSampleOffset) {
         earliestSampleOffset = firstSampleOffset;
       }
@@ -353,21 +394,23 @@ public final class Mp4Extractor implements Extractor, SeekMap {
    */
   private int readSample(ExtractorInput input, PositionHolder positionHolder)
       throws IOException, InterruptedException {
-    int trackIndex = getTrackIndexOfEarliestCurrentSample();
-    if (trackIndex == TrackSampleTable.NO_SAMPLE) {
-      return RESULT_END_OF_INPUT;
+    if (sampleTrackIndex == TrackSampleTable.NO_SAMPLE) {
+      sampleTrackIndex = getTrackIndexOfNextReadSample(input.getPosition());
+      if (sampleTrackIndex == TrackSampleTable.NO_SAMPLE) {
+        return RESULT_END_OF_INPUT;
+      }
     }
-    Mp4Track track = tracks[trackIndex];
+    Mp4Track track = tracks[sampleTrackIndex];
     TrackOutput trackOutput = track.trackOutput;
-    int sampleIndex = track.sampleIndex;
-    long position = track.sampleTable.offsets[sampleIndex];
+    TrackSampleTable.Cursor cursor = track.cursor;
+    long position = cursor.offset;
     long skipAmount = position - input.getPosition() + sampleBytesWritten;
     if (skipAmount < 0 || skipAmount >= RELOAD_MINIMUM_SEEK_DISTANCE) {
       positionHolder.position = position;
       return RESULT_SEEK;
     }
     input.skipFully((int) skipAmount);
-    sampleSize = track.sampleTable.sizes[sampleIndex];
+    sampleSize = cursor.size;
     if (track.track.nalUnitLengthFieldLength != -1) {
       // Zero the top three bytes of the array that we'll use to parse nal unit lengths, in case
       // they're only 1 or 2 bytes long.
@@ -405,36 +448,86 @@ public final class Mp4Extractor implements Extractor, SeekMap {
         sampleCurrentNalBytesRemaining -= writtenBytes;
       }
     }
-    trackOutput.sampleMetadata(track.sampleTable.timestampsUs[sampleIndex],
-        track.sampleTable.flags[sampleIndex], sampleSize, 0, null);
-    track.sampleIndex++;
+    trackOutput.sampleMetadata(cursor.timeUs, cursor.flags, sampleSize, 0, null);
+    track.bytesRead += cursor.size;
+    cursor.moveNext();
+    sampleTrackIndex = TrackSampleTable.NO_SAMPLE;
     sampleBytesWritten = 0;
     sampleCurrentNalBytesRemaining = 0;
     return RESULT_CONTINUE;
   }
 
   /**
-   * Returns the index of the track that contains the earliest current sample, or
+   * Returns the index of the track whose next sample should be read, or
    * {@link TrackSampleTable#NO_SAMPLE} if no samples remain.
+   * <p>
+   * Samples are read in file order where possible, so that the source is read sequentially. Where
+   * the tracks are poorly interleaved, reading in file order buffers samples far ahead of the
+   * track whose next sample is earliest in time (the lagging track). Once the samples buffered
+   * ahead of the lagging track would exceed {@link #maximumReadAheadBytes}, the lagging track is
+   * read instead, even though this requires the source to be reloaded.
+   *
+   * @param inputPosition The current position in the input.
    */
-  private int getTrackIndexOfEarliestCurrentSample() {
-    int earliestSampleTrackIndex = TrackSampleTable.NO_SAMPLE;
-    long earliestSampleOffset = Long.MAX_VALUE;
+  private int getTrackIndexOfNextReadSample(long inputPosition) {
+    int laggingTrackIndex = TrackSampleTable.NO_SAMPLE;
+    long laggingTimeUs = Long.MAX_VALUE;
+    int preferredTrackIndex = TrackSampleTable.NO_SAMPLE;
+    boolean preferredRequiresReload = true;
+    long preferredOffset = Long.MAX_VALUE;
     for (int trackIndex = 0; trackIndex < tracks.length; trackIndex++) {
-      Mp4Track track = tracks[trackIndex];
-      int sampleIndex = track.sampleIndex;
-      if (sampleIndex == track.sampleTable.sampleCount) {
+      TrackSampleTable.Cursor cursor = tracks[trackIndex].cursor;
+      if (cursor.index == tracks[trackIndex].sampleTable.sampleCount) {
         continue;
       }
+      if (cursor.timeUs < laggingTimeUs) {
+        laggingTimeUs = cursor.timeUs;
+        laggingTrackIndex = trackIndex;
+      }
+      // Prefer samples that can be reached by skipping forward, then samples after the current
+      // position, then the earliest sample in the file.
+      boolean requiresReload = requiresReload(inputPosition, cursor.offset);
+      boolean isForward = cursor.offset >= inputPosition;
+      boolean preferredIsForward = preferredOffset >= inputPosition;
+      if (preferredTrackIndex == TrackSampleTable.NO_SAMPLE
+          || (!requiresReload && preferredRequiresReload)
+          || (requiresReload == preferredRequiresReload
+              && (isForward && !preferredIsForward
+                  || isForward == preferredIsForward && cursor.offset < preferredOffset))) {
+        preferredTrackIndex = trackIndex;
+        preferredRequiresReload = requiresReload;
+        preferredOffset = cursor.offset;
+      }
+    }
+    if (preferredTrackIndex == laggingTrackIndex) {
+      return preferredTrackIndex;
+    }
 
-      long trackSampleOffset = track.sampleTable.offsets[sampleIndex];
-      if (trackSampleOffset < earliestSampleOffset) {
-        earliestSampleOffset = trackSampleOffset;
-        earliestSampleTrackIndex = trackIndex;
+    // Determine how many bytes have been read ahead of the lagging track.
+    long readAheadBytes = 0;
+    for (Mp4Track track : tracks) {
+      TrackSampleTable.Cursor readAheadCursor = track.readAheadCursor;
+      while (readAheadCursor.index < track.cursor.index && readAheadCursor.timeUs < laggingTimeUs) {
+        track.bytesBeforeLaggingSample += readAheadCursor.size;
+        readAheadCursor.moveNext();
       }
+      readAheadBytes += track.bytesRead - track.bytesBeforeLaggingSample;
+    }
+    Mp4Track laggingTrack = tracks[laggingTrackIndex];
+    if (!requiresReload(inputPosition, laggingTrack.cursor.offset)
+        || readAheadBytes + tracks[preferredTrackIndex].cursor.size <= maximumReadAheadBytes) {
+      return preferredTrackIndex;
     }
+    return laggingTrackIndex;
+  }
 
-    return earliestSampleTrackIndex;
+  /**
+   * Returns whether reading from {@code offset} requires the source to be reloaded, given that the
+   * input is at {@code inputPosition}.
+   */
+  private static boolean requiresReload(long inputPosition, long offset) {
+    long skipAmount = offset - inputPosition;
+    return skipAmount < 0 || skipAmount >= RELOAD_MINIMUM_SEEK_DISTANCE;
   }
 
   /**
@@ -462,13 +555,18 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     public final Track track;
     public final TrackSampleTable sampleTable;
     public final TrackOutput trackOutput;
+    public final TrackSampleTable.Cursor cursor;
+    public final TrackSampleTable.Cursor readAheadCursor;
 
-    public int sampleIndex;
+    public long bytesRead;
+    public long bytesBeforeLaggingSample;
 
     public Mp4Track(Track track, TrackSampleTable sampleTable, TrackOutput trackOutput) {
       this.track = track;
       this.sampleTable = sampleTable;
       this.trackOutput = trackOutput;
+      cursor = sampleTable.newCursor();
+      readAheadCursor = sampleTable.newCursor();
     }
 
   }
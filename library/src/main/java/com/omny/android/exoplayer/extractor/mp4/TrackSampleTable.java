@@ -19,8 +19,18 @@ import com.omny.android.exoplayer.C;
 import com.omny.android.exoplayer.util.Assertions;
 import com.omny.android.exoplayer.util.Util;
 
+import java.util.Arrays;
+
 /**
  * Sample table for a track in an MP4 file.
+ * <p>
+ * Only sample sizes are stored per sample. Offsets are stored per chunk, and timestamps, timestamp
+ * offsets and edits are stored as runs, as they are in the stbl and edts atoms, so memory use
+ * scales with the number of chunks and runs rather than the number of samples. Samples are read
+ * sequentially through a {@link Cursor}, which resolves each sample in constant time.
+ * <p>
+ * Samples are indexed after applying any edit list. Indices into the tables are of unedited
+ * samples, as they appear in the stbl atom.
  */
 /* package */ final class TrackSampleTable {
 
@@ -34,37 +44,175 @@ import com.omny.android.exoplayer.util.Util;
    */
   public final int sampleCount;
   /**
-   * Sample offsets in bytes.
+   * Maximum sample size in bytes.
    */
-  public final long[] offsets;
+  public final int maximumSize;
+
+  private final long timescale;
+
+  // Sample sizes in bytes, or null if all samples have size fixedSampleSize.
+  private final int[] sizes;
+  private final int fixedSampleSize;
+
+  // Chunks, each holding the samples from its first sample index to that of the next chunk.
+  private final long[] chunkOffsets;
+  private final int[] chunkFirstSampleIndices;
+
+  // Runs of samples whose decoding timestamps, in the track's timescale, have a fixed delta.
+  private final int[] timestampRunFirstSampleIndices;
+  private final long[] timestampRunFirstTimestamps;
+  private final int[] timestampRunDeltas;
+
+  // Runs of samples with the same composition timestamp offset, or null if there are none.
+  private final int[] timestampOffsetRunFirstSampleIndices;
+  private final int[] timestampOffsetRunValues;
+
+  // Sorted indices of synchronization samples, or null if all samples are synchronization samples.
+  private final int[] syncSampleIndices;
+
+  // Edits, each mapping a run of samples to a presentation time.
+  private final int[] editFirstSampleIndices;
+  private final int[] editFirstEditedSampleIndices;
+  private final long[] editMediaTimes;
+  private final long[] editStartTimesUs;
+
   /**
-   * Sample sizes in bytes.
+   * @param timescale The timescale of the track.
+   * @param sampleCount The number of samples.
+   * @param sizes Sample sizes in bytes, or null if all samples have size {@code fixedSampleSize}.
+   * @param fixedSampleSize The size of all samples in bytes, if {@code sizes} is null.
+   * @param chunkOffsets Chunk offsets in bytes.
+   * @param chunkFirstSampleIndices The index of the first sample in each chunk. Chunks must not be
+   *     empty.
+   * @param timestampRunFirstSampleIndices The index of the first sample in each timestamp run.
+   * @param timestampRunFirstTimestamps The decoding timestamp of the first sample in each timestamp
+   *     run, in the track's timescale.
+   * @param timestampRunDeltas The decoding timestamp delta between samples in each timestamp run,
+   *     in the track's timescale.
+   * @param timestampOffsetRunFirstSampleIndices The index of the first sample in each composition
+   *     timestamp offset run, or null if there are no offsets.
+   * @param timestampOffsetRunValues The composition timestamp offset of each run, in the track's
+   *     timescale, or null if there are no offsets.
+   * @param syncSampleIndices Sorted indices of synchronization samples, or null if all samples are
+   *     synchronization samples.
    */
-  public final int[] sizes;
+  TrackSampleTable(long timescale, int sampleCount, int[] sizes, int fixedSampleSize,
+      long[] chunkOffsets, int[] chunkFirstSampleIndices, int[] timestampRunFirstSampleIndices,
+      long[] timestampRunFirstTimestamps, int[] timestampRunDeltas,
+      int[] timestampOffsetRunFirstSampleIndices, int[] timestampOffsetRunValues,
+      int[] syncSampleIndices) {
+    Assertions.checkArgument(sizes == null || sizes.length == sampleCount);
+    Assertions.checkArgument(chunkOffsets.length == chunkFirstSampleIndices.length);
+    Assertions.checkArgument(timestampRunFirstSampleIndices.length
+        == timestampRunFirstTimestamps.length);
+    Assertions.checkArgument(timestampRunFirstSampleIndices.length == timestampRunDeltas.length);
+    Assertions.checkArgument((timestampOffsetRunFirstSampleIndices == null)
+        == (timestampOffsetRunValues == null));
+
+    this.timescale = timescale;
+    this.sampleCount = sampleCount;
+    this.sizes = sizes;
+    this.fixedSampleSize = fixedSampleSize;
+    this.chunkOffsets = chunkOffsets;
+    this.chunkFirstSampleIndices = chunkFirstSampleIndices;
+    this.timestampRunFirstSampleIndices = timestampRunFirstSampleIndices;
+    this.timestampRunFirstTimestamps = timestampRunFirstTimestamps;
+    this.timestampRunDeltas = timestampRunDeltas;
+    this.timestampOffsetRunFirstSampleIndices = timestampOffsetRunFirstSampleIndices;
+    this.timestampOffsetRunValues = timestampOffsetRunValues;
+    this.syncSampleIndices = syncSampleIndices;
+    maximumSize = sizes == null ? (sampleCount == 0 ? 0 : fixedSampleSize)
+        : getMaximumSize(sizes, 0, sampleCount);
+    editFirstSampleIndices = new int[] {0};
+    editFirstEditedSampleIndices = new int[] {0};
+    editMediaTimes = new long[] {0};
+    editStartTimesUs = new long[] {0};
+  }
+
+  private TrackSampleTable(TrackSampleTable table, int sampleCount, int maximumSize,
+      int[] editFirstSampleIndices, int[] editFirstEditedSampleIndices, long[] editMediaTimes,
+      long[] editStartTimesUs) {
+    this.sampleCount = sampleCount;
+    this.maximumSize = maximumSize;
+    this.editFirstSampleIndices = editFirstSampleIndices;
+    this.editFirstEditedSampleIndices = editFirstEditedSampleIndices;
+    this.editMediaTimes = editMediaTimes;
+    this.editStartTimesUs = editStartTimesUs;
+    timescale = table.timescale;
+    sizes = table.sizes;
+    fixedSampleSize = table.fixedSampleSize;
+    chunkOffsets = table.chunkOffsets;
+    chunkFirstSampleIndices = table.chunkFirstSampleIndices;
+    timestampRunFirstSampleIndices = table.timestampRunFirstSampleIndices;
+    timestampRunFirstTimestamps = table.timestampRunFirstTimestamps;
+    timestampRunDeltas = table.timestampRunDeltas;
+    timestampOffsetRunFirstSampleIndices = table.timestampOffsetRunFirstSampleIndices;
+    timestampOffsetRunValues = table.timestampOffsetRunValues;
+    syncSampleIndices = table.syncSampleIndices;
+  }
+
   /**
-   * Maximum sample size in {@link #sizes}.
+   * Returns a table holding the samples of this unedited table selected by an edit list.
+   *
+   * @param firstSampleIndices The index of the first sample of each edit.
+   * @param sampleCounts The number of samples in each edit.
+   * @param mediaTimes The media time at which each edit starts, in the track's timescale. Sample
+   *     timestamps are relative to this time.
+   * @param startTimesUs The presentation time at which each edit starts, in microseconds.
+   * @return The edited table.
    */
-  public final int maximumSize;
+  public TrackSampleTable edit(int[] firstSampleIndices, int[] sampleCounts, long[] mediaTimes,
+      long[] startTimesUs) {
+    Assertions.checkState(editFirstSampleIndices.length == 1 && editMediaTimes[0] == 0);
+    int editCount = firstSampleIndices.length;
+    int[] firstEditedSampleIndices = new int[editCount];
+    int editedSampleCount = 0;
+    int editedMaximumSize = 0;
+    for (int i = 0; i < editCount; i++) {
+      Assertions.checkArgument(sampleCounts[i] > 0
+          && firstSampleIndices[i] + sampleCounts[i] <= sampleCount);
+      firstEditedSampleIndices[i] = editedSampleCount;
+      editedSampleCount += sampleCounts[i];
+      editedMaximumSize = Math.max(editedMaximumSize, sizes == null ? fixedSampleSize
+          : getMaximumSize(sizes, firstSampleIndices[i], firstSampleIndices[i] + sampleCounts[i]));
+    }
+    return new TrackSampleTable(this, editedSampleCount, editedMaximumSize, firstSampleIndices,
+        firstEditedSampleIndices, mediaTimes, startTimesUs);
+  }
+
   /**
-   * Sample timestamps in microseconds.
+   * Returns a new cursor, positioned at the first sample.
    */
-  public final long[] timestampsUs;
+  public Cursor newCursor() {
+    Cursor cursor = new Cursor();
+    cursor.seekTo(0);
+    return cursor;
+  }
+
   /**
-   * Sample flags.
+   * Returns the timestamp of a sample in microseconds.
+   *
+   * @param index The index of the sample.
+   * @return The timestamp of the sample in microseconds.
    */
-  public final int[] flags;
-
-  TrackSampleTable(long[] offsets, int[] sizes, int maximumSize, long[] timestampsUs, int[] flags) {
-    Assertions.checkArgument(sizes.length == timestampsUs.length);
-    Assertions.checkArgument(offsets.length == timestampsUs.length);
-    Assertions.checkArgument(flags.length == timestampsUs.length);
+  public long getTimestampUs(int index) {
+    int editIndex = getEditIndex(index);
+    return getTimestampUs(editIndex, getUneditedTimestamp(getUneditedIndex(editIndex, index)));
+  }
 
-    this.offsets = offsets;
-    this.sizes = sizes;
-    this.maximumSize = maximumSize;
-    this.timestampsUs = timestampsUs;
-    this.flags = flags;
-    sampleCount = offsets.length;
+  /**
+   * Returns the flags of a sample.
+   *
+   * @param index The index of the sample.
+   * @return The flags of the sample.
+   */
+  public int getFlags(int index) {
+    if (syncSampleIndices == null) {
+      return C.SAMPLE_FLAG_SYNC;
+    }
+    int uneditedIndex = getUneditedIndex(getEditIndex(index), index);
+    return Arrays.binarySearch(syncSampleIndices, uneditedIndex) >= 0
+        ? C.SAMPLE_FLAG_SYNC : 0;
   }
 
   /**
@@ -77,11 +225,23 @@ import com.omny.android.exoplayer.util.Util;
   public int getIndexOfEarlierOrEqualSynchronizationSample(long timeUs) {
     // Video frame timestamps may not be sorted, so the behavior of this call can be undefined.
     // Frames are not reordered past synchronization samples so this works in practice.
-    int startIndex = Util.binarySearchFloor(timestampsUs, timeUs, true, false);
-    for (int i = startIndex; i >= 0; i--) {
-      if ((flags[i] & C.SAMPLE_FLAG_SYNC) != 0) {
-        return i;
+    int index = binarySearchTimestamp(timeUs);
+    index = index < 0 ? -(index + 2) : index;
+    if (index < 0) {
+      return NO_SAMPLE;
+    } else if (syncSampleIndices == null) {
+      return index;
+    }
+    for (int editIndex = getEditIndex(index); editIndex >= 0; editIndex--) {
+      int firstSampleIndex = editFirstSampleIndices[editIndex];
+      int uneditedIndex = getUneditedIndex(editIndex, index);
+      int syncIndex = Util.binarySearchFloor(syncSampleIndices, uneditedIndex, true, false);
+      if (syncIndex >= 0 && syncSampleIndices[syncIndex] >= firstSampleIndex) {
+        return editFirstEditedSampleIndices[editIndex] + syncSampleIndices[syncIndex]
+            - firstSampleIndex;
       }
+      // Continue from the last sample of the previous edit.
+      index = editFirstEditedSampleIndices[editIndex] - 1;
     }
     return NO_SAMPLE;
   }
@@ -94,13 +254,257 @@ import com.omny.android.exoplayer.util.Util;
    * @return index Index of the synchronization sample, or {@link #NO_SAMPLE} if none.
    */
   public int getIndexOfLaterOrEqualSynchronizationSample(long timeUs) {
-    int startIndex = Util.binarySearchCeil(timestampsUs, timeUs, true, false);
-    for (int i = startIndex; i < timestampsUs.length; i++) {
-      if ((flags[i] & C.SAMPLE_FLAG_SYNC) != 0) {
-        return i;
+    int index = binarySearchTimestamp(timeUs);
+    return getIndexOfLaterOrEqualSynchronizationSample(index < 0 ? ~index : index);
+  }
+
+  /**
+   * Returns the index of the first synchronization sample at or after a sample index, or
+   * {@link #NO_SAMPLE} if none.
+   */
+  /* package */ int getIndexOfLaterOrEqualSynchronizationSample(int index) {
+    if (index >= sampleCount) {
+      return NO_SAMPLE;
+    } else if (syncSampleIndices == null) {
+      return index;
+    }
+    for (int editIndex = getEditIndex(index); editIndex < editFirstSampleIndices.length;
+        editIndex++) {
+      int firstSampleIndex = editFirstSampleIndices[editIndex];
+      int endSampleIndex = firstSampleIndex + getEditSampleCount(editIndex);
+      int uneditedIndex = getUneditedIndex(editIndex, Math.max(index,
+          editFirstEditedSampleIndices[editIndex]));
+      int syncIndex = Util.binarySearchCeil(syncSampleIndices, uneditedIndex, true, false);
+      if (syncIndex < syncSampleIndices.length && syncSampleIndices[syncIndex] < endSampleIndex) {
+        return editFirstEditedSampleIndices[editIndex] + syncSampleIndices[syncIndex]
+            - firstSampleIndex;
       }
     }
     return NO_SAMPLE;
   }
 
+  /**
+   * Returns the index of the first sample of this unedited table whose presentation timestamp is
+   * greater than (or optionally equal to) a given timestamp, with the semantics of
+   * {@link Util#binarySearchCeil(long[], long, boolean, boolean)}.
+   *
+   * @param timestamp The timestamp, in the track's timescale.
+   * @param inclusive Whether a sample with a timestamp equal to {@code timestamp} may be returned.
+   * @param stayInBounds Whether to return {@code sampleCount - 1} rather than
+   *     {@code sampleCount} if all timestamps are less than {@code timestamp}.
+   * @return The index of the sample.
+   */
+  /* package */ int binarySearchUneditedTimestampCeil(long timestamp, boolean inclusive,
+      boolean stayInBounds) {
+    int low = 0;
+    int high = sampleCount - 1;
+    int index = -1;
+    while (low <= high && index == -1) {
+      int mid = (low + high) >>> 1;
+      long midTimestamp = getUneditedTimestamp(mid);
+      if (midTimestamp < timestamp) {
+        low = mid + 1;
+      } else if (midTimestamp > timestamp) {
+        high = mid - 1;
+      } else {
+        index = inclusive ? mid : mid + 1;
+      }
+    }
+    if (index == -1) {
+      index = low;
+    }
+    return stayInBounds ? Math.min(sampleCount - 1, index) : index;
+  }
+
+  // Internal methods.
+
+  /**
+   * Searches for a sample timestamp, with the semantics of
+   * {@link Arrays#binarySearch(long[], long)}.
+   */
+  private int binarySearchTimestamp(long timeUs) {
+    int low = 0;
+    int high = sampleCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midTimeUs = getTimestampUs(mid);
+      if (midTimeUs < timeUs) {
+        low = mid + 1;
+      } else if (midTimeUs > timeUs) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  private long getUneditedTimestamp(int uneditedIndex) {
+    int timestampRunIndex =
+        Util.binarySearchFloor(timestampRunFirstSampleIndices, uneditedIndex, true, false);
+    long timestamp = timestampRunFirstTimestamps[timestampRunIndex]
+        + (long) (uneditedIndex - timestampRunFirstSampleIndices[timestampRunIndex])
+        * timestampRunDeltas[timestampRunIndex];
+    if (timestampOffsetRunFirstSampleIndices != null) {
+      timestamp += timestampOffsetRunValues[Util.binarySearchFloor(
+          timestampOffsetRunFirstSampleIndices, uneditedIndex, true, false)];
+    }
+    return timestamp;
+  }
+
+  private long getTimestampUs(int editIndex, long timestamp) {
+    return editStartTimesUs[editIndex] + Util.scaleLargeTimestamp(
+        timestamp - editMediaTimes[editIndex], C.MICROS_PER_SECOND, timescale);
+  }
+
+  private int getEditIndex(int index) {
+    return Util.binarySearchFloor(editFirstEditedSampleIndices, index, true, true);
+  }
+
+  private int getEditSampleCount(int editIndex) {
+    int nextEditFirstEditedSampleIndex = editIndex + 1 < editFirstEditedSampleIndices.length
+        ? editFirstEditedSampleIndices[editIndex + 1] : sampleCount;
+    return nextEditFirstEditedSampleIndex - editFirstEditedSampleIndices[editIndex];
+  }
+
+  private int getUneditedIndex(int editIndex, int index) {
+    return editFirstSampleIndices[editIndex] + index - editFirstEditedSampleIndices[editIndex];
+  }
+
+  private static int getMaximumSize(int[] sizes, int fromIndex, int toIndex) {
+    int maximumSize = 0;
+    for (int i = fromIndex; i < toIndex; i++) {
+      maximumSize = Math.max(maximumSize, sizes[i]);
+    }
+    return maximumSize;
+  }
+
+  /**
+   * Iterates over the samples in the table. Moving to the next sample takes constant time, and
+   * moving to an arbitrary sample takes time logarithmic in the number of runs, plus linear in the
+   * number of samples per chunk.
+   */
+  public final class Cursor {
+
+    /**
+     * The index of the current sample, or {@link #sampleCount} if there are no more samples.
+     */
+    public int index;
+    /**
+     * The offset of the current sample in bytes.
+     */
+    public long offset;
+    /**
+     * The size of the current sample in bytes.
+     */
+    public int size;
+    /**
+     * The timestamp of the current sample in microseconds.
+     */
+    public long timeUs;
+    /**
+     * The flags of the current sample.
+     */
+    public int flags;
+
+    private int editIndex;
+    private int editEndSampleIndex;
+    private int uneditedIndex;
+    private int chunkIndex;
+    private int timestampRunIndex;
+    private long timestamp;
+    private int timestampOffsetRunIndex;
+    private int nextSyncSampleIndex;
+
+    private Cursor() {
+      // Use TrackSampleTable.newCursor().
+    }
+
+    /**
+     * Moves the cursor to a sample.
+     *
+     * @param index The index of the sample, or {@link #sampleCount} to move past the last sample.
+     */
+    public void seekTo(int index) {
+      Assertions.checkArgument(index >= 0 && index <= sampleCount);
+      this.index = index;
+      if (index == sampleCount) {
+        return;
+      }
+      editIndex = getEditIndex(index);
+      editEndSampleIndex = editFirstSampleIndices[editIndex] + getEditSampleCount(editIndex);
+      uneditedIndex = getUneditedIndex(editIndex, index);
+
+      chunkIndex = Util.binarySearchFloor(chunkFirstSampleIndices, uneditedIndex, true, false);
+      offset = chunkOffsets[chunkIndex];
+      for (int i = chunkFirstSampleIndices[chunkIndex]; i < uneditedIndex; i++) {
+        offset += sizes == null ? fixedSampleSize : sizes[i];
+      }
+
+      timestampRunIndex =
+          Util.binarySearchFloor(timestampRunFirstSampleIndices, uneditedIndex, true, false);
+      timestamp = timestampRunFirstTimestamps[timestampRunIndex]
+          + (long) (uneditedIndex - timestampRunFirstSampleIndices[timestampRunIndex])
+          * timestampRunDeltas[timestampRunIndex];
+      if (timestampOffsetRunFirstSampleIndices != null) {
+        timestampOffsetRunIndex = Util.binarySearchFloor(timestampOffsetRunFirstSampleIndices,
+            uneditedIndex, true, false);
+      }
+      if (syncSampleIndices != null) {
+        nextSyncSampleIndex =
+            Util.binarySearchCeil(syncSampleIndices, uneditedIndex, true, false);
+      }
+      updateSample();
+    }
+
+    /**
+     * Moves the cursor to the next sample.
+     *
+     * @return Whether the cursor is at a sample. False if there are no more samples.
+     */
+    public boolean moveNext() {
+      if (index == sampleCount || ++index == sampleCount) {
+        index = sampleCount;
+        return false;
+      }
+      if (++uneditedIndex == editEndSampleIndex) {
+        seekTo(index);
+        return true;
+      }
+      if (chunkIndex + 1 < chunkFirstSampleIndices.length
+          && chunkFirstSampleIndices[chunkIndex + 1] == uneditedIndex) {
+        offset = chunkOffsets[++chunkIndex];
+      } else {
+        offset += size;
+      }
+      if (timestampRunIndex + 1 < timestampRunFirstSampleIndices.length
+          && timestampRunFirstSampleIndices[timestampRunIndex + 1] == uneditedIndex) {
+        timestamp = timestampRunFirstTimestamps[++timestampRunIndex];
+      } else {
+        timestamp += timestampRunDeltas[timestampRunIndex];
+      }
+      if (timestampOffsetRunFirstSampleIndices != null
+          && timestampOffsetRunIndex + 1 < timestampOffsetRunFirstSampleIndices.length
+          && timestampOffsetRunFirstSampleIndices[timestampOffsetRunIndex + 1] == uneditedIndex) {
+        timestampOffsetRunIndex++;
+      }
+      if (syncSampleIndices != null && nextSyncSampleIndex < syncSampleIndices.length
+          && syncSampleIndices[nextSyncSampleIndex] < uneditedIndex) {
+        nextSyncSampleIndex++;
+      }
+      updateSample();
+      return true;
+    }
+
+    private void updateSample() {
+      size = sizes == null ? fixedSampleSize : sizes[uneditedIndex];
+      long presentationTimestamp = timestampOffsetRunFirstSampleIndices == null ? timestamp
+          : timestamp + timestampOffsetRunValues[timestampOffsetRunIndex];
+      timeUs = getTimestampUs(editIndex, presentationTimestamp);
+      flags = syncSampleIndices == null || (nextSyncSampleIndex < syncSampleIndices.length
+          && syncSampleIndices[nextSyncSampleIndex] == uneditedIndex) ? C.SAMPLE_FLAG_SYNC : 0;
+    }
+
+  }
+
 }
@@ -0,0 +1,551 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.extractor.ts;
+
+import com.omny.android.exoplayer.C;
+import com.omny.android.exoplayer.MediaFormat;
+import com.omny.android.exoplayer.drm.DrmInitData;
+import com.omny.android.exoplayer.extractor.Extractor;
+import com.omny.android.exoplayer.extractor.ExtractorInput;
+import com.omny.android.exoplayer.extractor.ExtractorOutput;
+import com.omny.android.exoplayer.extractor.PositionHolder;
+import com.omny.android.exoplayer.extractor.SeekMap;
+import com.omny.android.exoplayer.extractor.TrackOutput;
+import com.omny.android.exoplayer.util.ParsableByteArray;
+
+import java.io.IOException;
+
+/**
+ * Seeks in MPEG-2 transport and program streams of known length using the clock references that
+ * they carry (PCR and SCR respectively).
+ * <p>
+ * Before any media is parsed, the seeker reads a window at the start and at the end of the stream
+ * to find the first and last clock references, from which the duration is derived. Positions are
+ * then found by an interpolation search over windows read from the stream, followed by a backward
+ * search for a random access point, so that playback can start at a keyframe. The backward search
+ * is skipped for streams that have no random access point at their start, such as audio only
+ * streams, in which every position is a random access point. All reads are driven by
+ * {@link #read(ExtractorInput, PositionHolder)} returning {@link Extractor#RESULT_SEEK}.
+ * <p>
+ * The first clock reference is mapped to time zero, and the {@link PtsTimestampAdjuster} is
+ * anchored to it, so that sample timestamps and seek positions share a timeline that stays
+ * continuous across seeks. Streams longer than half the timestamp wraparound period (~13 hours)
+ * that wrap around are not supported.
+ */
+/* package */ final class ClockReferenceSeeker implements SeekMap {
+
+  /**
+   * Finds clock references and random access points in a container's byte stream.
+   */
+  public interface ClockReferenceReader {
+
+    /**
+     * Finds the first clock reference carried by a packet or pack that starts at or after
+     * {@code offset}.
+     *
+     * @param data The data to search.
+     * @param offset The offset from which to search.
+     * @param limit The limit of the valid data.
+     * @return The offset of the packet or pack that carries the clock reference, or -1 if none was
+     *     found.
+     */
+    int findClockReference(byte[] data, int offset, int limit);
+
+    /**
+     * Reads the clock reference carried by the packet or pack at {@code offset}, as returned by
+     * {@link #findClockReference(byte[], int, int)}.
+     *
+     * @param data The data.
+     * @param offset The offset of the packet or pack.
+     * @return The base of the clock reference, in 90 kHz units.
+     */
+    long readClockReference(byte[] data, int offset);
+
+    /**
+     * Finds the last point in {@code data} from which playback can start at a keyframe.
+     *
+     * @param data The data to search.
+     * @param limit The limit of the valid data.
+     * @param maxOffset The exclusive upper bound for the offset of the random access point. Data up
+     *     to {@code limit} may be read to identify it.
+     * @return The offset of the random access point, or -1 if none was found.
+     */
+    int findRandomAccessPoint(byte[] data, int limit, int maxOffset);
+
+  }
+
+  /* package */ static final int WINDOW_SIZE = 600 * 188;
+  /* package */ static final int MAX_SEARCH_ITERATIONS = 12;
+  /* package */ static final int MAX_RANDOM_ACCESS_SEARCH_WINDOWS = 8;
+
+  private static final long SEEK_TOLERANCE_PTS = 90000 / 5;
+  private static final int RANDOM_ACCESS_LOOKAHEAD = 4096;
+
+  private static final long NO_CLOCK_REFERENCE = -1;
+
+  private static final int STATE_STARTING = 0;
+  private static final int STATE_READING_FIRST_CLOCK_REFERENCE = 1;
+  private static final int STATE_READING_LAST_CLOCK_REFERENCE = 2;
+  private static final int STATE_SEARCHING = 3;
+  private static final int STATE_SEARCHING_RANDOM_ACCESS_POINT = 4;
+  private static final int STATE_LANDING = 5;
+  private static final int STATE_READY = 6;
+
+  private final ClockReferenceReader reader;
+  private final PtsTimestampAdjuster ptsTimestampAdjuster;
+  private final ParsableByteArray window;
+
+  private int state;
+  private long inputLength;
+  private long firstClockReference;
+  private long lastClockReference;
+  private long lastClockReferencePosition;
+  private boolean hasRandomAccessPoints;
+  private volatile long durationUs;
+
+  // Set by getPosition and consumed by seek.
+  private long pendingTargetTimeUs;
+  private long pendingFirstProbePosition;
+
+  private long windowPosition;
+  private int windowSize;
+  private long targetClockReference;
+  private long lowPosition;
+  private long lowClockReference;
+  private long highPosition;
+  private long highClockReference;
+  private int iterationCount;
+  private long previousSearchRange;
+  private long randomAccessSearchEnd;
+  private long landingPosition;
+  private long landingClockReference;
+
+  /**
+   * @param reader Finds clock references and random access points in the stream.
+   * @param ptsTimestampAdjuster The adjuster used for the stream's timestamps. It is anchored to
+   *     the first clock reference.
+   */
+  public ClockReferenceSeeker(ClockReferenceReader reader,
+      PtsTimestampAdjuster ptsTimestampAdjuster) {
+    this.reader = reader;
+    this.ptsTimestampAdjuster = ptsTimestampAdjuster;
+    window = new ParsableByteArray(WINDOW_SIZE);
+    state = STATE_STARTING;
+    durationUs = C.UNKNOWN_TIME_US;
+    pendingTargetTimeUs = C.UNKNOWN_TIME_US;
+  }
+
+  /**
+   * Returns an {@link ExtractorOutput} that forwards to {@code output}, setting the duration of
+   * track formats once it is known.
+   */
+  public ExtractorOutput wrapOutput(ExtractorOutput output) {
+    return new DurationSettingOutput(output);
+  }
+
+  /**
+   * Returns the duration of the stream in microseconds, or {@link C#UNKNOWN_TIME_US} if it's not
+   * known.
+   */
+  public long getDurationUs() {
+    return durationUs;
+  }
+
+  /**
+   * Whether {@link #read(ExtractorInput, PositionHolder)} must be called before the extractor
+   * parses media from the input.
+   */
+  public boolean isReading() {
+    return state != STATE_READY;
+  }
+
+  /**
+   * Notifies the seeker that the extractor has been seeked. Any position requested through
+   * {@link #getPosition(long)} is searched for by subsequent calls to
+   * {@link #read(ExtractorInput, PositionHolder)}.
+   */
+  public void seek() {
+    if (state == STATE_STARTING || state == STATE_READING_FIRST_CLOCK_REFERENCE
+        || state == STATE_READING_LAST_CLOCK_REFERENCE) {
+      // The duration is still being read.
+      return;
+    }
+    long targetTimeUs = pendingTargetTimeUs;
+    pendingTargetTimeUs = C.UNKNOWN_TIME_US;
+    if (!isSeekable()) {
+      state = STATE_READY;
+      return;
+    } else if (targetTimeUs == C.UNKNOWN_TIME_US) {
+      // Loading restarts from the start of the stream.
+      land(0, firstClockReference);
+      return;
+    }
+    targetClockReference = firstClockReference + PtsTimestampAdjuster.usToPts(targetTimeUs);
+    lowPosition = 0;
+    lowClockReference = firstClockReference;
+    highPosition = lastClockReferencePosition;
+    highClockReference = lastClockReference;
+    iterationCount = 0;
+    previousSearchRange = Long.MAX_VALUE;
+    setWindow(pendingFirstProbePosition);
+    state = STATE_SEARCHING;
+  }
+
+  /**
+   * Reads from the input while the duration or a seek position is being searched for.
+   *
+   * @param input The input from which to read.
+   * @param seekPosition If {@link Extractor#RESULT_SEEK} is returned, this holder is updated to
+   *     hold the position of the required data.
+   * @return {@link Extractor#RESULT_SEEK} if the input must be moved, or
+   *     {@link Extractor#RESULT_CONTINUE} once the extractor can parse media from the input's
+   *     current position.
+   * @throws IOException If an error occurred reading from the input.
+   * @throws InterruptedException If the thread was interrupted.
+   */
+  public int read(ExtractorInput input, PositionHolder seekPosition)
+      throws IOException, InterruptedException {
+    while (state != STATE_READY) {
+      switch (state) {
+        case STATE_STARTING:
+          inputLength = input.getLength();
+          if (inputLength == C.LENGTH_UNBOUNDED || input.getPosition() != 0) {
+            state = STATE_READY;
+          } else {
+            setWindow(0);
+            state = STATE_READING_FIRST_CLOCK_REFERENCE;
+          }
+          break;
+        case STATE_READING_FIRST_CLOCK_REFERENCE:
+          if (!readWindow(input, seekPosition)) {
+            return Extractor.RESULT_SEEK;
+          }
+          int offset = reader.findClockReference(window.data, 0, window.limit());
+          if (offset == -1) {
+            land(0, NO_CLOCK_REFERENCE);
+            break;
+          }
+          firstClockReference = reader.readClockReference(window.data, offset);
+          hasRandomAccessPoints =
+              reader.findRandomAccessPoint(window.data, window.limit(), window.limit()) != -1;
+          setWindow(Math.max(0, inputLength - WINDOW_SIZE));
+          state = STATE_READING_LAST_CLOCK_REFERENCE;
+          break;
+        case STATE_READING_LAST_CLOCK_REFERENCE:
+          if (!readWindow(input, seekPosition)) {
+            return Extractor.RESULT_SEEK;
+          }
+          offset = findLastClockReference();
+          if (offset != -1) {
+            lastClockReferencePosition = windowPosition + offset;
+            lastClockReference = unwrap(reader.readClockReference(window.data, offset));
+            if (lastClockReference > firstClockReference) {
+              ptsTimestampAdjuster.reset();
+              ptsTimestampAdjuster.adjustTimestamp(firstClockReference);
+              durationUs = PtsTimestampAdjuster.ptsToUs(lastClockReference - firstClockReference);
+            }
+          }
+          land(0, isSeekable() ? firstClockReference : NO_CLOCK_REFERENCE);
+          break;
+        case STATE_SEARCHING:
+          if (!readWindow(input, seekPosition)) {
+            return Extractor.RESULT_SEEK;
+          }
+          search();
+          break;
+        case STATE_SEARCHING_RANDOM_ACCESS_POINT:
+          if (!readWindow(input, seekPosition)) {
+            return Extractor.RESULT_SEEK;
+          }
+          searchRandomAccessPoint();
+          break;
+        case STATE_LANDING:
+          if (input.getPosition() != landingPosition) {
+            seekPosition.position = landingPosition;
+            return Extractor.RESULT_SEEK;
+          }
+          if (landingClockReference != NO_CLOCK_REFERENCE) {
+            ptsTimestampAdjuster.setLastPts(landingClockReference);
+          }
+          state = STATE_READY;
+          break;
+      }
+    }
+    return Extractor.RESULT_CONTINUE;
+  }
+
+  // SeekMap implementation.
+
+  @Override
+  public boolean isSeekable() {
+    return durationUs != C.UNKNOWN_TIME_US;
+  }
+
+  @Override
+  public long getPosition(long timeUs) {
+    if (!isSeekable() || timeUs <= 0) {
+      pendingTargetTimeUs = C.UNKNOWN_TIME_US;
+      return 0;
+    }
+    long targetClockReference = firstClockReference + PtsTimestampAdjuster.usToPts(timeUs);
+    pendingTargetTimeUs = timeUs;
+    pendingFirstProbePosition = interpolate(targetClockReference, 0, firstClockReference,
+        lastClockReferencePosition, lastClockReference);
+    return pendingFirstProbePosition;
+  }
+
+  // Internals.
+
+  /**
+   * Narrows the search range using the clock references in the window that has been read.
+   */
+  private void search() {
+    iterationCount++;
+    int offset = reader.findClockReference(window.data, 0, window.limit());
+    if (offset != -1) {
+      long clockReference = unwrap(reader.readClockReference(window.data, offset));
+      if (clockReference <= targetClockReference) {
+        // Move to the last clock reference in the window that doesn't exceed the target.
+        int nextOffset;
+        while ((nextOffset = reader.findClockReference(window.data, offset + 1, window.limit()))
+            != -1) {
+          long nextClockReference = unwrap(reader.readClockReference(window.data, nextOffset));
+          if (nextClockReference > targetClockReference) {
+            updateHigh(windowPosition + nextOffset, nextClockReference);
+            break;
+          }
+          offset = nextOffset;
+          clockReference = nextClockReference;
+        }
+        long position = windowPosition + offset;
+        if (position > lowPosition) {
+          lowPosition = position;
+          lowClockReference = clockReference;
+        }
+        if (targetClockReference - clockReference <= SEEK_TOLERANCE_PTS) {
+          startRandomAccessSearch();
+          return;
+        }
+      } else {
+        // There's no clock reference between the window position and the one found.
+        updateHigh(windowPosition, clockReference);
+      }
+    } else {
+      // No clock reference in the window, so nothing closer to the target can be found after it.
+      highPosition = Math.min(highPosition, windowPosition);
+    }
+    if (highPosition - lowPosition <= WINDOW_SIZE) {
+      boolean rangeRead = windowPosition <= lowPosition
+          && windowPosition + window.limit() >= highPosition;
+      if (rangeRead || iterationCount >= MAX_SEARCH_ITERATIONS) {
+        startRandomAccessSearch();
+      } else {
+        // Read the whole range, to find the last clock reference before the target.
+        setWindow(lowPosition);
+      }
+      return;
+    } else if (iterationCount >= MAX_SEARCH_ITERATIONS) {
+      startRandomAccessSearch();
+      return;
+    }
+    // Interpolate while it at least halves the range, and bisect otherwise.
+    long searchRange = highPosition - lowPosition;
+    long probePosition = searchRange <= previousSearchRange / 2
+        ? interpolate(targetClockReference, lowPosition, lowClockReference, highPosition,
+            highClockReference)
+        : lowPosition + searchRange / 2;
+    previousSearchRange = searchRange;
+    // Ensure that each probe excludes at least part of the range.
+    probePosition = Math.max(lowPosition + 1, Math.min(highPosition - WINDOW_SIZE, probePosition));
+    setWindow(probePosition);
+  }
+
+  private void updateHigh(long position, long clockReference) {
+    if (position < highPosition) {
+      highPosition = position;
+      highClockReference = clockReference;
+    }
+  }
+
+  private int findLastClockReference() {
+    int offset = -1;
+    int nextOffset;
+    while ((nextOffset = reader.findClockReference(window.data, offset + 1, window.limit()))
+        != -1) {
+      offset = nextOffset;
+    }
+    return offset;
+  }
+
+  private void startRandomAccessSearch() {
+    landingPosition = lowPosition;
+    landingClockReference = lowClockReference;
+    if (lowPosition == 0 || !hasRandomAccessPoints) {
+      land(lowPosition, lowClockReference);
+      return;
+    }
+    iterationCount = 0;
+    randomAccessSearchEnd = lowPosition + 1;
+    setRandomAccessWindow();
+    state = STATE_SEARCHING_RANDOM_ACCESS_POINT;
+  }
+
+  /**
+   * Searches the window that has been read for a random access point, moving the window backward
+   * if none is found.
+   */
+  private void searchRandomAccessPoint() {
+    iterationCount++;
+    int offset = reader.findRandomAccessPoint(window.data, window.limit(),
+        (int) (randomAccessSearchEnd - windowPosition));
+    if (offset != -1) {
+      land(windowPosition + offset, landingClockReference);
+    } else if (windowPosition == 0 || iterationCount >= MAX_RANDOM_ACCESS_SEARCH_WINDOWS) {
+      land(landingPosition, landingClockReference);
+    } else {
+      randomAccessSearchEnd = windowPosition;
+      setRandomAccessWindow();
+    }
+  }
+
+  private void setRandomAccessWindow() {
+    setWindow(Math.max(0, randomAccessSearchEnd + RANDOM_ACCESS_LOOKAHEAD - WINDOW_SIZE));
+  }
+
+  private void land(long position, long clockReference) {
+    landingPosition = position;
+    landingClockReference = clockReference;
+    state = STATE_LANDING;
+  }
+
+  private void setWindow(long position) {
+    windowPosition = position;
+    windowSize = (int) Math.min(WINDOW_SIZE, inputLength - position);
+    window.reset();
+  }
+
+  /**
+   * Continues reading the window.
+   *
+   * @return Whether the window has been read. If false, {@code seekPosition} holds the position
+   *     from which reading must continue.
+   */
+  private boolean readWindow(ExtractorInput input, PositionHolder seekPosition)
+      throws IOException, InterruptedException {
+    long readPosition = windowPosition + window.limit();
+    if (input.getPosition() != readPosition) {
+      seekPosition.position = readPosition;
+      return false;
+    }
+    while (window.limit() < windowSize) {
+      int bytesRead = input.read(window.data, window.limit(), windowSize - window.limit());
+      if (bytesRead == C.RESULT_END_OF_INPUT) {
+        break;
+      }
+      window.setLimit(window.limit() + bytesRead);
+    }
+    return true;
+  }
+
+  /**
+   * Returns the clock reference, adding the wraparound period if it's less than the first clock
+   * reference by more than half the period.
+   */
+  private long unwrap(long clockReference) {
+    return firstClockReference - clockReference > PtsTimestampAdjuster.MAX_PTS_PLUS_ONE / 2
+        ? clockReference + PtsTimestampAdjuster.MAX_PTS_PLUS_ONE : clockReference;
+  }
+
+  private static long interpolate(long targetClockReference, long lowPosition,
+      long lowClockReference, long highPosition, long highClockReference) {
+    if (highClockReference <= lowClockReference) {
+      return lowPosition;
+    }
+    long position = lowPosition + (long) ((double) (targetClockReference - lowClockReference)
+        * (highPosition - lowPosition) / (highClockReference - lowClockReference));
+    return Math.max(lowPosition, Math.min(highPosition, position));
+  }
+
+  /**
+   * Forwards to another {@link ExtractorOutput}, setting the duration of track formats.
+   */
+  private final class DurationSettingOutput implements ExtractorOutput {
+
+    private final ExtractorOutput output;
+
+    public DurationSettingOutput(ExtractorOutput output) {
+      this.output = output;
+    }
+
+    @Override
+    public TrackOutput track(int trackId) {
+      return new DurationSettingTrackOutput(output.track(trackId));
+    }
+
+    @Override
+    public void endTracks() {
+      output.endTracks();
+    }
+
+    @Override
+    public void seekMap(SeekMap seekMap) {
+      output.seekMap(seekMap);
+    }
+
+    @Override
+    public void drmInitData(DrmInitData drmInitData) {
+      output.drmInitData(drmInitData);
+    }
+
+  }
+
+  /**
+   * Forwards to another {@link TrackOutput}, setting the duration of its format.
+   */
+  private final class DurationSettingTrackOutput implements TrackOutput {
+
+    private final TrackOutput output;
+
+    public DurationSettingTrackOutput(TrackOutput output) {
+      this.output = output;
+    }
+
+    @Override
+    public void format(MediaFormat format) {
+      output.format(
+          durationUs == C.UNKNOWN_TIME_US ? format : format.copyWithDurationUs(durationUs));
+    }
+
+    @Override
+    public int sampleData(ExtractorInput input, int length, boolean allowEndOfInput)
+        throws IOException, InterruptedException {
+      return output.sampleData(input, length, allowEndOfInput);
+    }
+
+    @Override
+    public void sampleData(ParsableByteArray data, int length) {
+      output.sampleData(data, length);
+    }
+
+    @Override
+    public void sampleMetadata(long timeUs, int flags, int size, int offset,
+        byte[] encryptionKey) {
+      output.sampleMetadata(timeUs, flags, size, offset, encryptionKey);
+    }
+
+  }
+
+}
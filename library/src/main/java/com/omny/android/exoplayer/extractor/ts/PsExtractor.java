@@ -27,7 +27,10 @@ import com.omny.android.exoplayer.util.ParsableByteArray;
 import java.io.IOException;
 
 /**
- * Facilitates the extraction of data from the MPEG-2 TS container format.
+ * Facilitates the extraction of data from the MPEG-2 PS container format.
+ * <p>
+ * Instances created with {@link #PsExtractor()} support seeking in streams of known length, using
+ * the system clock references that they carry.
  */
 public final class PsExtractor implements Extractor {
 
@@ -35,6 +38,7 @@ public final class PsExtractor implements Extractor {
   private static final int SYSTEM_HEADER_START_CODE = 0x000001BB;
   private static final int PACKET_START_CODE_PREFIX = 0x000001;
   private static final int MPEG_PROGRAM_END_CODE = 0x000001B9;
+  private static final int SEQUENCE_HEADER_START_CODE = 0x000001B3;
   private static final long MAX_SEARCH_LENGTH = 1024 * 1024;
 
   public static final int PRIVATE_STREAM_1 = 0xBD;
@@ -44,6 +48,7 @@ public final class PsExtractor implements Extractor {
   public static final int VIDEO_STREAM_MASK = 0xF0;
 
   private final PtsTimestampAdjuster ptsTimestampAdjuster;
+  private final ClockReferenceSeeker clockReferenceSeeker;
   private final SparseArray<PesReader> psPayloadReaders; // Indexed by pid
   private final ParsableByteArray psPacketBuffer;
   private boolean foundAllTracks;
@@ -54,11 +59,17 @@ public final class PsExtractor implements Extractor {
   private ExtractorOutput output;
 
   public PsExtractor() {
-    this(new PtsTimestampAdjuster(0));
+    this(new PtsTimestampAdjuster(0), true);
   }
 
   public PsExtractor(PtsTimestampAdjuster ptsTimestampAdjuster) {
+    this(ptsTimestampAdjuster, false);
+  }
+
+  private PsExtractor(PtsTimestampAdjuster ptsTimestampAdjuster, boolean seekable) {
     this.ptsTimestampAdjuster = ptsTimestampAdjuster;
+    clockReferenceSeeker = seekable
+        ? new ClockReferenceSeeker(new ScrReader(), ptsTimestampAdjuster) : null;
     psPacketBuffer = new ParsableByteArray(4096);
     psPayloadReaders = new SparseArray<>();
   }
@@ -106,13 +117,23 @@ public final class PsExtractor implements Extractor {
 
   @Override
   public void init(ExtractorOutput output) {
-    this.output = output;
-    output.seekMap(SeekMap.UNSEEKABLE);
+    if (clockReferenceSeeker != null) {
+      this.output = clockReferenceSeeker.wrapOutput(output);
+      output.seekMap(clockReferenceSeeker);
+    } else {
+      this.output = output;
+      output.seekMap(SeekMap.UNSEEKABLE);
+    }
   }
 
   @Override
   public void seek() {
-    ptsTimestampAdjuster.reset();
+    if (clockReferenceSeeker == null || !clockReferenceSeeker.isSeekable()) {
+      ptsTimestampAdjuster.reset();
+    }
+    if (clockReferenceSeeker != null) {
+      clockReferenceSeeker.seek();
+    }
     for (int i = 0; i < psPayloadReaders.size(); i++) {
       psPayloadReaders.valueAt(i).seek();
     }
@@ -126,6 +147,13 @@ public final class PsExtractor implements Extractor {
   @Override
   public int read(ExtractorInput input, PositionHolder seekPosition)
       throws IOException, InterruptedException {
+    if (clockReferenceSeeker != null && clockReferenceSeeker.isReading()) {
+      int result = clockReferenceSeeker.read(input, seekPosition);
+      if (result != RESULT_CONTINUE) {
+        return result;
+      }
+    }
+
     // First peek and check what type of start code is next.
     if (!input.peekFully(psPacketBuffer.data, 0, 4, true)) {
       return RESULT_END_OF_INPUT;
@@ -223,6 +251,73 @@ public final class PsExtractor implements Extractor {
 
   // Internals.
 
+  /**
+   * Returns the start code at {@code offset}, or 0 if there isn't one.
+   */
+  private static int readStartCode(byte[] data, int offset) {
+    if (data[offset] != 0 || data[offset + 1] != 0 || data[offset + 2] != 1) {
+      return 0;
+    }
+    return 0x00000100 | (data[offset + 3] & 0xFF);
+  }
+
+  /**
+   * Finds system clock references and random access points in MPEG-2 PS packs.
+   */
+  private static final class ScrReader implements ClockReferenceSeeker.ClockReferenceReader {
+
+    private static final int PACK_HEADER_SCR_LENGTH = 10;
+
+    @Override
+    public int findClockReference(byte[] data, int offset, int limit) {
+      for (int i = offset; i <= limit - PACK_HEADER_SCR_LENGTH; i++) {
+        if (isPackHeader(data, i)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    public long readClockReference(byte[] data, int offset) {
+      // Note: see ISO/IEC 13818-1, section 2.5.3.3 for the format of the pack header.
+      // '01' (2), system_clock_reference_base [32..30] (3), marker_bit (1),
+      // system_clock_reference_base [29..15] (15), marker_bit (1),
+      // system_clock_reference_base [14..0] (15), marker_bit (1)
+      long b4 = data[offset + 4] & 0xFF;
+      long b5 = data[offset + 5] & 0xFF;
+      long b6 = data[offset + 6] & 0xFF;
+      long b7 = data[offset + 7] & 0xFF;
+      long b8 = data[offset + 8] & 0xFF;
+      return ((b4 & 0x38) << 27) | ((b4 & 0x03) << 28) | (b5 << 20) | ((b6 & 0xF8) << 12)
+          | ((b6 & 0x03) << 13) | (b7 << 5) | (b8 >> 3);
+    }
+
+    @Override
+    public int findRandomAccessPoint(byte[] data, int limit, int maxOffset) {
+      // A random access point is the start of the pack in which a video sequence header starts.
+      int randomAccessPointOffset = -1;
+      int packOffset = -1;
+      for (int i = 0; i <= limit - PACK_HEADER_SCR_LENGTH; i++) {
+        if (isPackHeader(data, i)) {
+          if (i >= maxOffset) {
+            break;
+          }
+          packOffset = i;
+        } else if (packOffset != -1 && readStartCode(data, i) == SEQUENCE_HEADER_START_CODE) {
+          randomAccessPointOffset = packOffset;
+        }
+      }
+      return randomAccessPointOffset;
+    }
+
+    private static boolean isPackHeader(byte[] data, int offset) {
+      // MPEG-2 pack headers have '01' after the start code, and the first two marker bits set.
+      return readStartCode(data, offset) == PACK_START_CODE && (data[offset + 4] & 0xC4) == 0x44;
+    }
+
+  }
+
   /**
    * Parses PES packet data and extracts samples.
    */
@@ -16,6 +16,7 @@
 package com.omny.android.exoplayer.extractor.ts;
 
 import com.omny.android.exoplayer.C;
+import com.omny.android.exoplayer.util.Assertions;
 
 /**
  * Scales and adjusts MPEG-2 TS presentation timestamps, taking into account an initial offset and
@@ -32,7 +33,7 @@ public final class PtsTimestampAdjuster {
   /**
    * The value one greater than the largest representable (33 bit) presentation timestamp.
    */
-  private static final long MAX_PTS_PLUS_ONE = 0x200000000L;
+  /* package */ static final long MAX_PTS_PLUS_ONE = 0x200000000L;
 
   private final long firstSampleTimestampUs;
 
@@ -58,6 +59,19 @@ public final class PtsTimestampAdjuster {
     lastPts = Long.MIN_VALUE;
   }
 
+  /**
+   * Sets the presentation timestamp relative to which the wraparound of subsequent timestamps is
+   * resolved, without changing the offset applied to them. Used to keep timestamps continuous when
+   * seeking within a stream.
+   *
+   * @param pts An MPEG-2 TS presentation timestamp close to those that will follow. May exceed 33
+   *     bits if the stream has wrapped around since the first timestamp.
+   */
+  public void setLastPts(long pts) {
+    Assertions.checkState(isInitialized());
+    lastPts = pts;
+  }
+
   /**
    * Whether this adjuster has been initialized with a first MPEG-2 TS presentation timestamp.
    */
@@ -33,6 +33,9 @@ import java.io.IOException;
 
 /**
  * Facilitates the extraction of data from the MPEG-2 TS container format.
+ * <p>
+ * Instances created with {@link #TsExtractor()} support seeking in streams of known length, using
+ * the program clock references that they carry.
  */
 public final class TsExtractor implements Extractor {
 
@@ -44,6 +47,8 @@ public final class TsExtractor implements Extractor {
   private static final String TAG = "TsExtractor";
 
   private static final int TS_PACKET_SIZE = 188;
+  private static final int BUFFER_PACKET_COUNT = 64;
+  private static final int BUFFER_SIZE = TS_PACKET_SIZE * BUFFER_PACKET_COUNT;
   private static final int TS_SYNC_BYTE = 0x47; // First byte of each TS packet.
   private static final int TS_PAT_PID = 0;
 
@@ -66,17 +71,19 @@ public final class TsExtractor implements Extractor {
 
   private final PtsTimestampAdjuster ptsTimestampAdjuster;
   private final int workaroundFlags;
+  private final ClockReferenceSeeker clockReferenceSeeker;
   private final ParsableByteArray tsPacketBuffer;
-  private final ParsableBitArray tsScratch;
   /* package */ final SparseArray<TsPayloadReader> tsPayloadReaders; // Indexed by pid
   /* package */ final SparseBooleanArray streamTypes;
 
   // Accessed only by the loading thread.
   private ExtractorOutput output;
+  private int cachedPid;
+  private TsPayloadReader cachedPayloadReader;
   /* package */ Id3Reader id3Reader;
 
   public TsExtractor() {
-    this(new PtsTimestampAdjuster(0));
+    this(new PtsTimestampAdjuster(0), 0, true);
   }
 
   public TsExtractor(PtsTimestampAdjuster ptsTimestampAdjuster) {
@@ -84,13 +91,21 @@ public final class TsExtractor implements Extractor {
   }
 
   public TsExtractor(PtsTimestampAdjuster ptsTimestampAdjuster, int workaroundFlags) {
+    this(ptsTimestampAdjuster, workaroundFlags, false);
+  }
+
+  private TsExtractor(PtsTimestampAdjuster ptsTimestampAdjuster, int workaroundFlags,
+      boolean seekable) {
     this.ptsTimestampAdjuster = ptsTimestampAdjuster;
     this.workaroundFlags = workaroundFlags;
-    tsPacketBuffer = new ParsableByteArray(TS_PACKET_SIZE);
-    tsScratch = new ParsableBitArray(new byte[3]);
+    clockReferenceSeeker = seekable
+        ? new ClockReferenceSeeker(new PcrReader(), ptsTimestampAdjuster) : null;
+    tsPacketBuffer = new ParsableByteArray(BUFFER_SIZE);
+    tsPacketBuffer.reset();
     tsPayloadReaders = new SparseArray<>();
     tsPayloadReaders.put(TS_PAT_PID, new PatReader());
     streamTypes = new SparseBooleanArray();
+    cachedPid = -1;
   }
 
   // Extractor implementation.
@@ -110,13 +125,25 @@ public final class TsExtractor implements Extractor {
 
   @Override
   public void init(ExtractorOutput output) {
-    this.output = output;
-    output.seekMap(SeekMap.UNSEEKABLE);
+    if (clockReferenceSeeker != null) {
+      this.output = clockReferenceSeeker.wrapOutput(output);
+      output.seekMap(clockReferenceSeeker);
+    } else {
+      this.output = output;
+      output.seekMap(SeekMap.UNSEEKABLE);
+    }
   }
 
   @Override
   public void seek() {
-    ptsTimestampAdjuster.reset();
+    if (clockReferenceSeeker == null || !clockReferenceSeeker.isSeekable()) {
+      ptsTimestampAdjuster.reset();
+    }
+    if (clockReferenceSeeker != null) {
+      clockReferenceSeeker.seek();
+    }
+    // Any buffered data precedes the seek position.
+    tsPacketBuffer.reset();
     for (int i = 0; i < tsPayloadReaders.size(); i++) {
       tsPayloadReaders.valueAt(i).seek();
     }
@@ -130,48 +157,169 @@ public final class TsExtractor implements Extractor {
   @Override
   public int read(ExtractorInput input, PositionHolder seekPosition)
       throws IOException, InterruptedException {
-    if (!input.readFully(tsPacketBuffer.data, 0, TS_PACKET_SIZE, true)) {
-      return RESULT_END_OF_INPUT;
+    if (clockReferenceSeeker != null && clockReferenceSeeker.isReading()) {
+      int result = clockReferenceSeeker.read(input, seekPosition);
+      if (result != RESULT_CONTINUE) {
+        return result;
+      }
     }
 
-    // Note: see ISO/IEC 13818-1, section 2.4.3.2 for detailed information on the format of
-    // the header.
-    tsPacketBuffer.setPosition(0);
-    tsPacketBuffer.setLimit(TS_PACKET_SIZE);
-    int syncByte = tsPacketBuffer.readUnsignedByte();
-    if (syncByte != TS_SYNC_BYTE) {
-      return RESULT_CONTINUE;
+    byte[] data = tsPacketBuffer.data;
+    if (tsPacketBuffer.bytesLeft() < TS_PACKET_SIZE) {
+      // Move any partial packet to the start of the buffer, then fill as much of the buffer as a
+      // single read allows, so that many packets can be parsed per call.
+      int bytesLeft = tsPacketBuffer.bytesLeft();
+      if (bytesLeft > 0) {
+        System.arraycopy(data, tsPacketBuffer.getPosition(), data, 0, bytesLeft);
+      }
+      tsPacketBuffer.reset(data, bytesLeft);
+      while (tsPacketBuffer.bytesLeft() < TS_PACKET_SIZE) {
+        int limit = tsPacketBuffer.limit();
+        int bytesRead = input.read(data, limit, BUFFER_SIZE - limit);
+        if (bytesRead == C.RESULT_END_OF_INPUT) {
+          // Any trailing partial packet is discarded, so that it isn't prepended to the next input
+          // if the extractor is reused.
+          tsPacketBuffer.reset();
+          return RESULT_END_OF_INPUT;
+        }
+        tsPacketBuffer.setLimit(limit + bytesRead);
+      }
     }
 
-    tsPacketBuffer.readBytes(tsScratch, 3);
-    tsScratch.skipBits(1); // transport_error_indicator
-    boolean payloadUnitStartIndicator = tsScratch.readBit();
-    tsScratch.skipBits(1); // transport_priority
-    int pid = tsScratch.readBits(13);
-    tsScratch.skipBits(2); // transport_scrambling_control
-    boolean adaptationFieldExists = tsScratch.readBit();
-    boolean payloadExists = tsScratch.readBit();
-    // Last 4 bits of scratch are skipped: continuity_counter
-
-    // Skip the adaptation field.
-    if (adaptationFieldExists) {
-      int adaptationFieldLength = tsPacketBuffer.readUnsignedByte();
-      tsPacketBuffer.skipBytes(adaptationFieldLength);
-    }
+    int limit = tsPacketBuffer.limit();
+    int position = tsPacketBuffer.getPosition();
+    while (limit - position >= TS_PACKET_SIZE) {
+      if (data[position] != TS_SYNC_BYTE) {
+        position = findSyncBytePosition(data, position + 1, limit);
+        continue;
+      }
+      int packetEndPosition = position + TS_PACKET_SIZE;
+
+      // Note: see ISO/IEC 13818-1, section 2.4.3.2 for detailed information on the format of
+      // the header. transport_error_indicator, transport_priority, transport_scrambling_control
+      // and continuity_counter are ignored.
+      int headerByte1 = data[position + 1] & 0xFF;
+      int headerByte3 = data[position + 3] & 0xFF;
+      boolean payloadUnitStartIndicator = (headerByte1 & 0x40) != 0;
+      int pid = ((headerByte1 & 0x1F) << 8) | (data[position + 2] & 0xFF);
+      boolean adaptationFieldExists = (headerByte3 & 0x20) != 0;
+      boolean payloadExists = (headerByte3 & 0x10) != 0;
+
+      // Skip the adaptation field.
+      int payloadPosition = position + 4;
+      if (adaptationFieldExists) {
+        payloadPosition += 1 + (data[payloadPosition] & 0xFF);
+      }
 
-    // Read the payload.
-    if (payloadExists) {
-      TsPayloadReader payloadReader = tsPayloadReaders.get(pid);
-      if (payloadReader != null) {
-        payloadReader.consume(tsPacketBuffer, payloadUnitStartIndicator, output);
+      // Read the payload.
+      if (payloadExists && payloadPosition < packetEndPosition) {
+        TsPayloadReader payloadReader;
+        if (pid == cachedPid) {
+          payloadReader = cachedPayloadReader;
+        } else {
+          payloadReader = tsPayloadReaders.get(pid);
+          cachedPid = pid;
+          cachedPayloadReader = payloadReader;
+        }
+        if (payloadReader != null) {
+          tsPacketBuffer.setPosition(payloadPosition);
+          tsPacketBuffer.setLimit(packetEndPosition);
+          payloadReader.consume(tsPacketBuffer, payloadUnitStartIndicator, output);
+          tsPacketBuffer.setLimit(limit);
+          if (!(payloadReader instanceof PesReader)) {
+            // Program specific information may have added or replaced payload readers.
+            cachedPid = -1;
+          }
+        }
       }
+      position = packetEndPosition;
     }
-
+    tsPacketBuffer.setPosition(position);
     return RESULT_CONTINUE;
   }
 
+  /**
+   * Returns the position of the first likely packet start in {@code data}, at or after
+   * {@code position}. A sync byte is only accepted if it is also found one packet later, or if
+   * the buffered data ends before that point.
+   *
+   * @param data The buffered data.
+   * @param position The position from which to search.
+   * @param limit The limit of the buffered data.
+   * @return The position of the likely packet start, or {@code limit} if none was found.
+   */
+  private static int findSyncBytePosition(byte[] data, int position, int limit) {
+    for (; position < limit; position++) {
+      if (data[position] == TS_SYNC_BYTE) {
+        int nextPacketPosition = position + TS_PACKET_SIZE;
+        if (nextPacketPosition >= limit || data[nextPacketPosition] == TS_SYNC_BYTE) {
+          return position;
+        }
+      }
+    }
+    return limit;
+  }
+
   // Internals.
 
+  /**
+   * Finds program clock references and random access points in TS packets.
+   */
+  private static final class PcrReader implements ClockReferenceSeeker.ClockReferenceReader {
+
+    @Override
+    public int findClockReference(byte[] data, int offset, int limit) {
+      int position = findSyncBytePosition(data, offset, limit);
+      while (limit - position >= TS_PACKET_SIZE) {
+        if (data[position] != TS_SYNC_BYTE) {
+          position = findSyncBytePosition(data, position + 1, limit);
+          continue;
+        }
+        // Note: see ISO/IEC 13818-1, section 2.4.3.4 for the format of the adaptation field.
+        if ((data[position + 3] & 0x20) != 0 && (data[position + 4] & 0xFF) >= 7
+            && (data[position + 5] & 0x10) != 0) {
+          return position;
+        }
+        position += TS_PACKET_SIZE;
+      }
+      return -1;
+    }
+
+    @Override
+    public long readClockReference(byte[] data, int offset) {
+      // program_clock_reference_base (33 bits) follows the adaptation field flags.
+      return ((data[offset + 6] & 0xFFL) << 25) | ((data[offset + 7] & 0xFFL) << 17)
+          | ((data[offset + 8] & 0xFFL) << 9) | ((data[offset + 9] & 0xFFL) << 1)
+          | ((data[offset + 10] & 0xFFL) >> 7);
+    }
+
+    @Override
+    public int findRandomAccessPoint(byte[] data, int limit, int maxOffset) {
+      int randomAccessPointOffset = -1;
+      int position = findSyncBytePosition(data, 0, limit);
+      while (position < maxOffset && limit - position >= TS_PACKET_SIZE) {
+        if (data[position] != TS_SYNC_BYTE) {
+          position = findSyncBytePosition(data, position + 1, limit);
+          continue;
+        }
+        // A random access point is the start of a video PES packet whose TS packet has the
+        // random_access_indicator set.
+        int adaptationFieldLength = data[position + 4] & 0xFF;
+        int payloadPosition = position + 5 + adaptationFieldLength;
+        if ((data[position + 1] & 0x40) != 0 && (data[position + 3] & 0x30) == 0x30
+            && adaptationFieldLength > 0 && (data[position + 5] & 0x40) != 0
+            && payloadPosition + 4 <= position + TS_PACKET_SIZE
+            && data[payloadPosition] == 0 && data[payloadPosition + 1] == 0
+            && data[payloadPosition + 2] == 1 && (data[payloadPosition + 3] & 0xF0) == 0xE0) {
+          randomAccessPointOffset = position;
+        }
+        position += TS_PACKET_SIZE;
+      }
+      return randomAccessPointOffset;
+    }
+
+  }
+
   /**
    * Parses TS packet payload data.
    */
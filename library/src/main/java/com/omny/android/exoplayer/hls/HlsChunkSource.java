@@ -23,6 +23,7 @@ import android.util.Log;
 import com.omny.android.exoplayer.BehindLiveWindowException;
 import com.omny.android.exoplayer.C;
 import com.omny.android.exoplayer.MediaFormat;
+import com.omny.android.exoplayer.chunk.BufferBasedFormatSelector;
 import com.omny.android.exoplayer.chunk.Chunk;
 import com.omny.android.exoplayer.chunk.ChunkOperationHolder;
 import com.omny.android.exoplayer.chunk.DataChunk;
@@ -36,7 +37,6 @@ import com.omny.android.exoplayer.upstream.BandwidthMeter;
 import com.omny.android.exoplayer.upstream.DataSource;
 import com.omny.android.exoplayer.upstream.DataSpec;
 import com.omny.android.exoplayer.upstream.HttpDataSource.InvalidResponseCodeException;
-import com.omny.android.exoplayer.util.Assertions;
 import com.omny.android.exoplayer.util.MimeTypes;
 import com.omny.android.exoplayer.util.UriUtil;
 import com.omny.android.exoplayer.util.Util;
@@ -98,7 +98,6 @@ public class HlsChunkSource implements HlsTrackSelector.Output {
   private static final String MP3_FILE_EXTENSION = ".mp3";
   private static final String VTT_FILE_EXTENSION = ".vtt";
   private static final String WEBVTT_FILE_EXTENSION = ".webvtt";
-  private static final float BANDWIDTH_FRACTION = 0.8f;
 
   private final boolean isMaster;
   private final DataSource dataSource;
@@ -108,8 +107,7 @@ public class HlsChunkSource implements HlsTrackSelector.Output {
   private final BandwidthMeter bandwidthMeter;
   private final PtsTimestampAdjusterProvider timestampAdjusterProvider;
   private final String baseUri;
-  private final long minBufferDurationToSwitchUpUs;
-  private final long maxBufferDurationToSwitchDownUs;
+  private final HlsVariantSelector variantSelector;
 
   // TODO: Expose tracks.
   private final ArrayList<ExposedTrack> tracks;
@@ -123,6 +121,10 @@ public class HlsChunkSource implements HlsTrackSelector.Output {
   private HlsMediaPlaylist[] variantPlaylists;
   private long[] variantLastPlaylistLoadTimesMs;
   private long[] variantBlacklistTimes;
+  // The formats of the variants, and whether each variant is currently blacklisted, in the same
+  // order as variants.
+  private Format[] variantFormats;
+  private boolean[] variantBlacklisted;
 
   // The index in variants of the currently selected variant.
   private int selectedVariantIndex;
@@ -209,6 +211,41 @@ public class HlsChunkSource implements HlsTrackSelector.Output {
       PtsTimestampAdjusterProvider timestampAdjusterProvider,
       long minBufferDurationToSwitchUpMs, long maxBufferDurationToSwitchDownMs,
       Handler eventHandler, EventListener eventListener) {
+    this(isMaster, dataSource, playlist, trackSelector, bandwidthMeter, timestampAdjusterProvider,
+        minBufferDurationToSwitchUpMs, maxBufferDurationToSwitchDownMs, null, eventHandler,
+        eventListener);
+  }
+
+  /**
+   * @param isMaster True if this is the master source for the playback. False otherwise. Each
+   *     playback must have exactly one master source, which should be the source providing video
+   *     chunks (or audio chunks for audio only playbacks).
+   * @param dataSource A {@link DataSource} suitable for loading the media data.
+   * @param playlist The HLS playlist.
+   * @param trackSelector Selects tracks to be exposed by this source.
+   * @param bandwidthMeter Provides an estimate of the currently available bandwidth.
+   * @param timestampAdjusterProvider A provider of {@link PtsTimestampAdjuster} instances. If
+   *     multiple {@link HlsChunkSource}s are used for a single playback, they should all share the
+   *     same provider.
+   * @param minBufferDurationToSwitchUpMs The minimum duration of media that needs to be buffered
+   *     for a switch to a higher quality variant to be considered. Unused if
+   *     {@code formatSelector} is non-null.
+   * @param maxBufferDurationToSwitchDownMs The maximum duration of media that needs to be buffered
+   *     for a switch to a lower quality variant to be considered. Unused if
+   *     {@code formatSelector} is non-null.
+   * @param formatSelector An optional {@link BufferBasedFormatSelector}. If non-null, variants are
+   *     selected according to the duration of buffered media, in the same way as by
+   *     {@link com.omny.android.exoplayer.chunk.FormatEvaluator.BufferBasedEvaluator}.
+   * @param eventHandler A handler to use when delivering events to {@code eventListener}. May be
+   *     null if delivery of events is not required.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   */
+  public HlsChunkSource(boolean isMaster, DataSource dataSource, HlsPlaylist playlist,
+      HlsTrackSelector trackSelector, BandwidthMeter bandwidthMeter,
+      PtsTimestampAdjusterProvider timestampAdjusterProvider,
+      long minBufferDurationToSwitchUpMs, long maxBufferDurationToSwitchDownMs,
+      BufferBasedFormatSelector formatSelector, Handler eventHandler,
+      EventListener eventListener) {
     this.isMaster = isMaster;
     this.dataSource = dataSource;
     this.trackSelector = trackSelector;
@@ -216,8 +253,8 @@ public class HlsChunkSource implements HlsTrackSelector.Output {
     this.timestampAdjusterProvider = timestampAdjusterProvider;
     this.eventListener = eventListener;
     this.eventHandler = eventHandler;
-    minBufferDurationToSwitchUpUs = minBufferDurationToSwitchUpMs * 1000;
-    maxBufferDurationToSwitchDownUs = maxBufferDurationToSwitchDownMs * 1000;
+    variantSelector = new HlsVariantSelector(minBufferDurationToSwitchUpMs,
+        maxBufferDurationToSwitchDownMs, formatSelector);
     baseUri = playlist.baseUri;
     playlistParser = new HlsPlaylistParser();
     tracks = new ArrayList<>();
@@ -350,11 +387,17 @@ public class HlsChunkSource implements HlsTrackSelector.Output {
   public void selectTrack(int index) {
     selectedTrackIndex = index;
     ExposedTrack selectedTrack = tracks.get(selectedTrackIndex);
-    selectedVariantIndex = selectedTrack.defaultVariantIndex;
     variants = selectedTrack.variants;
     variantPlaylists = new HlsMediaPlaylist[variants.length];
     variantLastPlaylistLoadTimesMs = new long[variants.length];
     variantBlacklistTimes = new long[variants.length];
+    variantFormats = new Format[variants.length];
+    for (int i = 0; i < variants.length; i++) {
+      variantFormats[i] = variants[i].format;
+    }
+    variantBlacklisted = new boolean[variants.length];
+    selectedVariantIndex = variantSelector.selectInitialVariantIndex(variantFormats,
+        variantBlacklisted, selectedTrack.defaultVariantIndex, bandwidthMeter.getBitrateEstimate());
   }
 
   /**
@@ -722,56 +765,11 @@ public class HlsChunkSource implements HlsTrackSelector.Output {
 
   private int getNextVariantIndex(TsChunk previousTsChunk, long playbackPositionUs) {
     clearStaleBlacklistedVariants();
-    long bitrateEstimate = bandwidthMeter.getBitrateEstimate();
-    if (variantBlacklistTimes[selectedVariantIndex] != 0) {
-      // The current variant has been blacklisted, so we have no choice but to re-evaluate.
-      return getVariantIndexForBandwidth(bitrateEstimate);
-    }
-    if (previousTsChunk == null) {
-      // Don't consider switching if we don't have a previous chunk.
-      return selectedVariantIndex;
-    }
-    if (bitrateEstimate == BandwidthMeter.NO_ESTIMATE) {
-      // Don't consider switching if we don't have a bandwidth estimate.
-      return selectedVariantIndex;
-    }
-    int idealIndex = getVariantIndexForBandwidth(bitrateEstimate);
-    if (idealIndex == selectedVariantIndex) {
-      // We're already using the ideal variant.
-      return selectedVariantIndex;
-    }
-    // We're not using the ideal variant for the available bandwidth, but only switch if the
-    // conditions are appropriate.
-    long bufferedUs = previousTsChunk.getAdjustedEndTimeUs() - previousTsChunk.getDurationUs()
-        - playbackPositionUs;
-    if (variantBlacklistTimes[selectedVariantIndex] != 0
-        || (idealIndex > selectedVariantIndex && bufferedUs < maxBufferDurationToSwitchDownUs)
-        || (idealIndex < selectedVariantIndex && bufferedUs > minBufferDurationToSwitchUpUs)) {
-      // Switch variant.
-      return idealIndex;
-    }
-    // Stick with the current variant for now.
-    return selectedVariantIndex;
-  }
-
-  private int getVariantIndexForBandwidth(long bitrateEstimate) {
-    if (bitrateEstimate == BandwidthMeter.NO_ESTIMATE) {
-      // Select the lowest quality.
-      bitrateEstimate = 0;
-    }
-    int effectiveBitrate = (int) (bitrateEstimate * BANDWIDTH_FRACTION);
-    int lowestQualityEnabledVariantIndex = -1;
-    for (int i = 0; i < variants.length; i++) {
-      if (variantBlacklistTimes[i] == 0) {
-        if (variants[i].format.bitrate <= effectiveBitrate) {
-          return i;
-        }
-        lowestQualityEnabledVariantIndex = i;
-      }
-    }
-    // At least one variant should always be enabled.
-    Assertions.checkState(lowestQualityEnabledVariantIndex != -1);
-    return lowestQualityEnabledVariantIndex;
+    long bufferedUs = previousTsChunk == null ? C.UNKNOWN_TIME_US
+        : Math.max(0, previousTsChunk.getAdjustedEndTimeUs() - previousTsChunk.getDurationUs()
+            - playbackPositionUs);
+    return variantSelector.selectVariantIndex(variantFormats, variantBlacklisted,
+        selectedVariantIndex, bufferedUs, bandwidthMeter.getBitrateEstimate());
   }
 
   private boolean shouldRerequestLiveMediaPlaylist(int nextVariantIndex) {
@@ -845,6 +843,7 @@ public class HlsChunkSource implements HlsTrackSelector.Output {
           && currentTime - variantBlacklistTimes[i] > DEFAULT_PLAYLIST_BLACKLIST_MS) {
         variantBlacklistTimes[i] = 0;
       }
+      variantBlacklisted[i] = variantBlacklistTimes[i] != 0;
     }
   }
 
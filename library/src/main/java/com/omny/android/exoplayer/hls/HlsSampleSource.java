@@ -31,6 +31,7 @@ import com.omny.android.exoplayer.chunk.ChunkOperationHolder;
 import com.omny.android.exoplayer.chunk.Format;
 import com.omny.android.exoplayer.upstream.Loader;
 import com.omny.android.exoplayer.upstream.Loader.Loadable;
+import com.omny.android.exoplayer.upstream.LoaderThreadPool;
 import com.omny.android.exoplayer.util.Assertions;
 import com.omny.android.exoplayer.util.MimeTypes;
 
@@ -65,6 +66,7 @@ public final class HlsSampleSource implements SampleSource, SampleSourceReader,
   private final int minLoadableRetryCount;
   private final int bufferSizeContribution;
   private final ChunkOperationHolder chunkOperationHolder;
+  private final LoaderThreadPool loaderThreadPool;
 
   private final int eventSourceId;
   private final LoadControl loadControl;
@@ -123,7 +125,28 @@ public final class HlsSampleSource implements SampleSource, SampleSourceReader,
   public HlsSampleSource(HlsChunkSource chunkSource, LoadControl loadControl,
       int bufferSizeContribution, Handler eventHandler, EventListener eventListener,
       int eventSourceId, int minLoadableRetryCount) {
+    this(chunkSource, loadControl, bufferSizeContribution, eventHandler, eventListener,
+        eventSourceId, minLoadableRetryCount, null);
+  }
+
+  /**
+   * @param chunkSource A {@link HlsChunkSource} from which chunks to load are obtained.
+   * @param loadControl Controls when the source is permitted to load data.
+   * @param bufferSizeContribution The contribution of this source to the media buffer, in bytes.
+   * @param eventHandler A handler to use when delivering events to {@code eventListener}. May be
+   *     null if delivery of events is not required.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   * @param eventSourceId An identifier that gets passed to {@code eventListener} methods.
+   * @param minLoadableRetryCount The minimum number of times that the source should retry a load
+   *     before propagating an error.
+   * @param loaderThreadPool A {@link LoaderThreadPool} on which to load chunks, or null if the
+   *     source should load on its own thread.
+   */
+  public HlsSampleSource(HlsChunkSource chunkSource, LoadControl loadControl,
+      int bufferSizeContribution, Handler eventHandler, EventListener eventListener,
+      int eventSourceId, int minLoadableRetryCount, LoaderThreadPool loaderThreadPool) {
     this.chunkSource = chunkSource;
+    this.loaderThreadPool = loaderThreadPool;
     this.loadControl = loadControl;
     this.bufferSizeContribution = bufferSizeContribution;
     this.minLoadableRetryCount = minLoadableRetryCount;
@@ -166,7 +189,7 @@ public final class HlsSampleSource implements SampleSource, SampleSourceReader,
     }
     // We're not prepared and we haven't loaded what we need.
     if (loader == null) {
-      loader = new Loader("Loader:HLS");
+      loader = new Loader("Loader:HLS", loaderThreadPool);
       loadControl.register(this, bufferSizeContribution);
       loadControlRegistered = true;
     }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.hls;
+
+import com.omny.android.exoplayer.C;
+import com.omny.android.exoplayer.chunk.BufferBasedFormatSelector;
+import com.omny.android.exoplayer.chunk.Format;
+import com.omny.android.exoplayer.upstream.BandwidthMeter;
+
+/**
+ * Decides when {@link HlsChunkSource} switches between variants.
+ * <p>
+ * By default the selector switches to the highest quality variant that fits within a fraction of
+ * the estimated bandwidth, deferring switches up until enough media is buffered, and switches down
+ * until the buffer has drained. If a {@link BufferBasedFormatSelector} is provided then selection
+ * is delegated to it instead.
+ */
+public final class HlsVariantSelector {
+
+  private static final float BANDWIDTH_FRACTION = 0.8f;
+
+  private final long minBufferDurationToSwitchUpUs;
+  private final long maxBufferDurationToSwitchDownUs;
+  private final BufferBasedFormatSelector formatSelector;
+
+  /**
+   * @param minBufferDurationToSwitchUpMs The minimum duration of media that needs to be buffered
+   *     for a switch to a higher quality variant to be considered. Unused if
+   *     {@code formatSelector} is non-null.
+   * @param maxBufferDurationToSwitchDownMs The maximum duration of media that needs to be buffered
+   *     for a switch to a lower quality variant to be considered. Unused if
+   *     {@code formatSelector} is non-null.
+   * @param formatSelector An optional {@link BufferBasedFormatSelector} to which selection is
+   *     delegated.
+   */
+  public HlsVariantSelector(long minBufferDurationToSwitchUpMs,
+      long maxBufferDurationToSwitchDownMs, BufferBasedFormatSelector formatSelector) {
+    this.minBufferDurationToSwitchUpUs = minBufferDurationToSwitchUpMs * 1000;
+    this.maxBufferDurationToSwitchDownUs = maxBufferDurationToSwitchDownMs * 1000;
+    this.formatSelector = formatSelector;
+  }
+
+  /**
+   * Selects the variant from which the first chunk should be loaded.
+   * <p>
+   * The default variant is selected unless a bandwidth estimate is already available, for example
+   * because the {@link BandwidthMeter} was seeded from a {@link
+   * com.omny.android.exoplayer.upstream.BandwidthHistory}, in which case the variant is selected
+   * for the estimated bandwidth.
+   *
+   * @param formats The formats of the variants, ordered by decreasing bitrate.
+   * @param blacklisted Flags indicating variants that are blacklisted, in the same order as
+   *     {@code formats}. At least one variant must not be blacklisted.
+   * @param defaultIndex The index of the default variant.
+   * @param bitrateEstimate The estimated bandwidth in bits/sec, or
+   *     {@link BandwidthMeter#NO_ESTIMATE}.
+   * @return The index of the variant.
+   */
+  public int selectInitialVariantIndex(Format[] formats, boolean[] blacklisted, int defaultIndex,
+      long bitrateEstimate) {
+    if (bitrateEstimate == BandwidthMeter.NO_ESTIMATE && !blacklisted[defaultIndex]) {
+      return defaultIndex;
+    }
+    return getVariantIndexForBandwidth(formats, blacklisted, bitrateEstimate);
+  }
+
+  /**
+   * Selects the variant from which the next chunk should be loaded.
+   *
+   * @param formats The formats of the variants, ordered by decreasing bitrate.
+   * @param blacklisted Flags indicating variants that are blacklisted, in the same order as
+   *     {@code formats}. At least one variant must not be blacklisted.
+   * @param selectedIndex The index of the currently selected variant.
+   * @param bufferedUs The duration of media buffered ahead of the playback position, or
+   *     {@link C#UNKNOWN_TIME_US} if no chunk has been loaded from the selected variant.
+   * @param bitrateEstimate The estimated bandwidth in bits/sec, or
+   *     {@link BandwidthMeter#NO_ESTIMATE}.
+   * @return The index of the variant.
+   */
+  public int selectVariantIndex(Format[] formats, boolean[] blacklisted, int selectedIndex,
+      long bufferedUs, long bitrateEstimate) {
+    if (blacklisted[selectedIndex]) {
+      // The current variant has been blacklisted, so we have no choice but to re-evaluate.
+      return getVariantIndexForBandwidth(formats, blacklisted, bitrateEstimate);
+    }
+    if (bufferedUs == C.UNKNOWN_TIME_US) {
+      // Don't consider switching if we don't have a previous chunk.
+      return selectedIndex;
+    }
+    if (formatSelector != null) {
+      // Select based on the buffer, which doesn't require a bandwidth estimate.
+      return formatSelector.selectFormatIndex(formats, blacklisted, selectedIndex, bufferedUs,
+          bitrateEstimate);
+    }
+    if (bitrateEstimate == BandwidthMeter.NO_ESTIMATE) {
+      // Don't consider switching if we don't have a bandwidth estimate.
+      return selectedIndex;
+    }
+    int idealIndex = getVariantIndexForBandwidth(formats, blacklisted, bitrateEstimate);
+    if (idealIndex == selectedIndex) {
+      // We're already using the ideal variant.
+      return selectedIndex;
+    }
+    // We're not using the ideal variant for the available bandwidth, but only switch if the
+    // conditions are appropriate.
+    if ((idealIndex > selectedIndex && bufferedUs < maxBufferDurationToSwitchDownUs)
+        || (idealIndex < selectedIndex && bufferedUs > minBufferDurationToSwitchUpUs)) {
+      // Switch variant.
+      return idealIndex;
+    }
+    // Stick with the current variant for now.
+    return selectedIndex;
+  }
+
+  private static int getVariantIndexForBandwidth(Format[] formats, boolean[] blacklisted,
+      long bitrateEstimate) {
+    if (bitrateEstimate == BandwidthMeter.NO_ESTIMATE) {
+      // Select the lowest quality.
+      bitrateEstimate = 0;
+    }
+    int effectiveBitrate = (int) (bitrateEstimate * BANDWIDTH_FRACTION);
+    return BufferBasedFormatSelector.getFormatIndexForBitrate(formats, blacklisted,
+        effectiveBitrate);
+  }
+
+}
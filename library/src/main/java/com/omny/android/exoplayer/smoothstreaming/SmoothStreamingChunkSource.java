@@ -307,20 +307,21 @@ public class SmoothStreamingChunkSource implements ChunkSource,
       return;
     }
 
-    boolean isLastChunk = !currentManifest.isLive && chunkIndex == streamElement.chunkCount - 1;
-    long chunkStartTimeUs = streamElement.getStartTimeUs(chunkIndex);
-    long chunkEndTimeUs = isLastChunk ? -1
-        : chunkStartTimeUs + streamElement.getChunkDurationUs(chunkIndex);
-    int currentAbsoluteChunkIndex = chunkIndex + currentManifestChunkOffset;
+    out.chunk = newMediaChunk(streamElement, chunkIndex, selectedFormat, evaluation.trigger);
+  }
 
-    int manifestTrackIndex = getManifestTrackIndex(streamElement, selectedFormat);
-    int manifestTrackKey = getManifestTrackKey(enabledTrack.elementIndex, manifestTrackIndex);
-    Uri uri = streamElement.buildRequestUri(manifestTrackIndex, chunkIndex);
-    Chunk mediaChunk = newMediaChunk(selectedFormat, uri, null,
-        extractorWrappers.get(manifestTrackKey), drmInitData, dataSource, currentAbsoluteChunkIndex,
-        chunkStartTimeUs, chunkEndTimeUs, evaluation.trigger, mediaFormats.get(manifestTrackKey),
-        enabledTrack.adaptiveMaxWidth, enabledTrack.adaptiveMaxHeight);
-    out.chunk = mediaChunk;
+  @Override
+  public MediaChunk peekNextMediaChunk(List<? extends MediaChunk> queue) {
+    Format selectedFormat = evaluation.format;
+    if (fatalError != null || selectedFormat == null || queue.isEmpty()) {
+      return null;
+    }
+    StreamElement streamElement = currentManifest.streamElements[enabledTrack.elementIndex];
+    int chunkIndex = queue.get(queue.size() - 1).chunkIndex + 1 - currentManifestChunkOffset;
+    if (chunkIndex < 0 || chunkIndex >= streamElement.chunkCount) {
+      return null;
+    }
+    return newMediaChunk(streamElement, chunkIndex, selectedFormat, evaluation.trigger);
   }
 
   @Override
@@ -473,6 +474,23 @@ public class SmoothStreamingChunkSource implements ChunkSource,
     throw new IllegalStateException("Invalid format: " + format);
   }
 
+  private MediaChunk newMediaChunk(StreamElement streamElement, int chunkIndex, Format format,
+      int trigger) {
+    boolean isLastChunk = !currentManifest.isLive && chunkIndex == streamElement.chunkCount - 1;
+    long chunkStartTimeUs = streamElement.getStartTimeUs(chunkIndex);
+    long chunkEndTimeUs = isLastChunk ? -1
+        : chunkStartTimeUs + streamElement.getChunkDurationUs(chunkIndex);
+    int currentAbsoluteChunkIndex = chunkIndex + currentManifestChunkOffset;
+
+    int manifestTrackIndex = getManifestTrackIndex(streamElement, format);
+    int manifestTrackKey = getManifestTrackKey(enabledTrack.elementIndex, manifestTrackIndex);
+    Uri uri = streamElement.buildRequestUri(manifestTrackIndex, chunkIndex);
+    return newMediaChunk(format, uri, null, extractorWrappers.get(manifestTrackKey), drmInitData,
+        dataSource, currentAbsoluteChunkIndex, chunkStartTimeUs, chunkEndTimeUs, trigger,
+        mediaFormats.get(manifestTrackKey), enabledTrack.adaptiveMaxWidth,
+        enabledTrack.adaptiveMaxHeight);
+  }
+
   private static MediaChunk newMediaChunk(Format formatInfo, Uri uri, String cacheKey,
       ChunkExtractorWrapper extractorWrapper, DrmInitData drmInitData, DataSource dataSource,
       int chunkIndex, long chunkStartTimeUs, long chunkEndTimeUs, int trigger,
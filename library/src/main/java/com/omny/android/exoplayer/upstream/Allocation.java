@@ -15,6 +15,8 @@
  */
 package com.omny.android.exoplayer.upstream;
 
+import java.nio.ByteBuffer;
+
 /**
  * An allocation within a byte array.
  * <p>
@@ -29,6 +31,14 @@ public final class Allocation {
    */
   public final byte[] data;
 
+  /**
+   * A {@link ByteBuffer} whose content is shared with the allocated space in {@link #data}, or null
+   * if the allocation is not backed by a buffer. Index zero of the buffer corresponds to offset zero
+   * of the allocation. The position and limit of the buffer may only be modified by the thread
+   * that is consuming data from the allocation.
+   */
+  public final ByteBuffer buffer;
+
   private final int offset;
 
   /**
@@ -38,6 +48,17 @@ public final class Allocation {
   public Allocation(byte[] data, int offset) {
     this.data = data;
     this.offset = offset;
+    this.buffer = null;
+  }
+
+  /**
+   * @param buffer An array backed buffer whose content is the allocated space. Typically this is a
+   *     slice of a larger buffer.
+   */
+  public Allocation(ByteBuffer buffer) {
+    this.data = buffer.array();
+    this.offset = buffer.arrayOffset();
+    this.buffer = buffer;
   }
 
   /**
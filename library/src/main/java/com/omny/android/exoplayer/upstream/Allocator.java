@@ -62,7 +62,8 @@ public interface Allocator {
   void blockWhileTotalBytesAllocatedExceeds(int limit) throws InterruptedException;
 
   /**
-   * Returns the total number of bytes currently allocated.
+   * Returns the total number of bytes currently allocated. This is the sum of the lengths of all
+   * {@link Allocation}s that have been obtained and not yet returned.
    */
   int getTotalBytesAllocated();
 
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream;
+
+/**
+ * Estimates the available bandwidth from samples of completed transfers.
+ * <p>
+ * Samples are added on loading threads after each transfer, so implementations should not allocate
+ * when samples are added or when estimates are read.
+ */
+public interface BandwidthEstimator {
+
+  /**
+   * Adds a sample.
+   *
+   * @param bytes The number of bytes transferred.
+   * @param elapsedMs The duration of the transfer, in milliseconds. Always greater than zero.
+   * @param firstByteDelayMs The part of {@code elapsedMs} that elapsed before the first byte was
+   *     received, or 0 if unknown.
+   */
+  void addSample(long bytes, long elapsedMs, long firstByteDelayMs);
+
+  /**
+   * Adds a seed, for example a bandwidth recorded by a {@link BandwidthHistory}, so that an
+   * estimate is available before the first sample is added. The seed is given a small fixed weight,
+   * so that it's outweighed as soon as samples of real transfers are added.
+   *
+   * @param bitrate The seed in bits/sec.
+   */
+  void addSeed(long bitrate);
+
+  /**
+   * Returns the current estimate.
+   *
+   * @return The estimated bandwidth in bits/sec, or {@link BandwidthMeter#NO_ESTIMATE} if an
+   *     estimate is not available.
+   */
+  long getBitrateEstimate();
+
+  /**
+   * Discards all samples.
+   */
+  void reset();
+
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream;
+
+import android.util.Log;
+import com.omny.android.exoplayer.util.Assertions;
+import com.omny.android.exoplayer.util.Clock;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A persistent record of the bandwidth previously achieved on each of a number of networks, which
+ * can be used to seed a {@link DefaultBandwidthMeter} so that the first formats of a playback are
+ * selected for the bandwidth that's likely to be available, rather than for a fixed initial bitrate.
+ * <p>
+ * Networks are identified by caller supplied strings, for example the SSID of a Wi-Fi network or
+ * the operator of a mobile network. Estimates recorded for a network are averaged, with the weight
+ * of each estimate halving every {@code halfLifeMs}, and are forgotten once their total weight
+ * has decayed below that of a quarter of an estimate. Typical usage is:
+ * <pre>
+ *   bandwidthMeter.seedBitrateEstimate(history.getBitrateEstimate(networkId));
+ *   ...
+ *   // When the playback ends:
+ *   history.addEstimate(networkId, bandwidthMeter.getBitrateEstimate());
+ * </pre>
+ * The history is read from its file when constructed. It's written on a background thread after
+ * estimates are added, so that callers don't block on storage. Estimates added whilst a write is
+ * pending are written together. {@link #flush()} blocks until pending writes have finished.
+ */
+public final class BandwidthHistory {
+
+  /**
+   * The default time for which an estimate retains half of its weight.
+   */
+  public static final long DEFAULT_HALF_LIFE_MS = 24 * 60 * 60 * 1000;
+  /**
+   * The default maximum number of networks for which estimates are retained.
+   */
+  public static final int DEFAULT_MAX_NETWORK_COUNT = 32;
+
+  private static final String TAG = "BandwidthHistory";
+  private static final long WRITER_KEEP_ALIVE_MS = 1000;
+
+  private static final int VERSION = 1;
+  private static final double MIN_WEIGHT = 0.25;
+
+  private final File file;
+  private final long halfLifeMs;
+  private final Clock clock;
+  private final LinkedHashMap<String, Entry> entries;
+  private final ThreadPoolExecutor writerExecutor;
+  private final Runnable writeRunnable;
+
+  /** Guarded by this. */
+  private boolean writePending;
+
+  /**
+   * @param file The file in which the history is stored.
+   */
+  public BandwidthHistory(File file) {
+    this(file, DEFAULT_HALF_LIFE_MS, DEFAULT_MAX_NETWORK_COUNT);
+  }
+
+  /**
+   * @param file The file in which the history is stored.
+   * @param halfLifeMs The time for which an estimate retains half of its weight.
+   * @param maxNetworkCount The maximum number of networks for which estimates are retained. The
+   *     networks whose estimates were updated least recently are forgotten first.
+   */
+  public BandwidthHistory(File file, long halfLifeMs, int maxNetworkCount) {
+    this(file, halfLifeMs, maxNetworkCount, new Clock() {
+      @Override
+      public long elapsedRealtime() {
+        return System.currentTimeMillis();
+      }
+    });
+  }
+
+  /**
+   * @param file The file in which the history is stored.
+   * @param halfLifeMs The time for which an estimate retains half of its weight.
+   * @param maxNetworkCount The maximum number of networks for which estimates are retained.
+   * @param wallClock A clock that returns the wall clock time, which unlike the elapsed realtime
+   *     does not restart when the device reboots.
+   */
+  /* package */ BandwidthHistory(File file, long halfLifeMs, final int maxNetworkCount,
+      Clock wallClock) {
+    Assertions.checkArgument(halfLifeMs > 0 && maxNetworkCount > 0);
+    this.file = file;
+    this.halfLifeMs = halfLifeMs;
+    this.clock = wallClock;
+    entries = new LinkedHashMap<String, Entry>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > maxNetworkCount;
+      }
+    };
+    writerExecutor = new ThreadPoolExecutor(0, 1, WRITER_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            return new Thread(r, TAG);
+          }
+        });
+    writeRunnable = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          write(serialize());
+        } catch (IOException e) {
+          Log.w(TAG, "Failed to write history", e);
+        }
+      }
+    };
+    try {
+      read();
+    } catch (IOException e) {
+      entries.clear();
+      if (file.exists()) {
+        Log.w(TAG, "Discarding corrupt history", e);
+      }
+    }
+  }
+
+  /**
+   * Returns the bandwidth estimate for a network.
+   *
+   * @param networkId The identifier of the network.
+   * @return The estimate in bits/sec, or {@link BandwidthMeter#NO_ESTIMATE} if there's no
+   *     sufficiently recent estimate for the network.
+   */
+  public synchronized long getBitrateEstimate(String networkId) {
+    Entry entry = entries.get(networkId);
+    if (entry == null || getDecayedWeight(entry) < MIN_WEIGHT) {
+      return BandwidthMeter.NO_ESTIMATE;
+    }
+    return entry.bitrate;
+  }
+
+  /**
+   * Adds a bandwidth estimate for a network, and schedules the history to be written to its file.
+   *
+   * @param networkId The identifier of the network.
+   * @param bitrate The estimate in bits/sec. {@link BandwidthMeter#NO_ESTIMATE} is ignored.
+   */
+  public synchronized void addEstimate(String networkId, long bitrate) {
+    if (bitrate == BandwidthMeter.NO_ESTIMATE || bitrate <= 0) {
+      return;
+    }
+    Entry entry = entries.remove(networkId);
+    double decayedWeight = entry == null ? 0 : getDecayedWeight(entry);
+    double weight = decayedWeight + 1;
+    long averageBitrate = entry == null ? bitrate
+        : (long) ((entry.bitrate * decayedWeight + bitrate) / weight);
+    // Re-inserting the entry makes it the most recently updated.
+    entries.put(networkId, new Entry(averageBitrate, weight, clock.elapsedRealtime()));
+    if (!writePending) {
+      writePending = true;
+      writerExecutor.execute(writeRunnable);
+    }
+  }
+
+  /**
+   * Blocks until estimates that have been added are written to the file.
+   *
+   * @throws InterruptedException If the thread is interrupted whilst waiting.
+   */
+  public void flush() throws InterruptedException {
+    try {
+      // The writer thread runs tasks in order, so this no-op completes after any pending write.
+      writerExecutor.submit(new Runnable() {
+        @Override
+        public void run() {
+          // Do nothing.
+        }
+      }).get();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private double getDecayedWeight(Entry entry) {
+    // Estimates from the future, which exist if the clock was changed, are treated as current.
+    long ageMs = Math.max(0, clock.elapsedRealtime() - entry.updateTimeMs);
+    return entry.weight * Math.pow(0.5, (double) ageMs / halfLifeMs);
+  }
+
+  private void read() throws IOException {
+    if (!file.exists()) {
+      return;
+    }
+    InputStream fileInput = null;
+    try {
+      fileInput = new BufferedInputStream(new FileInputStream(file));
+      CheckedInputStream checkedInput = new CheckedInputStream(fileInput, new CRC32());
+      DataInputStream input = new DataInputStream(checkedInput);
+      if (input.readInt() != VERSION) {
+        throw new IOException("Unsupported history version");
+      }
+      int count = input.readInt();
+      for (int i = 0; i < count; i++) {
+        String networkId = input.readUTF();
+        long bitrate = input.readLong();
+        double weight = input.readDouble();
+        long updateTimeMs = input.readLong();
+        entries.put(networkId, new Entry(bitrate, weight, updateTimeMs));
+      }
+      long expectedChecksum = checkedInput.getChecksum().getValue();
+      if (input.readLong() != expectedChecksum) {
+        throw new IOException("History checksum mismatch");
+      }
+    } finally {
+      closeQuietly(fileInput);
+    }
+  }
+
+  /**
+   * Serializes the history, including a checksum, and clears {@link #writePending}.
+   */
+  private synchronized byte[] serialize() throws IOException {
+    writePending = false;
+    ByteArrayOutputStream byteOutput = new ByteArrayOutputStream();
+    CheckedOutputStream checkedOutput = new CheckedOutputStream(byteOutput, new CRC32());
+    DataOutputStream output = new DataOutputStream(checkedOutput);
+    output.writeInt(VERSION);
+    output.writeInt(entries.size());
+    for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+      Entry entry = mapEntry.getValue();
+      output.writeUTF(mapEntry.getKey());
+      output.writeLong(entry.bitrate);
+      output.writeDouble(entry.weight);
+      output.writeLong(entry.updateTimeMs);
+    }
+    output.writeLong(checkedOutput.getChecksum().getValue());
+    output.close();
+    return byteOutput.toByteArray();
+  }
+
+  private void write(byte[] data) throws IOException {
+    // Write to a temporary file and rename it, so that the history is never partially written.
+    File tempFile = new File(file.getPath() + ".tmp");
+    FileOutputStream fileOutput = null;
+    try {
+      fileOutput = new FileOutputStream(tempFile);
+      fileOutput.write(data);
+      fileOutput.getFD().sync();
+      fileOutput.close();
+      fileOutput = null;
+      if (!tempFile.renameTo(file)) {
+        throw new IOException("Failed to rename " + tempFile);
+      }
+    } catch (IOException e) {
+      closeQuietly(fileOutput);
+      tempFile.delete();
+      throw e;
+    }
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        // Ignore.
+      }
+    }
+  }
+
+  private static final class Entry {
+
+    public final long bitrate;
+    public final double weight;
+    public final long updateTimeMs;
+
+    public Entry(long bitrate, double weight, long updateTimeMs) {
+      this.bitrate = bitrate;
+      this.weight = weight;
+      this.updateTimeMs = updateTimeMs;
+    }
+
+  }
+
+}
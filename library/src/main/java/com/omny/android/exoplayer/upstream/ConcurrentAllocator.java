@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream;
+
+import com.omny.android.exoplayer.util.Assertions;
+import com.omny.android.exoplayer.util.Util;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link Allocator} intended for use when allocations are obtained and returned concurrently by
+ * several threads, for example when multiple loader threads write into buffers that are released
+ * by the playback thread.
+ * <p>
+ * Each thread caches available {@link Allocation}s in a thread local magazine of fixed capacity.
+ * {@link #allocate()} and {@link #release(Allocation)} only touch the calling thread's magazine in
+ * the common case. Full magazines are exchanged with the other threads through a lock-free global
+ * depot, so a thread that only releases allocations (e.g. the playback thread) hands them to threads
+ * that only allocate (e.g. loader threads) in batches. No lock is acquired unless a thread is
+ * blocked in {@link #blockWhileTotalBytesAllocatedExceeds(int)}.
+ * <p>
+ * {@link #trim(int)} discards available allocations held by the depot and by the calling thread's
+ * magazine. Allocations cached by the magazines of other threads are not discarded, but there are
+ * at most {@code magazineSize} of them per thread and they are reclaimed when the thread dies.
+ */
+public final class ConcurrentAllocator implements Allocator {
+
+  /**
+   * The default number of {@link Allocation}s held by each magazine.
+   */
+  public static final int DEFAULT_MAGAZINE_SIZE = 16;
+
+  private final int individualAllocationSize;
+  private final int magazineSize;
+  private final ThreadLocal<Magazine> localMagazine;
+  private final ConcurrentLinkedQueue<Allocation[]> fullMagazines;
+  private final ConcurrentLinkedQueue<Allocation[]> emptyMagazines;
+  private final AtomicInteger allocatedCount;
+  private final AtomicInteger depotCount;
+  private final Object waitLock;
+
+  private volatile int waiterCount;
+
+  /**
+   * Constructs an initially empty pool using {@link #DEFAULT_MAGAZINE_SIZE}.
+   *
+   * @param individualAllocationSize The length of each individual allocation.
+   */
+  public ConcurrentAllocator(int individualAllocationSize) {
+    this(individualAllocationSize, DEFAULT_MAGAZINE_SIZE);
+  }
+
+  /**
+   * Constructs an initially empty pool.
+   *
+   * @param individualAllocationSize The length of each individual allocation.
+   * @param magazineSize The maximum number of available allocations cached by each thread before
+   *     they are handed over to the global depot.
+   */
+  public ConcurrentAllocator(int individualAllocationSize, int magazineSize) {
+    Assertions.checkArgument(individualAllocationSize > 0);
+    Assertions.checkArgument(magazineSize > 0);
+    this.individualAllocationSize = individualAllocationSize;
+    this.magazineSize = magazineSize;
+    localMagazine = new ThreadLocal<Magazine>() {
+      @Override
+      protected Magazine initialValue() {
+        return new Magazine(ConcurrentAllocator.this.magazineSize);
+      }
+    };
+    fullMagazines = new ConcurrentLinkedQueue<>();
+    emptyMagazines = new ConcurrentLinkedQueue<>();
+    allocatedCount = new AtomicInteger();
+    depotCount = new AtomicInteger();
+    waitLock = new Object();
+  }
+
+  @Override
+  public Allocation allocate() {
+    allocatedCount.incrementAndGet();
+    Magazine magazine = localMagazine.get();
+    if (magazine.count == 0) {
+      Allocation[] fullMagazine = fullMagazines.poll();
+      if (fullMagazine == null) {
+        return new Allocation(new byte[individualAllocationSize], 0);
+      }
+      depotCount.addAndGet(-magazineSize);
+      emptyMagazines.offer(magazine.allocations);
+      magazine.allocations = fullMagazine;
+      magazine.count = magazineSize;
+    }
+    Allocation allocation = magazine.allocations[--magazine.count];
+    magazine.allocations[magazine.count] = null;
+    return allocation;
+  }
+
+  @Override
+  public void release(Allocation allocation) {
+    releaseToMagazine(localMagazine.get(), allocation);
+    allocatedCount.decrementAndGet();
+    maybeNotifyWaiters();
+  }
+
+  @Override
+  public void release(Allocation[] allocations) {
+    Magazine magazine = localMagazine.get();
+    for (Allocation allocation : allocations) {
+      releaseToMagazine(magazine, allocation);
+    }
+    allocatedCount.addAndGet(-allocations.length);
+    maybeNotifyWaiters();
+  }
+
+  @Override
+  public void trim(int targetSize) {
+    int targetAllocationCount = Util.ceilDivide(targetSize, individualAllocationSize);
+    int targetAvailableCount = Math.max(0, targetAllocationCount - allocatedCount.get());
+    Magazine magazine = localMagazine.get();
+    int excessCount = depotCount.get() + magazine.count - targetAvailableCount;
+    if (excessCount <= 0) {
+      // We're already at or below the target.
+      return;
+    }
+
+    // Discard allocations cached by the calling thread first, since doing so doesn't require
+    // synchronization with other threads.
+    int discardCount = Math.min(excessCount, magazine.count);
+    Arrays.fill(magazine.allocations, magazine.count - discardCount, magazine.count, null);
+    magazine.count -= discardCount;
+    excessCount -= discardCount;
+
+    // Discard whole magazines from the depot.
+    while (excessCount > 0) {
+      Allocation[] fullMagazine = fullMagazines.poll();
+      if (fullMagazine == null) {
+        break;
+      }
+      depotCount.addAndGet(-magazineSize);
+      excessCount -= magazineSize;
+    }
+  }
+
+  @Override
+  public int getTotalBytesAllocated() {
+    return allocatedCount.get() * individualAllocationSize;
+  }
+
+  @Override
+  public void blockWhileTotalBytesAllocatedExceeds(int limit) throws InterruptedException {
+    synchronized (waitLock) {
+      waiterCount++;
+      try {
+        while (getTotalBytesAllocated() > limit) {
+          waitLock.wait();
+        }
+      } finally {
+        waiterCount--;
+      }
+    }
+  }
+
+  @Override
+  public int getIndividualAllocationLength() {
+    return individualAllocationSize;
+  }
+
+  private void releaseToMagazine(Magazine magazine, Allocation allocation) {
+    // Weak sanity check that the allocation probably originated from this pool.
+    Assertions.checkArgument(allocation.data.length == individualAllocationSize);
+    if (magazine.count == magazineSize) {
+      // Hand the full magazine over to the depot, and continue with an empty one.
+      fullMagazines.offer(magazine.allocations);
+      depotCount.addAndGet(magazineSize);
+      Allocation[] emptyMagazine = emptyMagazines.poll();
+      magazine.allocations = emptyMagazine != null ? emptyMagazine : new Allocation[magazineSize];
+      magazine.count = 0;
+    }
+    magazine.allocations[magazine.count++] = allocation;
+  }
+
+  private void maybeNotifyWaiters() {
+    // The allocated count is always updated before waiterCount is read, and waiters increment
+    // waiterCount before reading the allocated count, so a wakeup cannot be missed.
+    if (waiterCount > 0) {
+      synchronized (waitLock) {
+        waitLock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * A thread local cache of available {@link Allocation}s.
+   */
+  private static final class Magazine {
+
+    public Allocation[] allocations;
+    public int count;
+
+    public Magazine(int magazineSize) {
+      allocations = new Allocation[magazineSize];
+    }
+
+  }
+
+}
@@ -18,24 +18,30 @@ package com.omny.android.exoplayer.upstream;
 import android.os.Handler;
 import com.omny.android.exoplayer.util.Assertions;
 import com.omny.android.exoplayer.util.Clock;
-import com.omny.android.exoplayer.util.SlidingPercentile;
 import com.omny.android.exoplayer.util.SystemClock;
 
 /**
  * Counts transferred bytes while transfers are open and creates a bandwidth sample and updated
  * bandwidth estimate each time a transfer ends.
+ * <p>
+ * Samples are passed to a {@link BandwidthEstimator}, which by default is a
+ * {@link SlidingPercentileBandwidthEstimator}. If a sample begins with the start of a transfer,
+ * the time until its first byte was transferred is passed to the estimator too.
  */
 public final class DefaultBandwidthMeter implements BandwidthMeter {
 
-  public static final int DEFAULT_MAX_WEIGHT = 2000;
+  public static final int DEFAULT_MAX_WEIGHT =
+      SlidingPercentileBandwidthEstimator.DEFAULT_MAX_WEIGHT;
 
   private final Handler eventHandler;
   private final EventListener eventListener;
   private final Clock clock;
-  private final SlidingPercentile slidingPercentile;
+  private final BandwidthEstimator bandwidthEstimator;
 
   private long bytesAccumulator;
   private long startTimeMs;
+  private long firstByteDelayMs;
+  private boolean awaitingFirstByte;
   private long bitrateEstimate;
   private int streamCount;
 
@@ -57,13 +63,43 @@ public final class DefaultBandwidthMeter implements BandwidthMeter {
 
   public DefaultBandwidthMeter(Handler eventHandler, EventListener eventListener, Clock clock,
       int maxWeight) {
+    this(eventHandler, eventListener, clock, new SlidingPercentileBandwidthEstimator(maxWeight,
+        SlidingPercentileBandwidthEstimator.DEFAULT_MAX_SAMPLE_COUNT,
+        SlidingPercentileBandwidthEstimator.DEFAULT_PERCENTILE));
+  }
+
+  public DefaultBandwidthMeter(Handler eventHandler, EventListener eventListener,
+      BandwidthEstimator bandwidthEstimator) {
+    this(eventHandler, eventListener, new SystemClock(), bandwidthEstimator);
+  }
+
+  public DefaultBandwidthMeter(Handler eventHandler, EventListener eventListener, Clock clock,
+      BandwidthEstimator bandwidthEstimator) {
     this.eventHandler = eventHandler;
     this.eventListener = eventListener;
     this.clock = clock;
-    this.slidingPercentile = new SlidingPercentile(maxWeight);
+    this.bandwidthEstimator = Assertions.checkNotNull(bandwidthEstimator);
     bitrateEstimate = NO_ESTIMATE;
   }
 
+  /**
+   * Seeds the bandwidth estimate, for example from a {@link BandwidthHistory}, so that an estimate
+   * is available before the first transfer ends.
+   * <p>
+   * The seed is passed to {@link BandwidthEstimator#addSeed(long)}, which gives it a small fixed
+   * weight so that it's outweighed by the first samples of real transfers. Does nothing if the
+   * meter already has an estimate.
+   *
+   * @param bitrate The seed in bits/sec. {@link #NO_ESTIMATE} is ignored.
+   */
+  public synchronized void seedBitrateEstimate(long bitrate) {
+    if (bitrate == NO_ESTIMATE || bitrate <= 0 || bitrateEstimate != NO_ESTIMATE) {
+      return;
+    }
+    bandwidthEstimator.addSeed(bitrate);
+    bitrateEstimate = bandwidthEstimator.getBitrateEstimate();
+  }
+
   @Override
   public synchronized long getBitrateEstimate() {
     return bitrateEstimate;
@@ -73,12 +109,17 @@ public final class DefaultBandwidthMeter implements BandwidthMeter {
   public synchronized void onTransferStart() {
     if (streamCount == 0) {
       startTimeMs = clock.elapsedRealtime();
+      awaitingFirstByte = true;
     }
     streamCount++;
   }
 
   @Override
   public synchronized void onBytesTransferred(int bytes) {
+    if (awaitingFirstByte && bytes > 0) {
+      firstByteDelayMs = clock.elapsedRealtime() - startTimeMs;
+      awaitingFirstByte = false;
+    }
     bytesAccumulator += bytes;
   }
 
@@ -88,17 +129,18 @@ public final class DefaultBandwidthMeter implements BandwidthMeter {
     long nowMs = clock.elapsedRealtime();
     int elapsedMs = (int) (nowMs - startTimeMs);
     if (elapsedMs > 0) {
-      float bitsPerSecond = (bytesAccumulator * 8000) / elapsedMs;
-      slidingPercentile.addSample((int) Math.sqrt(bytesAccumulator), bitsPerSecond);
-      float bandwidthEstimateFloat = slidingPercentile.getPercentile(0.5f);
-      bitrateEstimate = Float.isNaN(bandwidthEstimateFloat) ? NO_ESTIMATE
-          : (long) bandwidthEstimateFloat;
+      bandwidthEstimator.addSample(bytesAccumulator, elapsedMs,
+          awaitingFirstByte ? elapsedMs : firstByteDelayMs);
+      bitrateEstimate = bandwidthEstimator.getBitrateEstimate();
       notifyBandwidthSample(elapsedMs, bytesAccumulator, bitrateEstimate);
     }
     streamCount--;
     if (streamCount > 0) {
+      // The next sample begins part way through the remaining transfers, so has no latency.
       startTimeMs = nowMs;
     }
+    firstByteDelayMs = 0;
+    awaitingFirstByte = false;
     bytesAccumulator = 0;
   }
 
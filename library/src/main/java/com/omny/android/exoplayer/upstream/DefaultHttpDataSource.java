@@ -45,6 +45,20 @@ import java.util.regex.Pattern;
  * HTTP to HTTPS or vice versa). Cross-protocol redirects can be enabled by using the
  * {@link #DefaultHttpDataSource(String, Predicate, TransferListener, int, int, boolean)}
  * constructor and passing {@code true} as the final argument.
+ * <p>
+ * By default the connection is disconnected when the source is closed. If connection reuse is
+ * enabled, a connection whose response has been read in full is instead released to the
+ * platform's connection pool, which keeps it alive for subsequent requests to the same host. This
+ * avoids a new TCP (and TLS) handshake for each of the many small requests made during playback.
+ * A small amount of unread response data is drained to make this possible.
+ * <p>
+ * If a server ignores the {@code Range} header of a request for data starting from a non-zero
+ * position, the data before that position is read and discarded. To avoid downloading a large
+ * amount of data when seeking into a large resource, a limit can be placed on the number of bytes
+ * that may be discarded in this way. If the response advertises range support (i.e. it has an
+ * {@code Accept-Ranges: bytes} header) the request is retried against the resolved URL, and
+ * otherwise a {@link HttpDataSource.RangeNotSupportedException} is thrown so that the caller can
+ * fall back to an alternative.
  */
 public class DefaultHttpDataSource implements HttpDataSource {
 
@@ -56,8 +70,14 @@ public class DefaultHttpDataSource implements HttpDataSource {
    * The default read timeout, in milliseconds.
    */
   public static final int DEFAULT_READ_TIMEOUT_MILLIS = 8 * 1000;
+  /**
+   * A suggested limit on the number of bytes to read and discard when a server ignores a range
+   * request, in bytes.
+   */
+  public static final long DEFAULT_MAX_BYTES_TO_SKIP = 1024 * 1024;
 
   private static final int MAX_REDIRECTS = 20; // Same limit as okhttp.
+  private static final int MAX_BYTES_TO_DRAIN = 16 * 1024;
   private static final String TAG = "DefaultHttpDataSource";
   private static final Pattern CONTENT_RANGE_HEADER =
       Pattern.compile("^bytes (\\d+)-(\\d+)/(\\d+)$");
@@ -70,6 +90,9 @@ public class DefaultHttpDataSource implements HttpDataSource {
   private final Predicate<String> contentTypePredicate;
   private final HashMap<String, String> requestProperties;
   private final TransferListener listener;
+  private final boolean reuseConnections;
+  private final HttpConnectionStats connectionStats;
+  private final long maxBytesToSkip;
 
   private DataSpec dataSpec;
   private HttpURLConnection connection;
@@ -138,6 +161,61 @@ public class DefaultHttpDataSource implements HttpDataSource {
   public DefaultHttpDataSource(String userAgent, Predicate<String> contentTypePredicate,
       TransferListener listener, int connectTimeoutMillis, int readTimeoutMillis,
       boolean allowCrossProtocolRedirects) {
+    this(userAgent, contentTypePredicate, listener, connectTimeoutMillis, readTimeoutMillis,
+        allowCrossProtocolRedirects, false, null);
+  }
+
+  /**
+   * @param userAgent The User-Agent string that should be used.
+   * @param contentTypePredicate An optional {@link Predicate}. If a content type is
+   *     rejected by the predicate then a {@link HttpDataSource.InvalidContentTypeException} is
+   *     thrown from {@link #open(DataSpec)}.
+   * @param listener An optional listener.
+   * @param connectTimeoutMillis The connection timeout, in milliseconds. A timeout of zero is
+   *     interpreted as an infinite timeout. Pass {@link #DEFAULT_CONNECT_TIMEOUT_MILLIS} to use
+   *     the default value.
+   * @param readTimeoutMillis The read timeout, in milliseconds. A timeout of zero is interpreted
+   *     as an infinite timeout. Pass {@link #DEFAULT_READ_TIMEOUT_MILLIS} to use the default value.
+   * @param allowCrossProtocolRedirects Whether cross-protocol redirects (i.e. redirects from HTTP
+   *     to HTTPS and vice versa) are enabled.
+   * @param reuseConnections Whether connections should be released for reuse when the source is
+   *     closed, rather than being disconnected.
+   * @param connectionStats An optional {@link HttpConnectionStats} to which statistics about the
+   *     source's connections should be reported.
+   */
+  public DefaultHttpDataSource(String userAgent, Predicate<String> contentTypePredicate,
+      TransferListener listener, int connectTimeoutMillis, int readTimeoutMillis,
+      boolean allowCrossProtocolRedirects, boolean reuseConnections,
+      HttpConnectionStats connectionStats) {
+    this(userAgent, contentTypePredicate, listener, connectTimeoutMillis, readTimeoutMillis,
+        allowCrossProtocolRedirects, reuseConnections, connectionStats, C.LENGTH_UNBOUNDED);
+  }
+
+  /**
+   * @param userAgent The User-Agent string that should be used.
+   * @param contentTypePredicate An optional {@link Predicate}. If a content type is
+   *     rejected by the predicate then a {@link HttpDataSource.InvalidContentTypeException} is
+   *     thrown from {@link #open(DataSpec)}.
+   * @param listener An optional listener.
+   * @param connectTimeoutMillis The connection timeout, in milliseconds. A timeout of zero is
+   *     interpreted as an infinite timeout. Pass {@link #DEFAULT_CONNECT_TIMEOUT_MILLIS} to use
+   *     the default value.
+   * @param readTimeoutMillis The read timeout, in milliseconds. A timeout of zero is interpreted
+   *     as an infinite timeout. Pass {@link #DEFAULT_READ_TIMEOUT_MILLIS} to use the default value.
+   * @param allowCrossProtocolRedirects Whether cross-protocol redirects (i.e. redirects from HTTP
+   *     to HTTPS and vice versa) are enabled.
+   * @param reuseConnections Whether connections should be released for reuse when the source is
+   *     closed, rather than being disconnected.
+   * @param connectionStats An optional {@link HttpConnectionStats} to which statistics about the
+   *     source's connections should be reported.
+   * @param maxBytesToSkip The maximum number of bytes to read and discard if a server ignores a
+   *     range request, or {@link C#LENGTH_UNBOUNDED} if there is no limit. Pass
+   *     {@link #DEFAULT_MAX_BYTES_TO_SKIP} to use the suggested value.
+   */
+  public DefaultHttpDataSource(String userAgent, Predicate<String> contentTypePredicate,
+      TransferListener listener, int connectTimeoutMillis, int readTimeoutMillis,
+      boolean allowCrossProtocolRedirects, boolean reuseConnections,
+      HttpConnectionStats connectionStats, long maxBytesToSkip) {
     this.userAgent = Assertions.checkNotEmpty(userAgent);
     this.contentTypePredicate = contentTypePredicate;
     this.listener = listener;
@@ -145,6 +223,9 @@ public class DefaultHttpDataSource implements HttpDataSource {
     this.connectTimeoutMillis = connectTimeoutMillis;
     this.readTimeoutMillis = readTimeoutMillis;
     this.allowCrossProtocolRedirects = allowCrossProtocolRedirects;
+    this.reuseConnections = reuseConnections;
+    this.connectionStats = connectionStats;
+    this.maxBytesToSkip = maxBytesToSkip;
   }
 
   @Override
@@ -186,12 +267,14 @@ public class DefaultHttpDataSource implements HttpDataSource {
     this.dataSpec = dataSpec;
     this.bytesRead = 0;
     this.bytesSkipped = 0;
+    long startTimeNs = System.nanoTime();
     try {
       connection = makeConnection(dataSpec);
     } catch (IOException e) {
       throw new HttpDataSourceException("Unable to connect to " + dataSpec.uri.toString(), e,
           dataSpec, HttpDataSourceException.TYPE_OPEN);
     }
+    long connectedTimeNs = System.nanoTime();
 
     int responseCode;
     try {
@@ -201,6 +284,28 @@ public class DefaultHttpDataSource implements HttpDataSource {
       throw new HttpDataSourceException("Unable to connect to " + dataSpec.uri.toString(), e,
           dataSpec, HttpDataSourceException.TYPE_OPEN);
     }
+    if (connectionStats != null) {
+      connectionStats.onResponse((connectedTimeNs - startTimeNs) / 1000,
+          (System.nanoTime() - startTimeNs) / 1000);
+    }
+
+    // If the server ignored the range, but claims to support ranges, then the range may have been
+    // dropped by an intermediary (e.g. during a redirect). Retry once against the resolved URL
+    // rather than discarding a large amount of data.
+    if (responseCode == 200 && exceedsMaxBytesToSkip(dataSpec.position)
+        && dataSpec.postBody == null && isRangeAdvertised(connection)) {
+      URL resolvedUrl = connection.getURL();
+      closeConnectionQuietly();
+      try {
+        connection = makeConnection(resolvedUrl, null, dataSpec.position, dataSpec.length,
+            (dataSpec.flags & DataSpec.FLAG_ALLOW_GZIP) != 0, !allowCrossProtocolRedirects);
+        responseCode = connection.getResponseCode();
+      } catch (IOException e) {
+        closeConnectionQuietly();
+        throw new HttpDataSourceException("Unable to connect to " + dataSpec.uri.toString(), e,
+            dataSpec, HttpDataSourceException.TYPE_OPEN);
+      }
+    }
 
     // Check for a valid response code.
     if (responseCode < 200 || responseCode > 299) {
@@ -220,6 +325,10 @@ public class DefaultHttpDataSource implements HttpDataSource {
     // 206, then the server does not support partial requests. We'll need to manually skip to the
     // requested position.
     bytesToSkip = responseCode == 200 && dataSpec.position != 0 ? dataSpec.position : 0;
+    if (exceedsMaxBytesToSkip(bytesToSkip)) {
+      closeConnectionQuietly();
+      throw new RangeNotSupportedException(bytesToSkip, dataSpec);
+    }
 
     // Determine the length of the data to be read, after skipping.
     if ((dataSpec.flags & DataSpec.FLAG_ALLOW_GZIP) == 0) {
@@ -262,18 +371,31 @@ public class DefaultHttpDataSource implements HttpDataSource {
 
   @Override
   public void close() throws HttpDataSourceException {
+    boolean releaseConnection = false;
     try {
       if (inputStream != null) {
-        Util.maybeTerminateInputStream(connection, bytesRemaining());
+        releaseConnection = reuseConnections && drainForReuse();
+        if (!releaseConnection) {
+          Util.maybeTerminateInputStream(connection, bytesRemaining());
+        }
         try {
           inputStream.close();
         } catch (IOException e) {
+          releaseConnection = false;
           throw new HttpDataSourceException(e, dataSpec, HttpDataSourceException.TYPE_CLOSE);
         }
       }
     } finally {
       inputStream = null;
-      closeConnectionQuietly();
+      if (releaseConnection) {
+        // Closing the fully read input stream has returned the connection to the pool.
+        connection = null;
+        if (connectionStats != null) {
+          connectionStats.onConnectionReleased();
+        }
+      } else {
+        closeConnectionQuietly();
+      }
       if (opened) {
         opened = false;
         if (listener != null) {
@@ -488,6 +610,22 @@ public class DefaultHttpDataSource implements HttpDataSource {
     return contentLength;
   }
 
+  /**
+   * Returns whether skipping the specified number of bytes by reading and discarding them would
+   * exceed {@link #maxBytesToSkip}.
+   */
+  private boolean exceedsMaxBytesToSkip(long bytesToSkip) {
+    return maxBytesToSkip != C.LENGTH_UNBOUNDED && bytesToSkip > maxBytesToSkip;
+  }
+
+  /**
+   * Returns whether the response advertises support for byte range requests.
+   */
+  private static boolean isRangeAdvertised(HttpURLConnection connection) {
+    String acceptRangesHeader = connection.getHeaderField("Accept-Ranges");
+    return acceptRangesHeader != null && acceptRangesHeader.trim().equalsIgnoreCase("bytes");
+  }
+
   /**
    * Skips any bytes that need skipping. Else does nothing.
    * <p>
@@ -564,11 +702,53 @@ public class DefaultHttpDataSource implements HttpDataSource {
     return read;
   }
 
+  /**
+   * Reads and discards the remainder of the response, provided that it's small, so that the
+   * connection can be reused.
+   *
+   * @return Whether the end of the response was reached.
+   */
+  private boolean drainForReuse() {
+    if (Thread.currentThread().isInterrupted()) {
+      return false;
+    }
+    long bytesRemaining = bytesRemaining();
+    if (bytesRemaining != C.LENGTH_UNBOUNDED
+        && bytesRemaining + (bytesToSkip - bytesSkipped) > MAX_BYTES_TO_DRAIN) {
+      return false;
+    }
+    byte[] drainBuffer = skipBufferReference.getAndSet(null);
+    if (drainBuffer == null) {
+      drainBuffer = new byte[4096];
+    }
+    try {
+      long bytesDrained = 0;
+      while (bytesDrained <= MAX_BYTES_TO_DRAIN) {
+        int read = inputStream.read(drainBuffer, 0, drainBuffer.length);
+        if (read == -1) {
+          return true;
+        }
+        bytesDrained += read;
+        if (listener != null) {
+          listener.onBytesTransferred(read);
+        }
+      }
+      return false;
+    } catch (IOException e) {
+      return false;
+    } finally {
+      skipBufferReference.set(drainBuffer);
+    }
+  }
+
   /**
    * Closes the current connection quietly, if there is one.
    */
   private void closeConnectionQuietly() {
     if (connection != null) {
+      if (connectionStats != null) {
+        connectionStats.onConnectionDiscarded();
+      }
       try {
         connection.disconnect();
       } catch (Exception e) {
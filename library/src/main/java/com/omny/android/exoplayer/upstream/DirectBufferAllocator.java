@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream;
+
+import com.omny.android.exoplayer.util.Assertions;
+import com.omny.android.exoplayer.util.Util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An {@link Allocator} whose {@link Allocation}s are slices of pooled direct {@link ByteBuffer}
+ * slabs, exposed through {@link Allocation#buffer}.
+ * <p>
+ * Sample data held in such allocations can be transferred into direct buffers (e.g. decoder input
+ * buffers) with bulk buffer to buffer copies, and the backing memory is obtained in large slabs
+ * rather than as one array per allocation. On Android runtimes direct buffers are backed by
+ * non-movable arrays, which are also exposed through {@link Allocation#data} so that upstream
+ * components can continue to write into allocations. If the platform's direct buffers are not
+ * array backed then heap buffers are used instead, in which case allocations behave as though they
+ * had been obtained from {@link DefaultAllocator}.
+ * <p>
+ * The memory backing a slab is reclaimed once {@link #trim(int)} has discarded all of the
+ * allocations carved from it.
+ */
+public final class DirectBufferAllocator implements Allocator {
+
+  /**
+   * The default number of allocations carved from each slab.
+   */
+  public static final int DEFAULT_ALLOCATIONS_PER_SLAB = 16;
+
+  private static final int AVAILABLE_EXTRA_CAPACITY = 100;
+
+  private final int individualAllocationSize;
+  private final int allocationsPerSlab;
+
+  private int allocatedCount;
+  private int availableCount;
+  private Allocation[] availableAllocations;
+
+  /**
+   * Constructs an initially empty pool using {@link #DEFAULT_ALLOCATIONS_PER_SLAB}.
+   *
+   * @param individualAllocationSize The length of each individual allocation.
+   */
+  public DirectBufferAllocator(int individualAllocationSize) {
+    this(individualAllocationSize, DEFAULT_ALLOCATIONS_PER_SLAB);
+  }
+
+  /**
+   * Constructs an initially empty pool.
+   *
+   * @param individualAllocationSize The length of each individual allocation.
+   * @param allocationsPerSlab The number of allocations carved from each slab.
+   */
+  public DirectBufferAllocator(int individualAllocationSize, int allocationsPerSlab) {
+    Assertions.checkArgument(individualAllocationSize > 0);
+    Assertions.checkArgument(allocationsPerSlab > 0);
+    this.individualAllocationSize = individualAllocationSize;
+    this.allocationsPerSlab = allocationsPerSlab;
+    this.availableAllocations = new Allocation[allocationsPerSlab + AVAILABLE_EXTRA_CAPACITY];
+  }
+
+  @Override
+  public synchronized Allocation allocate() {
+    if (availableCount == 0) {
+      addSlab();
+    }
+    allocatedCount++;
+    Allocation allocation = availableAllocations[--availableCount];
+    availableAllocations[availableCount] = null;
+    return allocation;
+  }
+
+  @Override
+  public synchronized void release(Allocation allocation) {
+    // Weak sanity check that the allocation probably originated from this pool.
+    Assertions.checkArgument(allocation.buffer != null
+        && allocation.buffer.capacity() == individualAllocationSize);
+    allocatedCount--;
+    ensureAvailableCapacity(availableCount + 1);
+    availableAllocations[availableCount++] = allocation;
+    // Wake up threads waiting for the allocated size to drop.
+    notifyAll();
+  }
+
+  @Override
+  public synchronized void release(Allocation[] allocations) {
+    ensureAvailableCapacity(availableCount + allocations.length);
+    for (Allocation allocation : allocations) {
+      // Weak sanity check that the allocation probably originated from this pool.
+      Assertions.checkArgument(allocation.buffer != null
+          && allocation.buffer.capacity() == individualAllocationSize);
+      availableAllocations[availableCount++] = allocation;
+    }
+    allocatedCount -= allocations.length;
+    // Wake up threads waiting for the allocated size to drop.
+    notifyAll();
+  }
+
+  @Override
+  public synchronized void trim(int targetSize) {
+    int targetAllocationCount = Util.ceilDivide(targetSize, individualAllocationSize);
+    int targetAvailableCount = Math.max(0, targetAllocationCount - allocatedCount);
+    if (targetAvailableCount >= availableCount) {
+      // We're already at or below the target.
+      return;
+    }
+    // Discard allocations beyond the target.
+    Arrays.fill(availableAllocations, targetAvailableCount, availableCount, null);
+    availableCount = targetAvailableCount;
+  }
+
+  @Override
+  public synchronized int getTotalBytesAllocated() {
+    return allocatedCount * individualAllocationSize;
+  }
+
+  @Override
+  public synchronized void blockWhileTotalBytesAllocatedExceeds(int limit)
+      throws InterruptedException {
+    while (getTotalBytesAllocated() > limit) {
+      wait();
+    }
+  }
+
+  @Override
+  public int getIndividualAllocationLength() {
+    return individualAllocationSize;
+  }
+
+  private void addSlab() {
+    int slabSize = allocationsPerSlab * individualAllocationSize;
+    ByteBuffer slab = ByteBuffer.allocateDirect(slabSize);
+    if (!slab.hasArray()) {
+      slab = ByteBuffer.allocate(slabSize);
+    }
+    ensureAvailableCapacity(availableCount + allocationsPerSlab);
+    for (int i = 0; i < allocationsPerSlab; i++) {
+      int allocationOffset = i * individualAllocationSize;
+      slab.limit(allocationOffset + individualAllocationSize);
+      slab.position(allocationOffset);
+      availableAllocations[availableCount++] = new Allocation(slab.slice());
+    }
+  }
+
+  private void ensureAvailableCapacity(int requiredCapacity) {
+    if (requiredCapacity > availableAllocations.length) {
+      availableAllocations = Arrays.copyOf(availableAllocations,
+          Math.max(availableAllocations.length * 2, requiredCapacity));
+    }
+  }
+
+}
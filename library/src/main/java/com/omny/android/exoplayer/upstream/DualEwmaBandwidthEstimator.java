@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream;
+
+import com.omny.android.exoplayer.util.Assertions;
+
+/**
+ * A {@link BandwidthEstimator} that maintains a fast and a slow exponentially weighted moving
+ * average of the bitrates of recent transfers, each weighted by its duration, and returns the lower
+ * of the two.
+ * <p>
+ * The fast average reacts quickly when the bandwidth drops, whilst the slow average prevents the
+ * estimate from rising on the strength of a short burst. No estimate is returned until a minimum
+ * amount of data has been transferred, since very short transfers are dominated by latency. Until
+ * then, the seed is returned if one has been added.
+ */
+public final class DualEwmaBandwidthEstimator implements BandwidthEstimator {
+
+  /**
+   * The default half-life of the fast average, in milliseconds of transfer.
+   */
+  public static final int DEFAULT_FAST_HALF_LIFE_MS = 2000;
+  /**
+   * The default half-life of the slow average, in milliseconds of transfer.
+   */
+  public static final int DEFAULT_SLOW_HALF_LIFE_MS = 5000;
+  /**
+   * The default number of bytes that must be transferred before an estimate is returned.
+   */
+  public static final long DEFAULT_MIN_TOTAL_BYTES = 128 * 1024;
+  /**
+   * The duration of transfer with which a seed added by {@link #addSeed(long)} is weighted.
+   */
+  public static final int SEED_DURATION_MS = 20;
+
+  private final ExponentialMovingAverage fastAverage;
+  private final ExponentialMovingAverage slowAverage;
+  private final long minTotalBytes;
+
+  private long totalBytes;
+  private long seedBitrate;
+
+  public DualEwmaBandwidthEstimator() {
+    this(DEFAULT_FAST_HALF_LIFE_MS, DEFAULT_SLOW_HALF_LIFE_MS, DEFAULT_MIN_TOTAL_BYTES);
+  }
+
+  /**
+   * @param fastHalfLifeMs The half-life of the fast average, in milliseconds of transfer.
+   * @param slowHalfLifeMs The half-life of the slow average, in milliseconds of transfer.
+   * @param minTotalBytes The number of bytes that must be transferred before an estimate is
+   *     returned.
+   */
+  public DualEwmaBandwidthEstimator(int fastHalfLifeMs, int slowHalfLifeMs, long minTotalBytes) {
+    Assertions.checkArgument(fastHalfLifeMs <= slowHalfLifeMs);
+    fastAverage = new ExponentialMovingAverage(fastHalfLifeMs);
+    slowAverage = new ExponentialMovingAverage(slowHalfLifeMs);
+    this.minTotalBytes = minTotalBytes;
+    seedBitrate = BandwidthMeter.NO_ESTIMATE;
+  }
+
+  @Override
+  public void addSample(long bytes, long elapsedMs, long firstByteDelayMs) {
+    double bitsPerSecond = (bytes * 8000d) / elapsedMs;
+    fastAverage.add(elapsedMs, bitsPerSecond);
+    slowAverage.add(elapsedMs, bitsPerSecond);
+    totalBytes += bytes;
+  }
+
+  @Override
+  public void addSeed(long bitrate) {
+    fastAverage.add(SEED_DURATION_MS, bitrate);
+    slowAverage.add(SEED_DURATION_MS, bitrate);
+    seedBitrate = bitrate;
+  }
+
+  @Override
+  public long getBitrateEstimate() {
+    if (totalBytes < minTotalBytes || !fastAverage.hasEstimate()) {
+      return seedBitrate;
+    }
+    return (long) Math.min(fastAverage.getEstimate(), slowAverage.getEstimate());
+  }
+
+  @Override
+  public void reset() {
+    fastAverage.reset();
+    slowAverage.reset();
+    totalBytes = 0;
+    seedBitrate = BandwidthMeter.NO_ESTIMATE;
+  }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream;
+
+import com.omny.android.exoplayer.util.Assertions;
+
+/**
+ * An exponentially weighted moving average of weighted values, with a configurable half-life
+ * expressed in units of weight.
+ * <p>
+ * The average is corrected for its zero initial value, so that early estimates are not biased
+ * towards zero.
+ */
+/* package */ final class ExponentialMovingAverage {
+
+  private final double alpha;
+
+  private double estimate;
+  private double totalWeight;
+
+  /**
+   * @param halfLife The weight after which a value contributes half as much to the average.
+   */
+  public ExponentialMovingAverage(double halfLife) {
+    Assertions.checkArgument(halfLife > 0);
+    alpha = Math.exp(Math.log(0.5) / halfLife);
+  }
+
+  /**
+   * Adds a value.
+   *
+   * @param weight The weight of the value.
+   * @param value The value.
+   */
+  public void add(double weight, double value) {
+    double adjustedAlpha = Math.pow(alpha, weight);
+    estimate = value * (1 - adjustedAlpha) + adjustedAlpha * estimate;
+    totalWeight += weight;
+  }
+
+  /**
+   * Returns whether any weight has been added.
+   */
+  public boolean hasEstimate() {
+    return totalWeight > 0;
+  }
+
+  /**
+   * Returns the average, or 0 if no weight has been added.
+   */
+  public double getEstimate() {
+    if (totalWeight == 0) {
+      return 0;
+    }
+    return estimate / (1 - Math.pow(alpha, totalWeight));
+  }
+
+  /**
+   * Discards all values.
+   */
+  public void reset() {
+    estimate = 0;
+    totalWeight = 0;
+  }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream;
+
+import com.omny.android.exoplayer.util.ExponentialHistogram;
+
+/**
+ * Statistics about the HTTP connections made by one or more {@link DefaultHttpDataSource}s. May
+ * be shared between data sources, and read from any thread.
+ */
+public final class HttpConnectionStats {
+
+  private final ExponentialHistogram connectTimesUs;
+  private final ExponentialHistogram timesToFirstByteUs;
+
+  private long requestCount;
+  private long releasedConnectionCount;
+  private long discardedConnectionCount;
+
+  public HttpConnectionStats() {
+    connectTimesUs = new ExponentialHistogram();
+    timesToFirstByteUs = new ExponentialHistogram();
+  }
+
+  /**
+   * Returns the number of requests for which a response was received.
+   */
+  public synchronized long getRequestCount() {
+    return requestCount;
+  }
+
+  /**
+   * Returns the number of connections that were released with their response fully read, leaving
+   * the connection available for reuse by subsequent requests to the same host.
+   */
+  public synchronized long getReleasedConnectionCount() {
+    return releasedConnectionCount;
+  }
+
+  /**
+   * Returns the number of connections that were disconnected, and so could not be reused.
+   */
+  public synchronized long getDiscardedConnectionCount() {
+    return discardedConnectionCount;
+  }
+
+  /**
+   * Returns a histogram of the time taken to establish each connection and send the request, in
+   * microseconds. Requests sent on a reused connection typically take very little time.
+   */
+  public synchronized ExponentialHistogram getConnectTimesUs() {
+    return connectTimesUs.copy();
+  }
+
+  /**
+   * Returns a histogram of the time between starting each request and receiving the response
+   * headers, in microseconds.
+   */
+  public synchronized ExponentialHistogram getTimesToFirstByteUs() {
+    return timesToFirstByteUs.copy();
+  }
+
+  /**
+   * Clears all statistics.
+   */
+  public synchronized void reset() {
+    connectTimesUs.reset();
+    timesToFirstByteUs.reset();
+    requestCount = 0;
+    releasedConnectionCount = 0;
+    discardedConnectionCount = 0;
+  }
+
+  /* package */ synchronized void onResponse(long connectTimeUs, long timeToFirstByteUs) {
+    requestCount++;
+    connectTimesUs.add(connectTimeUs);
+    timesToFirstByteUs.add(timeToFirstByteUs);
+  }
+
+  /* package */ synchronized void onConnectionReleased() {
+    releasedConnectionCount++;
+  }
+
+  /* package */ synchronized void onConnectionDiscarded() {
+    discardedConnectionCount++;
+  }
+
+}
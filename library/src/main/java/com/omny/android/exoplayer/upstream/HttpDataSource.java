@@ -99,6 +99,25 @@ public interface HttpDataSource extends UriDataSource {
 
   }
 
+  /**
+   * Thrown when a request for data starting from a non-zero position cannot be satisfied without
+   * reading and discarding more data than is permitted, because the server does not support range
+   * requests.
+   */
+  final class RangeNotSupportedException extends HttpDataSourceException {
+
+    /**
+     * The number of bytes that would have needed to be discarded.
+     */
+    public final long bytesToSkip;
+
+    public RangeNotSupportedException(long bytesToSkip, DataSpec dataSpec) {
+      super("Range not supported. Bytes to skip: " + bytesToSkip, dataSpec, TYPE_OPEN);
+      this.bytesToSkip = bytesToSkip;
+    }
+
+  }
+
   /**
    * Thrown when an attempt to open a connection results in a response code not in the 2xx range.
    */
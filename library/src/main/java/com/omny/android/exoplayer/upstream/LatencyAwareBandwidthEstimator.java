@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream;
+
+import com.omny.android.exoplayer.util.Assertions;
+
+/**
+ * A {@link BandwidthEstimator} that estimates request latency and throughput separately.
+ * <p>
+ * The time to first byte of each transfer is averaged as the latency, and the remainder of the
+ * transfer is used to average the throughput. A single bitrate that ignores the distinction
+ * underestimates the throughput of a link when transfers are small, and overestimates the bitrate
+ * achievable for small transfers when they are large. This estimator instead returns the effective
+ * bitrate of a transfer of a configured reference size, which should be the typical size of a
+ * media chunk. The latency and throughput estimates are also available individually.
+ */
+public final class LatencyAwareBandwidthEstimator implements BandwidthEstimator {
+
+  /**
+   * The default reference transfer size, in bytes.
+   */
+  public static final int DEFAULT_REFERENCE_TRANSFER_BYTES = 512 * 1024;
+  /**
+   * The default half-life of the throughput average, in milliseconds of transfer.
+   */
+  public static final int DEFAULT_THROUGHPUT_HALF_LIFE_MS = 5000;
+  /**
+   * The default half-life of the latency average, in number of transfers.
+   */
+  public static final int DEFAULT_LATENCY_HALF_LIFE_TRANSFERS = 5;
+  /**
+   * The duration of transfer with which a seed added by {@link #addSeed(long)} is weighted in the
+   * throughput average.
+   */
+  public static final int SEED_DURATION_MS = 20;
+
+  private final long referenceTransferBits;
+  private final ExponentialMovingAverage throughputAverage;
+  private final ExponentialMovingAverage latencyAverage;
+
+  public LatencyAwareBandwidthEstimator() {
+    this(DEFAULT_REFERENCE_TRANSFER_BYTES, DEFAULT_THROUGHPUT_HALF_LIFE_MS,
+        DEFAULT_LATENCY_HALF_LIFE_TRANSFERS);
+  }
+
+  /**
+   * @param referenceTransferBytes The size of the transfer whose effective bitrate is returned by
+   *     {@link #getBitrateEstimate()}, in bytes.
+   * @param throughputHalfLifeMs The half-life of the throughput average, in milliseconds of
+   *     transfer.
+   * @param latencyHalfLifeTransfers The half-life of the latency average, in number of transfers.
+   */
+  public LatencyAwareBandwidthEstimator(int referenceTransferBytes, int throughputHalfLifeMs,
+      int latencyHalfLifeTransfers) {
+    Assertions.checkArgument(referenceTransferBytes > 0);
+    referenceTransferBits = referenceTransferBytes * 8L;
+    throughputAverage = new ExponentialMovingAverage(throughputHalfLifeMs);
+    latencyAverage = new ExponentialMovingAverage(latencyHalfLifeTransfers);
+  }
+
+  @Override
+  public void addSample(long bytes, long elapsedMs, long firstByteDelayMs) {
+    firstByteDelayMs = Math.min(firstByteDelayMs, elapsedMs);
+    if (firstByteDelayMs > 0) {
+      latencyAverage.add(1, firstByteDelayMs);
+    }
+    long transferMs = elapsedMs - firstByteDelayMs;
+    if (transferMs > 0 && bytes > 0) {
+      throughputAverage.add(transferMs, (bytes * 8000d) / transferMs);
+    }
+  }
+
+  @Override
+  public void addSeed(long bitrate) {
+    throughputAverage.add(SEED_DURATION_MS, bitrate);
+  }
+
+  @Override
+  public long getBitrateEstimate() {
+    long throughputEstimate = getThroughputEstimate();
+    if (throughputEstimate == BandwidthMeter.NO_ESTIMATE || throughputEstimate == 0) {
+      return throughputEstimate;
+    }
+    double transferSeconds = getLatencyEstimateMs() / 1000d
+        + (double) referenceTransferBits / throughputEstimate;
+    return (long) (referenceTransferBits / transferSeconds);
+  }
+
+  /**
+   * Returns the estimated throughput of the link once a transfer has started, excluding latency.
+   *
+   * @return The estimated throughput in bits/sec, or {@link BandwidthMeter#NO_ESTIMATE} if an
+   *     estimate is not available.
+   */
+  public long getThroughputEstimate() {
+    return throughputAverage.hasEstimate() ? (long) throughputAverage.getEstimate()
+        : BandwidthMeter.NO_ESTIMATE;
+  }
+
+  /**
+   * Returns the estimated time to first byte of a transfer.
+   *
+   * @return The estimated latency in milliseconds, or 0 if no latency has been measured.
+   */
+  public long getLatencyEstimateMs() {
+    return (long) latencyAverage.getEstimate();
+  }
+
+  @Override
+  public void reset() {
+    throughputAverage.reset();
+    latencyAverage.reset();
+  }
+
+}
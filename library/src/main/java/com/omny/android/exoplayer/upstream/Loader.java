@@ -25,6 +25,7 @@ import com.omny.android.exoplayer.util.TraceUtil;
 import com.omny.android.exoplayer.util.Util;
 
 import java.io.IOException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 
 /**
@@ -102,16 +103,37 @@ public final class Loader {
   private static final int MSG_IO_EXCEPTION = 1;
   private static final int MSG_FATAL_ERROR = 2;
 
+  private final Executor downloadExecutor;
   private final ExecutorService downloadExecutorService;
 
   private LoadTask currentTask;
   private boolean loading;
 
   /**
+   * Constructs an instance that loads on its own thread.
+   *
    * @param threadName A name for the loader's thread.
    */
   public Loader(String threadName) {
-    this.downloadExecutorService = Util.newSingleThreadExecutor(threadName);
+    this(threadName, null);
+  }
+
+  /**
+   * Constructs an instance that loads on the threads of a {@link LoaderThreadPool}, which may be
+   * shared with other instances, or on its own thread if {@code threadPool} is null.
+   *
+   * @param threadName A name for the loader's thread. If {@code threadPool} is non-null, the
+   *     thread is only used if all of the pool's threads are busy.
+   * @param threadPool The pool on which to load, or null.
+   */
+  public Loader(String threadName, LoaderThreadPool threadPool) {
+    if (threadPool != null) {
+      this.downloadExecutorService = null;
+      this.downloadExecutor = threadPool.newSerialExecutor(threadName);
+    } else {
+      this.downloadExecutorService = Util.newSingleThreadExecutor(threadName);
+      this.downloadExecutor = downloadExecutorService;
+    }
   }
 
   /**
@@ -142,7 +164,7 @@ public final class Loader {
     Assertions.checkState(!loading);
     loading = true;
     currentTask = new LoadTask(looper, loadable, callback);
-    downloadExecutorService.submit(currentTask);
+    downloadExecutor.execute(currentTask);
   }
 
   /**
@@ -178,7 +200,8 @@ public final class Loader {
    * <p>
    * This method should be called when the {@link Loader} is no longer required.
    *
-   * @param postLoadAction A {@link Runnable} to run on the loader's thread when
+   * @param postLoadAction A {@link Runnable} to run on the loader's thread (or a thread of its
+   *     {@link LoaderThreadPool}) when
    *     {@link Loadable#load()} is no longer running.
    */
   public void release(Runnable postLoadAction) {
@@ -186,9 +209,11 @@ public final class Loader {
       cancelLoading();
     }
     if (postLoadAction != null) {
-      downloadExecutorService.submit(postLoadAction);
+      downloadExecutor.execute(postLoadAction);
+    }
+    if (downloadExecutorService != null) {
+      downloadExecutorService.shutdown();
     }
-    downloadExecutorService.shutdown();
   }
 
   @SuppressLint("HandlerLeak")
@@ -199,7 +224,7 @@ public final class Loader {
     private final Loadable loadable;
     private final Loader.Callback callback;
 
-    private volatile Thread executorThread;
+    private Thread executorThread;
 
     public LoadTask(Looper looper, Loadable loadable, Loader.Callback callback) {
       super(looper);
@@ -209,15 +234,19 @@ public final class Loader {
 
     public void quit() {
       loadable.cancelLoad();
-      if (executorThread != null) {
-        executorThread.interrupt();
+      synchronized (this) {
+        if (executorThread != null) {
+          executorThread.interrupt();
+        }
       }
     }
 
     @Override
     public void run() {
-      try {
+      synchronized (this) {
         executorThread = Thread.currentThread();
+      }
+      try {
         if (!loadable.isLoadCanceled()) {
           TraceUtil.beginSection(loadable.getClass().getSimpleName() + ".load()");
           loadable.load();
@@ -241,6 +270,13 @@ public final class Loader {
         Log.e(TAG, "Unexpected error loading stream", e);
         obtainMessage(MSG_FATAL_ERROR, e).sendToTarget();
         throw e;
+      } finally {
+        // The thread may go on to run tasks for other loaders, so must not be interrupted after
+        // this point. Clear any interrupt that arrived after the load returned.
+        synchronized (this) {
+          executorThread = null;
+        }
+        Thread.interrupted();
       }
     }
 
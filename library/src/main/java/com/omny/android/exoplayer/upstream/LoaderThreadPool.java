@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream;
+
+import com.omny.android.exoplayer.util.Assertions;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of threads that can be shared between {@link Loader}s, so that the number of loading
+ * threads stays small when many {@link Loader}s load short tasks.
+ * <p>
+ * Each {@link Loader} that uses the pool still runs its tasks one at a time and in order. If all of
+ * the pool's threads are busy when a task is submitted, the task runs on a fallback thread that
+ * belongs to the submitting {@link Loader} instead of waiting. A {@link Loader} can therefore never
+ * be starved by loads that occupy the pool's threads for a long time, such as loads that block
+ * until buffer space is freed.
+ * <p>
+ * Idle threads are terminated after a timeout, so the pool does not need to be released.
+ */
+public final class LoaderThreadPool {
+
+  private static final long KEEP_ALIVE_MS = 10000;
+
+  private static LoaderThreadPool defaultInstance;
+
+  private final ThreadPoolExecutor executor;
+
+  /**
+   * Returns a pool shared by the whole process, with one thread for each available processor and
+   * a minimum of two threads.
+   *
+   * @return The default pool.
+   */
+  public static synchronized LoaderThreadPool getDefault() {
+    if (defaultInstance == null) {
+      int threadCount = Math.max(2, Runtime.getRuntime().availableProcessors());
+      defaultInstance = new LoaderThreadPool("Loader", threadCount);
+    }
+    return defaultInstance;
+  }
+
+  /**
+   * @param threadNamePrefix A prefix for the names of the pool's threads.
+   * @param threadCount The maximum number of threads in the pool, excluding fallback threads.
+   */
+  public LoaderThreadPool(String threadNamePrefix, int threadCount) {
+    Assertions.checkArgument(threadCount > 0);
+    // The pool has no queue, so a task submitted while every thread is busy is rejected and run on
+    // the submitting executor's fallback thread.
+    executor = new ThreadPoolExecutor(0, threadCount, KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+        new SynchronousQueue<Runnable>(), newThreadFactory(threadNamePrefix));
+  }
+
+  /**
+   * Returns a new {@link Executor} that runs tasks on the pool one at a time, in the order in which
+   * they were submitted.
+   *
+   * @param fallbackThreadName A name for the thread used if all of the pool's threads are busy.
+   * @return The {@link Executor}.
+   */
+  public Executor newSerialExecutor(String fallbackThreadName) {
+    return new SerialExecutor(fallbackThreadName);
+  }
+
+  private static ThreadFactory newThreadFactory(final String threadNamePrefix) {
+    return new ThreadFactory() {
+      private final AtomicInteger threadNumber = new AtomicInteger();
+      @Override
+      public Thread newThread(Runnable r) {
+        return new Thread(r, threadNamePrefix + ":" + threadNumber.incrementAndGet());
+      }
+    };
+  }
+
+  private final class SerialExecutor implements Executor {
+
+    private final String fallbackThreadName;
+    private final ArrayDeque<Runnable> tasks;
+
+    private ThreadPoolExecutor fallbackExecutor;
+    private Runnable activeTask;
+
+    public SerialExecutor(String fallbackThreadName) {
+      this.fallbackThreadName = fallbackThreadName;
+      tasks = new ArrayDeque<>();
+    }
+
+    @Override
+    public synchronized void execute(final Runnable task) {
+      tasks.add(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            task.run();
+          } finally {
+            scheduleNext();
+          }
+        }
+      });
+      if (activeTask == null) {
+        scheduleNext();
+      }
+    }
+
+    private synchronized void scheduleNext() {
+      activeTask = tasks.poll();
+      if (activeTask == null) {
+        return;
+      }
+      try {
+        executor.execute(activeTask);
+      } catch (RejectedExecutionException e) {
+        if (fallbackExecutor == null) {
+          fallbackExecutor = new ThreadPoolExecutor(0, 1, KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+              new LinkedBlockingQueue<Runnable>(), newThreadFactory(fallbackThreadName));
+        }
+        fallbackExecutor.execute(activeTask);
+      }
+    }
+
+  }
+
+}
@@ -16,7 +16,6 @@
 package com.omny.android.exoplayer.upstream;
 
 import java.io.IOException;
-import java.util.PriorityQueue;
 
 /**
  * A network task prioritization mechanism.
@@ -24,11 +23,19 @@ import java.util.PriorityQueue;
  * Manages different priority network tasks. A network task that wishes to have its priority
  * respected, and respect the priority of other tasks, should register itself with the lock prior
  * to making network requests. It should then call one of the lock's proceed methods frequently
- * during execution, so as to ensure that it continues only if it is the highest (or equally
- * highest) priority task.
+ * during execution, so as to ensure that it continues only if it is permitted to do so.
+ * <p>
+ * Tasks are registered with and scheduled by {@link NetworkScheduler#instance}, so that tasks
+ * using the lock and tasks using the scheduler respect each other's priorities. As a result, a
+ * lower priority task is only stopped whilst the scheduler is throttling and the task has used
+ * its share of the bandwidth, rather than whenever a higher priority task is registered.
  * <p>
  * Note that lower integer values correspond to higher priorities.
+ *
+ * @deprecated Use {@link NetworkScheduler}, which lets lower priority tasks share the bandwidth
+ *     rather than stopping them.
  */
+@Deprecated
 public final class NetworkLock {
 
   /**
@@ -42,41 +49,30 @@ public final class NetworkLock {
 
   }
 
-  public static final NetworkLock instance = new NetworkLock();
+  public static final NetworkLock instance = new NetworkLock(NetworkScheduler.instance);
 
   /**
    * Priority for network tasks associated with media streaming.
    */
-  public static final int STREAMING_PRIORITY = 0;
+  public static final int STREAMING_PRIORITY = NetworkScheduler.STREAMING_PRIORITY;
   /**
    * Priority for network tasks associated with background downloads.
    */
-  public static final int DOWNLOAD_PRIORITY = 10;
-
-  private final Object lock = new Object();
-
-  /** Guarded by {@link #lock}. */
-  private final PriorityQueue<Integer> queue;
+  public static final int DOWNLOAD_PRIORITY = NetworkScheduler.DOWNLOAD_PRIORITY;
 
-  /** Guarded by {@link #lock}. */
-  private int highestPriority;
+  private final NetworkScheduler scheduler;
 
-  private NetworkLock() {
-    queue = new PriorityQueue<>();
-    highestPriority = Integer.MAX_VALUE;
+  /* package */ NetworkLock(NetworkScheduler scheduler) {
+    this.scheduler = scheduler;
   }
 
   /**
-   * Blocks until the passed priority is the lowest one (i.e. highest priority).
+   * Blocks until the passed priority is permitted to proceed.
    *
    * @param priority The priority of the task that would like to proceed.
    */
   public void proceed(int priority) throws InterruptedException {
-    synchronized (lock) {
-      while (highestPriority < priority) {
-        lock.wait();
-      }
-    }
+    scheduler.proceed(priority);
   }
 
   /**
@@ -86,22 +82,18 @@ public final class NetworkLock {
    * @return Whether the passed priority is allowed to proceed.
    */
   public boolean proceedNonBlocking(int priority) {
-    synchronized (lock) {
-      return highestPriority >= priority;
-    }
+    return scheduler.proceedNonBlocking(priority);
   }
 
   /**
    * A throwing variant of {@link #proceed(int)}.
    *
    * @param priority The priority of the task that would like to proceed.
-   * @throws PriorityTooLowException If the passed priority is not high enough to proceed.
+   * @throws PriorityTooLowException If the passed priority is not permitted to proceed.
    */
   public void proceedOrThrow(int priority) throws PriorityTooLowException {
-    synchronized (lock) {
-      if (highestPriority < priority) {
-        throw new PriorityTooLowException(priority, highestPriority);
-      }
+    if (!scheduler.proceedNonBlocking(priority)) {
+      throw new PriorityTooLowException(priority, scheduler.getHighestPriority());
     }
   }
 
@@ -113,10 +105,7 @@ public final class NetworkLock {
    * @param priority The priority of the task.
    */
   public void add(int priority) {
-    synchronized (lock) {
-      queue.add(priority);
-      highestPriority = Math.min(highestPriority, priority);
-    }
+    scheduler.add(priority);
   }
 
   /**
@@ -125,11 +114,7 @@ public final class NetworkLock {
    * @param priority The priority of the task.
    */
   public void remove(int priority) {
-    synchronized (lock) {
-      queue.remove(priority);
-      highestPriority = queue.isEmpty() ? Integer.MAX_VALUE : queue.peek();
-      lock.notifyAll();
-    }
+    scheduler.remove(priority);
   }
 
 }
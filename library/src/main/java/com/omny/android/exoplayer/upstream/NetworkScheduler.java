@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream;
+
+import com.omny.android.exoplayer.util.Assertions;
+import com.omny.android.exoplayer.util.Clock;
+import com.omny.android.exoplayer.util.SystemClock;
+
+import java.util.ArrayList;
+
+/**
+ * A network task scheduler that shares bandwidth between tasks of different priorities.
+ * <p>
+ * Tasks register with the scheduler in the same way as with {@link NetworkLock}, which delegates
+ * to {@link #instance}, and call one of the scheduler's proceed methods before each transfer.
+ * Unlike the original {@link NetworkLock}, the scheduler does not stop lower priority tasks whilst
+ * a higher priority task is registered, so background tasks can make use of bandwidth that isn't
+ * needed for playback. Lower priority tasks are only throttled whilst throttling has been started,
+ * which {@link com.omny.android.exoplayer.DefaultLoadControl} does when a playback buffer falls
+ * below its low watermark.
+ * <p>
+ * Whilst throttling, tasks with the highest registered priority proceed without restriction. The
+ * spare capacity is the bandwidth estimated by the {@link BandwidthMeter} set using
+ * {@link #setBandwidthMeter(BandwidthMeter)}, minus the throughput of the highest priority as
+ * observed through {@link #onBytesTransferred(int, int)}. Each lower priority is permitted to
+ * transfer a share of the spare capacity in proportion to its weight relative to the total weight
+ * of the lower priorities, and at least {@link #MIN_SHARE_BYTES_PER_SECOND}, so that lower priority
+ * tasks are never stopped completely. If there is no bandwidth estimate, lower priorities are only
+ * permitted the minimum share. Tasks that exceed their share block until it is replenished.
+ * <p>
+ * Note that lower integer values correspond to higher priorities.
+ */
+public final class NetworkScheduler {
+
+  public static final NetworkScheduler instance = new NetworkScheduler(new SystemClock());
+
+  /**
+   * Priority for network tasks associated with media streaming.
+   */
+  public static final int STREAMING_PRIORITY = 0;
+  /**
+   * Priority for network tasks associated with background downloads.
+   */
+  public static final int DOWNLOAD_PRIORITY = 10;
+
+  /**
+   * The default weight of {@link #STREAMING_PRIORITY}.
+   */
+  public static final int DEFAULT_STREAMING_WEIGHT = 8;
+  /**
+   * The default weight of priorities other than {@link #STREAMING_PRIORITY}.
+   */
+  public static final int DEFAULT_WEIGHT = 1;
+
+  /**
+   * The number of bytes that a task may transfer when it's not throttled.
+   */
+  public static final int UNLIMITED = Integer.MAX_VALUE;
+
+  /**
+   * The minimum rate at which each throttled priority is permitted to transfer, in bytes per
+   * second.
+   */
+  public static final long MIN_SHARE_BYTES_PER_SECOND = 16 * 1024;
+
+  /**
+   * The duration of transfer at its share of the bandwidth that a throttled priority may burst.
+   */
+  private static final int BURST_DURATION_MS = 100;
+  /**
+   * The maximum time for which a blocked task waits before the bandwidth estimate is re-read.
+   */
+  private static final int MAX_WAIT_MS = 100;
+  /**
+   * The minimum duration over which the observed throughput of a priority is measured.
+   */
+  private static final int THROUGHPUT_WINDOW_MS = 1000;
+
+  private final Clock clock;
+
+  /** Guarded by this. Ordered by priority. */
+  private final ArrayList<PriorityClass> priorityClasses;
+
+  /** Guarded by this. */
+  private BandwidthMeter bandwidthMeter;
+  /** Guarded by this. */
+  private int throttlingCount;
+
+  /* package */ NetworkScheduler(Clock clock) {
+    this.clock = clock;
+    priorityClasses = new ArrayList<>();
+  }
+
+  /**
+   * Sets the {@link BandwidthMeter} used to estimate the bandwidth shared by throttled tasks.
+   *
+   * @param bandwidthMeter The {@link BandwidthMeter}, or null.
+   */
+  public synchronized void setBandwidthMeter(BandwidthMeter bandwidthMeter) {
+    this.bandwidthMeter = bandwidthMeter;
+    notifyAll();
+  }
+
+  /**
+   * Sets the weight of a priority.
+   *
+   * @param priority The priority.
+   * @param weight The weight. Must be positive.
+   */
+  public synchronized void setWeight(int priority, int weight) {
+    Assertions.checkArgument(weight > 0);
+    getPriorityClass(priority).weight = weight;
+    notifyAll();
+  }
+
+  /**
+   * Register a new task.
+   * <p>
+   * The task must call {@link #remove(int)} when done.
+   *
+   * @param priority The priority of the task.
+   */
+  public synchronized void add(int priority) {
+    getPriorityClass(priority).taskCount++;
+    notifyAll();
+  }
+
+  /**
+   * Unregister a task.
+   *
+   * @param priority The priority of the task.
+   */
+  public synchronized void remove(int priority) {
+    PriorityClass priorityClass = getPriorityClass(priority);
+    Assertions.checkState(priorityClass.taskCount > 0);
+    priorityClass.taskCount--;
+    notifyAll();
+  }
+
+  /**
+   * Starts throttling lower priority tasks. Each call must be balanced by a call to
+   * {@link #stopThrottling()}. Throttling continues for as long as any call is unbalanced.
+   */
+  public synchronized void startThrottling() {
+    if (throttlingCount++ == 0) {
+      // Start each priority with a full burst, so that tasks aren't stalled immediately.
+      long nowMs = clock.elapsedRealtime();
+      for (int i = 0; i < priorityClasses.size(); i++) {
+        PriorityClass priorityClass = priorityClasses.get(i);
+        priorityClass.tokens = Long.MAX_VALUE;
+        priorityClass.lastRefillTimeMs = nowMs;
+      }
+    }
+  }
+
+  /**
+   * Stops throttling lower priority tasks, if there are no other unbalanced calls to
+   * {@link #startThrottling()}.
+   */
+  public synchronized void stopThrottling() {
+    Assertions.checkState(throttlingCount > 0);
+    throttlingCount--;
+    notifyAll();
+  }
+
+  /**
+   * Blocks until a task with the specified priority is permitted to transfer data.
+   *
+   * @param priority The priority of the task that would like to proceed.
+   * @return The number of bytes that the task is permitted to transfer, or {@link #UNLIMITED}.
+   * @throws InterruptedException If the thread is interrupted whilst blocked.
+   */
+  public synchronized int proceed(int priority) throws InterruptedException {
+    long permittedBytes;
+    while ((permittedBytes = getPermittedBytes(priority)) <= 0) {
+      wait(getWaitTimeMs(priority, permittedBytes));
+    }
+    return (int) Math.min(permittedBytes, UNLIMITED);
+  }
+
+  /**
+   * A non-blocking variant of {@link #proceed(int)}.
+   *
+   * @param priority The priority of the task that would like to proceed.
+   * @return Whether the passed priority is allowed to proceed.
+   */
+  public synchronized boolean proceedNonBlocking(int priority) {
+    return getPermittedBytes(priority) > 0;
+  }
+
+  /**
+   * Notifies the scheduler that a task has transferred data.
+   *
+   * @param priority The priority of the task.
+   * @param bytes The number of bytes transferred.
+   */
+  public synchronized void onBytesTransferred(int priority, int bytes) {
+    PriorityClass priorityClass = getPriorityClass(priority);
+    updateThroughput(priorityClass);
+    priorityClass.windowBytes += bytes;
+    if (throttlingCount > 0 && priorityClass.tokens != Long.MAX_VALUE) {
+      priorityClass.tokens -= bytes;
+    }
+  }
+
+  /**
+   * Returns the number of bytes that a task with the specified priority is currently permitted to
+   * transfer.
+   */
+  /* package */ synchronized long getPermittedBytes(int priority) {
+    if (throttlingCount == 0 || priority <= getHighestPriority()) {
+      return Long.MAX_VALUE;
+    }
+    long shareBytesPerSecond = getShareBytesPerSecond(priority);
+    PriorityClass priorityClass = getPriorityClass(priority);
+    long burstBytes = Math.max(1, shareBytesPerSecond * BURST_DURATION_MS / 1000);
+    long nowMs = clock.elapsedRealtime();
+    if (priorityClass.tokens == Long.MAX_VALUE) {
+      priorityClass.tokens = burstBytes;
+    } else {
+      long refillBytes = shareBytesPerSecond * (nowMs - priorityClass.lastRefillTimeMs) / 1000;
+      if (refillBytes > 0) {
+        priorityClass.tokens = Math.min(burstBytes, priorityClass.tokens + refillBytes);
+      } else {
+        // Don't advance the refill time, so that the elapsed time isn't lost to rounding.
+        return Math.max(0, priorityClass.tokens);
+      }
+    }
+    priorityClass.lastRefillTimeMs = nowMs;
+    return Math.max(0, priorityClass.tokens);
+  }
+
+  /**
+   * Returns the share of the spare capacity available to a lower priority whilst throttling, in
+   * bytes per second.
+   */
+  /* package */ synchronized long getShareBytesPerSecond(int priority) {
+    long bitrateEstimate = bandwidthMeter == null ? BandwidthMeter.NO_ESTIMATE
+        : bandwidthMeter.getBitrateEstimate();
+    if (bitrateEstimate == BandwidthMeter.NO_ESTIMATE) {
+      return MIN_SHARE_BYTES_PER_SECOND;
+    }
+    int highestPriority = getHighestPriority();
+    long spareBytesPerSecond = bitrateEstimate / 8;
+    PriorityClass priorityClass = getPriorityClass(priority);
+    // An unregistered priority that wishes to proceed is considered in addition to the registered
+    // priorities.
+    long totalWeight = priorityClass.taskCount == 0 ? priorityClass.weight : 0;
+    for (int i = 0; i < priorityClasses.size(); i++) {
+      PriorityClass registeredClass = priorityClasses.get(i);
+      if (registeredClass.priority == highestPriority) {
+        updateThroughput(registeredClass);
+        spareBytesPerSecond -= registeredClass.throughputBytesPerSecond;
+      } else if (registeredClass.taskCount > 0) {
+        totalWeight += registeredClass.weight;
+      }
+    }
+    return Math.max(MIN_SHARE_BYTES_PER_SECOND,
+        spareBytesPerSecond * priorityClass.weight / totalWeight);
+  }
+
+  /**
+   * Returns the observed throughput of a priority, in bytes per second.
+   */
+  /* package */ synchronized long getThroughputBytesPerSecond(int priority) {
+    PriorityClass priorityClass = getPriorityClass(priority);
+    updateThroughput(priorityClass);
+    return priorityClass.throughputBytesPerSecond;
+  }
+
+  /**
+   * Updates the observed throughput of a priority if its current measurement window has ended.
+   */
+  private void updateThroughput(PriorityClass priorityClass) {
+    long nowMs = clock.elapsedRealtime();
+    long elapsedMs = nowMs - priorityClass.windowStartTimeMs;
+    if (elapsedMs >= THROUGHPUT_WINDOW_MS) {
+      priorityClass.throughputBytesPerSecond = priorityClass.windowBytes * 1000 / elapsedMs;
+      priorityClass.windowBytes = 0;
+      priorityClass.windowStartTimeMs = nowMs;
+    }
+  }
+
+  private long getWaitTimeMs(int priority, long permittedBytes) {
+    long shareBytesPerSecond = getShareBytesPerSecond(priority);
+    long waitTimeMs = ((1 - permittedBytes) * 1000 + shareBytesPerSecond - 1)
+        / shareBytesPerSecond;
+    return Math.max(1, Math.min(MAX_WAIT_MS, waitTimeMs));
+  }
+
+  /**
+   * Returns the highest registered priority, or {@link Integer#MAX_VALUE} if no tasks are
+   * registered.
+   */
+  /* package */ synchronized int getHighestPriority() {
+    for (int i = 0; i < priorityClasses.size(); i++) {
+      PriorityClass priorityClass = priorityClasses.get(i);
+      if (priorityClass.taskCount > 0) {
+        return priorityClass.priority;
+      }
+    }
+    return Integer.MAX_VALUE;
+  }
+
+  private PriorityClass getPriorityClass(int priority) {
+    int index = 0;
+    while (index < priorityClasses.size() && priorityClasses.get(index).priority < priority) {
+      index++;
+    }
+    if (index < priorityClasses.size() && priorityClasses.get(index).priority == priority) {
+      return priorityClasses.get(index);
+    }
+    PriorityClass priorityClass = new PriorityClass(priority,
+        priority == STREAMING_PRIORITY ? DEFAULT_STREAMING_WEIGHT : DEFAULT_WEIGHT,
+        clock.elapsedRealtime());
+    priorityClasses.add(index, priorityClass);
+    return priorityClass;
+  }
+
+  private static final class PriorityClass {
+
+    public final int priority;
+
+    public int weight;
+    public int taskCount;
+    public long tokens;
+    public long lastRefillTimeMs;
+    public long windowStartTimeMs;
+    public long windowBytes;
+    public long throughputBytesPerSecond;
+
+    public PriorityClass(int priority, int weight, long nowMs) {
+      this.priority = priority;
+      this.weight = weight;
+      tokens = Long.MAX_VALUE;
+      windowStartTimeMs = nowMs;
+    }
+
+  }
+
+}
@@ -18,11 +18,18 @@ package com.omny.android.exoplayer.upstream;
 import com.omny.android.exoplayer.util.Assertions;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 
 /**
- * Allows {@link #open(DataSpec)} and {@link #read(byte[], int, int)} calls only if the specified
- * priority is the highest priority of any task. {@link NetworkLock.PriorityTooLowException} is
- * thrown when this condition does not hold.
+ * Schedules {@link #open(DataSpec)} and {@link #read(byte[], int, int)} calls using
+ * {@link NetworkScheduler#instance}. Calls block whilst the specified priority is throttled, and
+ * reads are limited to the number of bytes that the scheduler permits.
+ * <p>
+ * Note that this source previously used {@link NetworkLock} and threw
+ * {@link NetworkLock.PriorityTooLowException} when a higher priority task was registered. It now
+ * blocks instead, so callers should not rely on that exception to abandon lower priority loads. A
+ * blocked call can be cancelled by interrupting the calling thread, in which case an
+ * {@link InterruptedIOException} is thrown.
  */
 public final class PriorityDataSource implements DataSource {
 
@@ -40,14 +47,17 @@ public final class PriorityDataSource implements DataSource {
 
   @Override
   public long open(DataSpec dataSpec) throws IOException {
-    NetworkLock.instance.proceedOrThrow(priority);
+    proceed();
     return upstream.open(dataSpec);
   }
 
   @Override
   public int read(byte[] buffer, int offset, int max) throws IOException {
-    NetworkLock.instance.proceedOrThrow(priority);
-    return upstream.read(buffer, offset, max);
+    int bytesRead = upstream.read(buffer, offset, Math.min(max, proceed()));
+    if (bytesRead > 0) {
+      NetworkScheduler.instance.onBytesTransferred(priority, bytesRead);
+    }
+    return bytesRead;
   }
 
   @Override
@@ -55,4 +65,13 @@ public final class PriorityDataSource implements DataSource {
     upstream.close();
   }
 
+  private int proceed() throws InterruptedIOException {
+    try {
+      return NetworkScheduler.instance.proceed(priority);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
 }
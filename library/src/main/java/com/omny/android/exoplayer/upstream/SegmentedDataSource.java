@@ -0,0 +1,435 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream;
+
+import com.omny.android.exoplayer.C;
+import com.omny.android.exoplayer.util.Assertions;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link DataSource} that downloads the requested data as a number of fixed size parts, several
+ * of which are loaded in parallel using separate upstream {@link DataSource}s. A single connection
+ * is often unable to make full use of a link with a large bandwidth-delay product, and loading the
+ * upcoming parts of a stream over several connections allows it to do so.
+ * <p>
+ * Data is returned from {@link #read(byte[], int, int)} strictly in order, as soon as it has been
+ * loaded. At most one part per upstream {@link DataSource} is held in memory at any time, and a
+ * further part is requested each time the reader finishes with one.
+ * <p>
+ * The length of the data must be known for it to be divided into parts. If it's unknown, or if it's
+ * no longer than a single part, the data is read directly from the first upstream
+ * {@link DataSource}.
+ * <p>
+ * This source can be passed to {@link com.omny.android.exoplayer.extractor.ExtractorSampleSource}
+ * to speed up the download of progressive streams. The upstream sources should not report
+ * transfers to a {@link BandwidthMeter} themselves. Instead the source's own listener is notified
+ * of the aggregate transfer, which gives an estimate of the combined throughput.
+ */
+public final class SegmentedDataSource implements DataSource {
+
+  /**
+   * The default size of each part, in bytes.
+   */
+  public static final int DEFAULT_PART_SIZE = 1024 * 1024;
+
+  private static final long LOADER_KEEP_ALIVE_MS = 1000;
+  private static final int NO_UPSTREAM = -1;
+
+  private final DataSource[] upstreams;
+  private final int partSize;
+  private final DataSink dataSink;
+  private final TransferListener listener;
+  private final ThreadPoolExecutor loaderExecutor;
+  private final ArrayDeque<Integer> idleUpstreamIndices;
+  private final ArrayDeque<Part> parts;
+  private final ArrayList<byte[]> recycledBuffers;
+
+  private DataSpec dataSpec;
+  private boolean opened;
+  private boolean dataSinkOpened;
+  private int directUpstreamIndex;
+  private long totalLength;
+  private long nextPartOffset;
+  private int partReadPosition;
+
+  /**
+   * @param upstreams The upstream {@link DataSource}s, one for each part that can be loaded at the
+   *     same time. These must be distinct from each other.
+   * @param partSize The size of each part, in bytes.
+   */
+  public SegmentedDataSource(DataSource[] upstreams, int partSize) {
+    this(upstreams, partSize, null, null);
+  }
+
+  /**
+   * @param upstreams The upstream {@link DataSource}s, one for each part that can be loaded at the
+   *     same time. These must be distinct from each other.
+   * @param partSize The size of each part, in bytes.
+   * @param dataSink An optional {@link DataSink} into which data is written in order as it is
+   *     read, for example a {@link com.omny.android.exoplayer.upstream.cache.CacheDataSink}.
+   * @param listener An optional listener, notified of the aggregate transfer of all of the upstream
+   *     {@link DataSource}s.
+   */
+  public SegmentedDataSource(DataSource[] upstreams, int partSize, DataSink dataSink,
+      TransferListener listener) {
+    Assertions.checkArgument(upstreams.length > 0);
+    Assertions.checkArgument(partSize > 0);
+    this.upstreams = Arrays.copyOf(upstreams, upstreams.length);
+    this.partSize = partSize;
+    this.dataSink = dataSink;
+    this.listener = listener;
+    idleUpstreamIndices = new ArrayDeque<>();
+    for (int i = 0; i < upstreams.length; i++) {
+      idleUpstreamIndices.add(i);
+    }
+    parts = new ArrayDeque<>();
+    recycledBuffers = new ArrayList<>();
+    directUpstreamIndex = NO_UPSTREAM;
+    loaderExecutor = new ThreadPoolExecutor(upstreams.length, upstreams.length,
+        LOADER_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          private final AtomicInteger threadNumber = new AtomicInteger();
+          @Override
+          public Thread newThread(Runnable r) {
+            return new Thread(r, "SegmentedDataSource:" + threadNumber.incrementAndGet());
+          }
+        });
+    loaderExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws IOException {
+    int upstreamIndex = acquireIdleUpstream();
+    // Open the first part directly. If the length is unknown then the first upstream is opened
+    // without bounds, so as to determine it.
+    long firstPartLength = dataSpec.length == C.LENGTH_UNBOUNDED ? C.LENGTH_UNBOUNDED
+        : Math.min(partSize, dataSpec.length);
+    long openedLength;
+    try {
+      openedLength = upstreams[upstreamIndex].open(getPartDataSpec(dataSpec, 0, firstPartLength));
+    } catch (IOException e) {
+      closeQuietly(upstreams[upstreamIndex]);
+      releaseUpstream(upstreamIndex);
+      throw e;
+    }
+    long length = dataSpec.length != C.LENGTH_UNBOUNDED ? dataSpec.length : openedLength;
+
+    synchronized (this) {
+      this.dataSpec = dataSpec;
+      totalLength = length;
+      partReadPosition = 0;
+      opened = true;
+      if (length == C.LENGTH_UNBOUNDED || length <= partSize) {
+        directUpstreamIndex = upstreamIndex;
+      } else {
+        nextPartOffset = 0;
+        startPart(upstreamIndex, true);
+        maybeStartParts();
+      }
+    }
+
+    if (dataSink != null) {
+      if (dataSpec.length == C.LENGTH_UNBOUNDED && length != C.LENGTH_UNBOUNDED) {
+        // Reconstruct dataSpec in order to provide the resolved length to the sink.
+        dataSpec = new DataSpec(dataSpec.uri, dataSpec.absoluteStreamPosition, dataSpec.position,
+            length, dataSpec.key, dataSpec.flags);
+      }
+      dataSink.open(dataSpec);
+      dataSinkOpened = true;
+    }
+    if (listener != null) {
+      listener.onTransferStart();
+    }
+    return length;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int readLength) throws IOException {
+    if (readLength == 0) {
+      return 0;
+    }
+    int bytesRead;
+    if (directUpstreamIndex != NO_UPSTREAM) {
+      bytesRead = upstreams[directUpstreamIndex].read(buffer, offset, readLength);
+      if (bytesRead == C.RESULT_END_OF_INPUT) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      if (listener != null) {
+        listener.onBytesTransferred(bytesRead);
+      }
+    } else {
+      bytesRead = readFromParts(buffer, offset, readLength);
+      if (bytesRead == C.RESULT_END_OF_INPUT) {
+        return C.RESULT_END_OF_INPUT;
+      }
+    }
+    if (dataSink != null) {
+      dataSink.write(buffer, offset, bytesRead);
+    }
+    return bytesRead;
+  }
+
+  @Override
+  public void close() throws IOException {
+    boolean wasOpened;
+    int upstreamIndex;
+    synchronized (this) {
+      wasOpened = opened;
+      opened = false;
+      upstreamIndex = directUpstreamIndex;
+      directUpstreamIndex = NO_UPSTREAM;
+      while (!parts.isEmpty()) {
+        releasePart(parts.removeFirst());
+      }
+    }
+    try {
+      if (upstreamIndex != NO_UPSTREAM) {
+        try {
+          upstreams[upstreamIndex].close();
+        } finally {
+          releaseUpstream(upstreamIndex);
+        }
+      }
+    } finally {
+      try {
+        if (dataSinkOpened) {
+          dataSinkOpened = false;
+          dataSink.close();
+        }
+      } finally {
+        if (wasOpened && listener != null) {
+          listener.onTransferEnd();
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads data from the part at the head of the queue, blocking until some is available.
+   */
+  private synchronized int readFromParts(byte[] buffer, int offset, int readLength)
+      throws IOException {
+    try {
+      // Upstreams still held by the loaders of a previous open may delay the start of a part.
+      while (parts.isEmpty() && nextPartOffset < totalLength) {
+        wait();
+      }
+      Part part = parts.peekFirst();
+      if (part == null) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      while (part.bytesLoaded == partReadPosition && part.error == null) {
+        wait();
+      }
+      if (part.bytesLoaded == partReadPosition) {
+        throw part.error;
+      }
+      int bytesRead = Math.min(readLength, part.bytesLoaded - partReadPosition);
+      System.arraycopy(part.data, partReadPosition, buffer, offset, bytesRead);
+      partReadPosition += bytesRead;
+      if (partReadPosition == part.length) {
+        parts.removeFirst();
+        releasePart(part);
+        partReadPosition = 0;
+        maybeStartParts();
+      }
+      return bytesRead;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+  private synchronized int acquireIdleUpstream() throws InterruptedIOException {
+    try {
+      while (idleUpstreamIndices.isEmpty()) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    return idleUpstreamIndices.removeFirst();
+  }
+
+  private synchronized void releaseUpstream(int upstreamIndex) {
+    idleUpstreamIndices.add(upstreamIndex);
+    maybeStartParts();
+    notifyAll();
+  }
+
+  /**
+   * Starts loading further parts, for as long as there are idle upstreams and the number of parts
+   * held in memory is below the limit. Must be called whilst holding the lock.
+   */
+  private void maybeStartParts() {
+    if (!opened || directUpstreamIndex != NO_UPSTREAM) {
+      return;
+    }
+    while (parts.size() < upstreams.length && nextPartOffset < totalLength
+        && !idleUpstreamIndices.isEmpty()) {
+      startPart(idleUpstreamIndices.removeFirst(), false);
+    }
+  }
+
+  /**
+   * Starts loading the next part. Must be called whilst holding the lock.
+   */
+  private void startPart(int upstreamIndex, boolean upstreamOpened) {
+    int length = (int) Math.min(partSize, totalLength - nextPartOffset);
+    DataSpec partDataSpec = getPartDataSpec(dataSpec, nextPartOffset, length);
+    byte[] data = recycledBuffers.isEmpty() ? new byte[partSize]
+        : recycledBuffers.remove(recycledBuffers.size() - 1);
+    Part part = new Part(upstreamIndex, upstreamOpened, partDataSpec, data, length);
+    parts.add(part);
+    nextPartOffset += length;
+    loaderExecutor.execute(new PartLoader(part));
+  }
+
+  /**
+   * Releases a part that is no longer required. Its buffer is recycled once it's no longer being
+   * loaded. Must be called whilst holding the lock.
+   */
+  private void releasePart(Part part) {
+    part.released = true;
+    if (part.finished) {
+      recycledBuffers.add(part.data);
+    }
+  }
+
+  private synchronized boolean isReleased(Part part) {
+    return part.released;
+  }
+
+  private synchronized void onPartProgress(Part part, int bytesLoaded) {
+    part.bytesLoaded += bytesLoaded;
+    if (!part.released && listener != null) {
+      listener.onBytesTransferred(bytesLoaded);
+    }
+    notifyAll();
+  }
+
+  private synchronized void onPartFinished(Part part, IOException error) {
+    part.finished = true;
+    if (part.bytesLoaded < part.length) {
+      part.error = error != null ? error : new EOFException();
+    }
+    if (part.released) {
+      recycledBuffers.add(part.data);
+    }
+    releaseUpstream(part.upstreamIndex);
+  }
+
+  private static DataSpec getPartDataSpec(DataSpec dataSpec, long offset, long length) {
+    return new DataSpec(dataSpec.uri, dataSpec.absoluteStreamPosition + offset,
+        dataSpec.position + offset, length, dataSpec.key, dataSpec.flags);
+  }
+
+  private static void closeQuietly(DataSource dataSource) {
+    try {
+      dataSource.close();
+    } catch (IOException e) {
+      // Ignore.
+    }
+  }
+
+  /**
+   * A part of the requested data.
+   */
+  private static final class Part {
+
+    public final int upstreamIndex;
+    public final boolean upstreamOpened;
+    public final DataSpec dataSpec;
+    public final byte[] data;
+    public final int length;
+
+    // Guarded by the SegmentedDataSource.
+    public int bytesLoaded;
+    public boolean finished;
+    public boolean released;
+    public IOException error;
+
+    public Part(int upstreamIndex, boolean upstreamOpened, DataSpec dataSpec, byte[] data,
+        int length) {
+      this.upstreamIndex = upstreamIndex;
+      this.upstreamOpened = upstreamOpened;
+      this.dataSpec = dataSpec;
+      this.data = data;
+      this.length = length;
+    }
+
+  }
+
+  /**
+   * Loads a part using its upstream {@link DataSource}.
+   */
+  private final class PartLoader implements Runnable {
+
+    private final Part part;
+
+    public PartLoader(Part part) {
+      this.part = part;
+    }
+
+    @Override
+    public void run() {
+      DataSource upstream = upstreams[part.upstreamIndex];
+      IOException error = null;
+      try {
+        if (!part.upstreamOpened) {
+          upstream.open(part.dataSpec);
+        }
+        // Only this thread modifies bytesLoaded, so it can be read without holding the lock.
+        int bytesLoaded = 0;
+        while (bytesLoaded < part.length && !isReleased(part)) {
+          int bytesRead = upstream.read(part.data, bytesLoaded, part.length - bytesLoaded);
+          if (bytesRead == C.RESULT_END_OF_INPUT) {
+            break;
+          }
+          bytesLoaded += bytesRead;
+          onPartProgress(part, bytesRead);
+        }
+      } catch (IOException e) {
+        error = e;
+      } catch (RuntimeException e) {
+        error = new IOException(e);
+      } finally {
+        try {
+          upstream.close();
+        } catch (IOException e) {
+          if (error == null) {
+            error = e;
+          }
+        }
+        onPartFinished(part, error);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream;
+
+import com.omny.android.exoplayer.util.Assertions;
+
+import java.util.Arrays;
+
+/**
+ * An {@link Allocator} that maintains a pool for each of a number of allocation lengths (size
+ * classes), so that buffers holding small samples (e.g. audio and text) need not use allocations
+ * sized for large samples (e.g. video keyframes).
+ * <p>
+ * Each size class is exposed as an {@link Allocator} through {@link #getAllocator(int)}. All
+ * classes share a single budget, and {@link #getTotalBytesAllocated()} returns the sum of the
+ * lengths of all outstanding allocations across all classes. When used directly, this allocator
+ * hands out allocations of the largest size class.
+ */
+public final class SizeClassAllocator implements Allocator {
+
+  private static final int AVAILABLE_EXTRA_CAPACITY = 100;
+
+  private final SizeClass[] sizeClasses;
+
+  private int totalBytesAllocated;
+
+  /**
+   * @param allocationSizes The length of the allocations in each size class. Must not be empty.
+   */
+  public SizeClassAllocator(int... allocationSizes) {
+    Assertions.checkArgument(allocationSizes.length > 0);
+    int[] sortedSizes = Arrays.copyOf(allocationSizes, allocationSizes.length);
+    Arrays.sort(sortedSizes);
+    Assertions.checkArgument(sortedSizes[0] > 0);
+    sizeClasses = new SizeClass[sortedSizes.length];
+    for (int i = 0; i < sortedSizes.length; i++) {
+      sizeClasses[i] = new SizeClass(sortedSizes[i]);
+    }
+  }
+
+  /**
+   * Returns an {@link Allocator} for the smallest size class whose allocation length is greater
+   * than or equal to {@code allocationSizeHint}, or for the largest size class if there is no such
+   * class.
+   *
+   * @param allocationSizeHint The preferred allocation length.
+   * @return An {@link Allocator} for the corresponding size class.
+   */
+  public Allocator getAllocator(int allocationSizeHint) {
+    for (SizeClass sizeClass : sizeClasses) {
+      if (sizeClass.allocationSize >= allocationSizeHint) {
+        return sizeClass;
+      }
+    }
+    return sizeClasses[sizeClasses.length - 1];
+  }
+
+  @Override
+  public Allocation allocate() {
+    return sizeClasses[sizeClasses.length - 1].allocate();
+  }
+
+  @Override
+  public void release(Allocation allocation) {
+    getSizeClass(allocation).release(allocation);
+  }
+
+  @Override
+  public void release(Allocation[] allocations) {
+    for (Allocation allocation : allocations) {
+      release(allocation);
+    }
+  }
+
+  @Override
+  public synchronized void trim(int targetSize) {
+    int availableBytes = 0;
+    for (SizeClass sizeClass : sizeClasses) {
+      availableBytes += sizeClass.availableCount * sizeClass.allocationSize;
+    }
+    int excessBytes = totalBytesAllocated + availableBytes - targetSize;
+    // Discard available allocations from the largest size classes first.
+    for (int i = sizeClasses.length - 1; i >= 0 && excessBytes > 0; i--) {
+      excessBytes -= sizeClasses[i].discardAvailable(excessBytes);
+    }
+  }
+
+  @Override
+  public synchronized int getTotalBytesAllocated() {
+    return totalBytesAllocated;
+  }
+
+  @Override
+  public synchronized void blockWhileTotalBytesAllocatedExceeds(int limit)
+      throws InterruptedException {
+    while (totalBytesAllocated > limit) {
+      wait();
+    }
+  }
+
+  @Override
+  public int getIndividualAllocationLength() {
+    return sizeClasses[sizeClasses.length - 1].allocationSize;
+  }
+
+  private SizeClass getSizeClass(Allocation allocation) {
+    for (SizeClass sizeClass : sizeClasses) {
+      if (sizeClass.allocationSize == allocation.data.length) {
+        return sizeClass;
+      }
+    }
+    // The allocation did not originate from this pool.
+    throw new IllegalArgumentException();
+  }
+
+  /**
+   * A pool of allocations of a single length. Budget and synchronization are shared with the
+   * enclosing {@link SizeClassAllocator}.
+   */
+  private final class SizeClass implements Allocator {
+
+    private final int allocationSize;
+
+    private int availableCount;
+    private Allocation[] availableAllocations;
+
+    public SizeClass(int allocationSize) {
+      this.allocationSize = allocationSize;
+      availableAllocations = new Allocation[AVAILABLE_EXTRA_CAPACITY];
+    }
+
+    @Override
+    public Allocation allocate() {
+      synchronized (SizeClassAllocator.this) {
+        totalBytesAllocated += allocationSize;
+        if (availableCount > 0) {
+          Allocation allocation = availableAllocations[--availableCount];
+          availableAllocations[availableCount] = null;
+          return allocation;
+        }
+      }
+      return new Allocation(new byte[allocationSize], 0);
+    }
+
+    @Override
+    public void release(Allocation allocation) {
+      synchronized (SizeClassAllocator.this) {
+        releaseInternal(allocation);
+        // Wake up threads waiting for the allocated size to drop.
+        SizeClassAllocator.this.notifyAll();
+      }
+    }
+
+    @Override
+    public void release(Allocation[] allocations) {
+      synchronized (SizeClassAllocator.this) {
+        for (Allocation allocation : allocations) {
+          releaseInternal(allocation);
+        }
+        // Wake up threads waiting for the allocated size to drop.
+        SizeClassAllocator.this.notifyAll();
+      }
+    }
+
+    @Override
+    public void trim(int targetSize) {
+      SizeClassAllocator.this.trim(targetSize);
+    }
+
+    @Override
+    public void blockWhileTotalBytesAllocatedExceeds(int limit) throws InterruptedException {
+      SizeClassAllocator.this.blockWhileTotalBytesAllocatedExceeds(limit);
+    }
+
+    @Override
+    public int getTotalBytesAllocated() {
+      return SizeClassAllocator.this.getTotalBytesAllocated();
+    }
+
+    @Override
+    public int getIndividualAllocationLength() {
+      return allocationSize;
+    }
+
+    private void releaseInternal(Allocation allocation) {
+      // Weak sanity check that the allocation probably originated from this pool.
+      Assertions.checkArgument(allocation.data.length == allocationSize);
+      totalBytesAllocated -= allocationSize;
+      if (availableCount == availableAllocations.length) {
+        availableAllocations = Arrays.copyOf(availableAllocations, availableAllocations.length * 2);
+      }
+      availableAllocations[availableCount++] = allocation;
+    }
+
+    /**
+     * Discards as many available allocations as possible without discarding more than
+     * {@code maxBytes} bytes. Must be called with the enclosing allocator locked.
+     *
+     * @return The number of bytes discarded.
+     */
+    private int discardAvailable(int maxBytes) {
+      int discardCount = Math.min(availableCount, maxBytes / allocationSize);
+      Arrays.fill(availableAllocations, availableCount - discardCount, availableCount, null);
+      availableCount -= discardCount;
+      return discardCount * allocationSize;
+    }
+
+  }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream;
+
+import com.omny.android.exoplayer.util.Assertions;
+
+/**
+ * A {@link BandwidthEstimator} that returns a percentile of the bitrates of recent transfers,
+ * weighted by the square root of their sizes.
+ * <p>
+ * A maximum total weight is configured. Once it's reached, the oldest sample is reduced in weight
+ * until it reaches zero and is removed. The samples are held in primitive arrays, both in the order
+ * in which they were added and ordered by bitrate, so adding a sample takes linear time and does
+ * not allocate. The number of samples is also limited, and if the limit is reached the oldest
+ * sample is removed regardless of its weight.
+ */
+public final class SlidingPercentileBandwidthEstimator implements BandwidthEstimator {
+
+  /**
+   * The default maximum total weight.
+   */
+  public static final int DEFAULT_MAX_WEIGHT = 2000;
+  /**
+   * The weight of a seed added by {@link #addSeed(long)}, which is that of a 256 byte transfer.
+   */
+  public static final int SEED_WEIGHT = 16;
+  /**
+   * The default maximum number of samples.
+   */
+  public static final int DEFAULT_MAX_SAMPLE_COUNT = 256;
+  /**
+   * The default percentile, expressed as a fraction.
+   */
+  public static final float DEFAULT_PERCENTILE = 0.5f;
+
+  private final int maxWeight;
+  private final float percentile;
+
+  // Sample data, held in a ring buffer in the order in which the samples were added.
+  private final int[] weights;
+  private final float[] values;
+  // The ring buffer indices of the samples, ordered by value.
+  private final int[] sortedIndices;
+
+  private int firstIndex;
+  private int sampleCount;
+  private int totalWeight;
+
+  public SlidingPercentileBandwidthEstimator() {
+    this(DEFAULT_MAX_WEIGHT, DEFAULT_MAX_SAMPLE_COUNT, DEFAULT_PERCENTILE);
+  }
+
+  /**
+   * @param maxWeight The maximum total weight of the samples.
+   * @param maxSampleCount The maximum number of samples.
+   * @param percentile The percentile to return, expressed as a fraction in the range (0,1].
+   */
+  public SlidingPercentileBandwidthEstimator(int maxWeight, int maxSampleCount,
+      float percentile) {
+    Assertions.checkArgument(maxWeight > 0);
+    Assertions.checkArgument(maxSampleCount > 0);
+    Assertions.checkArgument(percentile > 0 && percentile <= 1);
+    this.maxWeight = maxWeight;
+    this.percentile = percentile;
+    weights = new int[maxSampleCount];
+    values = new float[maxSampleCount];
+    sortedIndices = new int[maxSampleCount];
+  }
+
+  @Override
+  public void addSample(long bytes, long elapsedMs, long firstByteDelayMs) {
+    addSample((int) Math.sqrt(bytes), (bytes * 8000) / elapsedMs);
+  }
+
+  @Override
+  public void addSeed(long bitrate) {
+    addSample(SEED_WEIGHT, bitrate);
+  }
+
+  @Override
+  public long getBitrateEstimate() {
+    if (sampleCount == 0) {
+      return BandwidthMeter.NO_ESTIMATE;
+    }
+    float desiredWeight = percentile * totalWeight;
+    int accumulatedWeight = 0;
+    for (int i = 0; i < sampleCount; i++) {
+      int index = sortedIndices[i];
+      accumulatedWeight += weights[index];
+      if (accumulatedWeight >= desiredWeight) {
+        return (long) values[index];
+      }
+    }
+    // Clamp to the maximum value.
+    return (long) values[sortedIndices[sampleCount - 1]];
+  }
+
+  @Override
+  public void reset() {
+    firstIndex = 0;
+    sampleCount = 0;
+    totalWeight = 0;
+  }
+
+  /**
+   * Records a new observation. Respects the configured total weight by reducing in weight or
+   * removing the oldest observations as required.
+   *
+   * @param weight The weight of the new observation.
+   * @param value The value of the new observation.
+   */
+  /* package */ void addSample(int weight, float value) {
+    if (sampleCount == weights.length) {
+      removeOldestSample();
+    }
+    int index = (firstIndex + sampleCount) % weights.length;
+    weights[index] = weight;
+    values[index] = value;
+    // Insert the new sample after any samples with the same value.
+    int sortedPosition = sampleCount;
+    while (sortedPosition > 0 && values[sortedIndices[sortedPosition - 1]] > value) {
+      sortedIndices[sortedPosition] = sortedIndices[sortedPosition - 1];
+      sortedPosition--;
+    }
+    sortedIndices[sortedPosition] = index;
+    sampleCount++;
+    totalWeight += weight;
+
+    while (totalWeight > maxWeight) {
+      int excessWeight = totalWeight - maxWeight;
+      if (weights[firstIndex] <= excessWeight) {
+        removeOldestSample();
+      } else {
+        weights[firstIndex] -= excessWeight;
+        totalWeight -= excessWeight;
+      }
+    }
+  }
+
+  private void removeOldestSample() {
+    int sortedPosition = 0;
+    while (sortedIndices[sortedPosition] != firstIndex) {
+      sortedPosition++;
+    }
+    System.arraycopy(sortedIndices, sortedPosition + 1, sortedIndices, sortedPosition,
+        sampleCount - sortedPosition - 1);
+    totalWeight -= weights[firstIndex];
+    firstIndex = (firstIndex + 1) % weights.length;
+    sampleCount--;
+  }
+
+}
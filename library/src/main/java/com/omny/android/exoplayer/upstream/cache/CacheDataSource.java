@@ -18,6 +18,7 @@ package com.omny.android.exoplayer.upstream.cache;
 import android.net.Uri;
 import android.util.Log;
 import com.omny.android.exoplayer.C;
+import com.omny.android.exoplayer.upstream.ByteArrayDataSource;
 import com.omny.android.exoplayer.upstream.DataSink;
 import com.omny.android.exoplayer.upstream.DataSource;
 import com.omny.android.exoplayer.upstream.DataSpec;
@@ -25,6 +26,7 @@ import com.omny.android.exoplayer.upstream.FileDataSource;
 import com.omny.android.exoplayer.upstream.TeeDataSource;
 import com.omny.android.exoplayer.upstream.cache.CacheDataSink.CacheDataSinkException;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 
@@ -32,6 +34,11 @@ import java.io.InterruptedIOException;
  * A {@link DataSource} that reads and writes a {@link Cache}. Requests are fulfilled from the cache
  * when possible. When data is not cached it is requested from an upstream {@link DataSource} and
  * written into the cache.
+ * <p>
+ * If a {@link MemoryCache} is provided, then the content of small cached spans is held in memory
+ * once read, and is consulted before the cache. Reads of spans held in memory neither open the cache
+ * files nor touch the spans in the cache, so the cache's evictor may evict such spans as if they
+ * were unused.
  */
 public final class CacheDataSource implements DataSource {
 
@@ -56,12 +63,15 @@ public final class CacheDataSource implements DataSource {
   private final DataSource cacheReadDataSource;
   private final DataSource cacheWriteDataSource;
   private final DataSource upstreamDataSource;
+  private final MemoryCache memoryCache;
+  private final WriteBehindCacheDataSink writeBehindCacheDataSink;
   private final EventListener eventListener;
 
   private final boolean blockOnCache;
   private final boolean ignoreCacheOnError;
 
   private DataSource currentDataSource;
+  private DataSource memoryReadDataSource;
   private Uri uri;
   private int flags;
   private String key;
@@ -110,7 +120,33 @@ public final class CacheDataSource implements DataSource {
   public CacheDataSource(Cache cache, DataSource upstream, DataSource cacheReadDataSource,
       DataSink cacheWriteDataSink, boolean blockOnCache, boolean ignoreCacheOnError,
       EventListener eventListener) {
+    this(cache, null, upstream, cacheReadDataSource, cacheWriteDataSink, blockOnCache,
+        ignoreCacheOnError, eventListener);
+  }
+
+  /**
+   * Constructs an instance with arbitrary {@link DataSource} and {@link DataSink} instances for
+   * reading and writing the cache, and a {@link MemoryCache} in front of the cache. A single
+   * {@link MemoryCache} may be shared between instances that read the same cache.
+   *
+   * @param cache The cache.
+   * @param memoryCache An optional {@link MemoryCache} in which to hold the content of small
+   *     cached spans.
+   * @param upstream A {@link DataSource} for reading data not in the cache.
+   * @param cacheReadDataSource A {@link DataSource} for reading data from the cache.
+   * @param cacheWriteDataSink A {@link DataSink} for writing data to the cache.
+   * @param blockOnCache A flag indicating whether we will block reads if the cache key is locked.
+   *     If this flag is false, then we will read from upstream if the cache key is locked.
+   * @param ignoreCacheOnError Whether the cache is bypassed following any cache related error. If
+   *     true, then cache related exceptions may be thrown for one cycle of open, read and close
+   *     calls. Subsequent cycles of these calls will then bypass the cache.
+   * @param eventListener An optional {@link EventListener} to receive events.
+   */
+  public CacheDataSource(Cache cache, MemoryCache memoryCache, DataSource upstream,
+      DataSource cacheReadDataSource, DataSink cacheWriteDataSink, boolean blockOnCache,
+      boolean ignoreCacheOnError, EventListener eventListener) {
     this.cache = cache;
+    this.memoryCache = memoryCache;
     this.cacheReadDataSource = cacheReadDataSource;
     this.blockOnCache = blockOnCache;
     this.ignoreCacheOnError = ignoreCacheOnError;
@@ -120,6 +156,8 @@ public final class CacheDataSource implements DataSource {
     } else {
       this.cacheWriteDataSource = null;
     }
+    this.writeBehindCacheDataSink = cacheWriteDataSink instanceof WriteBehindCacheDataSink
+        ? (WriteBehindCacheDataSink) cacheWriteDataSink : null;
     this.eventListener = eventListener;
   }
 
@@ -144,7 +182,8 @@ public final class CacheDataSource implements DataSource {
     try {
       int bytesRead = currentDataSource.read(buffer, offset, max);
       if (bytesRead >= 0) {
-        if (currentDataSource == cacheReadDataSource) {
+        if (currentDataSource == cacheReadDataSource
+            || currentDataSource == memoryReadDataSource) {
           totalCachedBytesRead += bytesRead;
         }
         readPosition += bytesRead;
@@ -177,11 +216,24 @@ public final class CacheDataSource implements DataSource {
   }
 
   /**
-   * Opens the next source. If the cache contains data spanning the current read position then
-   * {@link #cacheReadDataSource} is opened to read from it. Else {@link #upstreamDataSource} is
+   * Opens the next source. If the {@link MemoryCache} holds data spanning the current read position
+   * then it's read from memory. Else if the cache contains data spanning the current read position
+   * then {@link #cacheReadDataSource} is opened to read from it. Else {@link #upstreamDataSource} is
    * opened to read from the upstream source and write into the cache.
    */
   private void openNextSource() throws IOException {
+    if (!ignoreCache && bytesRemaining != C.LENGTH_UNBOUNDED && memoryCache != null) {
+      MemoryCache.Entry entry = memoryCache.get(key, readPosition);
+      if (entry != null) {
+        // Data is held in memory, read from it without accessing the cache.
+        long entryPosition = readPosition - entry.position;
+        long length = Math.min(entry.data.length - entryPosition, bytesRemaining);
+        memoryReadDataSource = new ByteArrayDataSource(entry.data);
+        currentDataSource = memoryReadDataSource;
+        currentDataSource.open(new DataSpec(uri, readPosition, entryPosition, length, key, flags));
+        return;
+      }
+    }
     DataSpec dataSpec;
     CacheSpan span;
     if (ignoreCache) {
@@ -211,7 +263,14 @@ public final class CacheDataSource implements DataSource {
       long filePosition = readPosition - span.position;
       long length = Math.min(span.length - filePosition, bytesRemaining);
       dataSpec = new DataSpec(fileUri, readPosition, filePosition, length, key, flags);
-      currentDataSource = cacheReadDataSource;
+      if (memoryCache != null && memoryCache.isCacheable(span.length)) {
+        byte[] spanData = readSpan(span);
+        memoryCache.put(span, spanData);
+        memoryReadDataSource = new ByteArrayDataSource(spanData);
+        currentDataSource = memoryReadDataSource;
+      } else {
+        currentDataSource = cacheReadDataSource;
+      }
     } else {
       // Data is not cached, and data is not locked, read from upstream with cache backing.
       lockedSpan = span;
@@ -221,6 +280,35 @@ public final class CacheDataSource implements DataSource {
           : upstreamDataSource;
     }
     currentDataSource.open(dataSpec);
+    if (lockedSpan != null && currentDataSource == cacheWriteDataSource
+        && writeBehindCacheDataSink != null) {
+      // The sink releases the hole span once it has committed the data, so that closing doesn't
+      // have to wait for the commit.
+      writeBehindCacheDataSink.transferHoleSpan(lockedSpan);
+      lockedSpan = null;
+    }
+  }
+
+  /**
+   * Reads the whole of a cached span through {@link #cacheReadDataSource}.
+   */
+  private byte[] readSpan(CacheSpan span) throws IOException {
+    // Set the current source so that any error is attributed to the cache.
+    currentDataSource = cacheReadDataSource;
+    byte[] spanData = new byte[(int) span.length];
+    cacheReadDataSource.open(new DataSpec(Uri.fromFile(span.file), span.position, 0, span.length,
+        key, flags));
+    int bytesRead = 0;
+    while (bytesRead < spanData.length) {
+      int result = cacheReadDataSource.read(spanData, bytesRead, spanData.length - bytesRead);
+      if (result == -1) {
+        throw new EOFException();
+      }
+      bytesRead += result;
+    }
+    currentDataSource = null;
+    cacheReadDataSource.close();
+    return spanData;
   }
 
   private void closeCurrentSource() throws IOException {
@@ -230,6 +318,7 @@ public final class CacheDataSource implements DataSource {
     try {
       currentDataSource.close();
       currentDataSource = null;
+      memoryReadDataSource = null;
     } finally {
       if (lockedSpan != null) {
         cache.releaseHoleSpan(lockedSpan);
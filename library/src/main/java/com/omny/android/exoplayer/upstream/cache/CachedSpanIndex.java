@@ -0,0 +1,422 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream.cache;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A persistent index of the spans held by a {@link SimpleCache}, which allows the cache to be
+ * initialized without listing and parsing the name of every file in the cache directory.
+ * <p>
+ * The index consists of a snapshot file and a journal file. The snapshot holds a table of keys
+ * followed by a table of spans, and is terminated by a CRC32 checksum of its content. It is always
+ * written to a temporary file that's then renamed over the previous snapshot. Changes made after
+ * the snapshot was written are appended to the journal as individually checksummed records, and
+ * the journal is folded into a new snapshot once it grows large. Both files carry a randomly chosen
+ * generation number, so that a journal is never applied to a snapshot other than the one it
+ * extends.
+ * <p>
+ * If the snapshot is missing or corrupt, or the journal that extends it has a truncated or corrupt
+ * record, then {@link #load()} fails and the cache must fall back to scanning the directory. A torn
+ * journal record means that the process died whilst the cache was being changed, so files may have
+ * been committed to the directory without being recorded.
+ */
+/* package */ final class CachedSpanIndex {
+
+  private static final String TAG = "CachedSpanIndex";
+
+  /* package */ static final String SNAPSHOT_FILE_NAME = "cached_spans.exi";
+  /* package */ static final String JOURNAL_FILE_NAME = "cached_spans.exj";
+  private static final String TEMP_SNAPSHOT_FILE_NAME = "cached_spans.exi.tmp";
+
+  private static final int VERSION = 1;
+
+  private static final int RECORD_TYPE_PUT = 1;
+  private static final int RECORD_TYPE_REMOVE = 2;
+
+  /**
+   * The number of journal records after which the journal is folded into a new snapshot.
+   */
+  private static final int COMPACTION_THRESHOLD_RECORDS = 4096;
+
+  private final File cacheDir;
+  private final File snapshotFile;
+  private final File journalFile;
+  private final ByteArrayOutputStream recordBuffer;
+  private final DataOutputStream recordOutput;
+  private final CRC32 recordChecksum;
+  private final Random random;
+
+  private long generation;
+  private FileOutputStream journalOutput;
+  private int journalRecordCount;
+  private boolean enabled;
+
+  /**
+   * @param cacheDir The cache directory.
+   */
+  public CachedSpanIndex(File cacheDir) {
+    this.cacheDir = cacheDir;
+    snapshotFile = new File(cacheDir, SNAPSHOT_FILE_NAME);
+    journalFile = new File(cacheDir, JOURNAL_FILE_NAME);
+    recordBuffer = new ByteArrayOutputStream();
+    recordOutput = new DataOutputStream(recordBuffer);
+    recordChecksum = new CRC32();
+    random = new Random();
+    enabled = true;
+  }
+
+  /**
+   * Returns whether the specified file is one of the files that make up the index.
+   */
+  public static boolean isIndexFile(File file) {
+    String name = file.getName();
+    return name.equals(SNAPSHOT_FILE_NAME) || name.equals(JOURNAL_FILE_NAME)
+        || name.equals(TEMP_SNAPSHOT_FILE_NAME);
+  }
+
+  /**
+   * Loads the cached spans recorded by the index.
+   *
+   * @return The cached spans, or null if the index is missing or corrupt.
+   */
+  public List<CacheSpan> load() {
+    HashMap<String, TreeSet<CacheSpan>> spans = new HashMap<>();
+    try {
+      readSnapshot(spans);
+    } catch (IOException e) {
+      if (snapshotFile.exists()) {
+        Log.w(TAG, "Discarding corrupt index", e);
+      }
+      return null;
+    }
+    boolean journalExtendsSnapshot;
+    try {
+      journalExtendsSnapshot = readJournal(spans);
+    } catch (IOException e) {
+      Log.w(TAG, "Discarding index with corrupt journal", e);
+      return null;
+    }
+    if (journalExtendsSnapshot) {
+      try {
+        journalOutput = new FileOutputStream(journalFile, true);
+      } catch (IOException e) {
+        // The journal will be replaced when a new snapshot is written.
+      }
+    }
+    ArrayList<CacheSpan> result = new ArrayList<>();
+    for (TreeSet<CacheSpan> spansForKey : spans.values()) {
+      result.addAll(spansForKey);
+    }
+    return result;
+  }
+
+  /**
+   * Writes a new snapshot of the specified spans, and starts a new journal that extends it.
+   *
+   * @param spans The cached spans, grouped by key.
+   */
+  public void writeSnapshot(Collection<TreeSet<CacheSpan>> spans) {
+    if (!enabled) {
+      return;
+    }
+    closeJournal();
+    generation = random.nextLong();
+    File tempSnapshotFile = new File(cacheDir, TEMP_SNAPSHOT_FILE_NAME);
+    FileOutputStream fileOutput = null;
+    try {
+      fileOutput = new FileOutputStream(tempSnapshotFile);
+      CheckedOutputStream checkedOutput =
+          new CheckedOutputStream(new BufferedOutputStream(fileOutput), new CRC32());
+      DataOutputStream output = new DataOutputStream(checkedOutput);
+      output.writeInt(VERSION);
+      output.writeLong(generation);
+      // Write the key table.
+      int keyCount = 0;
+      int spanCount = 0;
+      for (TreeSet<CacheSpan> spansForKey : spans) {
+        if (!spansForKey.isEmpty()) {
+          keyCount++;
+          spanCount += spansForKey.size();
+        }
+      }
+      output.writeInt(keyCount);
+      for (TreeSet<CacheSpan> spansForKey : spans) {
+        if (!spansForKey.isEmpty()) {
+          output.writeUTF(spansForKey.first().key);
+        }
+      }
+      // Write the span table.
+      output.writeInt(spanCount);
+      int keyIndex = 0;
+      for (TreeSet<CacheSpan> spansForKey : spans) {
+        if (spansForKey.isEmpty()) {
+          continue;
+        }
+        for (CacheSpan span : spansForKey) {
+          output.writeInt(keyIndex);
+          output.writeLong(span.position);
+          output.writeLong(span.length);
+          output.writeLong(span.lastAccessTimestamp);
+        }
+        keyIndex++;
+      }
+      output.writeLong(checkedOutput.getChecksum().getValue());
+      output.flush();
+      fileOutput.getFD().sync();
+      output.close();
+      fileOutput = null;
+      if (!tempSnapshotFile.renameTo(snapshotFile)) {
+        throw new IOException("Failed to rename " + tempSnapshotFile);
+      }
+      // Start a new journal.
+      journalOutput = new FileOutputStream(journalFile);
+      DataOutputStream journalHeader = new DataOutputStream(journalOutput);
+      journalHeader.writeInt(VERSION);
+      journalHeader.writeLong(generation);
+      journalHeader.flush();
+      journalRecordCount = 0;
+    } catch (IOException e) {
+      closeQuietly(fileOutput);
+      tempSnapshotFile.delete();
+      disable(e);
+    }
+  }
+
+  /**
+   * Records that a span has been added to the cache, or that its last access timestamp has changed.
+   *
+   * @param span The added span.
+   */
+  public void onSpanPut(CacheSpan span) {
+    if (!enabled) {
+      return;
+    }
+    try {
+      recordOutput.writeByte(RECORD_TYPE_PUT);
+      recordOutput.writeUTF(span.key);
+      recordOutput.writeLong(span.position);
+      recordOutput.writeLong(span.length);
+      recordOutput.writeLong(span.lastAccessTimestamp);
+      appendRecord();
+    } catch (IOException e) {
+      disable(e);
+    }
+  }
+
+  /**
+   * Records that a span has been removed from the cache.
+   *
+   * @param span The removed span.
+   */
+  public void onSpanRemoved(CacheSpan span) {
+    if (!enabled) {
+      return;
+    }
+    try {
+      recordOutput.writeByte(RECORD_TYPE_REMOVE);
+      recordOutput.writeUTF(span.key);
+      recordOutput.writeLong(span.position);
+      appendRecord();
+    } catch (IOException e) {
+      disable(e);
+    }
+  }
+
+  /**
+   * Returns whether a new snapshot should be written by calling {@link #writeSnapshot(Collection)},
+   * either because the journal has grown large or because it cannot be appended to.
+   */
+  public boolean shouldCompact() {
+    return enabled && (journalOutput == null || journalRecordCount >= COMPACTION_THRESHOLD_RECORDS);
+  }
+
+  private void appendRecord() throws IOException {
+    if (journalOutput == null) {
+      throw new IOException("Journal not open");
+    }
+    recordOutput.flush();
+    recordChecksum.reset();
+    recordChecksum.update(recordBuffer.toByteArray());
+    recordOutput.writeInt((int) recordChecksum.getValue());
+    recordOutput.flush();
+    // Write the whole record in a single call, so that a torn write can only affect the tail.
+    recordBuffer.writeTo(journalOutput);
+    recordBuffer.reset();
+    journalRecordCount++;
+  }
+
+  private void readSnapshot(HashMap<String, TreeSet<CacheSpan>> spans) throws IOException {
+    InputStream fileInput = null;
+    try {
+      fileInput = new BufferedInputStream(new FileInputStream(snapshotFile));
+      CheckedInputStream checkedInput = new CheckedInputStream(fileInput, new CRC32());
+      DataInputStream input = new DataInputStream(checkedInput);
+      if (input.readInt() != VERSION) {
+        throw new IOException("Unsupported index version");
+      }
+      long snapshotGeneration = input.readLong();
+      String[] keys = new String[input.readInt()];
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = input.readUTF();
+      }
+      int spanCount = input.readInt();
+      for (int i = 0; i < spanCount; i++) {
+        int keyIndex = input.readInt();
+        if (keyIndex < 0 || keyIndex >= keys.length) {
+          throw new IOException("Invalid key index");
+        }
+        long position = input.readLong();
+        long length = input.readLong();
+        long lastAccessTimestamp = input.readLong();
+        putSpan(spans, CacheSpan.createCacheEntry(cacheDir, keys[keyIndex], position, length,
+            lastAccessTimestamp));
+      }
+      long expectedChecksum = checkedInput.getChecksum().getValue();
+      if (input.readLong() != expectedChecksum) {
+        throw new IOException("Index checksum mismatch");
+      }
+      generation = snapshotGeneration;
+    } finally {
+      closeQuietly(fileInput);
+    }
+  }
+
+  /**
+   * Applies the journal to the spans read from the snapshot.
+   *
+   * @return Whether the journal extends the snapshot, in which case further records can be appended
+   *     to it.
+   * @throws IOException If the journal extends the snapshot, but has a truncated or corrupt record.
+   */
+  private boolean readJournal(HashMap<String, TreeSet<CacheSpan>> spans) throws IOException {
+    journalRecordCount = 0;
+    if (!journalFile.exists()) {
+      // The process died before the journal was started, so the snapshot is complete.
+      return false;
+    }
+    DataInputStream input = null;
+    try {
+      input = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+      if (input.readInt() != VERSION || input.readLong() != generation) {
+        // The journal does not extend the snapshot.
+        return false;
+      }
+      while (true) {
+        int type = input.read();
+        if (type == -1) {
+          // The end of the journal.
+          return true;
+        }
+        recordBuffer.reset();
+        String key = input.readUTF();
+        long position = input.readLong();
+        recordOutput.writeByte(type);
+        recordOutput.writeUTF(key);
+        recordOutput.writeLong(position);
+        long length = 0;
+        long lastAccessTimestamp = 0;
+        if (type == RECORD_TYPE_PUT) {
+          length = input.readLong();
+          lastAccessTimestamp = input.readLong();
+          recordOutput.writeLong(length);
+          recordOutput.writeLong(lastAccessTimestamp);
+        } else if (type != RECORD_TYPE_REMOVE) {
+          throw new IOException("Unexpected journal record type: " + type);
+        }
+        recordOutput.flush();
+        recordChecksum.reset();
+        recordChecksum.update(recordBuffer.toByteArray());
+        if (input.readInt() != (int) recordChecksum.getValue()) {
+          throw new IOException("Journal checksum mismatch");
+        }
+        if (type == RECORD_TYPE_PUT) {
+          putSpan(spans, CacheSpan.createCacheEntry(cacheDir, key, position, length,
+              lastAccessTimestamp));
+        } else {
+          TreeSet<CacheSpan> spansForKey = spans.get(key);
+          if (spansForKey != null) {
+            spansForKey.remove(CacheSpan.createLookup(key, position));
+            if (spansForKey.isEmpty()) {
+              spans.remove(key);
+            }
+          }
+        }
+        journalRecordCount++;
+      }
+    } finally {
+      recordBuffer.reset();
+      closeQuietly(input);
+    }
+  }
+
+  private static void putSpan(HashMap<String, TreeSet<CacheSpan>> spans, CacheSpan span) {
+    TreeSet<CacheSpan> spansForKey = spans.get(span.key);
+    if (spansForKey == null) {
+      spansForKey = new TreeSet<>();
+      spans.put(span.key, spansForKey);
+    }
+    // Spans are ordered by key and position only, so remove any existing span first.
+    spansForKey.remove(span);
+    spansForKey.add(span);
+  }
+
+  private void disable(IOException e) {
+    Log.w(TAG, "Disabling index", e);
+    enabled = false;
+    closeJournal();
+    // Make sure the next initialization scans the directory rather than using a stale index.
+    snapshotFile.delete();
+    journalFile.delete();
+  }
+
+  private void closeJournal() {
+    closeQuietly(journalOutput);
+    journalOutput = null;
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        // Ignore.
+      }
+    }
+  }
+
+}
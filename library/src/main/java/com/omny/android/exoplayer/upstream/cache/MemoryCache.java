@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream.cache;
+
+import com.omny.android.exoplayer.util.Assertions;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A bounded in-memory cache of the content of small {@link CacheSpan}s, which allows
+ * {@link CacheDataSource} to serve frequently accessed resources (e.g. manifests, initialization
+ * segments and encryption keys) without accessing the {@link Cache} for each read.
+ * <p>
+ * Entries are looked up by key and by any position within the span whose content they hold, and
+ * are evicted in least recently used order once their combined size exceeds the maximum size. Spans
+ * longer than the maximum entry size are never held in memory.
+ */
+public final class MemoryCache {
+
+  /**
+   * The content of a span held in memory.
+   */
+  public static final class Entry {
+
+    /**
+     * The cache key of the span.
+     */
+    public final String key;
+    /**
+     * The position of the start of the span.
+     */
+    public final long position;
+    /**
+     * The content of the span. Must not be modified.
+     */
+    public final byte[] data;
+
+    private Entry(String key, long position, byte[] data) {
+      this.key = key;
+      this.position = position;
+      this.data = data;
+    }
+
+  }
+
+  private final int maxBytes;
+  private final int maxEntryBytes;
+  private final HashMap<String, TreeMap<Long, Entry>> entriesByKey;
+  // Entries in access order, so that iteration starts from the least recently used entry.
+  private final LinkedHashMap<Entry, Entry> entriesByAccess;
+
+  private int currentBytes;
+  private long hitCount;
+  private long missCount;
+
+  /**
+   * @param maxBytes The maximum combined size of the held entries in bytes.
+   * @param maxEntryBytes The maximum length of a span whose content can be held in memory.
+   */
+  public MemoryCache(int maxBytes, int maxEntryBytes) {
+    Assertions.checkArgument(maxEntryBytes <= maxBytes);
+    this.maxBytes = maxBytes;
+    this.maxEntryBytes = maxEntryBytes;
+    entriesByKey = new HashMap<>();
+    entriesByAccess = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Returns whether the content of a span of the specified length can be held in memory.
+   *
+   * @param length The length of the span.
+   * @return Whether the content of the span can be held in memory.
+   */
+  public boolean isCacheable(long length) {
+    return 0 < length && length <= maxEntryBytes;
+  }
+
+  /**
+   * Returns the held content of a span that contains the specified position.
+   *
+   * @param key The cache key.
+   * @param position The position.
+   * @return The entry holding the content, or null if no span containing the position is held in
+   *     memory.
+   */
+  public synchronized Entry get(String key, long position) {
+    Entry entry = null;
+    TreeMap<Long, Entry> entriesForKey = entriesByKey.get(key);
+    if (entriesForKey != null) {
+      Map.Entry<Long, Entry> floorEntry = entriesForKey.floorEntry(position);
+      if (floorEntry != null
+          && position < floorEntry.getValue().position + floorEntry.getValue().data.length) {
+        entry = floorEntry.getValue();
+        // Update the access order.
+        entriesByAccess.get(entry);
+      }
+    }
+    if (entry == null) {
+      missCount++;
+    } else {
+      hitCount++;
+    }
+    return entry;
+  }
+
+  /**
+   * Holds the content of a cached span in memory, evicting the least recently used entries if
+   * necessary. Does nothing if the span is not {@link #isCacheable(long) cacheable}.
+   *
+   * @param span The span.
+   * @param data The content of the span. Must not be modified after this method is called.
+   */
+  public synchronized void put(CacheSpan span, byte[] data) {
+    Assertions.checkArgument(data.length == span.length);
+    if (!isCacheable(data.length)) {
+      return;
+    }
+    TreeMap<Long, Entry> entriesForKey = entriesByKey.get(span.key);
+    if (entriesForKey == null) {
+      entriesForKey = new TreeMap<>();
+      entriesByKey.put(span.key, entriesForKey);
+    }
+    Entry entry = new Entry(span.key, span.position, data);
+    Entry previousEntry = entriesForKey.put(span.position, entry);
+    if (previousEntry != null) {
+      entriesByAccess.remove(previousEntry);
+      currentBytes -= previousEntry.data.length;
+    }
+    entriesByAccess.put(entry, entry);
+    currentBytes += data.length;
+    Iterator<Entry> iterator = entriesByAccess.keySet().iterator();
+    while (currentBytes > maxBytes) {
+      Entry evictedEntry = iterator.next();
+      iterator.remove();
+      removeFromKey(evictedEntry);
+      currentBytes -= evictedEntry.data.length;
+    }
+  }
+
+  /**
+   * Removes all entries.
+   */
+  public synchronized void clear() {
+    entriesByKey.clear();
+    entriesByAccess.clear();
+    currentBytes = 0;
+  }
+
+  /**
+   * Returns the combined size of the held entries in bytes.
+   */
+  public synchronized int getSizeBytes() {
+    return currentBytes;
+  }
+
+  /**
+   * Returns the number of calls to {@link #get(String, long)} that returned content.
+   */
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  /**
+   * Returns the number of calls to {@link #get(String, long)} that returned null.
+   */
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  private void removeFromKey(Entry entry) {
+    TreeMap<Long, Entry> entriesForKey = entriesByKey.get(entry.key);
+    entriesForKey.remove(entry.position);
+    if (entriesForKey.isEmpty()) {
+      entriesByKey.remove(entry.key);
+    }
+  }
+
+}
@@ -23,43 +23,76 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map.Entry;
+import java.util.List;
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A {@link Cache} implementation that maintains an in-memory representation.
+ * <p>
+ * The in-memory representation is partitioned into lock stripes by key, so that operations on
+ * unrelated keys (e.g. parallel audio and video downloads) do not contend with one another. A
+ * thread blocked in {@link #startReadWrite(String, long)} is only woken by changes to the key it
+ * is waiting for. {@link Cache.Listener}s are invoked with the lock for their key held, and so
+ * must not call into the cache for other keys. The {@link CacheEvictor} is invoked serially and
+ * in the order in which events occurred, but without any key lock held, so that it can remove
+ * spans for any key.
  */
 public final class SimpleCache implements Cache {
 
+  private static final int STRIPE_COUNT = 16;
+
   private final File cacheDir;
   private final CacheEvictor evictor;
-  private final HashMap<String, CacheSpan> lockedSpans;
-  private final HashMap<String, TreeSet<CacheSpan>> cachedSpans;
-  private final HashMap<String, ArrayList<Listener>> listeners;
-  private long totalSpace = 0;
+  private final Stripe[] stripes;
+  private final AtomicLong totalSpace;
+  private final ConditionVariable initialized;
+  private final Object evictorLock;
+  private final ConcurrentLinkedQueue<EvictorEvent> pendingEvictorEvents;
+  private CachedSpanIndex index;
 
   /**
    * Constructs the cache. The cache will delete any unrecognized files from the directory. Hence
    * the directory cannot be used to store other files.
+   * <p>
+   * The cache maintains a persistent index of its content in the directory, so that it can be
+   * initialized without scanning the directory. The directory is only scanned if the index is
+   * missing or corrupt.
    *
    * @param cacheDir A dedicated cache directory.
    */
   public SimpleCache(File cacheDir, CacheEvictor evictor) {
     this.cacheDir = cacheDir;
     this.evictor = evictor;
-    this.lockedSpans = new HashMap<>();
-    this.cachedSpans = new HashMap<>();
-    this.listeners = new HashMap<>();
+    this.stripes = new Stripe[STRIPE_COUNT];
+    for (int i = 0; i < STRIPE_COUNT; i++) {
+      stripes[i] = new Stripe();
+    }
+    this.totalSpace = new AtomicLong();
+    this.initialized = new ConditionVariable();
+    this.evictorLock = new Object();
+    this.pendingEvictorEvents = new ConcurrentLinkedQueue<>();
     // Start cache initialization.
     final ConditionVariable conditionVariable = new ConditionVariable();
     new Thread("SimpleCache.initialize()") {
       @Override
       public void run() {
-        synchronized (SimpleCache.this) {
-          conditionVariable.open();
-          initialize();
+        synchronized (evictorLock) {
+          lockAllStripes();
+          try {
+            conditionVariable.open();
+            initialize();
+          } finally {
+            unlockAllStripes();
+          }
+          initialized.open();
+          dispatchPendingEvents();
+          evictor.onCacheInitialized();
         }
       }
     }.start();
@@ -67,74 +100,124 @@ public final class SimpleCache implements Cache {
   }
 
   @Override
-  public synchronized NavigableSet<CacheSpan> addListener(String key, Listener listener) {
-    ArrayList<Listener> listenersForKey = listeners.get(key);
-    if (listenersForKey == null) {
-      listenersForKey = new ArrayList<>();
-      listeners.put(key, listenersForKey);
+  public NavigableSet<CacheSpan> addListener(String key, Listener listener) {
+    Stripe stripe = getStripe(key);
+    stripe.lock.lock();
+    try {
+      ArrayList<Listener> listenersForKey = stripe.listeners.get(key);
+      if (listenersForKey == null) {
+        listenersForKey = new ArrayList<>();
+        stripe.listeners.put(key, listenersForKey);
+      }
+      listenersForKey.add(listener);
+      return getCachedSpans(key);
+    } finally {
+      stripe.lock.unlock();
     }
-    listenersForKey.add(listener);
-    return getCachedSpans(key);
   }
 
   @Override
-  public synchronized void removeListener(String key, Listener listener) {
-    ArrayList<Listener> listenersForKey = listeners.get(key);
-    if (listenersForKey != null) {
-      listenersForKey.remove(listener);
-      if (listenersForKey.isEmpty()) {
-        listeners.remove(key);
+  public void removeListener(String key, Listener listener) {
+    Stripe stripe = getStripe(key);
+    stripe.lock.lock();
+    try {
+      ArrayList<Listener> listenersForKey = stripe.listeners.get(key);
+      if (listenersForKey != null) {
+        listenersForKey.remove(listener);
+        if (listenersForKey.isEmpty()) {
+          stripe.listeners.remove(key);
+        }
       }
+    } finally {
+      stripe.lock.unlock();
     }
   }
 
   @Override
-  public synchronized NavigableSet<CacheSpan> getCachedSpans(String key) {
-    TreeSet<CacheSpan> spansForKey = cachedSpans.get(key);
-    return spansForKey == null ? null : new TreeSet<>(spansForKey);
+  public NavigableSet<CacheSpan> getCachedSpans(String key) {
+    Stripe stripe = getStripe(key);
+    stripe.lock.lock();
+    try {
+      TreeSet<CacheSpan> spansForKey = stripe.cachedSpans.get(key);
+      return spansForKey == null ? null : new TreeSet<>(spansForKey);
+    } finally {
+      stripe.lock.unlock();
+    }
   }
 
   @Override
-  public synchronized Set<String> getKeys() {
-    return new HashSet<>(cachedSpans.keySet());
+  public Set<String> getKeys() {
+    HashSet<String> keys = new HashSet<>();
+    for (Stripe stripe : stripes) {
+      stripe.lock.lock();
+      try {
+        keys.addAll(stripe.cachedSpans.keySet());
+      } finally {
+        stripe.lock.unlock();
+      }
+    }
+    return keys;
   }
 
   @Override
-  public synchronized long getCacheSpace() {
-    return totalSpace;
+  public long getCacheSpace() {
+    initialized.block();
+    return totalSpace.get();
   }
 
   @Override
-  public synchronized CacheSpan startReadWrite(String key, long position)
-      throws InterruptedException {
+  public CacheSpan startReadWrite(String key, long position) throws InterruptedException {
     CacheSpan lookupSpan = CacheSpan.createLookup(key, position);
-    while (true) {
-      CacheSpan span = startReadWriteNonBlocking(lookupSpan);
-      if (span != null) {
-        return span;
-      } else {
-        // Write case, lock not available. We'll be woken up when a locked span is released (if the
-        // released lock is for the requested key then we'll be able to make progress) or when a
-        // span is added to the cache (if the span is for the requested key and covers the requested
-        // position, then we'll become a read and be able to make progress).
-        wait();
+    Stripe stripe = getStripe(key);
+    CacheSpan span;
+    stripe.lock.lock();
+    try {
+      while ((span = startReadWriteNonBlocking(lookupSpan)) == null) {
+        // Write case, lock not available. We'll be woken up when the locked span for the key is
+        // released (in which case we'll be able to make progress) or when a span is added for the
+        // key (if the span covers the requested position, then we'll become a read and be able to
+        // make progress).
+        Condition keyCondition = stripe.keyConditions.get(key);
+        if (keyCondition == null) {
+          keyCondition = stripe.lock.newCondition();
+          stripe.keyConditions.put(key, keyCondition);
+        }
+        keyCondition.await();
       }
+    } finally {
+      stripe.lock.unlock();
     }
+    dispatchPendingEvents();
+    return span;
   }
 
   @Override
-  public synchronized CacheSpan startReadWriteNonBlocking(String key, long position) {
-    return startReadWriteNonBlocking(CacheSpan.createLookup(key, position));
+  public CacheSpan startReadWriteNonBlocking(String key, long position) {
+    CacheSpan lookupSpan = CacheSpan.createLookup(key, position);
+    Stripe stripe = getStripe(key);
+    CacheSpan span;
+    stripe.lock.lock();
+    try {
+      span = startReadWriteNonBlocking(lookupSpan);
+    } finally {
+      stripe.lock.unlock();
+    }
+    dispatchPendingEvents();
+    return span;
   }
 
-  private synchronized CacheSpan startReadWriteNonBlocking(CacheSpan lookupSpan) {
+  /**
+   * Must be called with the lock for the key of {@code lookupSpan} held.
+   */
+  private CacheSpan startReadWriteNonBlocking(CacheSpan lookupSpan) {
+    Stripe stripe = getStripe(lookupSpan.key);
     CacheSpan spanningRegion = getSpan(lookupSpan);
 
     // Read case.
     if (spanningRegion.isCached) {
       CacheSpan oldCacheSpan = spanningRegion;
       // Remove the old span from the in-memory representation.
-      TreeSet<CacheSpan> spansForKey = cachedSpans.get(oldCacheSpan.key);
+      TreeSet<CacheSpan> spansForKey = stripe.cachedSpans.get(oldCacheSpan.key);
       Assertions.checkState(spansForKey.remove(oldCacheSpan));
       // Obtain a new span with updated last access timestamp.
       spanningRegion = oldCacheSpan.touch();
@@ -145,8 +228,8 @@ public final class SimpleCache implements Cache {
     }
 
     // Write case, lock available.
-    if (!lockedSpans.containsKey(lookupSpan.key)) {
-      lockedSpans.put(lookupSpan.key, spanningRegion);
+    if (!stripe.lockedSpans.containsKey(lookupSpan.key)) {
+      stripe.lockedSpans.put(lookupSpan.key, spanningRegion);
       return spanningRegion;
     }
 
@@ -155,44 +238,68 @@ public final class SimpleCache implements Cache {
   }
 
   @Override
-  public synchronized File startFile(String key, long position, long length) {
-    Assertions.checkState(lockedSpans.containsKey(key));
+  public File startFile(String key, long position, long length) {
     if (!cacheDir.exists()) {
       // For some reason the cache directory doesn't exist. Make a best effort to create it.
       removeStaleSpans();
       cacheDir.mkdirs();
     }
-    evictor.onStartFile(this, key, position, length);
+    Stripe stripe = getStripe(key);
+    stripe.lock.lock();
+    try {
+      Assertions.checkState(stripe.lockedSpans.containsKey(key));
+    } finally {
+      stripe.lock.unlock();
+    }
+    maybeCompactIndex();
+    synchronized (evictorLock) {
+      deliverEvictorEvents();
+      evictor.onStartFile(this, key, position, length);
+    }
     return CacheSpan.getCacheFileName(cacheDir, key, position, System.currentTimeMillis());
   }
 
   @Override
-  public synchronized void commitFile(File file) {
+  public void commitFile(File file) {
     CacheSpan span = CacheSpan.createCacheEntry(file);
     Assertions.checkState(span != null);
-    Assertions.checkState(lockedSpans.containsKey(span.key));
-    // If the file doesn't exist, don't add it to the in-memory representation.
-    if (!file.exists()) {
-      return;
-    }
-    // If the file has length 0, delete it and don't add it to the in-memory representation.
-    long length = file.length();
-    if (length == 0) {
-      file.delete();
-      return;
+    Stripe stripe = getStripe(span.key);
+    stripe.lock.lock();
+    try {
+      Assertions.checkState(stripe.lockedSpans.containsKey(span.key));
+      // If the file doesn't exist, don't add it to the in-memory representation.
+      if (!file.exists()) {
+        return;
+      }
+      // If the file has length 0, delete it and don't add it to the in-memory representation.
+      long length = file.length();
+      if (length == 0) {
+        file.delete();
+        return;
+      }
+      addSpan(span);
+      signalKey(stripe, span.key);
+    } finally {
+      stripe.lock.unlock();
     }
-    addSpan(span);
-    notifyAll();
+    dispatchPendingEvents();
   }
 
   @Override
-  public synchronized void releaseHoleSpan(CacheSpan holeSpan) {
-    Assertions.checkState(holeSpan == lockedSpans.remove(holeSpan.key));
-    notifyAll();
+  public void releaseHoleSpan(CacheSpan holeSpan) {
+    Stripe stripe = getStripe(holeSpan.key);
+    stripe.lock.lock();
+    try {
+      Assertions.checkState(holeSpan == stripe.lockedSpans.remove(holeSpan.key));
+      signalKey(stripe, holeSpan.key);
+    } finally {
+      stripe.lock.unlock();
+    }
   }
 
   /**
    * Returns the cache {@link CacheSpan} corresponding to the provided lookup {@link CacheSpan}.
+   * Must be called with the lock for the key of {@code lookupSpan} held.
    * <p>
    * If the lookup position is contained by an existing entry in the cache, then the returned
    * {@link CacheSpan} defines the file in which the data is stored. If the lookup position is not
@@ -205,7 +312,7 @@ public final class SimpleCache implements Cache {
   private CacheSpan getSpan(CacheSpan lookupSpan) {
     String key = lookupSpan.key;
     long offset = lookupSpan.position;
-    TreeSet<CacheSpan> entries = cachedSpans.get(key);
+    TreeSet<CacheSpan> entries = getStripe(key).cachedSpans.get(key);
     if (entries == null) {
       return CacheSpan.createOpenHole(key, lookupSpan.position);
     }
@@ -216,9 +323,10 @@ public final class SimpleCache implements Cache {
       if (floorSpan.file.exists()) {
         return floorSpan;
       } else {
-        // The file has been deleted from under us. It's likely that other files will have been
-        // deleted too, so scan the whole in-memory representation.
-        removeStaleSpans();
+        // The file has been deleted from under us. It's likely that other files for the key will
+        // have been deleted too, so scan all of the key's spans. Other keys are left to be cleaned
+        // up when they're next accessed, since we can't acquire their locks whilst holding ours.
+        removeStaleSpans(key);
         return getSpan(lookupSpan);
       }
     }
@@ -229,18 +337,40 @@ public final class SimpleCache implements Cache {
   }
 
   /**
-   * Ensures that the cache's in-memory representation has been initialized.
+   * Ensures that the cache's in-memory representation has been initialized. Must be called with
+   * all stripe locks held.
    */
   private void initialize() {
     if (!cacheDir.exists()) {
       cacheDir.mkdirs();
     }
+    CachedSpanIndex index = new CachedSpanIndex(cacheDir);
+    List<CacheSpan> indexedSpans = index.load();
+    if (indexedSpans != null) {
+      // Spans whose files have since been deleted are removed when they're next accessed.
+      for (int i = 0; i < indexedSpans.size(); i++) {
+        addSpan(indexedSpans.get(i));
+      }
+    } else {
+      scanCacheDir();
+    }
+    this.index = index;
+    maybeCompactIndex();
+  }
+
+  /**
+   * Populates the in-memory representation by scanning the cache directory.
+   */
+  private void scanCacheDir() {
     File[] files = cacheDir.listFiles();
     if (files == null) {
       return;
     }
     for (int i = 0; i < files.length; i++) {
       File file = files[i];
+      if (CachedSpanIndex.isIndexFile(file)) {
+        continue;
+      }
       if (file.length() == 0) {
         file.delete();
       } else {
@@ -253,98 +383,224 @@ public final class SimpleCache implements Cache {
         }
       }
     }
-    evictor.onCacheInitialized();
   }
 
   /**
-   * Adds a cached span to the in-memory representation.
+   * Adds a cached span to the in-memory representation. Must be called with the lock for the key
+   * of {@code span} held.
    *
    * @param span The span to be added.
    */
   private void addSpan(CacheSpan span) {
-    TreeSet<CacheSpan> spansForKey = cachedSpans.get(span.key);
+    Stripe stripe = getStripe(span.key);
+    TreeSet<CacheSpan> spansForKey = stripe.cachedSpans.get(span.key);
     if (spansForKey == null) {
       spansForKey = new TreeSet<>();
-      cachedSpans.put(span.key, spansForKey);
+      stripe.cachedSpans.put(span.key, spansForKey);
     }
     spansForKey.add(span);
-    totalSpace += span.length;
+    totalSpace.addAndGet(span.length);
     notifySpanAdded(span);
   }
 
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Does nothing if the span has already been removed or replaced, for example because it was
+   * touched by a reader after the {@link CacheEvictor} selected it for eviction.
+   */
   @Override
-  public synchronized void removeSpan(CacheSpan span) {
-    TreeSet<CacheSpan> spansForKey = cachedSpans.get(span.key);
-    totalSpace -= span.length;
-    Assertions.checkState(spansForKey.remove(span));
-    span.file.delete();
-    if (spansForKey.isEmpty()) {
-      cachedSpans.remove(span.key);
+  public void removeSpan(CacheSpan span) {
+    Stripe stripe = getStripe(span.key);
+    stripe.lock.lock();
+    try {
+      TreeSet<CacheSpan> spansForKey = stripe.cachedSpans.get(span.key);
+      CacheSpan cachedSpan = spansForKey == null ? null : spansForKey.floor(span);
+      if (cachedSpan != null && cachedSpan.position == span.position
+          && cachedSpan.file.equals(span.file)) {
+        totalSpace.addAndGet(-cachedSpan.length);
+        spansForKey.remove(cachedSpan);
+        cachedSpan.file.delete();
+        if (spansForKey.isEmpty()) {
+          stripe.cachedSpans.remove(span.key);
+        }
+        notifySpanRemoved(cachedSpan);
+      }
+    } finally {
+      stripe.lock.unlock();
     }
-    notifySpanRemoved(span);
+    // Deliver events even if the span wasn't removed. If it was replaced, then delivering the
+    // corresponding touch event allows an evictor that's trying to free space to make progress.
+    dispatchPendingEvents();
   }
 
   /**
    * Scans all of the cached spans in the in-memory representation, removing any for which files
-   * no longer exist.
+   * no longer exist. Must be called without any stripe locks held.
    */
   private void removeStaleSpans() {
-    Iterator<Entry<String, TreeSet<CacheSpan>>> iterator = cachedSpans.entrySet().iterator();
-    while (iterator.hasNext()) {
-      Entry<String, TreeSet<CacheSpan>> next = iterator.next();
-      Iterator<CacheSpan> spanIterator = next.getValue().iterator();
-      boolean isEmpty = true;
-      while (spanIterator.hasNext()) {
-        CacheSpan span = spanIterator.next();
-        if (!span.file.exists()) {
-          spanIterator.remove();
-          if (span.isCached) {
-            totalSpace -= span.length;
-          }
-          notifySpanRemoved(span);
-        } else {
-          isEmpty = false;
+    for (Stripe stripe : stripes) {
+      stripe.lock.lock();
+      try {
+        ArrayList<String> keys = new ArrayList<>(stripe.cachedSpans.keySet());
+        for (int i = 0; i < keys.size(); i++) {
+          removeStaleSpans(keys.get(i));
         }
+      } finally {
+        stripe.lock.unlock();
       }
-      if (isEmpty) {
-        iterator.remove();
+    }
+  }
+
+  /**
+   * Removes the cached spans for a key for which files no longer exist. Must be called with the
+   * lock for the key held.
+   */
+  private void removeStaleSpans(String key) {
+    Stripe stripe = getStripe(key);
+    TreeSet<CacheSpan> spansForKey = stripe.cachedSpans.get(key);
+    Iterator<CacheSpan> spanIterator = spansForKey.iterator();
+    while (spanIterator.hasNext()) {
+      CacheSpan span = spanIterator.next();
+      if (!span.file.exists()) {
+        spanIterator.remove();
+        if (span.isCached) {
+          totalSpace.addAndGet(-span.length);
+        }
+        notifySpanRemoved(span);
       }
     }
+    if (spansForKey.isEmpty()) {
+      stripe.cachedSpans.remove(key);
+    }
   }
 
   private void notifySpanRemoved(CacheSpan span) {
-    ArrayList<Listener> keyListeners = listeners.get(span.key);
+    // Record the change in the index before notifying anyone who might change the cache further.
+    recordInIndex(span, false);
+    ArrayList<Listener> keyListeners = getStripe(span.key).listeners.get(span.key);
     if (keyListeners != null) {
       for (int i = keyListeners.size() - 1; i >= 0; i--) {
         keyListeners.get(i).onSpanRemoved(this, span);
       }
     }
-    evictor.onSpanRemoved(this, span);
+    pendingEvictorEvents.add(new EvictorEvent(EvictorEvent.TYPE_REMOVED, span, null));
   }
 
   private void notifySpanAdded(CacheSpan span) {
-    ArrayList<Listener> keyListeners = listeners.get(span.key);
+    recordInIndex(span, true);
+    ArrayList<Listener> keyListeners = getStripe(span.key).listeners.get(span.key);
     if (keyListeners != null) {
       for (int i = keyListeners.size() - 1; i >= 0; i--) {
         keyListeners.get(i).onSpanAdded(this, span);
       }
     }
-    evictor.onSpanAdded(this, span);
+    pendingEvictorEvents.add(new EvictorEvent(EvictorEvent.TYPE_ADDED, span, null));
   }
 
   private void notifySpanTouched(CacheSpan oldSpan, CacheSpan newSpan) {
-    ArrayList<Listener> keyListeners = listeners.get(oldSpan.key);
+    recordInIndex(newSpan, true);
+    ArrayList<Listener> keyListeners = getStripe(oldSpan.key).listeners.get(oldSpan.key);
     if (keyListeners != null) {
       for (int i = keyListeners.size() - 1; i >= 0; i--) {
         keyListeners.get(i).onSpanTouched(this, oldSpan, newSpan);
       }
     }
-    evictor.onSpanTouched(this, oldSpan, newSpan);
+    pendingEvictorEvents.add(new EvictorEvent(EvictorEvent.TYPE_TOUCHED, oldSpan, newSpan));
+  }
+
+  private void recordInIndex(CacheSpan span, boolean put) {
+    if (index == null) {
+      // The index is still being loaded.
+      return;
+    }
+    synchronized (index) {
+      if (put) {
+        index.onSpanPut(span);
+      } else {
+        index.onSpanRemoved(span);
+      }
+    }
+  }
+
+  /**
+   * Compacts the index if necessary, then delivers pending events to the evictor. Must be called
+   * without any stripe locks held.
+   */
+  private void dispatchPendingEvents() {
+    maybeCompactIndex();
+    if (pendingEvictorEvents.isEmpty()) {
+      return;
+    }
+    synchronized (evictorLock) {
+      deliverEvictorEvents();
+    }
+  }
+
+  /**
+   * Delivers pending events to the evictor. Must be called with {@link #evictorLock} held. The
+   * evictor may call {@link #removeSpan(CacheSpan)}, which calls this method recursively. Since
+   * events are always taken from the head of the queue, they're still delivered in order.
+   */
+  private void deliverEvictorEvents() {
+    EvictorEvent event;
+    while ((event = pendingEvictorEvents.poll()) != null) {
+      switch (event.type) {
+        case EvictorEvent.TYPE_ADDED:
+          evictor.onSpanAdded(this, event.span);
+          break;
+        case EvictorEvent.TYPE_REMOVED:
+          evictor.onSpanRemoved(this, event.span);
+          break;
+        case EvictorEvent.TYPE_TOUCHED:
+          evictor.onSpanTouched(this, event.span, event.newSpan);
+          break;
+        default:
+          throw new IllegalStateException();
+      }
+    }
+  }
+
+  /**
+   * Writes a new index snapshot if the journal has grown too large. The snapshot must be
+   * consistent with the journal, so all stripe locks are acquired whilst it's written. Must be
+   * called either without any stripe locks held, or with all of them held.
+   */
+  private void maybeCompactIndex() {
+    synchronized (index) {
+      if (!index.shouldCompact()) {
+        return;
+      }
+    }
+    lockAllStripes();
+    try {
+      synchronized (index) {
+        if (index.shouldCompact()) {
+          ArrayList<TreeSet<CacheSpan>> spans = new ArrayList<>();
+          for (Stripe stripe : stripes) {
+            spans.addAll(stripe.cachedSpans.values());
+          }
+          index.writeSnapshot(spans);
+        }
+      }
+    } finally {
+      unlockAllStripes();
+    }
   }
 
   @Override
-  public synchronized boolean isCached(String key, long position, long length) {
-    TreeSet<CacheSpan> entries = cachedSpans.get(key);
+  public boolean isCached(String key, long position, long length) {
+    Stripe stripe = getStripe(key);
+    stripe.lock.lock();
+    try {
+      return isCached(stripe.cachedSpans.get(key), key, position, length);
+    } finally {
+      stripe.lock.unlock();
+    }
+  }
+
+  private static boolean isCached(TreeSet<CacheSpan> entries, String key, long position,
+      long length) {
     if (entries == null) {
       return false;
     }
@@ -379,4 +635,75 @@ public final class SimpleCache implements Cache {
     return false;
   }
 
+  private Stripe getStripe(String key) {
+    int hash = key.hashCode();
+    return stripes[(hash ^ (hash >>> 16)) & (STRIPE_COUNT - 1)];
+  }
+
+  private void lockAllStripes() {
+    for (int i = 0; i < STRIPE_COUNT; i++) {
+      stripes[i].lock.lock();
+    }
+  }
+
+  private void unlockAllStripes() {
+    for (int i = STRIPE_COUNT - 1; i >= 0; i--) {
+      stripes[i].lock.unlock();
+    }
+  }
+
+  /**
+   * Wakes threads waiting in {@link #startReadWrite(String, long)} for a key. Must be called with
+   * the lock for the key held.
+   */
+  private static void signalKey(Stripe stripe, String key) {
+    // Threads that still can't make progress will register a new condition.
+    Condition keyCondition = stripe.keyConditions.remove(key);
+    if (keyCondition != null) {
+      keyCondition.signalAll();
+    }
+  }
+
+  /**
+   * The in-memory representation for the keys that hash to a single lock.
+   */
+  private static final class Stripe {
+
+    public final ReentrantLock lock;
+    public final HashMap<String, CacheSpan> lockedSpans;
+    public final HashMap<String, TreeSet<CacheSpan>> cachedSpans;
+    public final HashMap<String, ArrayList<Listener>> listeners;
+    public final HashMap<String, Condition> keyConditions;
+
+    public Stripe() {
+      lock = new ReentrantLock();
+      lockedSpans = new HashMap<>();
+      cachedSpans = new HashMap<>();
+      listeners = new HashMap<>();
+      keyConditions = new HashMap<>();
+    }
+
+  }
+
+  /**
+   * An event waiting to be delivered to the evictor.
+   */
+  private static final class EvictorEvent {
+
+    public static final int TYPE_ADDED = 0;
+    public static final int TYPE_REMOVED = 1;
+    public static final int TYPE_TOUCHED = 2;
+
+    public final int type;
+    public final CacheSpan span;
+    public final CacheSpan newSpan;
+
+    public EvictorEvent(int type, CacheSpan span, CacheSpan newSpan) {
+      this.type = type;
+      this.span = span;
+      this.newSpan = newSpan;
+    }
+
+  }
+
 }
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream.cache;
+
+import com.omny.android.exoplayer.util.Assertions;
+
+import java.util.HashMap;
+
+/**
+ * Evicts cache files using the W-TinyLFU policy, which takes into account how frequently data has
+ * been accessed as well as how recently.
+ * <p>
+ * Newly written spans enter a small LRU admission window. When they leave the window they become
+ * candidates for the main region, which is a segmented LRU made up of a probation segment and a
+ * protected segment. When space is required, the candidate is compared against the least recently
+ * used span in the probation segment, and whichever has been accessed less frequently is evicted.
+ * Spans that are accessed whilst in the probation segment are promoted to the protected segment.
+ * Access frequencies are estimated by a compact count-min sketch, which is periodically aged so
+ * that it adapts to changes in popularity.
+ * <p>
+ * Compared to {@link LeastRecentlyUsedCacheEvictor}, this evictor prevents a single linear pass
+ * over a long piece of content from flushing frequently reused data (e.g. initialization segments
+ * and the segments of popular content) out of the cache.
+ */
+public final class WindowTinyLfuCacheEvictor implements CacheEvictor {
+
+  /**
+   * The default number of spans that the cache is expected to hold, used to size the frequency
+   * sketch.
+   */
+  public static final int DEFAULT_EXPECTED_SPAN_COUNT = 4096;
+
+  private static final int WINDOW_PERCENT = 1;
+  private static final int PROTECTED_PERCENT = 80;
+
+  private static final int REGION_WINDOW = 0;
+  private static final int REGION_PROBATION = 1;
+  private static final int REGION_PROTECTED = 2;
+
+  private final long maxBytes;
+  private final FrequencySketch sketch;
+  private final HashMap<CacheSpan, Node> nodes;
+  private final Region window;
+  private final Region probation;
+  private final Region protectedRegion;
+
+  private long currentSize;
+
+  /**
+   * @param maxBytes The maximum size of the cache in bytes.
+   */
+  public WindowTinyLfuCacheEvictor(long maxBytes) {
+    this(maxBytes, DEFAULT_EXPECTED_SPAN_COUNT);
+  }
+
+  /**
+   * @param maxBytes The maximum size of the cache in bytes.
+   * @param expectedSpanCount The number of spans that the cache is expected to hold. Used to size
+   *     the frequency sketch, which uses approximately one byte per expected span.
+   */
+  public WindowTinyLfuCacheEvictor(long maxBytes, int expectedSpanCount) {
+    Assertions.checkArgument(maxBytes > 0);
+    Assertions.checkArgument(expectedSpanCount > 0);
+    this.maxBytes = maxBytes;
+    long windowMaxBytes = Math.max(1, maxBytes * WINDOW_PERCENT / 100);
+    sketch = new FrequencySketch(expectedSpanCount);
+    nodes = new HashMap<>();
+    window = new Region(REGION_WINDOW, windowMaxBytes);
+    probation = new Region(REGION_PROBATION, Long.MAX_VALUE);
+    protectedRegion = new Region(REGION_PROTECTED,
+        (maxBytes - windowMaxBytes) * PROTECTED_PERCENT / 100);
+  }
+
+  @Override
+  public void onCacheInitialized() {
+    // Do nothing.
+  }
+
+  @Override
+  public void onStartFile(Cache cache, String key, long position, long length) {
+    evictCache(cache, length);
+  }
+
+  @Override
+  public void onSpanAdded(Cache cache, CacheSpan span) {
+    sketch.increment(hash(span));
+    Node node = new Node(span);
+    nodes.put(span, node);
+    window.addLast(node);
+    currentSize += span.length;
+    evictCache(cache, 0);
+  }
+
+  @Override
+  public void onSpanRemoved(Cache cache, CacheSpan span) {
+    Node node = nodes.remove(span);
+    if (node != null) {
+      getRegion(node).remove(node);
+      currentSize -= span.length;
+    }
+  }
+
+  @Override
+  public void onSpanTouched(Cache cache, CacheSpan oldSpan, CacheSpan newSpan) {
+    Node node = nodes.remove(oldSpan);
+    if (node == null) {
+      onSpanAdded(cache, newSpan);
+      return;
+    }
+    sketch.increment(hash(newSpan));
+    node.span = newSpan;
+    nodes.put(newSpan, node);
+    Region region = getRegion(node);
+    region.remove(node);
+    if (region == probation) {
+      // The span has been accessed since it was admitted to the main region, so promote it.
+      protectedRegion.addLast(node);
+      while (protectedRegion.size > protectedRegion.maxSize) {
+        probation.addLast(protectedRegion.removeFirst());
+      }
+    } else {
+      region.addLast(node);
+    }
+  }
+
+  private void evictCache(Cache cache, long requiredSpace) {
+    // Spans that overflow the window become candidates for admission to the main region.
+    while (window.size > window.maxSize) {
+      probation.addLast(window.removeFirst());
+    }
+    while (currentSize + requiredSpace > maxBytes) {
+      Node victim = selectVictim();
+      if (victim == null) {
+        // The cache is empty.
+        return;
+      }
+      cache.removeSpan(victim.span);
+    }
+  }
+
+  /**
+   * Selects the next span to evict. The most recent candidate for admission to the main region is
+   * compared against the least recently used span in the probation segment, and whichever has the
+   * lower estimated access frequency is selected. Ties are resolved in favor of the incumbent,
+   * which prevents a linear pass over content from flushing the main region.
+   */
+  private Node selectVictim() {
+    Node victim = probation.first();
+    Node candidate = probation.last();
+    if (victim != null) {
+      if (candidate != victim
+          && sketch.frequency(hash(candidate.span)) > sketch.frequency(hash(victim.span))) {
+        return victim;
+      }
+      return candidate;
+    }
+    victim = protectedRegion.first();
+    return victim != null ? victim : window.first();
+  }
+
+  private Region getRegion(Node node) {
+    switch (node.region) {
+      case REGION_WINDOW:
+        return window;
+      case REGION_PROBATION:
+        return probation;
+      case REGION_PROTECTED:
+        return protectedRegion;
+      default:
+        throw new IllegalStateException();
+    }
+  }
+
+  private static int hash(CacheSpan span) {
+    // Spans are identified by their key and position, which are preserved when a span is touched.
+    return 31 * span.key.hashCode() + (int) (span.position ^ (span.position >>> 32));
+  }
+
+  /**
+   * A span in one of the regions of the cache.
+   */
+  private static final class Node {
+
+    public CacheSpan span;
+    public int region;
+    public Node previous;
+    public Node next;
+
+    public Node(CacheSpan span) {
+      this.span = span;
+    }
+
+  }
+
+  /**
+   * A doubly linked list of {@link Node}s in least recently used order, together with their total
+   * size in bytes.
+   */
+  private static final class Region {
+
+    public final long maxSize;
+
+    private final int id;
+    private final Node sentinel;
+
+    public long size;
+
+    public Region(int id, long maxSize) {
+      this.id = id;
+      this.maxSize = maxSize;
+      sentinel = new Node(null);
+      sentinel.previous = sentinel;
+      sentinel.next = sentinel;
+    }
+
+    public Node first() {
+      return sentinel.next == sentinel ? null : sentinel.next;
+    }
+
+    public Node last() {
+      return sentinel.previous == sentinel ? null : sentinel.previous;
+    }
+
+    public void addLast(Node node) {
+      node.region = id;
+      node.previous = sentinel.previous;
+      node.next = sentinel;
+      sentinel.previous.next = node;
+      sentinel.previous = node;
+      size += node.span.length;
+    }
+
+    public Node removeFirst() {
+      Node node = sentinel.next;
+      remove(node);
+      return node;
+    }
+
+    public void remove(Node node) {
+      node.previous.next = node.next;
+      node.next.previous = node.previous;
+      node.previous = null;
+      node.next = null;
+      size -= node.span.length;
+    }
+
+  }
+
+  /**
+   * A count-min sketch of 4-bit counters, used to estimate how often spans have been accessed.
+   * Once the number of increments reaches ten times the number of counters per hash function, all
+   * counters are halved, so that the sketch reflects recent popularity.
+   */
+  private static final class FrequencySketch {
+
+    private static final int MAX_COUNT = 15;
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int[] SEEDS = {0x97CB3127, 0xB3D8F4C1, 0x8A3F5C2B, 0xE3779B97};
+
+    private final long[] table;
+    private final int counterMask;
+    private final int sampleSize;
+
+    private int additions;
+
+    public FrequencySketch(int expectedCount) {
+      // Round up to a power of two, with a minimum of one long (16 counters).
+      int counterCount = Integer.highestOneBit(Math.max(16, expectedCount) - 1) << 1;
+      table = new long[counterCount / 16];
+      counterMask = counterCount - 1;
+      sampleSize = 10 * counterCount;
+    }
+
+    public int frequency(int hash) {
+      int frequency = MAX_COUNT;
+      for (int i = 0; i < SEEDS.length; i++) {
+        int index = counterIndex(hash, i);
+        int count = (int) ((table[index >>> 4] >>> ((index & 15) << 2)) & 0xF);
+        frequency = Math.min(frequency, count);
+      }
+      return frequency;
+    }
+
+    public void increment(int hash) {
+      boolean incremented = false;
+      for (int i = 0; i < SEEDS.length; i++) {
+        int index = counterIndex(hash, i);
+        int shift = (index & 15) << 2;
+        if (((table[index >>> 4] >>> shift) & 0xF) < MAX_COUNT) {
+          table[index >>> 4] += 1L << shift;
+          incremented = true;
+        }
+      }
+      if (incremented && ++additions == sampleSize) {
+        reset();
+      }
+    }
+
+    private void reset() {
+      for (int i = 0; i < table.length; i++) {
+        table[i] = (table[i] >>> 1) & RESET_MASK;
+      }
+      additions /= 2;
+    }
+
+    private int counterIndex(int hash, int i) {
+      int h = (hash + SEEDS[i]) * SEEDS[i];
+      h ^= h >>> 16;
+      return h & counterMask;
+    }
+
+  }
+
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.upstream.cache;
+
+import android.os.SystemClock;
+import android.util.Log;
+import com.omny.android.exoplayer.upstream.DataSink;
+import com.omny.android.exoplayer.upstream.DataSpec;
+import com.omny.android.exoplayer.util.Assertions;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link DataSink} that writes into a cache on a dedicated writer thread, so that writing to
+ * slow storage does not throttle the thread reading from upstream.
+ * <p>
+ * Data passed to {@link #write(byte[], int, int)} is copied and queued for an underlying
+ * {@link CacheDataSink}, which writes, flushes and commits cache files on the writer thread. If the
+ * amount of queued data would exceed the configured limit, or if writing to the cache fails, then
+ * the remainder of the data is not written. Data that was written before that point is still
+ * committed, and so remains available from the cache.
+ * <p>
+ * Cache files can only be started and committed whilst the hole span being written is locked.
+ * When used by a {@link CacheDataSource}, the data source transfers its hole span to the sink, and
+ * {@link #close()} returns immediately. The writer thread then commits the data and releases the
+ * hole span. Otherwise {@link #close()} blocks until the data has been committed, so that files are
+ * committed whilst the caller holds the hole span. Either way, data that is still queued when the
+ * maximum commit delay has elapsed after {@link #close()} is dropped, so that the hole span is not
+ * held for long when storage is slow. If the calling thread is interrupted during a blocking
+ * {@link #close()}, then data that is still queued is dropped, but {@link #close()} waits for the
+ * write in progress and the commit to finish before throwing {@link InterruptedIOException}.
+ * <p>
+ * The writer thread terminates when it has been idle for a short period.
+ */
+public final class WriteBehindCacheDataSink implements DataSink {
+
+  /**
+   * The default maximum time after {@link #close()} for which queued data continues to be written.
+   */
+  public static final long DEFAULT_MAX_COMMIT_DELAY_MS = 2000;
+
+  private static final String TAG = "WriteBehindCacheDataSink";
+  private static final long WRITER_KEEP_ALIVE_MS = 1000;
+  private static final long CLOSE_TIME_UNSET = -1;
+
+  private final Cache cache;
+  private final DataSink cacheDataSink;
+  private final int maxQueuedBytes;
+  private final long maxCommitDelayMs;
+  private final ThreadPoolExecutor writerExecutor;
+
+  private WriteSession session;
+  private boolean skipping;
+  private int queuedBytes;
+
+  /**
+   * @param cache The cache into which data should be written.
+   * @param maxCacheFileSize The maximum size of a cache file, in bytes. If the sink is opened for
+   *    a {@link DataSpec} whose size exceeds this value, then the data will be fragmented into
+   *    multiple cache files.
+   * @param maxQueuedBytes The maximum amount of data waiting to be written, in bytes. Data that
+   *     would cause this limit to be exceeded is not written to the cache.
+   */
+  public WriteBehindCacheDataSink(Cache cache, long maxCacheFileSize, int maxQueuedBytes) {
+    this(cache, new CacheDataSink(cache, maxCacheFileSize), maxQueuedBytes,
+        DEFAULT_MAX_COMMIT_DELAY_MS);
+  }
+
+  /**
+   * @param cache The cache into which {@code cacheDataSink} writes.
+   * @param cacheDataSink The sink that writes to the cache. Called only on the writer thread.
+   * @param maxQueuedBytes The maximum amount of data waiting to be written, in bytes. Data that
+   *     would cause this limit to be exceeded is not written to the cache.
+   * @param maxCommitDelayMs The maximum time after {@link #close()} for which queued data continues
+   *     to be written.
+   */
+  /* package */ WriteBehindCacheDataSink(Cache cache, DataSink cacheDataSink, int maxQueuedBytes,
+      long maxCommitDelayMs) {
+    Assertions.checkArgument(maxQueuedBytes > 0);
+    this.cache = cache;
+    this.cacheDataSink = Assertions.checkNotNull(cacheDataSink);
+    this.maxQueuedBytes = maxQueuedBytes;
+    this.maxCommitDelayMs = maxCommitDelayMs;
+    writerExecutor = new ThreadPoolExecutor(0, 1, WRITER_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            return new Thread(r, TAG);
+          }
+        });
+  }
+
+  @Override
+  public DataSink open(final DataSpec dataSpec) {
+    final WriteSession session = new WriteSession();
+    this.session = session;
+    skipping = false;
+    writerExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          cacheDataSink.open(dataSpec);
+        } catch (IOException e) {
+          session.onWriteError(e);
+        } catch (RuntimeException e) {
+          session.onWriteError(new IOException(e));
+        }
+      }
+    });
+    return this;
+  }
+
+  /**
+   * Transfers the hole span locked for the data being written to the sink. The hole span is
+   * released on the writer thread once the data has been committed, and {@link #close()} returns
+   * without waiting for the commit.
+   *
+   * @param holeSpan The locked hole span.
+   */
+  /* package */ void transferHoleSpan(CacheSpan holeSpan) {
+    Assertions.checkState(session != null && cache != null);
+    session.holeSpan = holeSpan;
+  }
+
+  @Override
+  public void write(byte[] buffer, int offset, int length) {
+    final WriteSession session = this.session;
+    if (session == null || skipping) {
+      return;
+    }
+    synchronized (this) {
+      if (session.hasWriteError() || queuedBytes + length > maxQueuedBytes) {
+        // Skip the cache rather than blocking the caller. The data written so far is committed.
+        skipping = true;
+        return;
+      }
+      queuedBytes += length;
+    }
+    final byte[] data = Arrays.copyOfRange(buffer, offset, offset + length);
+    writerExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (session.closeTimeMs != CLOSE_TIME_UNSET
+              && SystemClock.elapsedRealtime() - session.closeTimeMs > maxCommitDelayMs) {
+            session.onWriteError(new IOException("Commit delay exceeded"));
+          }
+          if (!session.hasWriteError()) {
+            cacheDataSink.write(data, 0, data.length);
+          }
+        } catch (IOException e) {
+          session.onWriteError(e);
+        } catch (RuntimeException e) {
+          session.onWriteError(new IOException(e));
+        } finally {
+          onDataWritten(data.length);
+        }
+      }
+    });
+  }
+
+  @Override
+  public void close() throws IOException {
+    final WriteSession session = this.session;
+    if (session == null) {
+      return;
+    }
+    this.session = null;
+    session.closeTimeMs = SystemClock.elapsedRealtime();
+    Future<?> closeFuture = writerExecutor.submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          cacheDataSink.close();
+        } catch (IOException e) {
+          session.onWriteError(e);
+        } catch (RuntimeException e) {
+          session.onWriteError(new IOException(e));
+        } finally {
+          if (session.holeSpan != null) {
+            cache.releaseHoleSpan(session.holeSpan);
+          }
+        }
+      }
+    });
+    if (session.holeSpan != null) {
+      // The writer thread commits the data and releases the hole span.
+      return;
+    }
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          closeFuture.get();
+          break;
+        } catch (InterruptedException e) {
+          // The caller may release its hole span as soon as we return, after which the writer
+          // thread can no longer start or commit files. Drop the queued data, but wait for the
+          // write in progress and the commit to finish.
+          interrupted = true;
+          session.onWriteError(new InterruptedIOException());
+        }
+      }
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (interrupted) {
+      throw new InterruptedIOException();
+    }
+  }
+
+  private synchronized void onDataWritten(int length) {
+    queuedBytes -= length;
+  }
+
+  /**
+   * The state of the data written between a call to {@link #open(DataSpec)} and the corresponding
+   * call to {@link #close()}, which may still be being written after the sink has been reopened.
+   */
+  private static final class WriteSession {
+
+    public volatile long closeTimeMs;
+    public volatile CacheSpan holeSpan;
+
+    private IOException writeError;
+
+    public WriteSession() {
+      closeTimeMs = CLOSE_TIME_UNSET;
+    }
+
+    public synchronized boolean hasWriteError() {
+      return writeError != null;
+    }
+
+    public synchronized void onWriteError(IOException e) {
+      if (writeError == null) {
+        Log.w(TAG, "Skipping cache due to write error", e);
+        writeError = e;
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omny.android.exoplayer.util;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of non-negative values with exponentially sized buckets.
+ * <p>
+ * Bucket 0 holds the value 0, and bucket {@code i > 0} holds values in the range
+ * {@code [2^(i-1), 2^i)}. The last bucket also holds all larger values. Recording a value does not
+ * allocate, so a histogram can be updated from performance critical code.
+ */
+public final class ExponentialHistogram {
+
+  /**
+   * The number of buckets.
+   */
+  public static final int BUCKET_COUNT = 32;
+
+  private final long[] bucketCounts;
+
+  private long count;
+  private long sum;
+  private long max;
+
+  public ExponentialHistogram() {
+    bucketCounts = new long[BUCKET_COUNT];
+  }
+
+  /**
+   * Records a value. Negative values are recorded as 0.
+   *
+   * @param value The value to record.
+   */
+  public void add(long value) {
+    value = Math.max(0, value);
+    int bucketIndex = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(value));
+    bucketCounts[bucketIndex]++;
+    count++;
+    sum += value;
+    max = Math.max(max, value);
+  }
+
+  /**
+   * Adds all of the values recorded by another histogram to this one.
+   *
+   * @param other The other histogram.
+   */
+  public void addAll(ExponentialHistogram other) {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      bucketCounts[i] += other.bucketCounts[i];
+    }
+    count += other.count;
+    sum += other.sum;
+    max = Math.max(max, other.max);
+  }
+
+  /**
+   * Removes all recorded values.
+   */
+  public void reset() {
+    Arrays.fill(bucketCounts, 0);
+    count = 0;
+    sum = 0;
+    max = 0;
+  }
+
+  /**
+   * Returns the number of recorded values.
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Returns the sum of the recorded values.
+   */
+  public long getSum() {
+    return sum;
+  }
+
+  /**
+   * Returns the largest recorded value, or 0 if no values have been recorded.
+   */
+  public long getMax() {
+    return max;
+  }
+
+  /**
+   * Returns the mean of the recorded values, or 0 if no values have been recorded.
+   */
+  public long getMean() {
+    return count == 0 ? 0 : sum / count;
+  }
+
+  /**
+   * Returns the number of recorded values that fell into a bucket.
+   *
+   * @param bucketIndex The index of the bucket.
+   * @return The number of values in the bucket.
+   */
+  public long getBucketCount(int bucketIndex) {
+    return bucketCounts[bucketIndex];
+  }
+
+  /**
+   * Returns the smallest value held by a bucket.
+   *
+   * @param bucketIndex The index of the bucket.
+   * @return The smallest value held by the bucket.
+   */
+  public static long getBucketLowerBound(int bucketIndex) {
+    return bucketIndex == 0 ? 0 : 1L << (bucketIndex - 1);
+  }
+
+  /**
+   * Returns an upper bound for a percentile of the recorded values, which is the exclusive upper
+   * bound of the bucket that holds the percentile, limited to the largest recorded value.
+   *
+   * @param percentile The percentile, in the range [0, 100].
+   * @return An upper bound for the percentile, or 0 if no values have been recorded.
+   */
+  public long getPercentileUpperBound(double percentile) {
+    Assertions.checkArgument(percentile >= 0 && percentile <= 100);
+    if (count == 0) {
+      return 0;
+    }
+    long targetCount = Math.max(1, (long) Math.ceil(count * percentile / 100));
+    long cumulativeCount = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      cumulativeCount += bucketCounts[i];
+      if (cumulativeCount >= targetCount) {
+        return i == BUCKET_COUNT - 1 ? max : Math.min(max, getBucketLowerBound(i + 1));
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Returns a copy of this histogram.
+   */
+  public ExponentialHistogram copy() {
+    ExponentialHistogram copy = new ExponentialHistogram();
+    copy.addAll(this);
+    return copy;
+  }
+
+}
@@ -17,7 +17,6 @@ package com.omny.android.exoplayer.util;
 
 import android.util.Log;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
 
 /**
  * Utility methods for handling H.264/AVC and H.265/HEVC NAL units.
@@ -105,59 +104,34 @@ public final class NalUnitUtil {
 
   private static final int NAL_UNIT_TYPE_SPS = 7;
 
-  private static final Object scratchEscapePositionsLock = new Object();
-
-  /**
-   * Temporary store for positions of escape codes in {@link #unescapeStream(byte[], int)}. Guarded
-   * by {@link #scratchEscapePositionsLock}.
-   */
-  private static int[] scratchEscapePositions = new int[10];
-
   /**
    * Unescapes {@code data} up to the specified limit, replacing occurrences of [0, 0, 3] with
    * [0, 0]. The unescaped data is returned in-place, with the return value indicating its length.
    * <p>
-   * Executions of this method are mutually exclusive, so it should not be called with very large
-   * buffers.
+   * This method uses no shared state, so it may be called concurrently for different buffers.
    *
    * @param data The data to unescape.
    * @param limit The limit (exclusive) of the data to unescape.
    * @return The length of the unescaped data.
    */
   public static int unescapeStream(byte[] data, int limit) {
-    synchronized (scratchEscapePositionsLock) {
-      int position = 0;
-      int scratchEscapeCount = 0;
-      while (position < limit) {
-        position = findNextUnescapeIndex(data, position, limit);
-        if (position < limit) {
-          if (scratchEscapePositions.length <= scratchEscapeCount) {
-            // Grow scratchEscapePositions to hold a larger number of positions.
-            scratchEscapePositions = Arrays.copyOf(scratchEscapePositions,
-                scratchEscapePositions.length * 2);
-          }
-          scratchEscapePositions[scratchEscapeCount++] = position;
-          position += 3;
-        }
+    // Unescaped data is never longer than the escaped data from which it's read, so it can be
+    // written in-place without overwriting data that's still to be read.
+    int escapedPosition = 0; // The position being read from.
+    int unescapedPosition = 0; // The position being written to.
+    while (escapedPosition < limit) {
+      int nextEscapePosition = findNextUnescapeIndex(data, escapedPosition, limit);
+      int copyLength = nextEscapePosition - escapedPosition;
+      System.arraycopy(data, escapedPosition, data, unescapedPosition, copyLength);
+      unescapedPosition += copyLength;
+      if (nextEscapePosition == limit) {
+        break;
       }
-
-      int unescapedLength = limit - scratchEscapeCount;
-      int escapedPosition = 0; // The position being read from.
-      int unescapedPosition = 0; // The position being written to.
-      for (int i = 0; i < scratchEscapeCount; i++) {
-        int nextEscapePosition = scratchEscapePositions[i];
-        int copyLength = nextEscapePosition - escapedPosition;
-        System.arraycopy(data, escapedPosition, data, unescapedPosition, copyLength);
-        unescapedPosition += copyLength;
-        data[unescapedPosition++] = 0;
-        data[unescapedPosition++] = 0;
-        escapedPosition += copyLength + 3;
-      }
-
-      int remainingLength = unescapedLength - unescapedPosition;
-      System.arraycopy(data, escapedPosition, data, unescapedPosition, remainingLength);
-      return unescapedLength;
+      data[unescapedPosition++] = 0;
+      data[unescapedPosition++] = 0;
+      escapedPosition = nextEscapePosition + 3;
     }
+    return unescapedPosition;
   }
 
   /**
@@ -450,9 +424,19 @@ public final class NalUnitUtil {
   }
 
   private static int findNextUnescapeIndex(byte[] bytes, int offset, int limit) {
-    for (int i = offset; i < limit - 2; i++) {
-      if (bytes[i] == 0x00 && bytes[i + 1] == 0x00 && bytes[i + 2] == 0x03) {
-        return i;
+    // We're looking for the escape sequence 0x000003. The value of i tracks the index of the third
+    // byte.
+    for (int i = offset + 2; i < limit; i += 3) {
+      int value = bytes[i];
+      if (value != 0x00 && value != 0x03) {
+        // There isn't an escape sequence here, or at the next two positions. Do nothing and let
+        // the loop advance the index by three.
+      } else if (value == 0x03 && bytes[i - 2] == 0x00 && bytes[i - 1] == 0x00) {
+        return i - 2;
+      } else {
+        // There isn't an escape sequence here, but there might be at the next position. We should
+        // only skip forward by one. The loop will skip forward by three, so subtract two here.
+        i -= 2;
       }
     }
     return limit;
@@ -276,6 +276,47 @@ public final class Util {
     return (numerator + denominator - 1) / denominator;
   }
 
+  /**
+   * Returns the index of the largest value in an array that is less than (or optionally equal to)
+   * a specified key.
+   * <p>
+   * The search is performed using a binary search algorithm, and so the array must be sorted.
+   *
+   * @param a The array to search.
+   * @param key The key being searched for.
+   * @param inclusive If the key is present in the array, whether to return the corresponding index.
+   *     If false then the returned index corresponds to the largest value in the array that is
+   *     strictly less than the key.
+   * @param stayInBounds If true, then 0 will be returned in the case that the key is smaller than
+   *     the smallest value in the array. If false then -1 will be returned.
+   */
+  public static int binarySearchFloor(int[] a, int key, boolean inclusive, boolean stayInBounds) {
+    int index = Arrays.binarySearch(a, key);
+    index = index < 0 ? -(index + 2) : (inclusive ? index : (index - 1));
+    return stayInBounds ? Math.max(0, index) : index;
+  }
+
+  /**
+   * Returns the index of the smallest value in an array that is greater than (or optionally equal
+   * to) a specified key.
+   * <p>
+   * The search is performed using a binary search algorithm, and so the array must be sorted.
+   *
+   * @param a The array to search.
+   * @param key The key being searched for.
+   * @param inclusive If the key is present in the array, whether to return the corresponding index.
+   *     If false then the returned index corresponds to the smallest value in the array that is
+   *     strictly greater than the key.
+   * @param stayInBounds If true, then {@code (a.length - 1)} will be returned in the case that the
+   *     key is greater than the largest value in the array. If false then {@code a.length} will be
+   *     returned.
+   */
+  public static int binarySearchCeil(int[] a, int key, boolean inclusive, boolean stayInBounds) {
+    int index = Arrays.binarySearch(a, key);
+    index = index < 0 ? ~index : (inclusive ? index : (index + 1));
+    return stayInBounds ? Math.min(a.length - 1, index) : index;
+  }
+
   /**
    * Returns the index of the largest value in an array that is less than (or optionally equal to)
    * a specified key.